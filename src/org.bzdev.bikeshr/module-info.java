@@ -23,6 +23,14 @@ module org.bzdev.bikeshr {
 	org.bzdev.bikeshare.StorageHubFactory,
 	org.bzdev.bikeshare.ExtDomainFactory,
 	org.bzdev.bikeshare.SysDomainFactory,
+	org.bzdev.bikeshare.HubSeriesRecorderFactory,
+	org.bzdev.bikeshare.TripDurationRecorderFactory,
+	org.bzdev.bikeshare.HubSnapshotterFactory,
+	org.bzdev.bikeshare.OptimalFlowHubBalancerFactory,
+	org.bzdev.bikeshare.PredictiveHubBalancerFactory,
+	org.bzdev.bikeshare.ODMatrixTripGenFactory,
+	org.bzdev.bikeshare.TimeVaryingTripGenFactory,
+	org.bzdev.bikeshare.TripReplayGenFactory,
 	org.bzdev.bikeshare.UsrDomainFactory;
     provides org.bzdev.lang.spi.ONLauncherData with
 	org.bzdev.bikeshare.provider.BikeshareLauncherData;
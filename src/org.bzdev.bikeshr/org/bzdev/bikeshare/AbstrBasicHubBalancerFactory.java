@@ -41,6 +41,19 @@ public abstract class AbstrBasicHubBalancerFactory<Obj extends BasicHubBalancer>
 		   upperBoundClosed = true)
     double threshold = 0.5;
 
+    @PrimitiveParm(value = "lookAhead",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = true)
+    double lookAhead = 0.0;
+
+    @PrimitiveParm("routePlanning")
+    boolean routePlanning = false;
+
+    @PrimitiveParm(value = "planningMoveBudget",
+		   lowerBound = "0",
+		   lowerBoundClosed = true)
+    int planningMoveBudget = 100000;
+
     BasicHubBalancerFactoryPM<Obj> pm;
 
     /**
@@ -65,6 +78,12 @@ public abstract class AbstrBasicHubBalancerFactory<Obj extends BasicHubBalancer>
 	super.initObject(hubBalancer);
 	hubBalancer.setQuietPeriod(quietPeriod);
 	hubBalancer.setThreshold(threshold);
+	hubBalancer.setLookAhead(lookAhead);
+	if (routePlanning) {
+	    RoutePlanner planner = new RoutePlanner(hubBalancer.getSysDomain());
+	    planner.setMoveBudget(planningMoveBudget);
+	    hubBalancer.setRoutePlanner(planner);
+	}
     }
 }
 //  LocalWords:  BasicHubBalander quietPeriod BasicHubBalancer
@@ -0,0 +1,84 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.obnaming.annotations.*;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Abstract factory for hub-series recorders.
+ * <P>
+ * The factory parameters this factory provides are the same as the parameters
+ * provided by its subclass {@link HubSeriesRecorderFactory}:
+ * <IFRAME SRC="{@docRoot}/factories-api/org/bzdev/bikeshare/HubSeriesRecorderFactory.html" style= "width:95%;height:500px;border:3px solid steelblue">
+ * Please see
+ *  <A HREF="{@docRoot}/factories-api/org/bzdev/bikeshare/HubSeriesRecorderFactory.html">
+ *    the parameter documentation</A> for a table of the parameters supported
+ * by this factory.
+ * </IFRAME>
+ */
+@FactoryParmManager(value = "HubSeriesRecorderFactoryPM",
+		    labelResourceBundle = "*.lpack.HubSeriesRecorderLabels",
+		    tipResourceBundle = "*.lpack.HubSeriesRecorderTips",
+		    stdFactory = "HubSeriesRecorderFactory",
+		    namerVariable = "sim",
+		    namerDocumentation = "the simulation")
+public abstract class AbstrHubSeriesRecorderFactory<Obj extends HubSeriesRecorder>
+    extends AbstractActorFactory<Obj>
+{
+    @PrimitiveParm(value = "interval",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = false)
+    double interval = 60.0;
+
+    @PrimitiveParm("includeOverflow")
+    boolean includeOverflow = false;
+
+    @PrimitiveParm("hubs")
+    Set<Hub> hubs = new LinkedHashSet<>();
+
+    @PrimitiveParm(value = "startTime",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = true)
+    double startTime = 0.0;
+
+    @PrimitiveParm("stopTime")
+    double stopTime = Double.POSITIVE_INFINITY;
+
+    @PrimitiveParm("file")
+    String file = null;
+
+    HubSeriesRecorderFactoryPM<Obj> pm;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     */
+    protected AbstrHubSeriesRecorderFactory(DramaSimulation sim) {
+	super(sim);
+	removeParm("domainMember");
+	pm = new HubSeriesRecorderFactoryPM<Obj>(this);
+	initParms(pm, AbstrHubSeriesRecorderFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void initObject(Obj recorder) {
+	super.initObject(recorder);
+	recorder.init(interval, includeOverflow,
+		      hubs.toArray(new Hub[hubs.size()]));
+	recorder.setStartTime(startTime);
+	recorder.setStopTime(stopTime);
+	if (file != null) {
+	    recorder.setOutput(file);
+	}
+    }
+}
+
+//  LocalWords:  HubSeriesRecorderFactory HubSeriesRecorderFactoryPM
+//  LocalWords:  includeOverflow startTime stopTime sim domainMember
@@ -0,0 +1,81 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.obnaming.annotations.*;
+
+/**
+ * Abstract factory for hub snapshotters.
+ * <P>
+ * The factory parameters this factory provides are the same as the parameters
+ * provided by its subclass {@link HubSnapshotterFactory}:
+ * <IFRAME SRC="{@docRoot}/factories-api/org/bzdev/bikeshare/HubSnapshotterFactory.html" style= "width:95%;height:500px;border:3px solid steelblue">
+ * Please see
+ *  <A HREF="{@docRoot}/factories-api/org/bzdev/bikeshare/HubSnapshotterFactory.html">
+ *    the parameter documentation</A> for a table of the parameters supported
+ * by this factory.
+ * </IFRAME>
+ */
+@FactoryParmManager(value = "HubSnapshotterFactoryPM",
+		    labelResourceBundle = "*.lpack.HubSnapshotterLabels",
+		    tipResourceBundle = "*.lpack.HubSnapshotterTips",
+		    stdFactory = "HubSnapshotterFactory",
+		    namerVariable = "sim",
+		    namerDocumentation = "the simulation")
+public abstract class AbstrHubSnapshotterFactory<Obj extends HubSnapshotter>
+    extends AbstractActorFactory<Obj>
+{
+    @PrimitiveParm("sysDomain")
+    SysDomain sysDomain = null;
+
+    @PrimitiveParm(value = "interval",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = false)
+    double interval = 60.0;
+
+    @PrimitiveParm(value = "rows",
+		   lowerBound = "1",
+		   lowerBoundClosed = true)
+    int rows = 1024;
+
+    @PrimitiveParm(value = "startTime",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = true)
+    double startTime = 0.0;
+
+    @PrimitiveParm("stopTime")
+    double stopTime = Double.POSITIVE_INFINITY;
+
+    @PrimitiveParm("spillFile")
+    String spillFile = null;
+
+    HubSnapshotterFactoryPM<Obj> pm;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     */
+    protected AbstrHubSnapshotterFactory(DramaSimulation sim) {
+	super(sim);
+	removeParm("domainMember");
+	pm = new HubSnapshotterFactoryPM<Obj>(this);
+	initParms(pm, AbstrHubSnapshotterFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void initObject(Obj snapshotter) {
+	super.initObject(snapshotter);
+	snapshotter.init(sysDomain, interval, rows);
+	snapshotter.setStartTime(startTime);
+	snapshotter.setStopTime(stopTime);
+	snapshotter.setSpillFile(spillFile);
+    }
+}
+
+//  LocalWords:  snapshotters HubSnapshotterFactory sim domainMember
+//  LocalWords:  HubSnapshotterFactoryPM sysDomain startTime stopTime
+//  LocalWords:  spillFile snapshotter
@@ -44,6 +44,16 @@ public abstract class AbstrHubWorkerFactory<Obj extends HubWorker>
     @PrimitiveParm("storageHub")
     StorageHub shub = null;
 
+    @PrimitiveParm("eventDriven")
+    boolean eventDriven = false;
+
+    @PrimitiveParm("virtualThreads")
+    boolean virtualThreads = false;
+
+    DramaSimulation sim;
+    // shared by the workers this factory creates
+    HubWorker.TaskExecutor virtualThreadExecutor = null;
+
     AbstrHubWorkerFactoryPM<Obj> pm;
 
     /**
@@ -52,6 +62,7 @@ public abstract class AbstrHubWorkerFactory<Obj extends HubWorker>
      */
     protected AbstrHubWorkerFactory(DramaSimulation sim) {
 	super(sim);
+	this.sim = sim;
 	pm = new AbstrHubWorkerFactoryPM<Obj>(this);
 	removeParm("domainMember");
 	initParms(pm, AbstrHubWorkerFactory.class);
@@ -68,6 +79,13 @@ public abstract class AbstrHubWorkerFactory<Obj extends HubWorker>
 	super.initObject(worker);
 	worker.init(capacity, shub, sysDomain,
 		    ((currentHub == null)? shub: currentHub));
+	worker.setEventDriven(eventDriven);
+	if (virtualThreads) {
+	    if (virtualThreadExecutor == null) {
+		virtualThreadExecutor = HubWorker.newVirtualThreadExecutor(sim);
+	    }
+	    worker.setTaskExecutor(virtualThreadExecutor);
+	}
     }
 }
 
@@ -0,0 +1,130 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+import org.bzdev.obnaming.*;
+import org.bzdev.obnaming.annotations.*;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+
+/**
+ * Abstract factory for ODMatrixTripGenerator.
+ * <P>
+ * The factory parameters this factory provides are the same as the parameters
+ * provided by its subclass {@link ODMatrixTripGenFactory}:
+ * <IFRAME SRC="{@docRoot}/factories-api/org/bzdev/bikeshare/ODMatrixTripGenFactory.html" style= "width:95%;height:500px;border:3px solid steelblue">
+ * Please see
+ *  <A HREF="{@docRoot}/factories-api/org/bzdev/bikeshare/ODMatrixTripGenFactory.html">
+ *    the parameter documentation</A> for a table of the parameters supported
+ * by this factory.
+ * </IFRAME>
+ */
+
+@FactoryParmManager(value = "ODMatrixTripGenFactoryPM",
+		    labelResourceBundle = "*.lpack.ODMatrixTripGenLabels",
+		    tipResourceBundle = "*.lpack.ODMatrixTripGenTips",
+		    stdFactory = "ODMatrixTripGenFactory",
+		    namerVariable = "sim",
+		    namerDocumentation = "the simulation")
+public abstract class
+    AbstrODMatrixTripGenFactory<Obj extends ODMatrixTripGenerator>
+    extends TripGeneratorFactory<Obj>
+{
+
+    @PrimitiveParm(value = "nBicycles",
+		   lowerBound = "1",
+		   lowerBoundClosed = true)
+    int nbikes = 1;
+
+    @CompoundParmType(labelResourceBundle = "*.lpack.ODEntryLabels",
+		      tipResourceBundle = "*.lpack.ODEntryTips")
+    static class Entry {
+	@PrimitiveParm("origin")
+	Hub origin = null;
+
+	@PrimitiveParm("dest")
+	Hub dest = null;
+
+	@PrimitiveParm(value = "meanIATime",
+		       lowerBound = "0.0",
+		       lowerBoundClosed = false)
+	double meanIATime = 0.0;
+
+	@PrimitiveParm(value = "overflowProb",
+		       lowerBound = "0.0",
+		       lowerBoundClosed = true)
+	double overflowProb = 0.0;
+    }
+
+    @KeyedCompoundParm("entry")
+    TreeMap<Integer,Entry> entries = new TreeMap<Integer,Entry>();
+
+    @CompoundParmType(tipResourceBundle = "*.lpack.TripGenTimelineTips",
+		      labelResourceBundle = "*.lpack.TripGenTimelineLabels")
+    static class TimelineEntry {
+	@PrimitiveParm(value = "scaleFactor",
+		       lowerBound = "0.0",
+		       lowerBoundClosed = true)
+	Double scaleFactor = null;
+    };
+    @KeyedCompoundParm("timeline")
+    Map<Integer,TimelineEntry> timelineMap =
+	new HashMap<Integer,TimelineEntry>();
+
+    ODMatrixTripGenFactoryPM<Obj> pm;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     */
+    protected AbstrODMatrixTripGenFactory(DramaSimulation sim) {
+	super(sim);
+	pm = new ODMatrixTripGenFactoryPM<Obj>(this);
+	initParms(pm, AbstrODMatrixTripGenFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void addToTimelineRequest(Obj object, int key, double time) {
+	super.addToTimelineRequest(object, key, time);
+	TimelineEntry entry = timelineMap.get(key);
+	if (entry.scaleFactor != null) {
+	    final Obj obj = object;
+	    final double scaleFactor = entry.scaleFactor;
+	    addToTimelineResponse(new Callable() {
+		    public void call() {
+			obj.setScaleFactor(scaleFactor);
+		    }
+		});
+	}
+    }
+
+    @Override
+    protected void initObject(Obj tripGen) {
+	super.initObject(tripGen);
+	int len = entries.size();
+	Hub[] origins = new Hub[len];
+	Hub[] dests = new Hub[len];
+	double[] rates = new double[len];
+	double[] overflowProb = new double[len];
+	int i = 0;
+	for (Entry entry: entries.values()) {
+	    origins[i] = entry.origin;
+	    dests[i] = entry.dest;
+	    rates[i] = 1.0 / entry.meanIATime;
+	    overflowProb[i] = entry.overflowProb;
+	    i++;
+	}
+	tripGen.init(nbikes, origins, dests, rates, overflowProb);
+    }
+}
+//  LocalWords:  ODMatrixTripGenerator nBicycles dest meanIATime
+//  LocalWords:  overflowProb timeline scaleFactor
+//  LocalWords:  ODMatrixTripGenFactoryPM
@@ -0,0 +1,69 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.obnaming.*;
+import org.bzdev.obnaming.annotations.*;
+
+
+/**
+ * Abstract factory for instances of OptimalFlowHubBalancer and any
+ * subclasses.
+ * <P>
+ * The factory parameters this factory provides are the same as the parameters
+ * provided by its subclass {@link OptimalFlowHubBalancerFactory}:
+ * <IFRAME SRC="{@docRoot}/factories-api/org/bzdev/bikeshare/OptimalFlowHubBalancerFactory.html" style= "width:95%;height:500px;border:3px solid steelblue">
+ * Please see
+ *  <A HREF="{@docRoot}/factories-api/org/bzdev/bikeshare/OptimalFlowHubBalancerFactory.html">
+ *    the parameter documentation</A> for a table of the parameters supported
+ * by this factory.
+ * </IFRAME>
+ */
+
+@FactoryParmManager(value = "OptimalFlowHubBalancerFactoryPM",
+		    labelResourceBundle = "*.lpack.OptimalFlowHubBalancerLabels",
+		    tipResourceBundle = "*.lpack.OptimalFlowHubBalancerTips",
+		    stdFactory = "OptimalFlowHubBalancerFactory",
+		    namerVariable = "sim",
+		    namerDocumentation = "the simulation")
+public abstract class
+    AbstrOptimalFlowHubBalancerFactory<Obj extends OptimalFlowHubBalancer>
+    extends HubBalancerFactory<Obj>
+{
+
+    @PrimitiveParm(value = "quietPeriod",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = true)
+    double quietPeriod = 0.0;
+
+    @PrimitiveParm(value = "neighbors",
+		   lowerBound = "1",
+		   lowerBoundClosed = true)
+    int neighbors = 8;
+
+    OptimalFlowHubBalancerFactoryPM<Obj> pm;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     */
+    protected AbstrOptimalFlowHubBalancerFactory(DramaSimulation sim) {
+	super(sim);
+	removeParm("domainMember");
+	pm = new OptimalFlowHubBalancerFactoryPM<Obj>(this);
+	initParms(pm, AbstrOptimalFlowHubBalancerFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void initObject(Obj hubBalancer) {
+	super.initObject(hubBalancer);
+	hubBalancer.setQuietPeriod(quietPeriod);
+	hubBalancer.setNeighbors(neighbors);
+    }
+}
+//  LocalWords:  OptimalFlowHubBalancer quietPeriod domainMember
+//  LocalWords:  OptimalFlowHubBalancerFactoryPM
@@ -0,0 +1,79 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.obnaming.*;
+import org.bzdev.obnaming.annotations.*;
+
+import java.util.Set;
+import java.util.LinkedHashSet;
+
+
+/**
+ * Abstract factory for instances of PredictiveHubBalancer and any
+ * subclasses.
+ * <P>
+ * The factory parameters this factory provides are the same as the parameters
+ * provided by its subclass {@link PredictiveHubBalancerFactory}:
+ * <IFRAME SRC="{@docRoot}/factories-api/org/bzdev/bikeshare/PredictiveHubBalancerFactory.html" style= "width:95%;height:500px;border:3px solid steelblue">
+ * Please see
+ *  <A HREF="{@docRoot}/factories-api/org/bzdev/bikeshare/PredictiveHubBalancerFactory.html">
+ *    the parameter documentation</A> for a table of the parameters supported
+ * by this factory.
+ * </IFRAME>
+ */
+
+@FactoryParmManager(value = "PredictiveHubBalancerFactoryPM",
+		    labelResourceBundle = "*.lpack.PredictiveHubBalancerLabels",
+		    tipResourceBundle = "*.lpack.PredictiveHubBalancerTips",
+		    stdFactory = "PredictiveHubBalancerFactory",
+		    namerVariable = "sim",
+		    namerDocumentation = "the simulation")
+public abstract class
+    AbstrPredictiveHubBalancerFactory<Obj extends PredictiveHubBalancer>
+    extends AbstrBasicHubBalancerFactory<Obj>
+{
+
+    @PrimitiveParm(value = "horizon",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = true)
+    double horizon = 900.0;
+
+    @PrimitiveParm(value = "safetyFactor",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = true)
+    double safetyFactor = 1.0;
+
+    @PrimitiveParm("tripGenerators")
+    Set<TripGenerator> tripGenerators = new LinkedHashSet<>();
+
+    PredictiveHubBalancerFactoryPM<Obj> pm;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     */
+    protected AbstrPredictiveHubBalancerFactory(DramaSimulation sim) {
+	super(sim);
+	// forecasts replace the look-ahead interval
+	removeParm("lookAhead");
+	pm = new PredictiveHubBalancerFactoryPM<Obj>(this);
+	initParms(pm, AbstrPredictiveHubBalancerFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void initObject(Obj hubBalancer) {
+	super.initObject(hubBalancer);
+	hubBalancer.setHorizon(horizon);
+	hubBalancer.setSafetyFactor(safetyFactor);
+	for (TripGenerator tgen: tripGenerators) {
+	    hubBalancer.addTripGenerator(tgen);
+	}
+    }
+}
+//  LocalWords:  PredictiveHubBalancer safetyFactor tripGenerators
+//  LocalWords:  PredictiveHubBalancerFactoryPM lookAhead tgen
@@ -0,0 +1,191 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.obnaming.*;
+import org.bzdev.obnaming.annotations.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Abstract factory for TimeVaryingTripGenerator.
+ * <P>
+ * The factory parameters this factory provides are the same as the parameters
+ * provided by its subclass {@link TimeVaryingTripGenFactory}:
+ * <IFRAME SRC="{@docRoot}/factories-api/org/bzdev/bikeshare/TimeVaryingTripGenFactory.html" style= "width:95%;height:500px;border:3px solid steelblue">
+ * Please see
+ *  <A HREF="{@docRoot}/factories-api/org/bzdev/bikeshare/TimeVaryingTripGenFactory.html">
+ *    the parameter documentation</A> for a table of the parameters supported
+ * by this factory.
+ * </IFRAME>
+ */
+
+@FactoryParmManager(value = "TimeVaryingTripGenFactoryPM",
+		    labelResourceBundle = "*.lpack.TimeVaryingTripGenLabels",
+		    tipResourceBundle = "*.lpack.TimeVaryingTripGenTips",
+		    stdFactory = "TimeVaryingTripGenFactory",
+		    namerVariable = "sim",
+		    namerDocumentation = "the simulation")
+public abstract class
+    AbstrTimeVaryingTripGenFactory<Obj extends TimeVaryingTripGenerator>
+    extends TripGeneratorFactory<Obj>
+{
+
+    @PrimitiveParm("startingHub")
+    Hub startingHub = null;
+
+    @PrimitiveParm(value = "nBicycles",
+		   lowerBound = "1",
+		   lowerBoundClosed = true)
+    int nbikes = 1;
+
+    @CompoundParmType(labelResourceBundle = "*.lpack.DestInfoLabels",
+		      tipResourceBundle = "*.lpack.DestInfoTips")
+    static class DestInfo {
+	@PrimitiveParm(value = "prob",
+		       lowerBound = "0.0",
+		       lowerBoundClosed = false)
+	double prob = 0.0;
+
+	@PrimitiveParm(value = "overflowProb",
+		       lowerBound = "0.0",
+		       lowerBoundClosed = true)
+	double overflowProb = 0.0;
+    }
+
+    @KeyedCompoundParm("dest")
+    Map<Hub,DestInfo> map = new LinkedHashMap<>();
+
+    @PrimitiveParm(value = "period",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = false)
+    double period = 86400.0;
+
+    @PrimitiveParm("timeOffset")
+    double timeOffset = 0.0;
+
+    @PrimitiveParm("linear")
+    boolean linear = false;
+
+    @CompoundParmType(labelResourceBundle = "*.lpack.TimeSlotLabels",
+		      tipResourceBundle = "*.lpack.TimeSlotTips")
+    static class SlotEntry {
+	@PrimitiveParm(value = "time",
+		       lowerBound = "0.0",
+		       lowerBoundClosed = true)
+	double time = 0.0;
+
+	@PrimitiveParm(value = "rate",
+		       lowerBound = "0.0",
+		       lowerBoundClosed = true)
+	double rate = 0.0;
+    }
+
+    @KeyedCompoundParm("slot")
+    TreeMap<Integer,SlotEntry> slots = new TreeMap<>();
+
+    @CompoundParmType(labelResourceBundle = "*.lpack.SlotDestLabels",
+		      tipResourceBundle = "*.lpack.SlotDestTips")
+    static class SlotDestEntry {
+	@PrimitiveParm("slot")
+	Integer slot = null;
+
+	@PrimitiveParm("dest")
+	Hub dest = null;
+
+	@PrimitiveParm(value = "prob",
+		       lowerBound = "0.0",
+		       lowerBoundClosed = true)
+	double prob = 0.0;
+    }
+
+    @KeyedCompoundParm("slotDest")
+    TreeMap<Integer,SlotDestEntry> slotDests = new TreeMap<>();
+
+    TimeVaryingTripGenFactoryPM<Obj> pm;
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     */
+    protected AbstrTimeVaryingTripGenFactory(DramaSimulation sim) {
+	super(sim);
+	pm = new TimeVaryingTripGenFactoryPM<Obj>(this);
+	initParms(pm, AbstrTimeVaryingTripGenFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void initObject(Obj tripGen) {
+	super.initObject(tripGen);
+	for (Map.Entry<Integer,SlotDestEntry> entry: slotDests.entrySet()) {
+	    SlotDestEntry sdentry = entry.getValue();
+	    if (sdentry.slot == null || !slots.containsKey(sdentry.slot)) {
+		throw new IllegalArgumentException
+		    (errorMsg("slotDestSlot", entry.getKey(), sdentry.slot));
+	    }
+	    if (sdentry.dest == null || !map.containsKey(sdentry.dest)) {
+		throw new IllegalArgumentException
+		    (errorMsg("slotDestHub", entry.getKey(),
+			      ((sdentry.dest == null)? "<null>":
+			       sdentry.dest.getName())));
+	    }
+	}
+	int len = map.size();
+	Hub[] destHubs = new Hub[len];
+	double[] weights = new double[len];
+	double[] overflowProb = new double[len];
+	HashMap<Hub,Integer> destIndices = new HashMap<>();
+	int i = 0;
+	for (Map.Entry<Hub,DestInfo> entry: map.entrySet()) {
+	    destHubs[i] = entry.getKey();
+	    DestInfo info = entry.getValue();
+	    weights[i] = info.prob;
+	    overflowProb[i] = info.overflowProb;
+	    destIndices.put(destHubs[i], i);
+	    i++;
+	}
+	tripGen.init(startingHub, nbikes, destHubs, weights, overflowProb);
+
+	int m = slots.size();
+	double[] times = new double[m];
+	double[] rates = new double[m];
+	HashMap<Integer,Integer> slotIndices = new HashMap<>();
+	int k = 0;
+	for (Map.Entry<Integer,SlotEntry> entry: slots.entrySet()) {
+	    times[k] = entry.getValue().time;
+	    rates[k] = entry.getValue().rate;
+	    slotIndices.put(entry.getKey(), k);
+	    k++;
+	}
+	tripGen.setProfile(period, times, rates, linear);
+	tripGen.setTimeOffset(timeOffset);
+
+	double[][] slotWeights = new double[m][];
+	for (SlotDestEntry entry: slotDests.values()) {
+	    int slot = slotIndices.get(entry.slot);
+	    int index = destIndices.get(entry.dest);
+	    if (slotWeights[slot] == null) slotWeights[slot] = new double[len];
+	    slotWeights[slot][index] = entry.prob;
+	}
+	for (k = 0; k < m; k++) {
+	    if (slotWeights[k] != null) {
+		tripGen.setSlotWeights(k, slotWeights[k]);
+	    }
+	}
+    }
+}
+//  LocalWords:  TimeVaryingTripGenerator startingHub nBicycles dest
+//  LocalWords:  overflowProb timeOffset slotDest
+//  LocalWords:  TimeVaryingTripGenFactoryPM
@@ -0,0 +1,81 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.obnaming.annotations.*;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Abstract factory for trip-duration recorders.
+ * <P>
+ * The factory parameters this factory provides are the same as the parameters
+ * provided by its subclass {@link TripDurationRecorderFactory}:
+ * <IFRAME SRC="{@docRoot}/factories-api/org/bzdev/bikeshare/TripDurationRecorderFactory.html" style= "width:95%;height:500px;border:3px solid steelblue">
+ * Please see
+ *  <A HREF="{@docRoot}/factories-api/org/bzdev/bikeshare/TripDurationRecorderFactory.html">
+ *    the parameter documentation</A> for a table of the parameters supported
+ * by this factory.
+ * </IFRAME>
+ */
+@FactoryParmManager(value = "TripDurationRecorderFactoryPM",
+		    labelResourceBundle = "*.lpack.TripDurationRecorderLabels",
+		    tipResourceBundle = "*.lpack.TripDurationRecorderTips",
+		    stdFactory = "TripDurationRecorderFactory",
+		    namerVariable = "sim",
+		    namerDocumentation = "the simulation")
+public abstract class AbstrTripDurationRecorderFactory<Obj extends TripDurationRecorder>
+    extends AbstractActorFactory<Obj>
+{
+    @PrimitiveParm(value = "binWidth",
+		   lowerBound = "0.0",
+		   lowerBoundClosed = false)
+    double binWidth = 60.0;
+
+    @PrimitiveParm(value = "nbins",
+		   lowerBound = "1",
+		   lowerBoundClosed = true)
+    int nbins = 60;
+
+    @PrimitiveParm("tripGenerators")
+    Set<TripGenerator> tripGenerators = new LinkedHashSet<>();
+
+    @PrimitiveParm("stopTime")
+    double stopTime = Double.POSITIVE_INFINITY;
+
+    @PrimitiveParm("file")
+    String file = null;
+
+    TripDurationRecorderFactoryPM<Obj> pm;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     */
+    protected AbstrTripDurationRecorderFactory(DramaSimulation sim) {
+	super(sim);
+	removeParm("domainMember");
+	pm = new TripDurationRecorderFactoryPM<Obj>(this);
+	initParms(pm, AbstrTripDurationRecorderFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void initObject(Obj recorder) {
+	super.initObject(recorder);
+	recorder.init(binWidth, nbins);
+	for (TripGenerator tgen: tripGenerators) {
+	    recorder.addTripGenerator(tgen);
+	}
+	recorder.setStopTime(stopTime);
+	recorder.setOutput(file);
+    }
+}
+
+//  LocalWords:  TripDurationRecorderFactory binWidth nbins sim tgen
+//  LocalWords:  TripDurationRecorderFactoryPM tripGenerators stopTime
+//  LocalWords:  domainMember
@@ -0,0 +1,64 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.obnaming.*;
+import org.bzdev.obnaming.annotations.*;
+
+
+/**
+ * Abstract factory for TripReplayGenerator.
+ * <P>
+ * The factory parameters this factory provides are the same as the parameters
+ * provided by its subclass {@link TripReplayGenFactory}:
+ * <IFRAME SRC="{@docRoot}/factories-api/org/bzdev/bikeshare/TripReplayGenFactory.html" style= "width:95%;height:500px;border:3px solid steelblue">
+ * Please see
+ *  <A HREF="{@docRoot}/factories-api/org/bzdev/bikeshare/TripReplayGenFactory.html">
+ *    the parameter documentation</A> for a table of the parameters supported
+ * by this factory.
+ * </IFRAME>
+ */
+
+@FactoryParmManager(value = "TripReplayGenFactoryPM",
+		    labelResourceBundle = "*.lpack.TripReplayGenLabels",
+		    tipResourceBundle = "*.lpack.TripReplayGenTips",
+		    stdFactory = "TripReplayGenFactory",
+		    namerVariable = "sim",
+		    namerDocumentation = "the simulation")
+public abstract class
+    AbstrTripReplayGenFactory<Obj extends TripReplayGenerator>
+    extends TripGeneratorFactory<Obj>
+{
+
+    @PrimitiveParm("file")
+    String file = null;
+
+    @PrimitiveParm("timeOffset")
+    double timeOffset = 0.0;
+
+    TripReplayGenFactoryPM<Obj> pm;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     */
+    protected AbstrTripReplayGenFactory(DramaSimulation sim) {
+	super(sim);
+	pm = new TripReplayGenFactoryPM<Obj>(this);
+	initParms(pm, AbstrTripReplayGenFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void initObject(Obj tripGen) {
+	super.initObject(tripGen);
+	tripGen.setTimeOffset(timeOffset);
+	if (file != null) {
+	    tripGen.setInput(file);
+	}
+    }
+}
+//  LocalWords:  TripReplayGenerator timeOffset TripReplayGenFactoryPM
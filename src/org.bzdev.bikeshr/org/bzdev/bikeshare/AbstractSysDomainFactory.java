@@ -1,12 +1,13 @@
 package org.bzdev.bikeshare;
 import org.bzdev.drama.*;
-import org.bzdev.obnaming.annotations.FactoryParmManager;
+import org.bzdev.obnaming.annotations.*;
 
 /**
  * Abstract Factory for creating system domains.
- * This class is a "place holder" and actually does nothing
- * except restrict a type parameter so that subclasses produce
- * instances of SysDomain.
+ * This class restricts a type parameter so that subclasses produce
+ * instances of SysDomain, and provides a parameter that determines
+ * whether the storage hubs in a system domain share their idle
+ * workers.
  * <P>
  * The factory parameters this factory provides are the same as the parameters
  * provided by its subclass {@link SysDomainFactory}:
@@ -17,21 +18,43 @@ import org.bzdev.obnaming.annotations.FactoryParmManager;
  * by this factory.
  * </IFRAME>
  */
-@FactoryParmManager(value = "", // no parameters
+@FactoryParmManager(value = "SysDomainFactoryPM",
+		    labelResourceBundle = "*.lpack.SysDomainLabels",
+		    tipResourceBundle = "*.lpack.SysDomainTips",
 		    stdFactory = "SysDomainFactory",
 		    namerVariable = "sim",
 		    namerDocumentation = "the simulation")
 public abstract class AbstractSysDomainFactory<Obj extends SysDomain>
     extends HubDomainFactory<Obj>
 {
+    @PrimitiveParm("sharedWorkerPool")
+    boolean sharedWorkerPool = false;
+
+    SysDomainFactoryPM<Obj> pm;
+
     /**
      * Constructor.
      * @param sim the simulation
      */
     protected AbstractSysDomainFactory(DramaSimulation sim) {
 	super(sim);
+	pm = new SysDomainFactoryPM<Obj>(this);
+	initParms(pm, AbstractSysDomainFactory.class);
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	pm.setDefaults(this);
+    }
+
+    @Override
+    protected void initObject(Obj domain) {
+	super.initObject(domain);
+	domain.setSharedWorkerPool(sharedWorkerPool);
     }
 }
 
 //  LocalWords:  SysDomain superclasses timeline traceSetMode
-//  LocalWords:  traceSets TraceSet SimObject
+//  LocalWords:  traceSets TraceSet SimObject sharedWorkerPool
+//  LocalWords:  SysDomainFactoryPM
@@ -0,0 +1,190 @@
+package org.bzdev.bikeshare;
+import java.util.Arrays;
+
+/*
+ * Trips carrying bicycles to a hub.  Each trip has a slot holding the
+ * number of bicycles, the expected arrival time in ticks, and whether
+ * the bicycles will be put in the overflow area.  Unused slots are
+ * kept on a free list.
+ *
+ * Queries ask for the bicycles due by a time limit (the horizon), and
+ * the horizon rarely changes except to advance with the simulation
+ * time, so the trips are split at the last horizon: trips due by it
+ * are in a max-heap ordered by arrival time and are counted by running
+ * totals, and the other trips are in a min-heap.  A query moves the
+ * trips that cross its horizon from one heap to the other, and each
+ * slot records its heap position so a trip can be removed when it
+ * completes.  Starting or completing a trip thus takes O(log n) time
+ * for n trips, and a query with the same horizon as the previous one
+ * takes constant time.
+ */
+class ArrivalSchedule {
+
+    private int[] counts = new int[4];		// indexed by slot
+    private long[] ticks = new long[4];		// indexed by slot
+    private boolean[] toOverflow = new boolean[4]; // indexed by slot
+    private boolean[] isDue = new boolean[4];	// indexed by slot
+    private int[] position = new int[4];	// heap position by slot
+    private int[] freeSlots = new int[4];
+    private int nfree = 0;
+    private int nslots = 0;
+
+    private int[] due = new int[4];	// max-heap of slots
+    private int ndue = 0;
+    private int[] pending = new int[4];	// min-heap of slots
+    private int npending = 0;
+
+    private long horizon = Long.MIN_VALUE;
+    private int dueCount = 0;
+    private int dueOverflowCount = 0;
+    private int inFlight = 0;
+    private int inFlightToOverflow = 0;
+
+    /*
+     * Record a trip carrying n bicycles expected to arrive at a given
+     * time in ticks.  Returns the trip's slot.
+     */
+    int add(int n, boolean overflow, long t) {
+	int slot;
+	if (nfree > 0) {
+	    slot = freeSlots[--nfree];
+	} else {
+	    if (nslots == counts.length) {
+		int len = 2*nslots;
+		counts = Arrays.copyOf(counts, len);
+		ticks = Arrays.copyOf(ticks, len);
+		toOverflow = Arrays.copyOf(toOverflow, len);
+		isDue = Arrays.copyOf(isDue, len);
+		position = Arrays.copyOf(position, len);
+		freeSlots = Arrays.copyOf(freeSlots, len);
+		due = Arrays.copyOf(due, len);
+		pending = Arrays.copyOf(pending, len);
+	    }
+	    slot = nslots++;
+	}
+	counts[slot] = n;
+	ticks[slot] = t;
+	toOverflow[slot] = overflow;
+	if (overflow) {
+	    inFlightToOverflow += n;
+	} else {
+	    inFlight += n;
+	}
+	if (t <= horizon) {
+	    insert(true, slot);
+	    addDue(slot, 1);
+	} else {
+	    insert(false, slot);
+	}
+	return slot;
+    }
+
+    /*
+     * Remove the trip in a slot returned by add.
+     */
+    void remove(int slot) {
+	delete(isDue[slot], position[slot]);
+	if (isDue[slot]) addDue(slot, -1);
+	if (toOverflow[slot]) {
+	    inFlightToOverflow -= counts[slot];
+	} else {
+	    inFlight -= counts[slot];
+	}
+	counts[slot] = 0;
+	freeSlots[nfree++] = slot;
+    }
+
+    int getInFlight(boolean overflow) {
+	return overflow? inFlightToOverflow: inFlight;
+    }
+
+    /*
+     * Get the number of bicycles expected to arrive no later than a
+     * time in ticks, counting late trips.
+     */
+    int expected(long t, boolean overflow) {
+	if (t != horizon) {
+	    while (npending > 0 && ticks[pending[0]] <= t) {
+		int slot = pending[0];
+		delete(false, 0);
+		insert(true, slot);
+		addDue(slot, 1);
+	    }
+	    while (ndue > 0 && ticks[due[0]] > t) {
+		int slot = due[0];
+		delete(true, 0);
+		insert(false, slot);
+		addDue(slot, -1);
+	    }
+	    horizon = t;
+	}
+	return overflow? dueOverflowCount: dueCount;
+    }
+
+    private void addDue(int slot, int sign) {
+	if (toOverflow[slot]) {
+	    dueOverflowCount += sign * counts[slot];
+	} else {
+	    dueCount += sign * counts[slot];
+	}
+    }
+
+    private void insert(boolean inDue, int slot) {
+	isDue[slot] = inDue;
+	int pos = inDue? ndue++: npending++;
+	(inDue? due: pending)[pos] = slot;
+	position[slot] = pos;
+	siftUp(inDue, pos);
+    }
+
+    private void delete(boolean inDue, int pos) {
+	int[] heap = inDue? due: pending;
+	int size = inDue? --ndue: --npending;
+	if (pos < size) {
+	    int last = heap[size];
+	    heap[pos] = last;
+	    position[last] = pos;
+	    if (!siftUp(inDue, pos)) siftDown(inDue, pos);
+	}
+    }
+
+    // due is ordered latest first and pending earliest first
+    private boolean precedes(boolean inDue, int slot1, int slot2) {
+	return inDue? ticks[slot1] > ticks[slot2]: ticks[slot1] < ticks[slot2];
+    }
+
+    private boolean siftUp(boolean inDue, int pos) {
+	int[] heap = inDue? due: pending;
+	int slot = heap[pos];
+	int start = pos;
+	while (pos > 0) {
+	    int p = (pos - 1) >> 1;
+	    int s = heap[p];
+	    if (!precedes(inDue, slot, s)) break;
+	    heap[pos] = s;
+	    position[s] = pos;
+	    pos = p;
+	}
+	heap[pos] = slot;
+	position[slot] = pos;
+	return pos != start;
+    }
+
+    private void siftDown(boolean inDue, int pos) {
+	int[] heap = inDue? due: pending;
+	int size = inDue? ndue: npending;
+	int slot = heap[pos];
+	for (;;) {
+	    int c = 2*pos + 1;
+	    if (c >= size) break;
+	    if (c + 1 < size && precedes(inDue, heap[c+1], heap[c])) c++;
+	    int s = heap[c];
+	    if (!precedes(inDue, s, slot)) break;
+	    heap[pos] = s;
+	    position[s] = pos;
+	    pos = c;
+	}
+	heap[pos] = slot;
+	position[slot] = pos;
+    }
+}
@@ -4,7 +4,9 @@ import org.bzdev.lang.Callable;
 
 import java.util.Set;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.LinkedHashSet;
 import java.util.Collections;
 import java.io.PrintWriter;
@@ -140,33 +142,104 @@ public class BasicHubBalancer extends HubBalancer {
 	return threshold;
     }
 
+    double lookAhead = 0.0;
+
+    /**
+     * Set the look-ahead interval.
+     * When the look-ahead interval is positive, bicycles that are
+     * traveling to a hub and that are expected to arrive within this
+     * interval are counted as if they had already arrived when
+     * choosing the hubs additional workers will visit and when
+     * sorting hubs. As a result, a worker will not be sent to a hub
+     * whose shortage will be removed by arriving bicycles.
+     * @param value the look-ahead interval in seconds; 0.0 to use
+     *        only the bicycles present at each hub
+     * @exception IllegalArgumentException the argument was negative
+     * @see Hub#getProjectedBikeCount(double)
+     */
+    public void setLookAhead(double value) throws IllegalArgumentException {
+	if (value < 0.0) {
+	    throw new IllegalArgumentException(errorMsg("timeNegative", value));
+	}
+	lookAhead = value;
+    }
+
+    /**
+     * Get the look-ahead interval.
+     * @return the look-ahead interval in seconds
+     * @see #setLookAhead(double)
+     */
+    public double getLookAhead() {
+	return lookAhead;
+    }
+
+    RoutePlanner routePlanner = null;
+
+    /**
+     * Set the route planner.
+     * When a route planner is provided, the hub sorters returned by
+     * {@link #getHubSorter(HubWorker.Mode,StorageHub,Hub[])} will
+     * use it to plan the order in which a worker visits hubs,
+     * taking into account the estimated travel times between hubs
+     * and the worker's capacity.
+     * @param planner the route planner; null if routes should not
+     *        be planned
+     * @see HubWorker.HubSorter#planRoute(HubWorker)
+     */
+    public void setRoutePlanner(RoutePlanner planner) {
+	routePlanner = planner;
+    }
+
+    /**
+     * Get the route planner.
+     * @return the route planner; null if there is none
+     */
+    public RoutePlanner getRoutePlanner() {
+	return routePlanner;
+    }
+
     static Comparator<Hub> loopComparator1 = new Comparator<Hub>() {
 	    public int compare(Hub x, Hub y) {
-		int xtake = x.getBikeCount() - x.getNominal();
-		int ytake = y.getBikeCount() - y.getNominal();
+		int xtake = x.getUnclaimedBikeCount() - x.getNominal();
+		int ytake = y.getUnclaimedBikeCount() - y.getNominal();
 		return ytake - xtake;
 	    }
 	};
 
     static Comparator<Hub> loopComparator2 = new Comparator<Hub>() {
 	    public int compare(Hub x, Hub y) {
-		int xtake = x.getBikeCount() - x.getNominal();
-		int ytake = y.getBikeCount() - y.getNominal();
+		int xtake = x.getUnclaimedBikeCount() - x.getNominal();
+		int ytake = y.getUnclaimedBikeCount() - y.getNominal();
 		return (xtake - ytake);
 	    }
 	};
 
+    /*
+     * The original hub sorter.  Hubs are classified and ordered by
+     * their unclaimed counts (the counts net of the changes claimed by
+     * workers traveling to them), so that a worker skips a hub another
+     * worker is already on its way to fix.  Without any claims, these
+     * are the hubs' bicycle and overflow counts.  The initial count
+     * estimate is not reset by sort(): it accumulates the imbalances
+     * seen by every call.
+     */
     static class HubSorter implements HubWorker.HubSorter {
 	Hub[] hubs;
 	Hub[] harray1;
 	Hub[] harray2;
 	HubWorker.Mode mode;
+	RoutePlanner planner;
 
 	int initialCount = 0;
 
 	HubSorter(HubWorker.Mode mode, Hub[] hubs) {
+	    this(mode, hubs, null);
+	}
+
+	HubSorter(HubWorker.Mode mode, Hub[] hubs, RoutePlanner planner) {
 	    this.hubs = hubs.clone();
 	    this.mode = mode;
+	    this.planner = planner;
 	}
 
 	public void sort() {
@@ -188,7 +261,7 @@ public class BasicHubBalancer extends HubBalancer {
 		switch(mode) {
 		case LOOP:
 		case VISIT:
-		    take = hub.getBikeCount() - hub.getNominal();
+		    take = hub.getUnclaimedBikeCount() - hub.getNominal();
 		    initialCount -= take;
 		    if (take > 0) {
 			list1.add(hub);
@@ -198,8 +271,8 @@ public class BasicHubBalancer extends HubBalancer {
 		    break;
 		case LOOP_WITH_PICKUP:
 		case VISIT_WITH_PICKUP:
-		    take = hub.getBikeCount() - hub.getNominal();
-		    ptake = take + hub.getOverflow();
+		    take = hub.getUnclaimedBikeCount() - hub.getNominal();
+		    ptake = take + hub.getUnclaimedOverflow();
 		    initialCount -= ptake;
 		    if (take > 0) {
 			list1.add(hub);
@@ -209,7 +282,7 @@ public class BasicHubBalancer extends HubBalancer {
 			} else {
 			    list2.add(hub);
 			}
-		    } else if (hub.getOverflow() > 0) {
+		    } else if (hub.getUnclaimedOverflow() > 0) {
 			list1.add(hub);
 		    }
 		}
@@ -232,6 +305,220 @@ public class BasicHubBalancer extends HubBalancer {
 	public int getInitialCountEstimate() {
 	    return initialCount;
 	}
+
+	@Override
+	public Hub[] planRoute(HubWorker worker) {
+	    if (planner == null || harray1 == null) return null;
+	    boolean pickup = (mode == HubWorker.Mode.LOOP_WITH_PICKUP
+			      || mode == HubWorker.Mode.VISIT_WITH_PICKUP);
+	    return BasicHubBalancer.planRoute(planner, worker,
+					      harray1, harray1.length,
+					      harray2, harray2.length,
+					      pickup);
+	}
+    }
+
+    // Plan a route over the first n1 hubs in harray1 followed by the
+    // first n2 hubs in harray2, using the unclaimed imbalance at each
+    // hub as the amount to pick up or drop off.
+    static Hub[] planRoute(RoutePlanner planner, HubWorker worker,
+			   Hub[] harray1, int n1, Hub[] harray2, int n2,
+			   boolean pickup)
+    {
+	int n = n1 + n2;
+	Hub[] rhubs = new Hub[n];
+	int[] amounts = new int[n];
+	for (int i = 0; i < n; i++) {
+	    Hub hub = (i < n1)? harray1[i]: harray2[i-n1];
+	    rhubs[i] = hub;
+	    amounts[i] = hub.getUnclaimedBikeCount() - hub.getNominal();
+	    if (pickup) amounts[i] += hub.getUnclaimedOverflow();
+	}
+	Hub start = worker.getCurrentHub();
+	Hub end = worker.getStorageHub();
+	return planner.plan(start, ((end == null)? start: end),
+			    rhubs, amounts,
+			    worker.getBikeCount(), worker.getCapacity());
+    }
+
+    /*
+     * A hub sorter that produces the same order as HubSorter (which
+     * uses a stable sort with loopComparator1 and loopComparator2)
+     * without allocating memory each time sort() is called.  The
+     * difference between a hub's bicycle count and its nominal value
+     * is bounded by the hub's capacity, so the hubs are sorted by a
+     * counting sort over that difference, which is stable and takes
+     * time linear in the number of hubs plus the range of the
+     * differences.  The arrays returned by getOverNominal() and
+     * getUnderNominal() are allocated once, with room for every hub,
+     * and reused by each call to sort(), with the number of valid
+     * entries given by getOverNominalCount() and
+     * getUnderNominalCount().  As with HubSorter, the counts used are
+     * the unclaimed counts and the initial count estimate is not reset
+     * by sort(), so it accumulates over calls to sort() and a looping
+     * worker receives the same estimate from either sorter.
+     */
+    static class CountingHubSorter implements HubWorker.HubSorter {
+	Hub[] hubs;
+	Hub[] harray1;
+	Hub[] harray2;
+	int n1 = 0;
+	int n2 = 0;
+	HubWorker.Mode mode;
+	RoutePlanner planner;
+	boolean fixOverflows;
+	boolean pickup;
+
+	// per-hub imbalance and list (0 = neither, 1 = harray1,
+	// 2 = harray2) computed by sort()
+	int[] takes;
+	byte[] lists;
+	int[] counts = new int[16];
+
+	int initialCount = 0;
+
+	// when positive, counts include bicycles expected to arrive
+	// within this time interval in seconds
+	double lookAhead = 0.0;
+
+	CountingHubSorter(HubWorker.Mode mode, Hub[] hubs) {
+	    this(mode, hubs, null, 0.0);
+	}
+
+	CountingHubSorter(HubWorker.Mode mode, Hub[] hubs,
+			  RoutePlanner planner, double lookAhead)
+	{
+	    this.hubs = hubs.clone();
+	    this.mode = mode;
+	    this.planner = planner;
+	    this.lookAhead = lookAhead;
+	    fixOverflows = (mode == HubWorker.Mode.LOOP_TO_FIX_OVERFLOWS
+			    || mode == HubWorker.Mode.VISIT_TO_FIX_OVERFLOWS);
+	    pickup = (mode == HubWorker.Mode.LOOP_WITH_PICKUP
+		      || mode == HubWorker.Mode.VISIT_WITH_PICKUP);
+	    if (!fixOverflows) {
+		harray1 = new Hub[hubs.length];
+		harray2 = new Hub[hubs.length];
+		takes = new int[hubs.length];
+		lists = new byte[hubs.length];
+	    }
+	}
+
+	public void sort() {
+	    n1 = 0;
+	    n2 = 0;
+	    if (fixOverflows) return;
+	    int min1 = Integer.MAX_VALUE;
+	    int max1 = Integer.MIN_VALUE;
+	    int min2 = Integer.MAX_VALUE;
+	    int max2 = Integer.MIN_VALUE;
+	    for (int i = 0; i < hubs.length; i++) {
+		Hub hub = hubs[i];
+		if (hub instanceof StorageHub) {
+		    throw new RuntimeException
+			(errorMsg("storageHub", hub.getName()));
+		}
+		int take = getCount(hub) - hub.getNominal();
+		byte list = 0;
+		if (pickup) {
+		    int overflow = hub.getUnclaimedOverflow();
+		    int ptake = take + overflow;
+		    initialCount -= ptake;
+		    if (take > 0) {
+			list = 1;
+		    } else if (take < 0) {
+			list = (byte)((ptake > 0)? 1: 2);
+		    } else if (overflow > 0) {
+			list = 1;
+		    }
+		} else {
+		    initialCount -= take;
+		    if (take > 0) {
+			list = 1;
+		    } else if (take < 0) {
+			list = 2;
+		    }
+		}
+		takes[i] = take;
+		lists[i] = list;
+		if (list == 1) {
+		    n1++;
+		    if (take < min1) min1 = take;
+		    if (take > max1) max1 = take;
+		} else if (list == 2) {
+		    n2++;
+		    if (take < min2) min2 = take;
+		    if (take > max2) max2 = take;
+		}
+	    }
+	    // harray1 is sorted by decreasing imbalance and harray2 by
+	    // increasing imbalance.
+	    if (n1 > 0) countingSort((byte)1, harray1, max1, -1, max1 - min1);
+	    if (n2 > 0) countingSort((byte)2, harray2, min2, 1, max2 - min2);
+	}
+
+	// Place the hubs in the given list into result, ordered by the
+	// key sign*(take - base), whose values are in [0, maxKey].
+	private void countingSort(byte list, Hub[] result,
+				  int base, int sign, int maxKey)
+	{
+	    int range = maxKey + 1;
+	    if (range > counts.length) {
+		counts = new int[Math.max(range, 2*counts.length)];
+	    }
+	    Arrays.fill(counts, 0, range, 0);
+	    for (int i = 0; i < hubs.length; i++) {
+		if (lists[i] == list) {
+		    counts[sign * (takes[i] - base)]++;
+		}
+	    }
+	    int position = 0;
+	    for (int k = 0; k < range; k++) {
+		int count = counts[k];
+		counts[k] = position;
+		position += count;
+	    }
+	    for (int i = 0; i < hubs.length; i++) {
+		if (lists[i] == list) {
+		    result[counts[sign * (takes[i] - base)]++] = hubs[i];
+		}
+	    }
+	}
+
+	// The bicycle count used to sort a hub; subclasses may replace
+	// the count with a forecast.
+	int getCount(Hub hub) {
+	    return (lookAhead > 0.0)?
+		hub.getProjectedBikeCount(lookAhead) - hub.getClaimedBikes():
+		hub.getUnclaimedBikeCount();
+	}
+
+	public Hub[] getHubs() { return hubs;}
+	public Hub[] getOverNominal() {
+	    return harray1;
+	}
+	public Hub[] getUnderNominal() {
+	    return harray2;
+	}
+	@Override
+	public int getOverNominalCount() {
+	    return n1;
+	}
+	@Override
+	public int getUnderNominalCount() {
+	    return n2;
+	}
+	public int getInitialCountEstimate() {
+	    return initialCount;
+	}
+
+	@Override
+	public Hub[] planRoute(HubWorker worker) {
+	    if (planner == null || fixOverflows) return null;
+	    return BasicHubBalancer.planRoute(planner, worker,
+					      harray1, n1, harray2, n2,
+					      pickup);
+	}
     }
 
     @Override
@@ -239,7 +526,215 @@ public class BasicHubBalancer extends HubBalancer {
 					    StorageHub shub,
 					    Hub[] hubs)
     {
-	return new BasicHubBalancer.HubSorter(mode, hubs); 
+	return new BasicHubBalancer.CountingHubSorter(mode, hubs,
+						      routePlanner, lookAhead);
+    }
+
+    /*
+     * For each storage hub and each mode used by startAdditionalWorkers,
+     * a service list records the positions in the storage hub's hub
+     * table of the hubs that are in the over-trigger or overflow sets
+     * and of the hubs that are in the under-trigger set.  A reverse
+     * index maps each hub (by its index) to its slots in the service
+     * lists, so that a change in a hub's status updates only the lists
+     * containing that hub, and startAdditionalWorkers does work
+     * proportional to the number of hubs needing service rather than
+     * to the size of every storage hub's hub table.  The index is
+     * rebuilt when a storage hub's hub table changes or when the set
+     * of storage hubs changes.
+     */
+
+    static final HubWorker.Mode[] serviceModes = {
+	HubWorker.Mode.VISIT,
+	HubWorker.Mode.VISIT_WITH_PICKUP,
+	HubWorker.Mode.VISIT_TO_FIX_OVERFLOWS
+    };
+
+    static class ServiceList {
+	int version;
+	Hub[] hubs;
+	Slot[] slots;		// indexed by position
+	int[] over;		// positions of hubs in overSet or overflowSet
+	int nover = 0;
+	int[] under;		// positions of hubs in underSet
+	int nunder = 0;
+
+	ServiceList(int version, Hub[] hubs) {
+	    this.version = version;
+	    this.hubs = hubs;
+	    slots = new Slot[hubs.length];
+	    over = new int[hubs.length];
+	    under = new int[hubs.length];
+	}
+
+	void update(Slot slot, boolean inOver, boolean inUnder) {
+	    if (inOver) {
+		if (slot.overIndex == -1) {
+		    slot.overIndex = nover;
+		    over[nover++] = slot.position;
+		}
+	    } else if (slot.overIndex != -1) {
+		int last = over[--nover];
+		over[slot.overIndex] = last;
+		slots[last].overIndex = slot.overIndex;
+		slot.overIndex = -1;
+	    }
+	    if (inUnder) {
+		if (slot.underIndex == -1) {
+		    slot.underIndex = nunder;
+		    under[nunder++] = slot.position;
+		}
+	    } else if (slot.underIndex != -1) {
+		int last = under[--nunder];
+		under[slot.underIndex] = last;
+		slots[last].underIndex = slot.underIndex;
+		slot.underIndex = -1;
+	    }
+	}
+
+	int size() {return nover + nunder;}
+
+	// Get the hubs in the same order as the hub table, with the
+	// hubs in overSet or overflowSet before the ones in underSet.
+	// When lookAhead is positive, hubs that are only in underSet
+	// are skipped if bicycles expected to arrive within lookAhead
+	// seconds will bring them up to their lower triggers.
+	Hub[] getHubs(double lookAhead) {
+	    Arrays.sort(over, 0, nover);
+	    Arrays.sort(under, 0, nunder);
+	    Hub[] results = new Hub[nover + nunder];
+	    int n = 0;
+	    for (int i = 0; i < nover; i++) {
+		slots[over[i]].overIndex = i;
+		results[n++] = hubs[over[i]];
+	    }
+	    for (int i = 0; i < nunder; i++) {
+		slots[under[i]].underIndex = i;
+		Hub hub = hubs[under[i]];
+		if (lookAhead > 0.0 && slots[under[i]].overIndex == -1
+		    && (hub.getProjectedBikeCount(lookAhead)
+			>= hub.getLowerTrigger())) {
+		    continue;
+		}
+		results[n++] = hub;
+	    }
+	    return (n == results.length)? results: Arrays.copyOf(results, n);
+	}
+    }
+
+    static class Slot {
+	ServiceList list;
+	int position;
+	int overIndex = -1;
+	int underIndex = -1;
+
+	Slot(ServiceList list, int position) {
+	    this.list = list;
+	    this.position = position;
+	}
+    }
+
+    private static final Slot[] NO_SLOTS = new Slot[0];
+
+    Map<StorageHub,ServiceList[]> serviceLists = null;
+    Slot[][] slotsByHub = null;
+
+    /*
+     * The membership tests and counts used to choose the hubs that
+     * additional workers visit.  A subclass can add hubs to these
+     * sets (for example, hubs forecast to need service), in which case
+     * it must call updateSlots when the value returned by inServiceOver
+     * or inServiceUnder changes for a hub.
+     */
+    boolean inServiceOver(Hub hub) {
+	return overSet.contains(hub) || overflowSet.contains(hub);
+    }
+
+    boolean inServiceUnder(Hub hub) {
+	return underSet.contains(hub);
+    }
+
+    int serviceOverCount() {return overSet.size();}
+
+    int serviceUnderCount() {return underSet.size();}
+
+    double serviceLookAhead() {return lookAhead;}
+
+    void updateSlots(Hub hub) {
+	if (serviceLists == null) return;
+	int index = hub.getIndex();
+	if (index >= slotsByHub.length) return;
+	boolean inOver = inServiceOver(hub);
+	boolean inUnder = inServiceUnder(hub);
+	for (Slot slot: slotsByHub[index]) {
+	    slot.list.update(slot, inOver, inUnder);
+	}
+    }
+
+    private boolean serviceListsCurrent() {
+	if (serviceLists == null) return false;
+	Set<StorageHub> storageHubs = getSysDomain().getStorageHubs();
+	if (serviceLists.size() != storageHubs.size()) return false;
+	for (StorageHub shub: storageHubs) {
+	    ServiceList[] lists = serviceLists.get(shub);
+	    if (lists == null || lists[0].version != shub.hubTableVersion) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private void buildServiceLists() {
+	serviceLists = new HashMap<>();
+	ArrayList<Slot> slots = new ArrayList<>();
+	int maxIndex = -1;
+	for (StorageHub shub: getSysDomain().getStorageHubs()) {
+	    ServiceList[] lists = new ServiceList[serviceModes.length];
+	    for (int m = 0; m < serviceModes.length; m++) {
+		Hub[] hubs = shub.getHubSnapshot(serviceModes[m]);
+		ServiceList list = new ServiceList(shub.hubTableVersion, hubs);
+		for (int i = 0; i < hubs.length; i++) {
+		    Slot slot = new Slot(list, i);
+		    list.slots[i] = slot;
+		    slots.add(slot);
+		    if (hubs[i].getIndex() > maxIndex) {
+			maxIndex = hubs[i].getIndex();
+		    }
+		}
+		lists[m] = list;
+	    }
+	    serviceLists.put(shub, lists);
+	}
+	int[] counts = new int[maxIndex + 1];
+	for (Slot slot: slots) {
+	    counts[slot.list.hubs[slot.position].getIndex()]++;
+	}
+	slotsByHub = new Slot[maxIndex + 1][];
+	for (int i = 0; i <= maxIndex; i++) {
+	    slotsByHub[i] = (counts[i] == 0)? NO_SLOTS: new Slot[counts[i]];
+	    counts[i] = 0;
+	}
+	for (Slot slot: slots) {
+	    int index = slot.list.hubs[slot.position].getIndex();
+	    slotsByHub[index][counts[index]++] = slot;
+	}
+	for (Slot slot: slots) {
+	    Hub hub = slot.list.hubs[slot.position];
+	    slot.list.update(slot, inServiceOver(hub), inServiceUnder(hub));
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * This implementation keeps track of the hubs each storage hub
+     * should service.  Subclasses that override this method must call
+     * <code>super.hubStatusChanged(hub)</code>.
+     * @param hub {@inheritDoc}
+     */
+    @Override
+    protected void hubStatusChanged(Hub hub) {
+	updateSlots(hub);
     }
 
     boolean needStart = false;
@@ -266,29 +761,25 @@ public class BasicHubBalancer extends HubBalancer {
     protected void startAdditionalWorkers()
     {
 	if (quiet) {
-	    trace(BikeShare.level2,
+	    trace(context.level2(),
 		  "start of additional workers delayed - in quiet period");
 	    needStart = true;
 	    return;
 	} else {
-	    trace(BikeShare.level2, "additional workers starting as needed");
+	    trace(context.level2(), "additional workers starting as needed");
 	}
 
 	boolean haveAdditionalWork = false;
-	boolean overSetEmpty = overSet.isEmpty();
-	boolean underSetEmpty = underSet.isEmpty();
-	boolean overflowSetEmpty = overflowSet.isEmpty();
+	int osz = serviceOverCount();
+	int ofsz = overflowSet.size();
+	int usz = serviceUnderCount();
 
 	int limit = (int)Math.floor(threshold * numberOfHubs);
-	boolean overSetTriggered = overSet.size() >= limit;
-	boolean underSetTriggered = underSet.size() >= limit;
-	boolean overflowSetTriggered = overflowSet.size() >= limit;
+	boolean overSetTriggered = osz >= limit;
+	boolean underSetTriggered = usz >= limit;
+	boolean overflowSetTriggered = ofsz >= limit;
 
 	if (overSetTriggered || underSetTriggered || overflowSetTriggered) {
-	    int osz = overSet.size();
-	    int ofsz = overflowSet.size();
-	    int usz = underSet.size();
-	    int sz = osz + usz + ofsz;
 	    HubWorker.Mode mode = HubWorker.Mode.VISIT_WITH_PICKUP;
 	    if (osz == 0) {
 		if (ofsz == 0) {
@@ -305,61 +796,52 @@ public class BasicHubBalancer extends HubBalancer {
 		    mode = HubWorker.Mode.VISIT;
 		}
 	    }
-	    trace(BikeShare.level2, "will use mode %s", mode);
+	    trace(context.level2(), "will use mode %s", mode);
+	    if (!serviceListsCurrent()) {
+		buildServiceLists();
+	    }
+	    int m = 0;
+	    while (serviceModes[m] != mode) m++;
 	    for (StorageHub shub: getSysDomain().getStorageHubs()) {
-		int n = 0;
-		ArrayList<Hub> hublist = new ArrayList<>(sz);
-		for (Hub hub: shub.getHubs(mode)) {
-		    if (overSet.contains(hub) || overflowSet.contains(hub)) {
-			hublist.add(hub);
-			n++;
-		    }
-		}
-		for (Hub hub: shub.getHubs(mode)) {
-		    if (underSet.contains(hub)) {
-			hublist.add(hub);
-			n++;
-		    }
-		}
+		ServiceList list = serviceLists.get(shub)[m];
+		Hub[] hubs = (list.size() == 0)? null: list.getHubs(serviceLookAhead());
+		int n = (hubs == null)? 0: hubs.length;
 		if (n > 0) {
 		    long ctime = sim.currentTicks();
-		    trace(BikeShare.level2,
+		    trace(context.level2(),
 			  "startAdditionalWorkers --- n = %d "
 			  + "last time = %d (ticks)", n , lastTime);
 		    lastTime = ctime;
 		    if (shub.workerQueueNotUseable()) {
-			trace(BikeShare.level2,
+			trace(context.level2(),
 			      "insufficient workers for storage hub");
 			continue;
 		    }
 		    haveAdditionalWork = true;
 		    HubWorker worker = shub.pollWorkers();
 		    if (worker != null) {
-			trace(BikeShare.level2,
+			trace(context.level2(),
 			      "starting worker %s for %d hubs, mode %s",
 			      worker.getName(), n, mode);
 			HubWorker.HubSorter hsorter = 
-			    getHubSorter(mode, shub,
-					 hublist.toArray(new Hub[n]));
+			    getHubSorter(mode, shub, hubs);
 			worker.start(mode, hsorter , 0.0, 0.0);
 		    } else {
-			trace(BikeShare.level2,
+			trace(context.level2(),
 			      "queuing request for a worker, "
 			      + "n = %d, mode = %s", n, mode);
 			final StorageHub xshub = shub;
 			final int xn = n;
-			final ArrayList<Hub> xhublist = hublist;
+			final Hub[] xhubs = hubs;
 			final HubWorker.Mode xmode = mode;
 			shub.addOnQueueCallable(new Callable() {
 				public void call() {
 				    HubWorker w = xshub.pollWorkers();
-				    trace(BikeShare.level2,
+				    trace(context.level2(),
 					  "worker %s available: n=%d, mode=%s", 
 					  w.getName(), xn, xmode);
 				    HubWorker.HubSorter hsorter =
-					getHubSorter(xmode, xshub,
-						     xhublist.toArray
-						     (new Hub[xn]));
+					getHubSorter(xmode, xshub, xhubs);
 				    w.start(xmode, hsorter, 0.0, 0.0);
 				}
 			    });
@@ -367,10 +849,10 @@ public class BasicHubBalancer extends HubBalancer {
 		}
 	    }
 	} else {
-	    trace(BikeShare.level4,
+	    trace(context.level4(),
 		  "startAdditionalWorkers: nothing to do (%d, %d, %d), "
 		  + "limit =%d",
-		  underSet.size(), overSet.size(), overflowSet.size(),
+		  usz, osz, ofsz,
 		  limit);
 	}
 	if (haveAdditionalWork) {
@@ -395,6 +877,9 @@ public class BasicHubBalancer extends HubBalancer {
      *   <LI> the quiet period in seconds.
      *   <LI> the threshold (the fraction of the number of hubs
      *        beyond which a worker may be scheduled).
+     *   <LI> the look-ahead interval in seconds.
+     *   <LI> whether routes are planned and, if so, the planning
+     *        move budget.
      * </UL>
      * @param iPrefix {@inheritDoc}
      * @param prefix {@inheritDoc}
@@ -408,6 +893,14 @@ public class BasicHubBalancer extends HubBalancer {
 	super.printConfiguration(iPrefix, prefix, printName, out);
 	out.println(prefix + "quietPeriod: " + quietPeriod);
 	out.println(prefix + "threshold: " + threshold);
+	out.println(prefix + "lookAhead: " + lookAhead);
+	if (routePlanner == null) {
+	    out.println(prefix + "route planning: false");
+	} else {
+	    out.println(prefix + "route planning: true");
+	    out.println(prefix + "    move budget: "
+			+ routePlanner.getMoveBudget());
+	}
     }
 
     /**
@@ -420,6 +913,8 @@ public class BasicHubBalancer extends HubBalancer {
      *           <LI> nominal bicycle count.
      *           <LI> the number of hubs.
      *        </UL>
+     *   <LI> the last time non-looping workers were started.
+     *   <LI> route-planning statistics when a route planner is used.
      * </UL>
      * @param iPrefix {@inheritDoc}
      * @param prefix {@inheritDoc}
@@ -441,6 +936,24 @@ public class BasicHubBalancer extends HubBalancer {
 	} else {
 	    out.println(prefix + "non-looping workers not yet started");
 	}
+	if (routePlanner != null) {
+	    out.println(prefix + "route planning:");
+	    out.println(prefix + "    plans: " + routePlanner.getPlanCount());
+	    out.println(prefix + "    plans exceeding move budget: "
+			+ routePlanner.getBudgetExceededCount());
+	    out.println(prefix + "    total planning time: "
+			+ routePlanner.getTotalPlanningTime() + " (seconds)");
+	    if (routePlanner.getPlanCount() > 0) {
+		out.println(prefix + "    last plan:");
+		out.println(prefix + "        bicycles served: "
+			    + routePlanner.getLastServed() + " of "
+			    + routePlanner.getLastDemand());
+		out.println(prefix + "        estimated delay: "
+			    + routePlanner.getLastEstimatedDelay()
+			    + " (seconds), initially "
+			    + routePlanner.getLastInitialDelay());
+	    }
+	}
     }
 }
 
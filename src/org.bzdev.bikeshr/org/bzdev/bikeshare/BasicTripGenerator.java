@@ -4,7 +4,6 @@ import org.bzdev.lang.Callable;
 import org.bzdev.math.StaticRandom;
 import org.bzdev.math.rv.DoubleRandomVariable;
 import org.bzdev.math.rv.ExpDistrRV;
-import java.util.Arrays;
 
 import java.io.PrintWriter;
 
@@ -48,27 +47,15 @@ public class BasicTripGenerator extends TripGenerator {
 	this.sim = sim;
     }
 
-    static class Dest implements Comparable<Dest> {
+    static class Dest {
 	public Hub hub;
 	public double cvalue;
 	public double oprob;
 
-	private long instance;
-	static long instanceCounter = 0;
-
 	Dest(Hub hub, double cvalue, double oprob) {
 	    this.hub = hub;
 	    this.cvalue = cvalue;
 	    this.oprob = oprob;
-	    this.instance = (instanceCounter++);
-	}
-	
-	public int compareTo(Dest other) {
-	    if (cvalue < other.cvalue) return -1;
-	    if (cvalue > other.cvalue) return 1;
-	    if (instance > other.instance) return -1;
-	    if (instance < other.instance) return 1;
-	    else return 0;
 	}
     }
 
@@ -78,6 +65,7 @@ public class BasicTripGenerator extends TripGenerator {
     DoubleRandomVariable rv;
     double mean = 0.0;
     Dest[] dests;
+    DestSampler sampler;
     int nbikes;
 
     /**
@@ -100,6 +88,7 @@ public class BasicTripGenerator extends TripGenerator {
 	    this.mean = mean;
 	    rv = new ExpDistrRV(mean);
 	    if (wasRunning) restart();
+	    fireRatesChanged();
 
 	}
     }
@@ -124,28 +113,24 @@ public class BasicTripGenerator extends TripGenerator {
      * @param overflowProb the probability for a destination hub
      *        that the overflow area is used regardless of whether
      *        or not there is excess capacity in the preferred location
-     * 
+     * @exception IllegalArgumentException there were no weights, a
+     *            weight was negative, or the weights did not have a
+     *            finite, positive sum
      */
     public void init(Hub hub, double mean,
 		     int nbikes,
 		     Hub[] destHubs,
 		     double[] weights,
 		     double[] overflowProb)
+	throws IllegalArgumentException
     {
+	double sum = DestSampler.checkWeights(weights);
 	this.hub = hub;
 	rv = new ExpDistrRV(mean);
 	this.mean = mean;
 	this.nbikes = nbikes;
 
-	double sum = 0.0;
 	weights = weights.clone();
-	for (int i = 0; i < destHubs.length; i++) {
-	    if (weights[i] < 0.0) {
-		throw new IllegalArgumentException
-		    (errorMsg("weights", weights[i]));
-	    }
-	    sum += weights[i];
-	}
 	for (int i = 0; i < destHubs.length; i++) {
 	    weights[i] /= sum;
 	}
@@ -158,16 +143,37 @@ public class BasicTripGenerator extends TripGenerator {
 	    dests[i] = new Dest(destHubs[i], total, overflowProb[i]);
 	    last = total;
 	}
-	trace(BikeShare.level1, "trip generator configured");
+	sampler = new DestSampler(weights);
+	fireRatesChanged();
+	trace(context.level1(), "trip generator configured");
     }
 
+    /**
+     * {@inheritDoc}
+     * <P>
+     * For class BasicTripGenerator, trips to each destination hub start
+     * at a rate equal to the probability of choosing that hub divided
+     * by the mean interarrival time.
+     * @return {@inheritDoc}
+     */
+    @Override
+    public TripRate[] getTripRates() {
+	if (dests == null || !(mean > 0.0)) return new TripRate[0];
+	TripRate[] results = new TripRate[dests.length];
+	double last = 0.0;
+	for (int i = 0; i < dests.length; i++) {
+	    double prob = dests[i].cvalue - last;
+	    last = dests[i].cvalue;
+	    results[i] = new TripRate(hub, dests[i].hub, prob / mean, nbikes,
+				      false);
+	}
+	return results;
+    }
+
+    // init checked the weights, so the sampler always returns an
+    // index into dests.
     Dest chooseDest() {
-	double rval = StaticRandom.nextDouble();
-	while (rval == 1.0) rval = StaticRandom.nextDouble();
-	Dest key = new Dest(null, rval, 0.0);
-	int index = Arrays.binarySearch(dests, key);
-	if (index < 0) index = -index - 1;
-	return dests[index];
+	return dests[sampler.next()];
     }
 
     @Override
@@ -184,23 +190,13 @@ public class BasicTripGenerator extends TripGenerator {
 	final long tripID = createTripID();
 	boolean willOverflow =
 	    StaticRandom.nextDouble() < dest.oprob;
-	trace(BikeShare.level4,
+	trace(context.level4(),
 	      "sending %d bike-share users from %s to %s, "
 	      + "intending to use the %s",
 	      nbikes, hub, dest.hub,
 	      (willOverflow? "overflow area": "preferred area"));
-	Callable continuation = new Callable() {
-		public void call() {
-		    fireTripEnded(tripID, dest.hub);
-		}
-	    };
-	HubDomain d = hub.sendUsers(dest.hub, nbikes, willOverflow,
-				    getProbabilityFunction(), continuation);
-	if (d != null) {
-	    fireTripStarted(tripID, hub, d);
-	} else {
-	    fireTripFailedAtStart(tripID, hub);
-	}
+	startTrip(acquireTripState(tripID, hub, dest.hub, nbikes),
+		  willOverflow);
 	return true;
     }
 
@@ -1,5 +1,6 @@
 package org.bzdev.bikeshare;
 import java.util.ResourceBundle;
+import org.bzdev.drama.DramaSimulation;
 import org.bzdev.util.SafeFormatter;
 import org.bzdev.util.units.MKS;
 
@@ -19,6 +20,14 @@ import org.bzdev.util.units.MKS;
  * should be set to other values only if other communication
  * domains are defined (e.g., if this simulation library is used
  * in conjunction with other libraries).
+ * <P>
+ * Each of these values can be set for all simulations or for a
+ * single simulation.  The methods that do not have a simulation as
+ * an argument set process-wide defaults, which apply to every
+ * simulation for which a value has not been set explicitly.  The
+ * methods that have a simulation as their first argument affect only
+ * that simulation, so that simulations running concurrently in
+ * separate threads can be configured independently.
  */
 public class BikeShare {
 
@@ -31,11 +40,11 @@ public class BikeShare {
     }
 
 
-    static int level1 = -1; // configuration and initialization.
-                            // starting & stopping trip generators.
-    static int level2 = -1; // starting, stopping, and queuing workers.
-    static int level3 = -1; // worker actions at hubs.
-    static int level4 = -1; // Bicycle traffic between hubs.
+    static volatile int level1 = -1; // configuration and initialization.
+                                     // starting & stopping trip generators.
+    static volatile int level2 = -1; // starting, stopping, and queuing workers.
+    static volatile int level3 = -1; // worker actions at hubs.
+    static volatile int level4 = -1; // Bicycle traffic between hubs.
 
     /**
      * Set trace levels explicitly.
@@ -81,6 +90,29 @@ public class BikeShare {
 	BikeShare.level4 = level4;
     }
 
+    /**
+     * Set trace levels explicitly for a single simulation.
+     * The levels are interpreted as described for
+     * {@link #setTraceLevels(int,int,int,int)}, but apply only to the
+     * objects in the given simulation, replacing the defaults set by
+     * that method.
+     * @param sim the simulation
+     * @param level1 the first trace level
+     * @param level2 the second trace level
+     * @param level3 the third trace level
+     * @param level4 the fourth trace level
+     * @exception IllegalArgumentException an argument was smaller than -1
+     */
+    public static void setTraceLevels(DramaSimulation sim,
+				      int level1, int level2, int level3,
+				      int level4)
+	throws IllegalArgumentException
+    {
+	if (level1 < -1 || level2 < -1 || level3 < -1 || level4 < -1)
+	    throw new IllegalArgumentException(errorMsg("traceLevel"));
+	BikeShareContext.get(sim).setTraceLevels(level1, level2, level3, level4);
+    }
+
     /**
      * Set trace levels using enumerations.
      * A level set to null indicates that nothing will be displayed. Otherwise
@@ -123,13 +155,38 @@ public class BikeShare {
 	BikeShare.level4 = (level4 == null)? -1: level4.ordinal();
     }
 
+    /**
+     * Set trace levels for a single simulation using enumerations.
+     * The levels are interpreted as described for
+     * {@link #setTraceLevels(Enum,Enum,Enum,Enum)}, but apply only to
+     * the objects in the given simulation, replacing the defaults set
+     * by that method.
+     * @param <T> the enumeration type used to name trace levels
+     * @param sim the simulation
+     * @param level1 the first trace level
+     * @param level2 the second trace level
+     * @param level3 the third trace level
+     * @param level4 the fourth trace level
+     */
+    public static
+	<T extends Enum<T>> void setTraceLevels(DramaSimulation sim,
+						T level1, T level2,
+						T level3, T level4)
+    {
+	BikeShareContext.get(sim)
+	    .setTraceLevels((level1 == null)? -1: level1.ordinal(),
+			    (level2 == null)? -1: level2.ordinal(),
+			    (level3 == null)? -1: level3.ordinal(),
+			    (level4 == null)? -1: level4.ordinal());
+    }
+
     private static final int DEFAULT_USR_DOMAIN_PRIORITY = 0;
     private static final int DEFAULT_EXT_DOMAIN_PRIORITY = 1;
     private static final int DEFAULT_SYS_DOMAIN_PRIORITY = 2;
 
-    static int usrDomainPriority = DEFAULT_USR_DOMAIN_PRIORITY;
-    static int extDomainPriority = DEFAULT_EXT_DOMAIN_PRIORITY;
-    static int sysDomainPriority = DEFAULT_SYS_DOMAIN_PRIORITY;
+    static volatile int usrDomainPriority = DEFAULT_USR_DOMAIN_PRIORITY;
+    static volatile int extDomainPriority = DEFAULT_EXT_DOMAIN_PRIORITY;
+    static volatile int sysDomainPriority = DEFAULT_SYS_DOMAIN_PRIORITY;
 
     /**
      * Set domain priorities for hub domains.
@@ -162,9 +219,38 @@ public class BikeShare {
 	    DEFAULT_SYS_DOMAIN_PRIORITY: sysPriority;
     }
 
+    /**
+     * Set domain priorities for hub domains in a single simulation.
+     * The values set will be used by constructors for hub domains in
+     * the given simulation, replacing the defaults set by
+     * {@link #setPriorities(Integer,Integer,Integer)}.
+     * @param sim the simulation
+     * @param usrPriority the priority for  UsrDomain
+     * @param extPriority the priority for ExtDomain
+     * @param sysPriority the priority for SysDomain
+     * @exception IllegalArgumentException the usrPriority argument was
+     * not lower than the schedPriority argument, which should in turn
+     * be lower than the sysPriority argument.
+     */
+    public static void setPriorities(DramaSimulation sim,
+				     Integer usrPriority,
+				     Integer extPriority,
+				     Integer sysPriority)
+	throws IllegalArgumentException
+    {
+	if (usrPriority >= extPriority || extPriority >= sysPriority ) {
+	    String msg =
+	      errorMsg("domainPriority", usrPriority, extPriority, sysPriority);
+	    throw new IllegalArgumentException(msg);
+	}
+	BikeShareContext.get(sim).setPriorities(usrPriority, extPriority,
+						sysPriority);
+    }
+
     static final double DEFAULT_MINSTDDELAYTABLESPEED = MKS.mph(3.0);
 
-    static double minStdDelayTableSpeed = DEFAULT_MINSTDDELAYTABLESPEED;
+    static volatile double minStdDelayTableSpeed =
+	DEFAULT_MINSTDDELAYTABLESPEED;
 
     /**
      * Set the minimum speed for the StdDelayTable class.
@@ -179,6 +265,20 @@ public class BikeShare {
 	}
     }
 
+    /**
+     * Set the minimum speed for the StdDelayTable class in a single
+     * simulation.
+     * @param sim the simulation
+     * @param value the speed in units of meters/second; 0.0 or
+     *        a negative value to use the value set by
+     *        {@link #setMinStdDelayTableSpeed(double)}
+     */
+    public static void setMinStdDelayTableSpeed(DramaSimulation sim,
+						double value)
+    {
+	BikeShareContext.get(sim).setMinStdDelayTableSpeed(value);
+    }
+
 }
 
 //  LocalWords:  lt balancer BasicHubBalancer StorageHub unqueuing
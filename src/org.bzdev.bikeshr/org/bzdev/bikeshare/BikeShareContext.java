@@ -0,0 +1,122 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.DramaSimulation;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Per-simulation state for the org.bzdev.bikeshare package.
+ * Each simulation has one context, created when first needed and
+ * discarded when the simulation is no longer referenced.  A context
+ * contains the counters used to number trips and hubs, and any
+ * values set for a single simulation by the methods in
+ * {@link BikeShare} that take a simulation as their first argument.
+ * A value not set for a simulation is obtained from the process-wide
+ * default in {@link BikeShare} each time it is used.
+ * <P>
+ * Simulation objects normally look up their context once, when
+ * constructed. Because a simulation runs in a single thread, the
+ * counters are not synchronized; the values that may be set from
+ * other threads are volatile.
+ */
+final class BikeShareContext {
+
+    private static final Map<DramaSimulation,BikeShareContext> contexts =
+	new WeakHashMap<>();
+
+    /**
+     * Get the context for a simulation.
+     * @param sim the simulation
+     * @return the context
+     */
+    static BikeShareContext get(DramaSimulation sim) {
+	synchronized (contexts) {
+	    BikeShareContext context = contexts.get(sim);
+	    if (context == null) {
+		context = new BikeShareContext();
+		contexts.put(sim, context);
+	    }
+	    return context;
+	}
+    }
+
+    private BikeShareContext() {}
+
+    private long tripCount = 0;
+
+    long nextTripID() {
+	return ++tripCount;
+    }
+
+    // Hubs are numbered consecutively, starting from zero, in each
+    // simulation so that other classes can keep per-hub data in
+    // arrays rather than hash tables.
+    private int hubCount = 0;
+
+    int nextHubIndex() {
+	return hubCount++;
+    }
+
+    // null when the defaults in BikeShare are used.
+    private volatile int[] levels = null;
+
+    void setTraceLevels(int level1, int level2, int level3, int level4) {
+	levels = new int[] {level1, level2, level3, level4};
+    }
+
+    int level1() {
+	int[] l = levels;
+	return (l == null)? BikeShare.level1: l[0];
+    }
+
+    int level2() {
+	int[] l = levels;
+	return (l == null)? BikeShare.level2: l[1];
+    }
+
+    int level3() {
+	int[] l = levels;
+	return (l == null)? BikeShare.level3: l[2];
+    }
+
+    int level4() {
+	int[] l = levels;
+	return (l == null)? BikeShare.level4: l[3];
+    }
+
+    // null when the defaults in BikeShare are used.
+    private volatile int[] priorities = null;
+
+    void setPriorities(int usrPriority, int extPriority, int sysPriority) {
+	priorities = new int[] {usrPriority, extPriority, sysPriority};
+    }
+
+    int usrDomainPriority() {
+	int[] p = priorities;
+	return (p == null)? BikeShare.usrDomainPriority: p[0];
+    }
+
+    int extDomainPriority() {
+	int[] p = priorities;
+	return (p == null)? BikeShare.extDomainPriority: p[1];
+    }
+
+    int sysDomainPriority() {
+	int[] p = priorities;
+	return (p == null)? BikeShare.sysDomainPriority: p[2];
+    }
+
+    // 0.0 when the default in BikeShare is used.
+    private volatile double minStdDelayTableSpeed = 0.0;
+
+    void setMinStdDelayTableSpeed(double value) {
+	minStdDelayTableSpeed = (value <= 0.0)? 0.0: value;
+    }
+
+    double minStdDelayTableSpeed() {
+	double value = minStdDelayTableSpeed;
+	return (value == 0.0)? BikeShare.minStdDelayTableSpeed: value;
+    }
+}
+
+//  LocalWords:  bzdev bikeshare
@@ -6,9 +6,8 @@ import org.bzdev.math.StaticRandom;
 import org.bzdev.math.rv.IntegerRandomVariable;
 
 import java.io.PrintWriter;
-import java.lang.ref.WeakReference;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Comparator;
 
 /**
  * Trip generator for trips that occur in bursts.
@@ -100,34 +99,26 @@ public class BurstTripGenerator extends TripGenerator {
 	return estimationOffset;
     }
 
-    static class Other implements Comparable<Other> {
+    static class Other {
 	public Hub hub;
 	public double cvalue;
 	public double oprob;
 
-	private long instance;
-	static long instanceCounter = 0;
-
 	Other(Hub hub, double cvalue, double oprob) {
 	    this.hub = hub;
 	    this.cvalue = cvalue;
 	    this.oprob = oprob;
-	    this.instance = (instanceCounter++);
-	}
-	
-	public int compareTo(Other other) {
-	    if (cvalue < other.cvalue) return -1;
-	    if (cvalue > other.cvalue) return 1;
-	    if (instance > other.instance) return -1;
-	    if (instance < other.instance) return 1;
-	    else return 0;
 	}
     }
 
     Other[] others;
+    DestSampler sampler;
 
     /**
      * Initialization.
+     * If the trip generator is running, it is stopped and restarted
+     * with the new configuration, and the schedule for a previous
+     * fan-in burst is discarded.
      * @param hub the hub from which trips originate
      * @param time the time at which trips are generated
      * @param nbikes is the number of bicycles in a burst
@@ -139,6 +130,9 @@ public class BurstTripGenerator extends TripGenerator {
      *        or not there is excess capacity in the preferred location
      * @param fanIn true of traffic goes in the reverse direction (i.e.,
      *        towards Hub hub); false if the traffic starts at Hub hub
+     * @exception IllegalArgumentException there were no weights, a
+     *            weight was negative, or the weights did not have a
+     *            finite, positive sum
      */
     public void init(Hub hub, double time,
 		     int nbikes,
@@ -146,7 +140,13 @@ public class BurstTripGenerator extends TripGenerator {
 		     double[] weights,
 		     double[] overflowProb,
 		     boolean fanIn)
+	throws IllegalArgumentException
     {
+	double sum = DestSampler.checkWeights(weights);
+	// Stop the trip generator, which cancels a pending fan-in
+	// event, so that the previous burst's schedule is not used.
+	boolean wasRunning = isStarted() || fanInEvent != null;
+	if (wasRunning) stop();
 	this.hub = hub;
 
 	initialTime = sim.currentTime();
@@ -156,15 +156,7 @@ public class BurstTripGenerator extends TripGenerator {
 	burstTime = time;
 	this.fanIn = fanIn;
 
-	double sum = 0.0;
 	weights = weights.clone();
-	for (int i = 0; i < otherHubs.length; i++) {
-	    if (weights[i] < 0.0) {
-		throw new IllegalArgumentException
-		    (errorMsg("weights", weights[i]));
-	    }
-	    sum += weights[i];
-	}
 
 	for (int i = 0; i < otherHubs.length; i++) {
 	    weights[i] /= sum;
@@ -178,16 +170,22 @@ public class BurstTripGenerator extends TripGenerator {
 	    others[i] = new Other(otherHubs[i], total, overflowProb[i]);
 	    last = total;
 	}
-	trace(BikeShare.level1, "trip generator configured");
+	sampler = new DestSampler(weights);
+	// a new burst: any fan-in schedule was for the previous one and
+	// will be created when the trip generator starts.
+	fanInTicks = null;
+	fanInOthers = null;
+	fanInCursor = 0;
+	tripsTried = 0;
+	tripsSkipped = 0;
+	if (wasRunning) restart();
+	trace(context.level1(), "trip generator configured");
     }
 
+    // init checked the weights, so the sampler always returns an
+    // index into others.
     Other chooseOther() {
-	double rval = StaticRandom.nextDouble();
-	while (rval == 1.0) rval = StaticRandom.nextDouble();
-	Other key = new Other(null, rval, 0.0);
-	int index = Arrays.binarySearch(others, key);
-	if (index < 0) index = -index - 1;
-	return others[index];
+	return others[sampler.next()];
     }
 
     @Override
@@ -195,43 +193,114 @@ public class BurstTripGenerator extends TripGenerator {
 	return getInitialDelay() + initialTime - sim.currentTime();
     }
 
-    LinkedList<WeakReference<SimulationEvent>> wrlist =
-	new LinkedList<WeakReference<SimulationEvent>>();
+    // Fan-in trips: the simulation times, in ticks, at which trips
+    // start, in increasing order, and for each trip, the index into
+    // others of its starting hub.  A single event advances a cursor
+    // through these arrays, rescheduling itself for the next time.
+    long[] fanInTicks = null;
+    int[] fanInOthers = null;
+    int fanInCursor = 0;
+    SimulationEvent fanInEvent = null;
+    private Callable fanInCall = new Callable() {
+	    public void call() {
+		fanInEvent = null;
+		runFanIn();
+	    }
+	};
+
+    private void createFanInSchedule() {
+	int n = others.length;
+	int[] counts = new int[n];
+	for (int i = 0; i < nbikes; i++) {
+	    counts[sampler.next()]++;
+	}
+	long now = sim.currentTicks();
+	final long[] ticks = new long[n];
+	Integer[] order = new Integer[n];
+	HubDomain d = hub.getUsrDomain();
+	for (int k = 0; k < n; k++) {
+	    order[k] = k;
+	    if (counts[k] == 0) continue;
+	    double delay = d.estimateDelay(others[k].hub, hub, estimationCount);
+	    delay *= estimationFactor;
+	    delay += estimationOffset;
+	    double st = burstTime - delay - sim.currentTime();
+	    ticks[k] = now + ((st > 0.0)? sim.getTicks(st): 0L);
+	}
+	Arrays.sort(order, new Comparator<Integer>() {
+		public int compare(Integer k1, Integer k2) {
+		    return Long.compare(ticks[k1], ticks[k2]);
+		}
+	    });
+	fanInTicks = new long[nbikes];
+	fanInOthers = new int[nbikes];
+	int j = 0;
+	for (int k: order) {
+	    for (int i = 0; i < counts[k]; i++) {
+		fanInTicks[j] = ticks[k];
+		fanInOthers[j] = k;
+		j++;
+	    }
+	}
+	fanInCursor = 0;
+    }
+
+    private void scheduleFanIn() {
+	long now = sim.currentTicks();
+	int n = fanInTicks.length;
+	if (fanInCursor < n) {
+	    fanInEvent = sim.scheduleCall(fanInCall,
+					  fanInTicks[fanInCursor] - now);
+	}
+    }
+
+    private void runFanIn() {
+	long now = sim.currentTicks();
+	int n = fanInTicks.length;
+	while (fanInCursor < n && fanInTicks[fanInCursor] <= now) {
+	    startOneTrip(others[fanInOthers[fanInCursor++]].hub, false, true);
+	}
+	scheduleFanIn();
+    }
 
     @Override
     public void restart() {
 	super.restart();
-	if (fanIn) {
-	    for (int i = 0; i < nbikes; i++) {
-		final Hub other = chooseOther().hub;
-		HubDomain d = hub.getUsrDomain();
-		double delay = d.estimateDelay(other, hub, estimationCount);
-		delay *= estimationFactor;
-		delay += estimationOffset;
-		double st = burstTime - delay - sim.currentTime();
-		Callable callable = new Callable() {
-			public void call() {
-			    startOneTrip(other, false, true);
-			}
-		    };
-		SimulationEvent event = sim.scheduleCall(callable,
-							 sim.getTicks(st));
-		wrlist.add(new WeakReference<SimulationEvent>(event));
+	if (!fanIn && !isRunning() && tripsTried + tripsSkipped < nbikes
+	    && getNextInterval() < 0.0) {
+	    // restarted after the burst time, so the burst will not occur
+	    tripsSkipped = nbikes - tripsTried;
+	}
+	if (fanIn && fanInEvent == null && others.length > 0) {
+	    if (fanInTicks == null) {
+		createFanInSchedule();
+	    } else {
+		// after a stop, trips whose starting times have passed
+		// are not generated.
+		long now = sim.currentTicks();
+		int n = fanInTicks.length;
+		while (fanInCursor < n && fanInTicks[fanInCursor] < now) {
+		    fanInCursor++;
+		    tripsSkipped++;
+		}
 	    }
+	    scheduleFanIn();
 	}
     }
 
     @Override
     public void stop() {
 	super.stop();
-	for (WeakReference<SimulationEvent> eref: wrlist) {
-	    SimulationEvent event = eref.get();
-	    if (event != null && event.isPending()) event.cancel();
+	if (fanInEvent != null) {
+	    fanInEvent.cancel();
+	    fanInEvent = null;
 	}
-	wrlist.clear();
     }
 
     int tripsTried = 0;
+    // trips not generated because the trip generator was stopped
+    // when they should have started.
+    int tripsSkipped = 0;
     int tripsInProgress = 0;
     int tripsFailed = 0;
 
@@ -246,29 +315,26 @@ public class BurstTripGenerator extends TripGenerator {
 	boolean willOverflow =
 	    StaticRandom.nextDouble() < dest.oprob;
 	*/
-	trace(BikeShare.level4,
+	trace(context.level4(),
 	      "sending %d bike-share users from %s to %s, "
 	      + "intending to use the %s",
 	      1, src, dest,
 	      (willOverflow? "overflow area": "preferred area"));
 	tripsTried++;
-	Callable continuation = new Callable() {
-		public void call() {
-		    tripsInProgress--;
-		    fireTripEnded(tripID, dest);
-		}
-	    };
-	HubDomain d = src.sendUsers(dest, 1, willOverflow,
-				    getProbabilityFunction(), continuation);
+	HubDomain d = startTrip(acquireTripState(tripID, src, dest, 1),
+				willOverflow);
 	if (d != null) {
 	    tripsInProgress++;
-	    fireTripStarted(tripID, src, d);
 	} else {
 	    tripsFailed++;
-	    fireTripFailedAtStart(tripID, src);
 	}
     }
 
+    @Override
+    void tripCompleted(TripState ts) {
+	tripsInProgress--;
+    }
+
     @Override
     protected boolean action() {
 	if (!fanIn) {
@@ -278,8 +344,6 @@ public class BurstTripGenerator extends TripGenerator {
 		    StaticRandom.nextDouble() < other.oprob;
 		startOneTrip(other.hub, willOverflow, false);
 	    }
-	} else {
-	    wrlist.clear();
 	}
 	return false;
     }
@@ -353,8 +417,11 @@ public class BurstTripGenerator extends TripGenerator {
      * <P>
      * Defined for class BurstTripGenerator:
      * <UL>
-     *   <LI><B>trips pending</B>. The number of trips scheduled but not
-     *       yet started.
+     *   <LI><B>trips pending</B>. True if some trips have not yet
+     *       started and were not skipped.
+     *   <LI><B>trips skipped</B>. The number of trips that were not
+     *       started because the trip generator was stopped when they
+     *       should have started.
      *   <LI><B>trips completed</B>. The number of trips that were completed.
      *   <LI><B>trips in progress</B>. The number of trips in progress.
      *   <LI><B>trips failed</B>. The number of trips that could not be
@@ -364,12 +431,13 @@ public class BurstTripGenerator extends TripGenerator {
     public void printState(String iPrefix, String prefix,
 			   boolean printName, PrintWriter out)
     {
-	super.printConfiguration(iPrefix, prefix, printName, out);
+	super.printState(iPrefix, prefix, printName, out);
 
-	boolean tripsPending = (tripsTried != nbikes);
+	boolean tripsPending = (tripsTried + tripsSkipped < nbikes);
 	boolean tripsCompleted = (tripsPending == false) && (tripsInProgress == 0);
 	
 	out.println(prefix + "trips pending: " + tripsPending);
+	out.println(prefix + "trips skipped: " + tripsSkipped);
 	out.println(prefix + "trips completed: " + tripsCompleted);
 	out.println(prefix + "trips in progress:" + tripsInProgress);
 	out.println(prefix + "trips failed: " + tripsFailed);
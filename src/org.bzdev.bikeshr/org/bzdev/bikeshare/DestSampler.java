@@ -0,0 +1,138 @@
+package org.bzdev.bikeshare;
+import org.bzdev.math.StaticRandom;
+
+/*
+ * Sampler that chooses an index with a probability proportional to
+ * a weight.
+ * Trip generators use this class to pick destination hubs.  The
+ * implementation uses Walker's alias method with Vose's construction:
+ * building the tables takes time proportional to the number of
+ * weights and each sample takes constant time and does not allocate
+ * any objects.  The weights are checked when the tables are built,
+ * so that next() always returns a valid index.
+ */
+final class DestSampler {
+
+    private int n = 0;
+    private double[] prob = new double[0];
+    private int[] alias = new int[0];
+    // work areas for a rebuild
+    private double[] scaled = new double[0];
+    private int[] small = new int[0];
+    private int[] large = new int[0];
+
+    /**
+     * Constructor.
+     * @param weights the weights, of which there must be at least one,
+     *        which must be non-negative and have a finite, positive sum
+     * @exception IllegalArgumentException the weights were not valid
+     */
+    DestSampler(double[] weights) throws IllegalArgumentException {
+	rebuild(weights);
+    }
+
+    /**
+     * Get the number of weights.
+     * @return the number of weights
+     */
+    int size() {
+	return n;
+    }
+
+    /**
+     * Rebuild the tables using new weights.
+     * Arrays are reused when the number of weights does not change.
+     * When the weights are not valid, the tables are not changed.
+     * @param weights the weights, of which there must be at least one,
+     *        which must be non-negative and have a finite, positive sum
+     * @exception IllegalArgumentException the weights were not valid
+     */
+    void rebuild(double[] weights) throws IllegalArgumentException {
+	double sum = checkWeights(weights);
+	int len = weights.length;
+	if (len != prob.length) {
+	    prob = new double[len];
+	    alias = new int[len];
+	    scaled = new double[len];
+	    small = new int[len];
+	    large = new int[len];
+	}
+	n = len;
+	int ns = 0;
+	int nl = 0;
+	for (int i = 0; i < n; i++) {
+	    scaled[i] = weights[i] * n / sum;
+	    if (scaled[i] < 1.0) {
+		small[ns++] = i;
+	    } else {
+		large[nl++] = i;
+	    }
+	}
+	while (ns > 0 && nl > 0) {
+	    int l = small[--ns];
+	    int g = large[--nl];
+	    prob[l] = scaled[l];
+	    alias[l] = g;
+	    scaled[g] = (scaled[g] + scaled[l]) - 1.0;
+	    if (scaled[g] < 1.0) {
+		small[ns++] = g;
+	    } else {
+		large[nl++] = g;
+	    }
+	}
+	// Entries left over differ from 1.0 only due to rounding errors.
+	while (nl > 0) {
+	    int g = large[--nl];
+	    prob[g] = 1.0;
+	    alias[g] = g;
+	}
+	while (ns > 0) {
+	    int l = small[--ns];
+	    prob[l] = 1.0;
+	    alias[l] = l;
+	}
+    }
+
+    /**
+     * Check that weights can be used to build the tables.
+     * @param weights the weights
+     * @return the sum of the weights
+     * @exception IllegalArgumentException there were no weights, a
+     *            weight was negative or not a number, or the sum of
+     *            the weights was not finite and positive
+     */
+    static double checkWeights(double[] weights)
+	throws IllegalArgumentException
+    {
+	if (weights.length == 0) {
+	    throw new IllegalArgumentException(BikeShare.errorMsg("noWeights"));
+	}
+	double sum = 0.0;
+	for (double w: weights) {
+	    if (!(w >= 0.0)) {
+		throw new IllegalArgumentException
+		    (BikeShare.errorMsg("weights", w));
+	    }
+	    sum += w;
+	}
+	if (!(sum > 0.0) || Double.isInfinite(sum)) {
+	    throw new IllegalArgumentException
+		(BikeShare.errorMsg("weightSum", sum));
+	}
+	return sum;
+    }
+
+    /**
+     * Choose an index.
+     * @return an index in the range [0, n) where n is the number of
+     *         weights
+     */
+    int next() {
+	double u = StaticRandom.nextDouble() * n;
+	int i = (int) u;
+	if (i == n) i = n - 1;
+	return (u - i < prob[i])? i: alias[i];
+    }
+}
+
+//  LocalWords:  Vose's
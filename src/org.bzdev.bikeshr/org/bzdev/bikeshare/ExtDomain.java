@@ -31,7 +31,8 @@ public class ExtDomain extends HubDomain {
      *        simulation's name table; false otherwise
      */
     public ExtDomain(DramaSimulation sim, String name, boolean intern) {
-	super(sim, name, intern, BikeShare.extDomainPriority);
+	super(sim, name, intern,
+	      BikeShareContext.get(sim).extDomainPriority());
     }
 }
 
@@ -100,8 +100,23 @@ public class Hub extends Actor {
     public Hub(DramaSimulation sim, String name, boolean intern) {
 	super(sim, name, intern);
 	this.sim = sim;
+	context = BikeShareContext.get(sim);
+	index = context.nextHubIndex();
     }
 
+    BikeShareContext context;
+
+    final int index;
+
+    /**
+     * Get this hub's index.
+     * Hubs are numbered consecutively in the order in which they
+     * are created, starting from zero for each simulation, so the
+     * index can be used to store per-hub data in an array.
+     * @return the index for this hub
+     */
+    public int getIndex() {return index;}
+
     private int initialBikeCount;
 
     /**
@@ -213,6 +228,30 @@ public class Hub extends Actor {
 	}
     }
 
+    // Per-hub subscribers for trip and worker events.  These events
+    // are generated by trip generators and hub workers, which notify
+    // these subscribers after their own listeners.  The arrays are
+    // copy-on-write, so the common case, with no subscribers, costs an
+    // empty loop.  Subscriptions are managed by HubSubscriptions.
+    final TripDataListeners tripSubscribers = new TripDataListeners();
+    final HubWorkerListeners workerSubscribers = new HubWorkerListeners();
+
+    void addTripSubscriber(TripDataListener listener) {
+	tripSubscribers.add(listener);
+    }
+
+    void removeTripSubscriber(TripDataListener listener) {
+	tripSubscribers.remove(listener);
+    }
+
+    void addWorkerSubscriber(HubWorkerListener listener) {
+	workerSubscribers.add(listener);
+    }
+
+    void removeWorkerSubscriber(HubWorkerListener listener) {
+	workerSubscribers.remove(listener);
+    }
+
     /**
      * Initialize this object.  Each instance of this object has a
      * preferred location at a specified coordinate with a fixed
@@ -361,6 +400,69 @@ public class Hub extends Actor {
 	return overflow;
     }
 
+    // Changes that workers traveling to this hub intend to make.
+    // claimedBikes is the number of bicycles to be removed from the
+    // preferred area (negative when bicycles will be added) and
+    // claimedOverflow is the number to be removed from the overflow
+    // area.  Each worker has at most one claim, which it adds when it
+    // chooses its next hub and removes when it arrives.
+    private int claimedBikes = 0;
+    private int claimedOverflow = 0;
+    private int nclaims = 0;
+
+    void addClaim(int bikes, int overflow) {
+	claimedBikes += bikes;
+	claimedOverflow += overflow;
+	nclaims++;
+    }
+
+    void removeClaim(int bikes, int overflow) {
+	claimedBikes -= bikes;
+	claimedOverflow -= overflow;
+	nclaims--;
+    }
+
+    /**
+     * Get the number of bicycles that workers traveling to this hub
+     * intend to remove from its preferred location.
+     * @return the number of bicycles; negative if workers intend to
+     *         add bicycles
+     */
+    public int getClaimedBikes() {
+	return claimedBikes;
+    }
+
+    /**
+     * Get the number of bicycles that workers traveling to this hub
+     * intend to remove from its overflow area.
+     * @return the number of bicycles
+     */
+    public int getClaimedOverflow() {
+	return claimedOverflow;
+    }
+
+    /**
+     * Get the bicycle count at the preferred location after the
+     * changes claimed by workers traveling to this hub.
+     * Workers and hub sorters use this value so that two workers
+     * are not sent to fix the same problem.
+     * @return the bicycle count net of the claimed changes
+     * @see #getClaimedBikes()
+     */
+    public int getUnclaimedBikeCount() {
+	return bikeCount - claimedBikes;
+    }
+
+    /**
+     * Get the number of bicycles in the overflow area after the
+     * pickups claimed by workers traveling to this hub.
+     * @return the number of bicycles net of the claimed pickups
+     * @see #getClaimedOverflow()
+     */
+    public int getUnclaimedOverflow() {
+	return overflow - claimedOverflow;
+    }
+
     /**
      * Get the nominal value for the number of bicycles that are
      * stored at a hub's preferred location.
@@ -419,6 +521,7 @@ public class Hub extends Actor {
 	    overflow--;
 	}
 	if (n != 0) {
+	    fireHubListeners(needBikes(), excessBikes(), overflow);
 	    fireHubDataListeners(bikeCount, false, overflow, true);
 	}
 	return sim.getTicks(interval);
@@ -455,7 +558,7 @@ public class Hub extends Actor {
 	}
 	int need = needBikes();
 	int excess = excessBikes();
-	if (need != need0 || excess != excess0) {
+	if (need != need0 || excess != excess0 || overflow != oldOverflow) {
 	    fireHubListeners(need, excess, overflow);
 	}
 	if (decr != 0) {
@@ -495,6 +598,83 @@ public class Hub extends Actor {
     }
 
 
+    // Trips carrying bicycles to this hub, with running totals of
+    // the bicycles due by the last time limit queried.
+    private ArrivalSchedule arrivals = new ArrivalSchedule();
+
+    /**
+     * Get the number of bicycles traveling to this hub that will
+     * be put in the preferred area if there is room.
+     * @return the number of bicycles
+     */
+    public int getInFlightCount() {
+	return arrivals.getInFlight(false);
+    }
+
+    /**
+     * Get the number of bicycles traveling to this hub that will
+     * be put in the overflow area.
+     * @return the number of bicycles
+     */
+    public int getInFlightOverflowCount() {
+	return arrivals.getInFlight(true);
+    }
+
+    /**
+     * Get the number of bicycles expected to arrive at this hub
+     * within a specified time interval.
+     * The expected arrival time for a trip is computed from the
+     * delay estimate provided by the domain used for the trip when
+     * the trip starts.  Bicycles that are late are counted until they
+     * arrive.  Trips for which that domain has no finite delay
+     * estimate are not counted.
+     * @param interval the time interval in seconds, starting at the
+     *        current simulation time
+     * @return the number of bicycles expected to arrive, whether they
+     *         will be put in the preferred area or the overflow area
+     */
+    public int getExpectedArrivals(double interval) {
+	long ticks = sim.currentTicks() + sim.getTicks(interval);
+	return arrivals.expected(ticks, false) + arrivals.expected(ticks, true);
+    }
+
+    /**
+     * Get the projected number of bicycles at this hub's preferred
+     * location.
+     * The projection adds the bicycles expected to arrive within
+     * the specified time interval to the current count, limited by
+     * this hub's capacity, and does not account for bicycles that
+     * will be removed.
+     * @param interval the time interval in seconds, starting at the
+     *        current simulation time
+     * @return the projected number of bicycles
+     * @see #getExpectedArrivals(double)
+     */
+    public int getProjectedBikeCount(double interval) {
+	long ticks = sim.currentTicks() + sim.getTicks(interval);
+	int n = bikeCount + arrivals.expected(ticks, false);
+	return (n > capacity)? capacity: n;
+    }
+
+    /**
+     * Get the projected number of bicycles in this hub's overflow area.
+     * The projection adds the bicycles expected to arrive within the
+     * specified time interval and that will be put in the overflow
+     * area, either by choice or because the preferred area is full,
+     * to the current overflow count, and does not account for
+     * bicycles that will be removed.
+     * @param interval the time interval in seconds, starting at the
+     *        current simulation time
+     * @return the projected number of bicycles
+     * @see #getExpectedArrivals(double)
+     */
+    public int getProjectedOverflow(double interval) {
+	long ticks = sim.currentTicks() + sim.getTicks(interval);
+	int n = bikeCount + arrivals.expected(ticks, false);
+	int excess = (n > capacity)? n - capacity: 0;
+	return overflow + arrivals.expected(ticks, true) + excess;
+    }
+
     /**
      * Message representing a trip.
      */
@@ -503,6 +683,7 @@ public class Hub extends Actor {
 	boolean bikeMode;
 	boolean  willOverflow;
 	Callable continuation;
+	int arrivalSlot = -1;
 
 	/**
 	 * Get the number of bicycles or persons traveling together
@@ -609,11 +790,22 @@ public class Hub extends Actor {
 	    n = -1;
 	}
 	if (n != -1) {
-	    trace(BikeShare.level4,
+	    trace(context.level4(),
 		  "sending %d %s to %s",
 		  m, (bikeMode? "bicycles": "users"), dest.getName());
 	    TripMessage tmsg =
 		new TripMessage(m, bikeMode, willOverflow, continuation);
+	    if (bikeMode && m > 0) {
+		// A delay table may have no estimate (for example, a
+		// SchedDelayTable with no remaining departures), in which
+		// case the arrival is not recorded rather than overflowing
+		// the conversion to ticks.
+		double delay = d.estimateDelay(this, dest, m);
+		if (Double.isFinite(delay)) {
+		    long ticks = sim.currentTicks() + sim.getTicks(delay);
+		    tmsg.arrivalSlot = dest.arrivals.add(m, willOverflow, ticks);
+		}
+	    }
 	    send(tmsg, dest, d);
 	    return d;
 	} else {
@@ -626,20 +818,24 @@ public class Hub extends Actor {
 	
 	int n = msg.n;
 	boolean bikeMode = msg.bikeMode;
+	if (msg.arrivalSlot != -1) {
+	    arrivals.remove(msg.arrivalSlot);
+	    msg.arrivalSlot = -1;
+	}
 	if (bikeMode) {
 	    if (msg.willOverflow) {
-		trace(BikeShare.level4,
+		trace(context.level4(),
 		      "accepting %d bicycles, "
 		      +"intended and added to the overflow area", n);
 		incrOverflow(n);
 	    } else {
 		int nn = incrBikeCount(n);
-		trace(BikeShare.level4,
+		trace(context.level4(),
 		      "accepting %d bicycles, %d added to the preferred area",
 		      n, nn);
 	    }
 	} else {
-	    trace(BikeShare.level4,
+	    trace(context.level4(),
 		  "accepting %d users traveling without shared bicycles", n);
 	}
 	if (msg.continuation != null) {
@@ -715,6 +911,10 @@ public class Hub extends Actor {
      *   <LI> the bicycle count for this hub.
      *   <LI> the count of the number of bicycles in the overflow area
      *        for this hub.
+     *   <LI> the number of bicycles traveling to this hub, for the
+     *        preferred area and for the overflow area.
+     *   <LI> the number of claims by workers traveling to this hub and
+     *        the numbers of bicycles they intend to remove.
      * </UL>
      * @param iPrefix the prefix to use for an initial line when printName is
      *        true with null treated as an empty string
@@ -730,6 +930,12 @@ public class Hub extends Actor {
 	super.printState(iPrefix, prefix, printName, out);
 	out.println(prefix + "bike count: " + bikeCount);
 	out.println(prefix + "overflow count: " + overflow);
+	out.println(prefix + "bicycles in transit: "
+		    + arrivals.getInFlight(false) + " (preferred area), "
+		    + arrivals.getInFlight(true) + " (overflow area)");
+	out.println(prefix + "worker claims: " + nclaims + " (removing "
+		    + claimedBikes + " from the preferred area, "
+		    + claimedOverflow + " from the overflow area)");
     }
 }
 
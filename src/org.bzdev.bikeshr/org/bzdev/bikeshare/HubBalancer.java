@@ -53,6 +53,7 @@ public abstract class HubBalancer extends Actor {
      */
     protected HubBalancer(DramaSimulation sim, String name, boolean intern) {
 	super(sim, name, intern);
+	context = BikeShareContext.get(sim);
 	// Wait until everything is configured.
 	sim.scheduleInitCall(new Callable() {
 		public void call() {
@@ -61,6 +62,8 @@ public abstract class HubBalancer extends Actor {
 	    }, 0);
     }
 
+    BikeShareContext context;
+
     SysDomain sysDomain = null;
 
     /**
@@ -115,6 +118,89 @@ public abstract class HubBalancer extends Actor {
 	return Collections.unmodifiableSet(overflowSet);
     }
 
+    HubImbalanceHeap imbalanceHeap = new HubImbalanceHeap();
+
+    // Hub conditions report only changes in set membership, so the
+    // imbalance of a hub that stays in a set is tracked by listening
+    // to the hubs directly.  The listeners are added when imbalances
+    // are first requested, so that balancers that never ask for them
+    // do not pay for maintaining the heap.
+    private HubListener imbalanceListener = new HubListener() {
+	    public void hubChanged(Hub hub, int need, int excess,
+				   int overflow)
+	    {
+		imbalanceHeap.update(hub, need + excess + overflow);
+	    }
+	};
+
+    private boolean trackingImbalances = false;
+
+    private HubImbalanceHeap imbalances() {
+	if (!trackingImbalances && sysDomain != null) {
+	    trackingImbalances = true;
+	    // each listener is told its hub's current imbalance when added
+	    for (Hub hub: sysDomain.getUserHubs()) {
+		hub.addHubListener(imbalanceListener);
+	    }
+	}
+	return imbalanceHeap;
+    }
+
+    /**
+     * Get the imbalance for a hub.
+     * The imbalance is the number of bicycles that must be added
+     * to or removed from a hub's preferred area to bring its count
+     * to the hub's lower or upper trigger respectively, plus the
+     * number of bicycles in the hub's overflow area.  It is nonzero
+     * only for hubs that are in the over-trigger, under-trigger,
+     * or overflow sets.
+     * <P>
+     * Imbalances are tracked from the first call to this method,
+     * {@link #getWorstHub()}, {@link #getWorstHubs(Hub[])}, or
+     * {@link #getImbalancedHubCount()} onwards, so a subclass that
+     * does not use them does not pay for keeping them up to date.
+     * @param hub the hub
+     * @return the imbalance for the hub
+     */
+    protected int getImbalance(Hub hub) {
+	return imbalances().getKey(hub);
+    }
+
+    /**
+     * Get the hub with the largest imbalance.
+     * @return the hub with the largest imbalance; null if every
+     *         hub is balanced
+     * @see #getImbalance(Hub)
+     */
+    protected Hub getWorstHub() {
+	return imbalances().peek();
+    }
+
+    /**
+     * Get the hubs with the largest imbalances.
+     * The hubs are stored in order of decreasing imbalance, and
+     * hubs whose imbalance is zero are never included.  The time
+     * required grows as k log k where k is the length of the array,
+     * independently of the number of hubs, and no objects are
+     * allocated if the same array is used repeatedly.
+     * @param results an array in which to store the hubs, whose
+     *        length is the maximum number of hubs to store
+     * @return the number of hubs stored in the array
+     * @see #getImbalance(Hub)
+     */
+    protected int getWorstHubs(Hub[] results) {
+	return imbalances().getLargest(results);
+    }
+
+    /**
+     * Get the number of hubs whose imbalance is nonzero.
+     * @return the number of hubs
+     * @see #getImbalance(Hub)
+     */
+    protected int getImbalancedHubCount() {
+	return imbalances().size();
+    }
+
     private boolean initialWorkersStarted = false;
 
 
@@ -128,7 +214,7 @@ public abstract class HubBalancer extends Actor {
 	} else {
 	    initialWorkersStarted = true;
 	}
-	trace(BikeShare.level1, "starting initial workers");
+	trace(context.level1(), "starting initial workers");
 	for (StorageHub shub: sysDomain.getStorageHubs()) {
 	    HubWorker.Mode mode = HubWorker.Mode.LOOP;
 	    HubWorker.HubSorter sorter = null;
@@ -136,20 +222,20 @@ public abstract class HubBalancer extends Actor {
 	    double interval = shub.getInterval(mode);
 	    double subinterval = interval/n;
 	    double offset = 0.0; // interval offset to start.
-	    trace(BikeShare.level2, 
+	    trace(context.level2(), 
 		  "starting initial workers for storage hub %s, mode %s",
 		  shub.getName(), mode);
 	    for (int i = 0; i < n; i++) {
 		HubWorker worker = shub.pollWorkers();
 		if (worker != null) {
-		    trace(BikeShare.level2, "starting worker %s",
+		    trace(context.level2(), "starting worker %s",
 			  worker.getName());
 		    sorter = getHubSorter(mode, shub,
 					  shub.getHubsAsArray(mode));
 		    worker.start(mode, sorter, interval, offset);
 		    offset += subinterval;
 		} else {
-		    trace(BikeShare.level2, "could not find worker");
+		    trace(context.level2(), "could not find worker");
 		}
 	    }
 	    mode = HubWorker.Mode.LOOP_WITH_PICKUP;
@@ -157,20 +243,20 @@ public abstract class HubBalancer extends Actor {
 	    interval = shub.getInterval(mode);
 	    subinterval = interval/n;
 	    offset = 0.0; // interval offset to start.
-	    trace(BikeShare.level2, 
+	    trace(context.level2(), 
 		  "starting initial workers for storage hub %s, mode %s",
 		  shub.getName(), mode);
 	    for (int i = 0; i < n; i++) {
 		HubWorker worker = shub.pollWorkers();
 		if (worker != null) {
-		    trace(BikeShare.level2, "starting worker %s",
+		    trace(context.level2(), "starting worker %s",
 			  worker.getName());
 		    sorter = getHubSorter(mode, shub,
 					  shub.getHubsAsArray(mode));
 		    worker.start(mode, sorter, interval, offset);
 		    offset += subinterval;
 		} else {
-		    trace(BikeShare.level2, "could not find worker");
+		    trace(context.level2(), "could not find worker");
 		}
 	    }
 	    mode = HubWorker.Mode.LOOP_TO_FIX_OVERFLOWS;
@@ -178,20 +264,20 @@ public abstract class HubBalancer extends Actor {
 	    interval = shub.getInterval(mode);
 	    subinterval = interval/n;
 	    offset = 0.0; // interval offset to start.
-	    trace(BikeShare.level2, 
+	    trace(context.level2(), 
 		  "starting initial workers for storage hub %s, mode %s",
 		  shub.getName(), mode);
 	    for (int i = 0; i < n; i++) {
 		HubWorker worker = shub.pollWorkers();
 		if (worker != null) {
-		    trace(BikeShare.level2, "starting worker %s",
+		    trace(context.level2(), "starting worker %s",
 			  worker.getName());
 		    sorter = getHubSorter(mode, shub,
 					  shub.getHubsAsArray(mode));
 		    worker.start(mode, sorter, interval, offset);
 		    offset += subinterval;
 		} else {
-		    trace(BikeShare.level2, "could not find worker");
+		    trace(context.level2(), "could not find worker");
 		}
 	    }
 	}
@@ -223,6 +309,24 @@ public abstract class HubBalancer extends Actor {
 						     StorageHub shub,
 						     Hub[] hubs);
 
+    /**
+     * Respond to a change in a hub's membership in the over-trigger,
+     * under-trigger, or overflow sets.
+     * This method is called after the sets returned by
+     * {@link #getOverSet()}, {@link #getUnderSet()}, and
+     * {@link #getOverflowSet()} have been updated and before
+     * {@link #startAdditionalWorkers()} is called. Subclasses that
+     * maintain their own data structures for hubs can override this
+     * method to update those incrementally.  When a notification
+     * reports several hubs, this method is called for each of them
+     * and {@link #startAdditionalWorkers()} is called once afterwards.
+     * <P>
+     * The default implementation does nothing.
+     * @param hub the hub whose status changed
+     */
+    protected void hubStatusChanged(Hub hub) {
+    }
+
     /**
      * Respond to a change in a hub condition.
      * This implementation will ignore all condition modes other
@@ -237,23 +341,36 @@ public abstract class HubBalancer extends Actor {
 					 SimObject source)
     {
 	if (mode == ConditionMode.OBSERVER_NOTIFIED) {
-	    Hub hub = c.getChangedHub();
-	    if (c.getInOverSet()) {
-		overSet.add(hub);
-	    } else {
-		overSet.remove(hub);
-	    }
-	    if (c.getInUnderSet()) {
-		underSet.add(hub);
-	    } else {
-		underSet.remove(hub);
-	    }
-	    if (c.getInOverflowSet()) {
-		overflowSet.add(hub);
-	    } else {
-		overflowSet.remove(hub);
+	    // When notifications are coalesced, one notification reports
+	    // all the hubs that changed during a simulation event.
+	    int n = c.getChangedHubCount();
+	    for (int i = 0; i < n; i++) {
+		Hub hub = c.getChangedHub(i);
+		if (c.isInOverSet(hub)) {
+		    overSet.add(hub);
+		} else {
+		    overSet.remove(hub);
+		}
+		if (c.isInUnderSet(hub)) {
+		    underSet.add(hub);
+		} else {
+		    underSet.remove(hub);
+		}
+		if (c.isInOverflowSet(hub)) {
+		    overflowSet.add(hub);
+		} else {
+		    overflowSet.remove(hub);
+		}
+		// Update the imbalance now as the imbalance listener might
+		// not have been called yet.
+		if (trackingImbalances) {
+		    imbalanceHeap.update(hub, hub.needBikes()
+					 + hub.excessBikes()
+					 + hub.getOverflow());
+		}
+		hubStatusChanged(hub);
 	    }
-	    trace(BikeShare.level2, "trying to start additional workers");
+	    trace(context.level2(), "trying to start additional workers");
 	    startAdditionalWorkers();
 	    return;
 	}
@@ -309,6 +426,9 @@ public abstract class HubBalancer extends Actor {
      *        below its under-trigger value).
      *   <LI> the overflow set (the hubs that have bicycles in their
      *        overflow areas).
+     *   <LI> the number of hubs whose imbalance is nonzero and the
+     *        hub with the largest imbalance and its imbalance, when
+     *        imbalances are being tracked.
      * </UL>
      * @param iPrefix the prefix to use for an initial line when printName is
      *        true with null treated as an empty string
@@ -349,6 +469,19 @@ public abstract class HubBalancer extends Actor {
 		out.println(prefix + "    " + hub.getName());
 	    }
 	}
+	if (!trackingImbalances) {
+	    out.println(prefix + "imbalances: <not tracked>");
+	    return;
+	}
+	out.println(prefix + "number of imbalanced hubs: "
+		    + imbalanceHeap.size());
+	Hub worst = imbalanceHeap.peek();
+	if (worst == null) {
+	    out.println(prefix + "largest imbalance: <none>");
+	} else {
+	    out.println(prefix + "largest imbalance: " + worst.getName()
+			+ " (" + imbalanceHeap.getKey(worst) + ")");
+	}
     }
 }
 
@@ -1,8 +1,12 @@
 package org.bzdev.bikeshare;
 import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.HashSet;
-import java.util.Collections;
 import java.io.PrintWriter;
 
 /**
@@ -28,21 +32,110 @@ import java.io.PrintWriter;
  */
 public class HubCondition extends Condition {
 
-    private Set<Hub> overSet = new HashSet<>();
-    private Set<Hub> overflowSet = new HashSet<>();
-    private Set<Hub> underSet = new HashSet<>();
-    private Set<Hub> inRangeSet = new HashSet<>();
+    // Set membership is stored in bit sets indexed by Hub.getIndex().
+    private Hub[] hubs = new Hub[16];
+    private BitSet overBits = new BitSet();
+    private BitSet overflowBits = new BitSet();
+    private BitSet underBits = new BitSet();
+    private BitSet inRangeBits = new BitSet();
+
+    private Set<Hub> overSet = new HubSet(overBits);
+    private Set<Hub> overflowSet = new HubSet(overflowBits);
+    private Set<Hub> underSet = new HubSet(underBits);
+    private Set<Hub> inRangeSet = new HubSet(inRangeBits);
+
     private Hub changedHub = null;
     private boolean inOverSet = false;
     private boolean inOverflowSet = false;
     private boolean inUnderSet = false;
-    
+
+    // The hubs reported by the current notification.  When
+    // changedHubs is null, the only hub is changedHub.
+    private Hub[] changedHubs = null;
+    private int nchanged = 0;
+
+    // Hubs whose changes have not yet been delivered when
+    // notifications are coalesced.
+    private boolean coalescing = false;
+    private Hub[] pending = new Hub[16];
+    private int npending = 0;
+    private Hub[] spare = new Hub[16];
+    private BitSet pendingBits = new BitSet();
+    private boolean flushScheduled = false;
+
+    /*
+     * Unmodifiable view of a bit set as a set of hubs.
+     */
+    private class HubSet extends AbstractSet<Hub> {
+	BitSet bits;
+	HubSet(BitSet bits) {this.bits = bits;}
+
+	@Override
+	public boolean contains(Object o) {
+	    if (o instanceof Hub) {
+		int index = ((Hub) o).getIndex();
+		return index < hubs.length && hubs[index] == o
+		    && bits.get(index);
+	    }
+	    return false;
+	}
+
+	@Override
+	public int size() {return bits.cardinality();}
+
+	@Override
+	public boolean isEmpty() {return bits.isEmpty();}
+
+	@Override
+	public Iterator<Hub> iterator() {
+	    return new Iterator<Hub>() {
+		int next = bits.nextSetBit(0);
+		public boolean hasNext() {return next >= 0;}
+		public Hub next() {
+		    if (next < 0) throw new NoSuchElementException();
+		    Hub hub = hubs[next];
+		    next = bits.nextSetBit(next + 1);
+		    return hub;
+		}
+	    };
+	}
+    }
+
     /**
      * Get the last hub that was changed.
+     * When notifications are coalesced, this is the last hub whose
+     * change is being reported; the method
+     * {@link #getChangedHub(int)} provides all of them.
      * @return the last hub that was changed
      */
     public Hub getChangedHub() {return changedHub;}
 
+    /**
+     * Get the number of hubs whose changes are being reported.
+     * Unless notifications are coalesced, the value is 1 while
+     * observers are being notified.
+     * @return the number of hubs
+     * @see #setCoalescing(boolean)
+     */
+    public int getChangedHubCount() {
+	return (changedHubs == null)? ((changedHub == null)? 0: 1): nchanged;
+    }
+
+    /**
+     * Get a hub whose change is being reported.
+     * Hubs are listed in the order in which they first changed.
+     * @param i the index of a hub, which must be nonnegative and
+     *        less than the value returned by {@link #getChangedHubCount()}
+     * @return the hub
+     * @exception IndexOutOfBoundsException if the index is out of range
+     */
+    public Hub getChangedHub(int i) throws IndexOutOfBoundsException {
+	if (i < 0 || i >= getChangedHubCount()) {
+	    throw new IndexOutOfBoundsException(String.valueOf(i));
+	}
+	return (changedHubs == null)? changedHub: changedHubs[i];
+    }
+
     /**
      * Determine if the last hub that was changed has more bicycles
      * stored at the hub's preferred location than the upper trigger value
@@ -69,6 +162,31 @@ public class HubCondition extends Condition {
      */
     public boolean getInUnderSet() {return inUnderSet;}
 
+    /**
+     * Determine if a hub has more bicycles at its preferred location
+     * than its upper trigger value.
+     * @param hub the hub
+     * @return true if the hub is in the over-trigger set; false otherwise
+     */
+    public boolean isInOverSet(Hub hub) {return overSet.contains(hub);}
+
+    /**
+     * Determine if a hub has bicycles in its overflow area.
+     * @param hub the hub
+     * @return true if the hub is in the overflow set; false otherwise
+     */
+    public boolean isInOverflowSet(Hub hub) {
+	return overflowSet.contains(hub);
+    }
+
+    /**
+     * Determine if a hub has fewer bicycles at its preferred location
+     * than its lower trigger value.
+     * @param hub the hub
+     * @return true if the hub is in the under-trigger set; false otherwise
+     */
+    public boolean isInUnderSet(Hub hub) {return underSet.contains(hub);}
+
     /**
      * Get the set containing the hubs whose bicycle count at the
      * preferred location exceeds the value of the upper trigger.
@@ -77,7 +195,7 @@ public class HubCondition extends Condition {
      *         trigger
      */
     public Set<Hub> getOverSet() {
-	return Collections.unmodifiableSet(overSet);
+	return overSet;
     }
 
     /**
@@ -87,7 +205,7 @@ public class HubCondition extends Condition {
      *         overflow area is nonzero
      */
     public Set<Hub> getOverflowSet() {
-	return Collections.unmodifiableSet(overflowSet);
+	return overflowSet;
     }
 
     /**
@@ -98,7 +216,7 @@ public class HubCondition extends Condition {
      *         trigger
      */
     public Set<Hub> getUnderSet() {
-	return Collections.unmodifiableSet(underSet);
+	return underSet;
     }
 
     /**
@@ -108,9 +226,11 @@ public class HubCondition extends Condition {
      *         location is between or at the lower and upper triggers
      */
     public Set<Hub> getInRangeSet() {
-	return Collections.unmodifiableSet(inRangeSet);
+	return inRangeSet;
     }
 
+    DramaSimulation sim;
+
     /**
      * Constructor.
      * @param sim the simulation
@@ -120,6 +240,80 @@ public class HubCondition extends Condition {
      */
     HubCondition(DramaSimulation sim, String name, boolean intern) {
 	super(sim, name, intern);
+	this.sim = sim;
+    }
+
+    /**
+     * Set whether notifications are coalesced.
+     * When notifications are coalesced, the hubs that change during
+     * a simulation event are reported to observers by a single
+     * notification, delivered by an event scheduled for the same
+     * simulation time, instead of one notification per change.
+     * The sets of hubs are updated immediately in either case.
+     * Observers should then use {@link #getChangedHubCount()} and
+     * {@link #getChangedHub(int)} to find the hubs that changed, and
+     * methods such as {@link #isInOverSet(Hub)} to find their status.
+     * @param value true if notifications should be coalesced; false
+     *        if each change should be reported immediately
+     */
+    public void setCoalescing(boolean value) {
+	coalescing = value;
+    }
+
+    /**
+     * Determine whether notifications are coalesced.
+     * @return true if notifications are coalesced; false otherwise
+     * @see #setCoalescing(boolean)
+     */
+    public boolean isCoalescing() {
+	return coalescing;
+    }
+
+    private Callable flushCallable = new Callable() {
+	    public void call() {
+		flushScheduled = false;
+		if (npending == 0) return;
+		Hub[] batch = pending;
+		int n = npending;
+		// hubs that change while observers are notified go into
+		// a new batch.
+		pending = spare;
+		npending = 0;
+		spare = null;
+		for (int i = 0; i < n; i++) {
+		    pendingBits.clear(batch[i].getIndex());
+		}
+		deliver(batch[n-1], batch, n);
+		Arrays.fill(batch, 0, n, null);
+		spare = batch;
+	    }
+	};
+
+    private void deliver(Hub hub, Hub[] list, int n) {
+	Hub savedHub = changedHub;
+	boolean savedInOverSet = inOverSet;
+	boolean savedInOverflowSet = inOverflowSet;
+	boolean savedInUnderSet = inUnderSet;
+	Hub[] savedList = changedHubs;
+	int savedN = nchanged;
+	changedHubs = list;
+	nchanged = n;
+	changedHub = hub;
+	int index = hub.getIndex();
+	inOverSet = overBits.get(index);
+	inOverflowSet = overflowBits.get(index);
+	inUnderSet = underBits.get(index);
+	try {
+	    notifyObservers();
+	    completeNotification();
+	} finally {
+	    changedHub = savedHub;
+	    inOverSet = savedInOverSet;
+	    inOverflowSet = savedInOverflowSet;
+	    inUnderSet = savedInUnderSet;
+	    changedHubs = savedList;
+	    nchanged = savedN;
+	}
     }
 
     /**
@@ -137,56 +331,38 @@ public class HubCondition extends Condition {
 	    // should not happen - added just in case.
 	    return;
 	}
-	boolean changed;
-	if (nb > 0) {
-	    changed = !underSet.contains(hub);
-	    if (changed) {
-		underSet.add(hub);
-	    }
-	    inUnderSet = true;
-	} else {
-	    changed = underSet.contains(hub);
-	    underSet.remove(hub);
-	    inUnderSet = false;
+	int index = hub.getIndex();
+	if (index >= hubs.length) {
+	    hubs = Arrays.copyOf(hubs, Math.max(index + 1, 2*hubs.length));
 	}
-	
-	if (eb > 0) {
-	    boolean xchanged = !overSet.contains(hub);
-	    changed = changed || xchanged;
-	    if (xchanged) {
-		overSet.add(hub);
+	hubs[index] = hub;
+	boolean under = nb > 0;
+	boolean over = eb > 0;
+	boolean overflow = ofb > 0;
+	boolean inRange = !under && !over;
+	boolean changed = (underBits.get(index) != under)
+	    || (overBits.get(index) != over)
+	    || (overflowBits.get(index) != overflow)
+	    || (inRangeBits.get(index) != inRange);
+	if (!changed) return;
+	underBits.set(index, under);
+	overBits.set(index, over);
+	overflowBits.set(index, overflow);
+	inRangeBits.set(index, inRange);
+	if (coalescing) {
+	    if (!pendingBits.get(index)) {
+		pendingBits.set(index);
+		if (npending == pending.length) {
+		    pending = Arrays.copyOf(pending, 2*npending);
+		}
+		pending[npending++] = hub;
 	    }
-	    inOverSet = true;
-	} else {
-	    changed = changed || overSet.contains(hub);
-	    overSet.remove(hub);
-	    inOverSet = false;
-	}
-
-	if (ofb > 0) {
-	    boolean xchanged = !overflowSet.contains(hub);
-	    changed |= changed || xchanged;
-	    if (xchanged) {
-		overflowSet.add(hub);
+	    if (!flushScheduled) {
+		flushScheduled = true;
+		sim.scheduleCall(flushCallable, 0);
 	    }
-	    inOverflowSet = true;
 	} else {
-	    changed = changed || overflowSet.contains(hub);
-	    overflowSet.remove(hub);
-	    inOverflowSet = false;
-	}
-
-	if (eb == 0 && nb == 0) {
-	    changed = changed || !inRangeSet.contains(hub);
-	}
-	if (changed) {
-	    if (!inOverSet && !inUnderSet) {
-		inRangeSet.add(hub);
-	    }
-	    changedHub = hub;
-	    notifyObservers();
-	    completeNotification();
-	    changedHub = null;
+	    deliver(hub, null, 1);
 	}
     }
 
@@ -223,6 +399,10 @@ public class HubCondition extends Condition {
      *   <LI><B>inRangeSet</B>. Get the set of hubs for which the number
      *       of bicycles at a hub's preferred location is between or at
      *       the lower and upper triggers.
+     *   <LI><B>coalescing</B>. True if notifications are coalesced.
+     *   <LI><B>pending changes</B>. The number of hubs whose changes
+     *       have not yet been reported (printed only when notifications
+     *       are coalesced).
      * </UL>
      * @param iPrefix the prefix to use for an initial line when printName is
      *        true with null treated as an empty string
@@ -276,6 +456,10 @@ public class HubCondition extends Condition {
 		out.println(prefix + "    " + hub.getName());
 	    }
 	}
+	out.println(prefix + "coalescing: " + coalescing);
+	if (coalescing) {
+	    out.println(prefix + "pending changes: " + npending);
+	}
     }
 }
 
@@ -283,3 +467,4 @@ public class HubCondition extends Condition {
 //  LocalWords:  superclass iPrefix printName whitespace inOverSet
 //  LocalWords:  inOverflowSet inUnderSet overSet overflowSet
 //  LocalWords:  underSet inRangeSet
+//  LocalWords:  getChangedHubCount getChangedHub isInOverSet
@@ -0,0 +1,175 @@
+package org.bzdev.bikeshare;
+import java.util.Arrays;
+
+/*
+ * Indexed binary max-heap of hubs keyed by an integer priority (the
+ * imbalance maintained by HubBalancer).  Entries are indexed by
+ * Hub.getIndex(), so a hub's priority can be raised, lowered, or
+ * removed in O(log n) time without searching the heap.  Hubs with a
+ * priority of zero are not stored.
+ */
+class HubImbalanceHeap {
+
+    private Hub[] hubs = new Hub[16];	// indexed by hub index
+    private int[] keys = new int[16];	// indexed by hub index
+    private int[] position = new int[16]; // heap position or -1
+    private int[] heap = new int[16];	// hub indices
+    private int size = 0;
+
+    // scratch space for getLargest: heap positions ordered by key
+    private int[] candidates = new int[16];
+
+    HubImbalanceHeap() {
+	Arrays.fill(position, -1);
+    }
+
+    private void ensureIndex(int i) {
+	if (i < hubs.length) return;
+	int n = Math.max(i + 1, 2*hubs.length);
+	int oldLength = hubs.length;
+	hubs = Arrays.copyOf(hubs, n);
+	keys = Arrays.copyOf(keys, n);
+	position = Arrays.copyOf(position, n);
+	Arrays.fill(position, oldLength, n, -1);
+    }
+
+    int size() {return size;}
+
+    int getKey(Hub hub) {
+	int i = hub.getIndex();
+	return (i < keys.length && position[i] != -1)? keys[i]: 0;
+    }
+
+    /*
+     * Set a hub's priority, adding the hub to the heap or removing
+     * it as necessary.
+     */
+    void update(Hub hub, int key) {
+	int i = hub.getIndex();
+	ensureIndex(i);
+	int pos = position[i];
+	if (key <= 0) {
+	    if (pos == -1) return;
+	    int last = heap[--size];
+	    position[i] = -1;
+	    hubs[i] = null;
+	    if (pos < size) {
+		heap[pos] = last;
+		position[last] = pos;
+		if (!siftUp(pos)) siftDown(pos);
+	    }
+	} else if (pos == -1) {
+	    if (size == heap.length) {
+		heap = Arrays.copyOf(heap, 2*size);
+	    }
+	    hubs[i] = hub;
+	    keys[i] = key;
+	    heap[size] = i;
+	    position[i] = size;
+	    siftUp(size++);
+	} else {
+	    int oldKey = keys[i];
+	    keys[i] = key;
+	    if (key > oldKey) {
+		siftUp(pos);
+	    } else if (key < oldKey) {
+		siftDown(pos);
+	    }
+	}
+    }
+
+    private boolean siftUp(int pos) {
+	int i = heap[pos];
+	int key = keys[i];
+	int start = pos;
+	while (pos > 0) {
+	    int p = (pos - 1) >> 1;
+	    int j = heap[p];
+	    if (keys[j] >= key) break;
+	    heap[pos] = j;
+	    position[j] = pos;
+	    pos = p;
+	}
+	heap[pos] = i;
+	position[i] = pos;
+	return pos != start;
+    }
+
+    private void siftDown(int pos) {
+	int i = heap[pos];
+	int key = keys[i];
+	for (;;) {
+	    int c = 2*pos + 1;
+	    if (c >= size) break;
+	    if (c + 1 < size && keys[heap[c+1]] > keys[heap[c]]) c++;
+	    int j = heap[c];
+	    if (key >= keys[j]) break;
+	    heap[pos] = j;
+	    position[j] = pos;
+	    pos = c;
+	}
+	heap[pos] = i;
+	position[i] = pos;
+    }
+
+    Hub peek() {
+	return (size == 0)? null: hubs[heap[0]];
+    }
+
+    /*
+     * Store the hubs with the largest priorities in results, in order
+     * of decreasing priority, without modifying the heap.  Returns
+     * the number of hubs stored.  The heap is explored from its root
+     * and a node's children become candidates only after the node is
+     * chosen, so the time is O(k log k) for k results.
+     */
+    int getLargest(Hub[] results) {
+	int k = Math.min(results.length, size);
+	if (k == 0) return 0;
+	if (candidates.length < k + 1) {
+	    candidates = new int[2*(k + 1)];
+	}
+	// candidates is itself a binary max-heap of heap positions
+	int ncand = 0;
+	candidates[ncand++] = 0;
+	for (int m = 0; m < k; m++) {
+	    int pos = candidates[0];
+	    int last = candidates[--ncand];
+	    if (ncand > 0) siftCandidate(last, 0, ncand);
+	    results[m] = hubs[heap[pos]];
+	    for (int c = 2*pos + 1; c <= 2*pos + 2 && c < size; c++) {
+		ncand = addCandidate(c, ncand);
+	    }
+	}
+	return k;
+    }
+
+    private int addCandidate(int pos, int ncand) {
+	int key = keys[heap[pos]];
+	int j = ncand++;
+	while (j > 0) {
+	    int p = (j - 1) >> 1;
+	    if (keys[heap[candidates[p]]] >= key) break;
+	    candidates[j] = candidates[p];
+	    j = p;
+	}
+	candidates[j] = pos;
+	return ncand;
+    }
+
+    private void siftCandidate(int pos, int j, int ncand) {
+	int key = keys[heap[pos]];
+	for (;;) {
+	    int c = 2*j + 1;
+	    if (c >= ncand) break;
+	    if (c + 1 < ncand
+		&& keys[heap[candidates[c+1]]] > keys[heap[candidates[c]]]) {
+		c++;
+	    }
+	    if (key >= keys[heap[candidates[c]]]) break;
+	    candidates[j] = candidates[c];
+	    j = c;
+	}
+	candidates[j] = pos;
+    }
+}
@@ -0,0 +1,280 @@
+package org.bzdev.bikeshare;
+import java.awt.geom.Path2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming decimator for plotting hub counts.
+ * Plotting a hub's bicycle count with one path segment per change
+ * produces paths whose size grows with the simulated time, which makes
+ * rendering slow for long simulations. A decimator is a
+ * {@link HubDataListener} that keeps, for each hub it was added to,
+ * a bounded number of time buckets. For each bucket it records the
+ * first value, the minimum and maximum values (with the times at which
+ * these occurred), and the last value, so that the extremes of the
+ * series remain visible at any scale (min/max bucketing).
+ * <P>
+ * Because the length of a simulation is not known in advance, buckets
+ * start with a specified width. When the number of buckets would exceed
+ * the maximum, adjacent pairs of buckets are merged and the bucket width
+ * is doubled. As a result, memory use and the size of the paths
+ * returned by {@link #getPath(Hub,double)} are bounded by the maximum
+ * number of buckets, and each event is processed in constant amortized
+ * time.
+ * <P>
+ * The paths are step functions (a value remains constant until it
+ * changes) in the same coordinate system (time, count) that scripts
+ * typically use for instances of {@link Path2D}, so they can be drawn
+ * directly by a graph's draw methods.  For example,
+ * <BLOCKQUOTE><PRE><CODE>
+ *     HubSeriesDecimator decimator = new HubSeriesDecimator(1000);
+ *     decimator.add(hub1);
+ *     ...
+ *     sim.run(sim.getTicks(runningTime));
+ *     graph.draw(g2d, decimator.getPath(hub1, runningTime));
+ * </CODE></PRE></BLOCKQUOTE>
+ */
+public class HubSeriesDecimator implements HubDataListener {
+
+    private static final double DEFAULT_INITIAL_WIDTH = 1.0;
+
+    private int maxBuckets;
+    private double initialWidth;
+    private boolean overflowMode;
+
+    // Buckets for one hub. All arrays have maxBuckets entries.
+    private class Series {
+	boolean started = false;
+	double t0;
+	double width = initialWidth;
+	int n = 0;
+	int current;
+	int[] first = new int[maxBuckets];
+	int[] min = new int[maxBuckets];
+	int[] max = new int[maxBuckets];
+	int[] last = new int[maxBuckets];
+	double[] tmin = new double[maxBuckets];
+	double[] tmax = new double[maxBuckets];
+	double[] tlast = new double[maxBuckets];
+
+	private void open(int i, double t, int value) {
+	    first[i] = value;
+	    min[i] = value;
+	    max[i] = value;
+	    last[i] = value;
+	    tmin[i] = t;
+	    tmax[i] = t;
+	    tlast[i] = t;
+	}
+
+	private void merge() {
+	    int m = 0;
+	    for (int i = 0; i < n; i += 2, m++) {
+		int j = i + 1;
+		first[m] = first[i];
+		min[m] = min[i]; tmin[m] = tmin[i];
+		max[m] = max[i]; tmax[m] = tmax[i];
+		last[m] = last[i]; tlast[m] = tlast[i];
+		if (j < n) {
+		    if (min[j] < min[m]) {
+			min[m] = min[j]; tmin[m] = tmin[j];
+		    }
+		    if (max[j] > max[m]) {
+			max[m] = max[j]; tmax[m] = tmax[j];
+		    }
+		    last[m] = last[j]; tlast[m] = tlast[j];
+		}
+	    }
+	    n = m;
+	    width *= 2;
+	}
+
+	void add(double t, int value) {
+	    if (!started) {
+		started = true;
+		t0 = t;
+		n = 1;
+		current = value;
+		open(0, t, value);
+		return;
+	    }
+	    int k = (int)Math.floor((t - t0)/width);
+	    while (k >= maxBuckets) {
+		merge();
+		k = (int)Math.floor((t - t0)/width);
+	    }
+	    if (k < n - 1) k = n - 1;
+	    while (n <= k) {
+		open(n, t0 + n*width, current);
+		n++;
+	    }
+	    if (value < min[k]) {
+		min[k] = value; tmin[k] = t;
+	    }
+	    if (value > max[k]) {
+		max[k] = value; tmax[k] = t;
+	    }
+	    last[k] = value;
+	    tlast[k] = t;
+	    current = value;
+	}
+
+	Path2D getPath(double tEnd) {
+	    Path2D path = new Path2D.Double();
+	    if (!started) return path;
+	    int prev = first[0];
+	    path.moveTo(t0, prev);
+	    for (int i = 0; i < n; i++) {
+		double ta, tb;
+		int va, vb;
+		if (tmin[i] <= tmax[i]) {
+		    ta = tmin[i]; va = min[i];
+		    tb = tmax[i]; vb = max[i];
+		} else {
+		    ta = tmax[i]; va = max[i];
+		    tb = tmin[i]; vb = min[i];
+		}
+		double ts = t0 + i*width;
+		if (first[i] != prev) {
+		    path.lineTo(ts, prev);
+		    path.lineTo(ts, first[i]);
+		    prev = first[i];
+		}
+		if (va != prev) {
+		    path.lineTo(ta, prev);
+		    path.lineTo(ta, va);
+		    prev = va;
+		}
+		if (vb != prev) {
+		    path.lineTo(tb, prev);
+		    path.lineTo(tb, vb);
+		    prev = vb;
+		}
+		if (last[i] != prev) {
+		    double tl = Math.max(tlast[i], tb);
+		    path.lineTo(tl, prev);
+		    path.lineTo(tl, last[i]);
+		    prev = last[i];
+		}
+	    }
+	    double tl = t0 + (n-1)*width;
+	    tl = Math.max(tl, tlast[n-1]);
+	    path.lineTo(Math.max(tEnd, tl), prev);
+	    return path;
+	}
+    }
+
+    private Map<Hub,Series> seriesMap = new LinkedHashMap<>();
+
+    /**
+     * Constructor for bicycle counts.
+     * The initial bucket width is 1.0 seconds.
+     * @param maxBuckets the maximum number of buckets per hub
+     * @exception IllegalArgumentException the maximum number of buckets
+     *            was less than 2
+     */
+    public HubSeriesDecimator(int maxBuckets)
+	throws IllegalArgumentException
+    {
+	this(maxBuckets, DEFAULT_INITIAL_WIDTH, false);
+    }
+
+    /**
+     * Constructor.
+     * @param maxBuckets the maximum number of buckets per hub
+     * @param initialWidth the initial width of each bucket in seconds
+     * @param overflowMode true if overflow counts are recorded; false
+     *        if bicycle counts are recorded
+     * @exception IllegalArgumentException the maximum number of buckets
+     *            was less than 2 or the initial width was not positive
+     */
+    public HubSeriesDecimator(int maxBuckets, double initialWidth,
+			      boolean overflowMode)
+	throws IllegalArgumentException
+    {
+	if (maxBuckets < 2) {
+	    throw new IllegalArgumentException
+		(BikeShare.errorMsg("tooFewBuckets", maxBuckets));
+	}
+	if (!(initialWidth > 0.0)) {
+	    throw new IllegalArgumentException
+		(BikeShare.errorMsg("notPositive", initialWidth));
+	}
+	this.maxBuckets = maxBuckets;
+	this.initialWidth = initialWidth;
+	this.overflowMode = overflowMode;
+    }
+
+    /**
+     * Add a hub.
+     * This adds this decimator to the hub's hub data listeners.
+     * @param hub the hub
+     */
+    public void add(Hub hub) {
+	if (seriesMap.containsKey(hub)) return;
+	seriesMap.put(hub, new Series());
+	hub.addHubDataListener(this);
+    }
+
+    /**
+     * Remove a hub.
+     * The data recorded for the hub are discarded.
+     * @param hub the hub
+     */
+    public void remove(Hub hub) {
+	if (seriesMap.remove(hub) != null) {
+	    hub.removeHubDataListener(this);
+	}
+    }
+
+    @Override
+    public void hubChanged(Hub hub, int bikeCount, boolean newBikeCount,
+			   int overflowCount, boolean newOverflowCount,
+			   double time, long ticks)
+    {
+	if (overflowMode? !newOverflowCount: !newBikeCount) return;
+	Series series = seriesMap.get(hub);
+	if (series != null) {
+	    series.add(time, overflowMode? overflowCount: bikeCount);
+	}
+    }
+
+    /**
+     * Get the current bucket width for a hub.
+     * @param hub the hub
+     * @return the bucket width in seconds; 0.0 if the hub has not
+     *         been added
+     */
+    public double getBucketWidth(Hub hub) {
+	Series series = seriesMap.get(hub);
+	return (series == null)? 0.0: series.width;
+    }
+
+    /**
+     * Get the number of buckets currently in use for a hub.
+     * @param hub the hub
+     * @return the number of buckets; 0 if the hub has not been added
+     */
+    public int getBucketCount(Hub hub) {
+	Series series = seriesMap.get(hub);
+	return (series == null)? 0: series.n;
+    }
+
+    /**
+     * Get a path for plotting a hub's counts.
+     * The X coordinate is the simulation time in seconds and the
+     * Y coordinate is the count.
+     * @param hub the hub
+     * @param endTime the time in seconds at which the path should end
+     *        (the last value is extended to this time)
+     * @return the path; null if the hub has not been added
+     */
+    public Path2D getPath(Hub hub, double endTime) {
+	Series series = seriesMap.get(hub);
+	return (series == null)? null: series.getPath(endTime);
+    }
+}
+
+//  LocalWords:  HubDataListener getPath BLOCKQUOTE PRE HubSeriesDecimator
+//  LocalWords:  sim runningTime maxBuckets initialWidth overflowMode
+//  LocalWords:  IllegalArgumentException
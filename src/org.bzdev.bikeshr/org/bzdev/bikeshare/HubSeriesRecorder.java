@@ -0,0 +1,353 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.devqsim.Simulation;
+import org.bzdev.devqsim.SimulationAdapter;
+import org.bzdev.devqsim.SimulationEvent;
+import org.bzdev.lang.Callable;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Recorder for a time series of hub counts.
+ * A hub-series recorder samples the bicycle count (and optionally
+ * the overflow count) of a fixed set of hubs at regular simulation-time
+ * intervals and writes each sample as a line of comma-separated values.
+ * The first line is a header naming the columns: "time" followed by the
+ * name of each hub, with an additional column named by appending
+ * ":overflow" to a hub's name when overflow counts are recorded.
+ * <P>
+ * Unlike a {@link HubDataListener}, which is called each time a hub's
+ * count changes, a recorder does work only when a sample is taken.
+ * In particular, when a recorder is created by a factory from a
+ * scripted scenario, no script code is run during the simulation.
+ * <P>
+ * Sampling starts at the start time (by default, 0.0) and continues
+ * until the stop time (by default, indefinitely).  The output is
+ * buffered: lines are written when the buffer fills, when
+ * {@link #flush()} is called, each time the simulation stops running,
+ * and when the output is closed, either explicitly by calling
+ * {@link #close()} or because the stop time was reached.  A scenario
+ * that runs without a stop time thus does not lose samples, although
+ * it should call {@link #close()} to release a file after the
+ * simulation ends.
+ * @see HubSeriesRecorderFactory
+ */
+public class HubSeriesRecorder extends Actor {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    DramaSimulation sim;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     * @param name the name of this object
+     * @param intern true if this object should be interned in the
+     *        simulation's name table; false otherwise
+     */
+    public HubSeriesRecorder(DramaSimulation sim, String name,
+			     boolean intern)
+    {
+	super(sim, name, intern);
+	this.sim = sim;
+	sim.scheduleInitCall(new Callable() {
+		public void call() {
+		    started = true;
+		    intervalTicks = Math.max(1L, HubSeriesRecorder.this.sim
+					     .getTicks(interval));
+		    long delay = HubSeriesRecorder.this.sim.getTicks(startTime);
+		    event = HubSeriesRecorder.this.sim
+			.scheduleCall(sampler, delay);
+		}
+	    }, 0);
+	// Samples are buffered, so write them out whenever a call to
+	// the simulation's run method returns.
+	sim.addSimulationListener(new SimulationAdapter() {
+		public void simulationStop(Simulation s) {
+		    flush();
+		}
+	    });
+    }
+
+    private Hub[] hubs = new Hub[0];
+    private double interval = 60.0;
+    private long intervalTicks = 0;
+    private boolean includeOverflow = false;
+    private double startTime = 0.0;
+    private double stopTime = Double.POSITIVE_INFINITY;
+    private String filename = null;
+    private PrintWriter out = null;
+    private boolean needHeader = true;
+    private boolean started = false;
+    private long count = 0;
+    private SimulationEvent event = null;
+    // reused for each line so that sampling does not create strings
+    // other than those for the numbers.
+    private StringBuilder sb = new StringBuilder();
+
+    private Callable sampler = new Callable() {
+	    public void call() {
+		event = null;
+		if (sim.currentTime() > stopTime) {
+		    close();
+		    return;
+		}
+		sample();
+		event = sim.scheduleCall(this, intervalTicks);
+	    }
+	};
+
+    /**
+     * Initialize this recorder.
+     * @param interval the sampling interval in seconds
+     * @param includeOverflow true if overflow counts should be
+     *        recorded in addition to bicycle counts; false otherwise
+     * @param hubs the hubs whose counts will be recorded, in column order
+     * @exception IllegalArgumentException the interval was not positive
+     * @exception IllegalStateException this method was called after the
+     *            simulation started
+     */
+    public void init(double interval, boolean includeOverflow, Hub[] hubs)
+	throws IllegalArgumentException, IllegalStateException
+    {
+	if (started) {
+	    throw new IllegalStateException
+		(errorMsg("recorderStarted", getName()));
+	}
+	if (!(interval > 0.0)) {
+	    throw new IllegalArgumentException
+		(errorMsg("notPositive", interval));
+	}
+	this.interval = interval;
+	this.includeOverflow = includeOverflow;
+	this.hubs = hubs.clone();
+    }
+
+    /**
+     * Set the time at which sampling starts.
+     * @param time the starting time in seconds
+     * @exception IllegalStateException this method was called after the
+     *            simulation started
+     */
+    public void setStartTime(double time) throws IllegalStateException {
+	if (started) {
+	    throw new IllegalStateException
+		(errorMsg("recorderStarted", getName()));
+	}
+	if (time < 0.0) {
+	    throw new IllegalArgumentException(errorMsg("timeNegative", time));
+	}
+	startTime = time;
+    }
+
+    /**
+     * Set the time after which no more samples are taken.
+     * When this time is reached, the output will be closed.
+     * @param time the stop time in seconds;
+     *        Double.POSITIVE_INFINITY for no limit
+     * @exception IllegalStateException this method was called after the
+     *            simulation started
+     */
+    public void setStopTime(double time) throws IllegalStateException {
+	if (started) {
+	    throw new IllegalStateException
+		(errorMsg("recorderStarted", getName()));
+	}
+	stopTime = time;
+    }
+
+    /**
+     * Set the output to a file.
+     * The file will be created when the first sample is written.
+     * @param filename the name of the file
+     * @exception IllegalStateException an output has already been opened
+     */
+    public void setOutput(String filename) throws IllegalStateException {
+	if (out != null) {
+	    throw new IllegalStateException
+		(errorMsg("recorderOutput", getName()));
+	}
+	this.filename = filename;
+    }
+
+    /**
+     * Set the output to a writer.
+     * @param writer the writer
+     * @exception IllegalStateException an output has already been opened
+     */
+    public void setOutput(Writer writer) throws IllegalStateException {
+	if (out != null) {
+	    throw new IllegalStateException
+		(errorMsg("recorderOutput", getName()));
+	}
+	filename = null;
+	out = (writer instanceof PrintWriter)? (PrintWriter) writer:
+	    new PrintWriter(new BufferedWriter(writer));
+    }
+
+    private void writeHeader() {
+	sb.setLength(0);
+	sb.append("time");
+	for (Hub hub: hubs) {
+	    sb.append(',');
+	    sb.append(hub.getName());
+	    if (includeOverflow) {
+		sb.append(',');
+		sb.append(hub.getName());
+		sb.append(":overflow");
+	    }
+	}
+	out.println(sb);
+	needHeader = false;
+    }
+
+    private void open() {
+	if (filename == null) return;
+	try {
+	    out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+	} catch (IOException e) {
+	    throw new IllegalStateException
+		(errorMsg("recorderIO", getName(), filename), e);
+	}
+    }
+
+    /**
+     * Take a sample.
+     * This is called at each sampling interval, but may also be called
+     * explicitly.
+     */
+    public void sample() {
+	if (out == null) {
+	    open();
+	    if (out == null) return;
+	}
+	if (needHeader) writeHeader();
+	sb.setLength(0);
+	sb.append(sim.currentTime());
+	for (Hub hub: hubs) {
+	    sb.append(',');
+	    sb.append(hub.getBikeCount());
+	    if (includeOverflow) {
+		sb.append(',');
+		sb.append(hub.getOverflow());
+	    }
+	}
+	out.println(sb);
+	count++;
+    }
+
+    /**
+     * Write any buffered samples to the output.
+     */
+    public void flush() {
+	if (out != null) out.flush();
+    }
+
+    /**
+     * Get the number of samples that have been recorded.
+     * @return the number of samples
+     */
+    public long getSampleCount() {
+	return count;
+    }
+
+    /**
+     * Stop sampling and close the output.
+     * Closing a writer provided by {@link #setOutput(Writer)} closes
+     * that writer.
+     */
+    public void close() {
+	if (event != null) {
+	    event.cancel();
+	    event = null;
+	}
+	if (out != null) {
+	    out.close();
+	    out = null;
+	}
+	filename = null;
+    }
+
+    /**
+     * Print the configuration for an instance of HubSeriesRecorder.
+     * The documentation for method
+     * {@link org.bzdev.devqsim.SimObject#printConfiguration(String,String,boolean,java.io.PrintWriter)}
+     * contains a description of how this method is used and how to
+     * override it. The method
+     * {@link org.bzdev.drama.Actor#printConfiguration(String,String,boolean,java.io.PrintWriter)}
+     * describes the data that will be printed for the
+     * superclass of this class. The data that will be printed
+     * when this method is called are the following.
+     * <P>
+     * For class {@link HubSeriesRecorder}:
+     * <UL>
+     *  <LI> the sampling interval.
+     *  <LI> the start and stop times.
+     *  <LI> whether overflow counts are recorded.
+     *  <LI> the hubs whose counts are recorded.
+     * </UL>
+     * @param iPrefix the prefix to use for an initial line when printName is
+     *        true with null treated as an empty string
+     * @param prefix a prefix string (typically whitespace) to put at
+     *        the start of each line other than the initial line that is
+     *        printed when printName is true
+     * @param printName requests printing the name of an object
+     * @param out the output print writer
+     */
+    @Override
+    public void printConfiguration(String iPrefix, String prefix,
+				   boolean printName,
+				   PrintWriter out)
+    {
+	super.printConfiguration(iPrefix, prefix, printName, out);
+	out.println(prefix + "interval: " + interval);
+	out.println(prefix + "start time: " + startTime);
+	out.println(prefix + "stop time: " + stopTime);
+	out.println(prefix + "include overflow: " + includeOverflow);
+	out.println(prefix + "hubs:");
+	for (Hub hub: hubs) {
+	    out.println(prefix + "    " + hub.getName());
+	}
+    }
+
+    /**
+     * Print the state for an instance of HubSeriesRecorder.
+     * The documentation for method
+     * {@link org.bzdev.devqsim.SimObject#printState(String,String,boolean,java.io.PrintWriter)}
+     * contains a description of how this method is used and how to
+     * override it. The method
+     * {@link org.bzdev.drama.Actor#printState(String,String,boolean,java.io.PrintWriter)}
+     * describes the data that will be printed for the
+     * superclass of this class. The data that will be printed
+     * when this method is called are the following.
+     * <P>
+     * For class {@link HubSeriesRecorder}:
+     * <UL>
+     *   <LI> the number of samples recorded.
+     * </UL>
+     * @param iPrefix the prefix to use for an initial line when printName is
+     *        true with null treated as an empty string
+     * @param prefix a prefix string (typically whitespace) to put at
+     *        the start of each line other than the initial line that is
+     *        printed when printName is true
+     * @param printName requests printing the name of an object
+     * @param out the output print writer
+     */
+    @Override
+    public void printState(String iPrefix, String prefix,
+			   boolean printName, PrintWriter out) {
+	super.printState(iPrefix, prefix, printName, out);
+	out.println(prefix + "samples: " + count);
+    }
+}
+
+//  LocalWords:  HubDataListener HubSeriesRecorderFactory sim boolean
+//  LocalWords:  includeOverflow IllegalArgumentException superclass
+//  LocalWords:  IllegalStateException printConfiguration iPrefix
+//  LocalWords:  printName whitespace printState
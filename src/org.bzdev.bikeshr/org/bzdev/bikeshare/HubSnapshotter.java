@@ -0,0 +1,505 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.devqsim.Simulation;
+import org.bzdev.devqsim.SimulationAdapter;
+import org.bzdev.devqsim.SimulationEvent;
+import org.bzdev.lang.Callable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Periodic snapshots of the hubs in a system domain.
+ * A hub snapshotter schedules itself at a fixed simulation-time
+ * interval. Each time it runs, it copies the bicycle count and overflow
+ * count of every hub in a system domain into the next row of a
+ * pre-allocated buffer, so its cost depends on the snapshot frequency
+ * and the number of hubs, not on how often hub counts change.
+ * <P>
+ * The hubs are the system domain's user hubs, sorted by name, followed
+ * by its storage hubs, sorted by name. The set of hubs is determined
+ * when the simulation starts. The index of a hub in the array returned
+ * by {@link #getHubs()} is the column used for that hub.
+ * <P>
+ * The buffer has a fixed number of rows. When it is full, either
+ * <UL>
+ *   <LI> the rows are appended to a spill file (if one was set by
+ *        calling {@link #setSpillFile(String)}) and the buffer is
+ *        reused starting from its first row, or
+ *   <LI> the oldest row is overwritten, so that the buffer always
+ *        contains the most recent snapshots.
+ * </UL>
+ * A spill file is written using a {@link DataOutputStream}.  It starts
+ * with the number of hubs (an int), followed by the name of each hub
+ * (written using {@link DataOutputStream#writeUTF(String)}).  Each row
+ * then consists of the simulation time (a double), the bicycle count
+ * for each hub (ints), and the overflow count for each hub (ints).
+ * Rows still in the buffer are written when {@link #close()} is called.
+ * The spill file is also flushed and closed each time the simulation
+ * stops running (when a call to the simulation's run method returns),
+ * and is reopened to append rows when the buffer next fills, so the
+ * file's contents are complete between runs.
+ * @see HubSnapshotterFactory
+ */
+public class HubSnapshotter extends Actor {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    DramaSimulation sim;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     * @param name the name of this object
+     * @param intern true if this object should be interned in the
+     *        simulation's name table; false otherwise
+     */
+    public HubSnapshotter(DramaSimulation sim, String name, boolean intern) {
+	super(sim, name, intern);
+	this.sim = sim;
+	sim.scheduleInitCall(new Callable() {
+		public void call() {
+		    start();
+		}
+	    }, 0);
+    }
+
+    private SysDomain domain = null;
+    private double interval = 60.0;
+    private long intervalTicks = 0;
+    private int nrows = 1024;
+    private double startTime = 0.0;
+    private double stopTime = Double.POSITIVE_INFINITY;
+    private String spillFile = null;
+    private boolean started = false;
+
+    private Hub[] hubs = null;
+    private double[] times = null;
+    private int[][] counts = null;
+    private int[][] overflows = null;
+    // index of the oldest row and the number of rows in use
+    private int first = 0;
+    private int size = 0;
+    private long snapshotCount = 0;
+    private DataOutputStream spill = null;
+    // true once the spill file's header has been written
+    private boolean spillStarted = false;
+    private SimulationAdapter stopListener = new SimulationAdapter() {
+	    public void simulationStop(Simulation s) {
+		closeSpill();
+	    }
+	};
+    private SimulationEvent event = null;
+
+    private Callable snapshotTask = new Callable() {
+	    public void call() {
+		event = null;
+		if (sim.currentTime() > stopTime) {
+		    close();
+		    return;
+		}
+		snapshot();
+		event = sim.scheduleCall(this, intervalTicks);
+	    }
+	};
+
+    /**
+     * Initialize this snapshotter.
+     * @param domain the system domain whose hubs are recorded
+     * @param interval the time in seconds between snapshots
+     * @param nrows the number of rows in the buffer
+     * @exception IllegalArgumentException the interval or the number
+     *            of rows was not positive
+     * @exception IllegalStateException this method was called after the
+     *            simulation started
+     */
+    public void init(SysDomain domain, double interval, int nrows)
+	throws IllegalArgumentException, IllegalStateException
+    {
+	if (started) {
+	    throw new IllegalStateException
+		(errorMsg("recorderStarted", getName()));
+	}
+	if (!(interval > 0.0)) {
+	    throw new IllegalArgumentException
+		(errorMsg("notPositive", interval));
+	}
+	if (nrows <= 0) {
+	    throw new IllegalArgumentException(errorMsg("notPositive", nrows));
+	}
+	this.domain = domain;
+	this.interval = interval;
+	this.nrows = nrows;
+    }
+
+    /**
+     * Set the time at which the first snapshot is taken.
+     * @param time the time in seconds
+     * @exception IllegalStateException this method was called after the
+     *            simulation started
+     */
+    public void setStartTime(double time) throws IllegalStateException {
+	if (started) {
+	    throw new IllegalStateException
+		(errorMsg("recorderStarted", getName()));
+	}
+	if (time < 0.0) {
+	    throw new IllegalArgumentException(errorMsg("timeNegative", time));
+	}
+	startTime = time;
+    }
+
+    /**
+     * Set the time after which no more snapshots are taken.
+     * When this time is reached, {@link #close()} will be called.
+     * @param time the time in seconds; Double.POSITIVE_INFINITY for
+     *        no limit
+     */
+    public void setStopTime(double time) {
+	stopTime = time;
+    }
+
+    /**
+     * Set the spill file.
+     * When a spill file is set, full buffers are written to the file
+     * instead of overwriting the oldest rows.
+     * @param filename the name of the spill file; null if there is none
+     * @exception IllegalStateException this method was called after the
+     *            simulation started
+     */
+    public void setSpillFile(String filename) throws IllegalStateException {
+	if (started) {
+	    throw new IllegalStateException
+		(errorMsg("recorderStarted", getName()));
+	}
+	spillFile = filename;
+    }
+
+    private static Comparator<Hub> nameComparator = new Comparator<Hub>() {
+	    public int compare(Hub h1, Hub h2) {
+		return h1.getName().compareTo(h2.getName());
+	    }
+	};
+
+    private void start() {
+	started = true;
+	if (domain == null) return;
+	ArrayList<Hub> list = new ArrayList<>(domain.getUserHubs());
+	list.sort(nameComparator);
+	int nusr = list.size();
+	list.addAll(domain.getStorageHubs());
+	list.subList(nusr, list.size()).sort(nameComparator);
+	hubs = list.toArray(new Hub[list.size()]);
+	times = new double[nrows];
+	counts = new int[nrows][hubs.length];
+	overflows = new int[nrows][hubs.length];
+	intervalTicks = Math.max(1L, sim.getTicks(interval));
+	event = sim.scheduleCall(snapshotTask, sim.getTicks(startTime));
+    }
+
+    private void openSpill() {
+	try {
+	    spill = new DataOutputStream
+		(new BufferedOutputStream
+		 (new FileOutputStream(spillFile, spillStarted)));
+	    sim.addSimulationListener(stopListener);
+	    if (!spillStarted) {
+		spill.writeInt(hubs.length);
+		for (Hub hub: hubs) {
+		    spill.writeUTF(hub.getName());
+		}
+		spillStarted = true;
+	    }
+	} catch (IOException e) {
+	    throw new IllegalStateException
+		(errorMsg("recorderIO", getName(), spillFile), e);
+	}
+    }
+
+    // Flush and close the spill file, if open, and stop listening for
+    // the end of a run.  The file is reopened by openSpill().
+    private void closeSpill() {
+	if (spill == null) return;
+	try {
+	    spill.close();
+	} catch (IOException e) {
+	    throw new IllegalStateException
+		(errorMsg("recorderIO", getName(), spillFile), e);
+	} finally {
+	    spill = null;
+	    sim.removeSimulationListener(stopListener);
+	}
+    }
+
+    private void spillRows() {
+	if (spill == null) openSpill();
+	try {
+	    for (int i = 0; i < size; i++) {
+		int row = (first + i) % nrows;
+		spill.writeDouble(times[row]);
+		int[] c = counts[row];
+		for (int j = 0; j < c.length; j++) {
+		    spill.writeInt(c[j]);
+		}
+		int[] o = overflows[row];
+		for (int j = 0; j < o.length; j++) {
+		    spill.writeInt(o[j]);
+		}
+	    }
+	} catch (IOException e) {
+	    throw new IllegalStateException
+		(errorMsg("recorderIO", getName(), spillFile), e);
+	}
+	first = 0;
+	size = 0;
+    }
+
+    /**
+     * Take a snapshot.
+     * This method is called at each interval, but may also be called
+     * explicitly after the simulation has started.
+     */
+    public void snapshot() {
+	if (hubs == null) return;
+	int row;
+	if (size == nrows) {
+	    if (spillFile != null) {
+		spillRows();
+		row = 0;
+		size = 1;
+	    } else {
+		row = first;
+		first = (first + 1) % nrows;
+	    }
+	} else {
+	    row = (first + size) % nrows;
+	    size++;
+	}
+	times[row] = sim.currentTime();
+	int[] c = counts[row];
+	int[] o = overflows[row];
+	for (int j = 0; j < hubs.length; j++) {
+	    Hub hub = hubs[j];
+	    c[j] = hub.bikeCount;
+	    o[j] = hub.overflow;
+	}
+	snapshotCount++;
+    }
+
+    /**
+     * Get the hubs in column order.
+     * @return the hubs; null if the simulation has not started
+     */
+    public Hub[] getHubs() {
+	return (hubs == null)? null: hubs.clone();
+    }
+
+    /**
+     * Get the number of rows currently in the buffer.
+     * @return the number of rows
+     */
+    public int getRowCount() {
+	return size;
+    }
+
+    /**
+     * Get the total number of snapshots taken.
+     * This includes rows that were written to the spill file or
+     * overwritten.
+     * @return the number of snapshots
+     */
+    public long getSnapshotCount() {
+	return snapshotCount;
+    }
+
+    private int rowIndex(int row) {
+	if (row < 0 || row >= size) {
+	    throw new IndexOutOfBoundsException
+		(errorMsg("rowIndex", row, size));
+	}
+	return (first + row) % nrows;
+    }
+
+    /**
+     * Get the time for a row.
+     * Row 0 is the oldest row in the buffer.
+     * @param row the row
+     * @return the simulation time in seconds at which the row's
+     *         snapshot was taken
+     * @exception IndexOutOfBoundsException the row is out of range
+     */
+    public double getTime(int row) throws IndexOutOfBoundsException {
+	return times[rowIndex(row)];
+    }
+
+    /**
+     * Get a bicycle count.
+     * @param row the row, with row 0 being the oldest row in the buffer
+     * @param column the column (the index into the array returned by
+     *        {@link #getHubs()})
+     * @return the bicycle count
+     * @exception IndexOutOfBoundsException the row or column is out
+     *            of range
+     */
+    public int getCount(int row, int column) throws IndexOutOfBoundsException
+    {
+	return counts[rowIndex(row)][column];
+    }
+
+    /**
+     * Get an overflow count.
+     * @param row the row, with row 0 being the oldest row in the buffer
+     * @param column the column (the index into the array returned by
+     *        {@link #getHubs()})
+     * @return the overflow count
+     * @exception IndexOutOfBoundsException the row or column is out
+     *            of range
+     */
+    public int getOverflow(int row, int column)
+	throws IndexOutOfBoundsException
+    {
+	return overflows[rowIndex(row)][column];
+    }
+
+    /**
+     * Copy the bicycle counts for a row.
+     * @param row the row, with row 0 being the oldest row in the buffer
+     * @param array an array to store the counts, whose length must be
+     *        at least the number of hubs; null to allocate a new array
+     * @return the array containing the counts
+     * @exception IndexOutOfBoundsException the row is out of range
+     */
+    public int[] getCounts(int row, int[] array)
+	throws IndexOutOfBoundsException
+    {
+	int[] c = counts[rowIndex(row)];
+	if (array == null) array = new int[c.length];
+	System.arraycopy(c, 0, array, 0, c.length);
+	return array;
+    }
+
+    /**
+     * Copy the overflow counts for a row.
+     * @param row the row, with row 0 being the oldest row in the buffer
+     * @param array an array to store the counts, whose length must be
+     *        at least the number of hubs; null to allocate a new array
+     * @return the array containing the counts
+     * @exception IndexOutOfBoundsException the row is out of range
+     */
+    public int[] getOverflows(int row, int[] array)
+	throws IndexOutOfBoundsException
+    {
+	int[] o = overflows[rowIndex(row)];
+	if (array == null) array = new int[o.length];
+	System.arraycopy(o, 0, array, 0, o.length);
+	return array;
+    }
+
+    /**
+     * Stop taking snapshots.
+     * If there is a spill file, the rows remaining in the buffer
+     * are written to it and the file is closed.
+     */
+    public void close() {
+	if (event != null) {
+	    event.cancel();
+	    event = null;
+	}
+	if (spillFile != null && hubs != null) {
+	    try {
+		if (size > 0 || !spillStarted) spillRows();
+		closeSpill();
+	    } finally {
+		spillFile = null;
+	    }
+	}
+    }
+
+    /**
+     * Print the configuration for an instance of HubSnapshotter.
+     * The documentation for method
+     * {@link org.bzdev.devqsim.SimObject#printConfiguration(String,String,boolean,java.io.PrintWriter)}
+     * contains a description of how this method is used and how to
+     * override it. The method
+     * {@link org.bzdev.drama.Actor#printConfiguration(String,String,boolean,java.io.PrintWriter)}
+     * describes the data that will be printed for the
+     * superclass of this class. The data that will be printed
+     * when this method is called are the following.
+     * <P>
+     * For class {@link HubSnapshotter}:
+     * <UL>
+     *  <LI> the system domain.
+     *  <LI> the interval between snapshots.
+     *  <LI> the number of rows in the buffer.
+     *  <LI> the start and stop times.
+     *  <LI> the spill file.
+     * </UL>
+     * @param iPrefix the prefix to use for an initial line when printName is
+     *        true with null treated as an empty string
+     * @param prefix a prefix string (typically whitespace) to put at
+     *        the start of each line other than the initial line that is
+     *        printed when printName is true
+     * @param printName requests printing the name of an object
+     * @param out the output print writer
+     */
+    @Override
+    public void printConfiguration(String iPrefix, String prefix,
+				   boolean printName,
+				   PrintWriter out)
+    {
+	super.printConfiguration(iPrefix, prefix, printName, out);
+	out.println(prefix + "system domain: "
+		    + ((domain == null)? "<none>": domain.getName()));
+	out.println(prefix + "interval: " + interval);
+	out.println(prefix + "rows: " + nrows);
+	out.println(prefix + "start time: " + startTime);
+	out.println(prefix + "stop time: " + stopTime);
+	out.println(prefix + "spill file: "
+		    + ((spillFile == null)? "<none>": spillFile));
+    }
+
+    /**
+     * Print the state for an instance of HubSnapshotter.
+     * The documentation for method
+     * {@link org.bzdev.devqsim.SimObject#printState(String,String,boolean,java.io.PrintWriter)}
+     * contains a description of how this method is used and how to
+     * override it. The method
+     * {@link org.bzdev.drama.Actor#printState(String,String,boolean,java.io.PrintWriter)}
+     * describes the data that will be printed for the
+     * superclass of this class. The data that will be printed
+     * when this method is called are the following.
+     * <P>
+     * For class {@link HubSnapshotter}:
+     * <UL>
+     *   <LI> the number of snapshots taken.
+     *   <LI> the number of rows in the buffer.
+     * </UL>
+     * @param iPrefix the prefix to use for an initial line when printName is
+     *        true with null treated as an empty string
+     * @param prefix a prefix string (typically whitespace) to put at
+     *        the start of each line other than the initial line that is
+     *        printed when printName is true
+     * @param printName requests printing the name of an object
+     * @param out the output print writer
+     */
+    @Override
+    public void printState(String iPrefix, String prefix,
+			   boolean printName, PrintWriter out) {
+	super.printState(iPrefix, prefix, printName, out);
+	out.println(prefix + "snapshots: " + snapshotCount);
+	out.println(prefix + "buffered rows: " + size);
+    }
+}
+
+//  LocalWords:  snapshotter getHubs setSpillFile DataOutputStream
+//  LocalWords:  writeUTF ints HubSnapshotterFactory sim nrows
+//  LocalWords:  IllegalArgumentException IllegalStateException
+//  LocalWords:  IndexOutOfBoundsException superclass iPrefix
+//  LocalWords:  printConfiguration printName whitespace printState
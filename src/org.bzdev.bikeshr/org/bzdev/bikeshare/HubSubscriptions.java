@@ -0,0 +1,289 @@
+package org.bzdev.bikeshare;
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry for per-hub subscriptions.
+ * Listeners added to a {@link TripGenerator} or a {@link HubWorker}
+ * are notified of every event that object generates, regardless of
+ * the hub at which the event occurred.  When only a few hubs are of
+ * interest (for example, hubs in a neighborhood), an instance of this
+ * class can subscribe a listener to the events that occur at a set
+ * of hubs instead:
+ * <UL>
+ *   <LI> a {@link HubDataListener} is notified when a hub's bicycle
+ *        count or overflow count changes.
+ *   <LI> a {@link TripDataListener} is notified when a trip event
+ *        (a trip starting, pausing, continuing, ending, or failing)
+ *        occurs at a hub, independent of the trip generator that
+ *        created the trip.
+ *   <LI> a {@link HubWorkerListener} is notified when a worker event
+ *        occurs at a hub, independent of the worker.
+ * </UL>
+ * The set of hubs can be given explicitly or as a region: the user
+ * hubs and storage hubs in a system domain whose coordinates are
+ * contained in a shape.
+ * <P>
+ * Dispatch is done by the hub at which an event occurs, so a
+ * listener's cost is proportional to the number of events at the
+ * hubs it subscribed to, and the objects generating events do no
+ * additional work for hubs without subscribers. Each instance of
+ * this class keeps track of the subscriptions it made so that they
+ * can be removed by calling {@link #unsubscribe(Object)} or
+ * {@link #unsubscribeAll()}.
+ */
+public class HubSubscriptions {
+
+    private static final int HUB_DATA = 0;
+    private static final int TRIP_DATA = 1;
+    private static final int WORKER = 2;
+
+    // A listener may implement more than one of the listener
+    // interfaces, so the type of each subscription is recorded.
+    private static class Subscription {
+	Hub hub;
+	int type;
+	Subscription(Hub hub, int type) {
+	    this.hub = hub;
+	    this.type = type;
+	}
+    }
+
+    private Map<Object,ArrayList<Subscription>> subscriptions =
+	new LinkedHashMap<>();
+
+    /**
+     * Constructor.
+     */
+    public HubSubscriptions() {}
+
+    /**
+     * Find the hubs in a region.
+     * The hubs are the user hubs and storage hubs that are members of
+     * a system domain and whose coordinates are contained in a shape.
+     * @param domain the system domain
+     * @param region the region, using the same coordinate system
+     *        (units of meters) as {@link Hub#getX()} and
+     *        {@link Hub#getY()}
+     * @return the hubs in the region
+     */
+    public static Hub[] findHubs(SysDomain domain, Shape region) {
+	ArrayList<Hub> list = new ArrayList<>();
+	for (Hub hub: domain.getUserHubs()) {
+	    if (region.contains(hub.getX(), hub.getY())) {
+		list.add(hub);
+	    }
+	}
+	for (Hub hub: domain.getStorageHubs()) {
+	    if (region.contains(hub.getX(), hub.getY())) {
+		list.add(hub);
+	    }
+	}
+	return list.toArray(new Hub[list.size()]);
+    }
+
+    private ArrayList<Subscription> getList(Object listener) {
+	ArrayList<Subscription> list = subscriptions.get(listener);
+	if (list == null) {
+	    list = new ArrayList<>();
+	    subscriptions.put(listener, list);
+	}
+	return list;
+    }
+
+    /**
+     * Subscribe a hub data listener to a set of hubs.
+     * As with {@link Hub#addHubDataListener(HubDataListener)}, the
+     * listener will be told the current state of each hub when it
+     * is subscribed.
+     * @param listener the listener
+     * @param hubs the hubs
+     * @return the number of hubs to which the listener was subscribed
+     */
+    public int subscribe(HubDataListener listener, Hub... hubs) {
+	ArrayList<Subscription> list = getList(listener);
+	for (Hub hub: hubs) {
+	    hub.addHubDataListener(listener);
+	    list.add(new Subscription(hub, HUB_DATA));
+	}
+	return hubs.length;
+    }
+
+    /**
+     * Subscribe a trip data listener to a set of hubs.
+     * The listener will be notified of trip events occurring at these
+     * hubs, regardless of the trip generator that created the trip.
+     * @param listener the listener
+     * @param hubs the hubs
+     * @return the number of hubs to which the listener was subscribed
+     */
+    public int subscribe(TripDataListener listener, Hub... hubs) {
+	ArrayList<Subscription> list = getList(listener);
+	for (Hub hub: hubs) {
+	    hub.addTripSubscriber(listener);
+	    list.add(new Subscription(hub, TRIP_DATA));
+	}
+	return hubs.length;
+    }
+
+    /**
+     * Subscribe a hub worker listener to a set of hubs.
+     * The listener will be notified of events occurring at these hubs,
+     * regardless of the worker that caused the event.
+     * @param listener the listener
+     * @param hubs the hubs
+     * @return the number of hubs to which the listener was subscribed
+     */
+    public int subscribe(HubWorkerListener listener, Hub... hubs) {
+	ArrayList<Subscription> list = getList(listener);
+	for (Hub hub: hubs) {
+	    hub.addWorkerSubscriber(listener);
+	    list.add(new Subscription(hub, WORKER));
+	}
+	return hubs.length;
+    }
+
+    /**
+     * Subscribe a hub data listener to a collection of hubs.
+     * @param listener the listener
+     * @param hubs the hubs
+     * @return the number of hubs to which the listener was subscribed
+     */
+    public int subscribe(HubDataListener listener,
+			 Collection<? extends Hub> hubs)
+    {
+	return subscribe(listener, hubs.toArray(new Hub[hubs.size()]));
+    }
+
+    /**
+     * Subscribe a trip data listener to a collection of hubs.
+     * @param listener the listener
+     * @param hubs the hubs
+     * @return the number of hubs to which the listener was subscribed
+     */
+    public int subscribe(TripDataListener listener,
+			 Collection<? extends Hub> hubs)
+    {
+	return subscribe(listener, hubs.toArray(new Hub[hubs.size()]));
+    }
+
+    /**
+     * Subscribe a hub worker listener to a collection of hubs.
+     * @param listener the listener
+     * @param hubs the hubs
+     * @return the number of hubs to which the listener was subscribed
+     */
+    public int subscribe(HubWorkerListener listener,
+			 Collection<? extends Hub> hubs)
+    {
+	return subscribe(listener, hubs.toArray(new Hub[hubs.size()]));
+    }
+
+    /**
+     * Subscribe a hub data listener to the hubs in a region.
+     * @param listener the listener
+     * @param domain the system domain containing the hubs
+     * @param region the region
+     * @return the number of hubs to which the listener was subscribed
+     * @see #findHubs(SysDomain,Shape)
+     */
+    public int subscribe(HubDataListener listener,
+			 SysDomain domain, Shape region)
+    {
+	return subscribe(listener, findHubs(domain, region));
+    }
+
+    /**
+     * Subscribe a trip data listener to the hubs in a region.
+     * @param listener the listener
+     * @param domain the system domain containing the hubs
+     * @param region the region
+     * @return the number of hubs to which the listener was subscribed
+     * @see #findHubs(SysDomain,Shape)
+     */
+    public int subscribe(TripDataListener listener,
+			 SysDomain domain, Shape region)
+    {
+	return subscribe(listener, findHubs(domain, region));
+    }
+
+    /**
+     * Subscribe a hub worker listener to the hubs in a region.
+     * @param listener the listener
+     * @param domain the system domain containing the hubs
+     * @param region the region
+     * @return the number of hubs to which the listener was subscribed
+     * @see #findHubs(SysDomain,Shape)
+     */
+    public int subscribe(HubWorkerListener listener,
+			 SysDomain domain, Shape region)
+    {
+	return subscribe(listener, findHubs(domain, region));
+    }
+
+    private static void remove(Object listener, Subscription sub) {
+	switch (sub.type) {
+	case HUB_DATA:
+	    sub.hub.removeHubDataListener((HubDataListener) listener);
+	    break;
+	case TRIP_DATA:
+	    sub.hub.removeTripSubscriber((TripDataListener) listener);
+	    break;
+	case WORKER:
+	    sub.hub.removeWorkerSubscriber((HubWorkerListener) listener);
+	    break;
+	}
+    }
+
+    /**
+     * Get the hubs to which a listener was subscribed by this registry.
+     * A hub will appear more than once if the listener was subscribed
+     * to it more than once.
+     * @param listener the listener
+     * @return the hubs; an empty array if there are none
+     */
+    public Hub[] getHubs(Object listener) {
+	ArrayList<Subscription> list = subscriptions.get(listener);
+	if (list == null) return new Hub[0];
+	Hub[] hubs = new Hub[list.size()];
+	int i = 0;
+	for (Subscription sub: list) {
+	    hubs[i++] = sub.hub;
+	}
+	return hubs;
+    }
+
+    /**
+     * Remove the subscriptions this registry made for a listener.
+     * @param listener the listener
+     */
+    public void unsubscribe(Object listener) {
+	ArrayList<Subscription> list = subscriptions.remove(listener);
+	if (list != null) {
+	    for (Subscription sub: list) {
+		remove(listener, sub);
+	    }
+	}
+    }
+
+    /**
+     * Remove all the subscriptions made by this registry.
+     */
+    public void unsubscribeAll() {
+	for (Map.Entry<Object,ArrayList<Subscription>> entry:
+		 subscriptions.entrySet()) {
+	    Object listener = entry.getKey();
+	    for (Subscription sub: entry.getValue()) {
+		remove(listener, sub);
+	    }
+	}
+	subscriptions.clear();
+    }
+}
+
+//  LocalWords:  TripGenerator HubWorker HubDataListener unsubscribe
+//  LocalWords:  TripDataListener HubWorkerListener unsubscribeAll
+//  LocalWords:  getX getY addHubDataListener
@@ -7,7 +7,6 @@ import java.io.PrintWriter;
 import java.util.Comparator;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Vector;
 
 /**
  * Class representing a hub worker.
@@ -29,6 +28,11 @@ import java.util.Vector;
  * at fixed intervals.  Otherwise the worker will visit a series
  * of hubs and return to the worker's storage hub, placing themselves
  * back into the storage hub's worker queue.
+ * <P>
+ * By default a worker runs as a simulation task. A worker can
+ * instead be made event driven by calling
+ * {@link #setEventDriven(boolean)}, in which case it does not need a
+ * thread of its own.
  */
 public class HubWorker extends Actor {
 
@@ -37,6 +41,7 @@ public class HubWorker extends Actor {
     }
 
     DramaSimulation sim;
+    BikeShareContext context;
 
     /**
      * Constructor.
@@ -48,6 +53,7 @@ public class HubWorker extends Actor {
     public HubWorker(DramaSimulation sim, String name, boolean intern) {
 	super(sim, name, intern);
 	this.sim = sim;
+	context = BikeShareContext.get(sim);
     }
 
     private int capacity;
@@ -123,7 +129,7 @@ public class HubWorker extends Actor {
      * can be used to find that storage hub.
      * @return the storage hub for this hub worker
      */
-    StorageHub getStorageHub() {return storageHub;}
+    public StorageHub getStorageHub() {return storageHub;}
 
     /**
      * Initialize a hub worker.
@@ -140,6 +146,8 @@ public class HubWorker extends Actor {
 	this.domain = domain;
 	// storageHub = shub;
 	joinDomain(domain, false);
+	// set before addWorker, which records this worker's statistics
+	initTicks = sim.currentTicks();
 	shub.addWorker(this); // calls setStorageHub
 	this.currentHub = currentHub;
     }
@@ -155,9 +163,260 @@ public class HubWorker extends Actor {
     public boolean isRunning() {
 	return workerRunning;
     }
+
+    // Statistics.  These are updated when the corresponding listener
+    // events are fired so that all worker modes, threaded or event
+    // driven, are handled the same way.
+    private long initTicks = 0;
+    private boolean busy = false;
+    private long busySince = 0;
+    private long busyTicks = 0;
+    private Hub departedHub = null;
+    private long departedTicks = 0;
+    private long travelTicks = 0;
+    private double distance = 0.0;
+    private long trips = 0;
+    private long bikesPickedUp = 0;
+    private long bikesDroppedOff = 0;
+    private Hub visitedHub = null;
+    private boolean visitChanged = false;
+    private long visits = 0;
+    private long emptyVisits = 0;
+
+    /**
+     * Get a snapshot of the statistics accumulated by this worker.
+     * The values include the time since the worker was initialized
+     * by calling {@link #init(int,StorageHub,SysDomain,Hub)}.
+     * @return the statistics for this worker
+     */
+    public WorkerStatistics getStatistics() {
+	long now = sim.currentTicks();
+	long busyNow = busyTicks + (busy? now - busySince: 0);
+	long idleNow = now - initTicks - busyNow;
+	if (idleNow < 0) idleNow = 0;
+	return new WorkerStatistics(1, sim.getTime(busyNow),
+				    sim.getTime(idleNow),
+				    sim.getTime(travelTicks), distance, trips,
+				    bikesPickedUp, bikesDroppedOff,
+				    visits, emptyVisits, 0, 0.0);
+    }
     
     Hub[] currentHubs = null;
 
+    private boolean eventDriven = false;
+
+    /**
+     * Set whether a worker is event driven.
+     * By default, a worker runs as a simulation task (a thread that
+     * is suspended while simulation time passes). An event-driven
+     * worker instead runs as a state machine in which each step
+     * schedules the next one as a simulation event, so no thread is
+     * needed. Both produce the same sequence of hub-worker listener
+     * events and the same changes to hubs. Event-driven workers scale
+     * to large numbers of workers as they avoid thread switches.
+     * <P>
+     * Event-driven workers do not call the methods
+     * {@link #loop(HubWorker.HubSorter,long,long) loop},
+     * {@link #visit(HubWorker.HubSorter) visit},
+     * {@link #loopWithPickup(HubWorker.HubSorter,long,long) loopWithPickup},
+     * {@link #visitWithPickup(HubWorker.HubSorter) visitWithPickup},
+     * {@link #loopToFixOverflows(HubWorker.HubSorter,long,long) loopToFixOverflows},
+     * or
+     * {@link #visitToFixOverflows(HubWorker.HubSorter) visitToFixOverflows},
+     * so subclasses that override these methods should not be
+     * event driven.
+     * @param value true if the worker is event driven; false if
+     *        the worker runs as a simulation task
+     * @exception IllegalStateException the worker is running
+     */
+    public void setEventDriven(boolean value) throws IllegalStateException {
+	if (workerRunning) {
+	    throw new IllegalStateException
+		(errorMsg("workerRunning", getName()));
+	}
+	eventDriven = value;
+    }
+
+    /**
+     * Determine if a worker is event driven.
+     * @return true if the worker is event driven; false if it runs
+     *         as a simulation task
+     * @see #setEventDriven(boolean)
+     */
+    public boolean isEventDriven() {
+	return eventDriven;
+    }
+
+    /**
+     * Strategy for running the tasks that implement a worker's modes.
+     * The methods {@link #loop(HubWorker.HubSorter,long,long) loop},
+     * {@link #visit(HubWorker.HubSorter) visit},
+     * {@link #loopWithPickup(HubWorker.HubSorter,long,long) loopWithPickup},
+     * {@link #visitWithPickup(HubWorker.HubSorter) visitWithPickup},
+     * {@link #loopToFixOverflows(HubWorker.HubSorter,long,long) loopToFixOverflows},
+     * and
+     * {@link #visitToFixOverflows(HubWorker.HubSorter) visitToFixOverflows}
+     * each create a task that is written in a blocking style: the
+     * task pauses while a worker travels or picks up bicycles. A task
+     * executor determines how such a task is run and how it pauses.
+     * Implementations must ensure that the simulation does not process
+     * events while a task is running.
+     * @see HubWorker#setTaskExecutor(HubWorker.TaskExecutor)
+     * @see HubWorker#newTaskThreadExecutor(DramaSimulation)
+     * @see HubWorker#newVirtualThreadExecutor(DramaSimulation)
+     */
+    public static interface TaskExecutor {
+	/**
+	 * Schedule a task.
+	 * @param body the code the task runs
+	 * @param delay the delay in simulation ticks before the task starts
+	 */
+	public void scheduleTask(Runnable body, long delay);
+
+	/**
+	 * Pause the current task.
+	 * This method must be called by a task scheduled by this
+	 * executor.
+	 * @param ticks the number of simulation ticks for which the
+	 *        task pauses
+	 * @exception IllegalStateException this method was not called
+	 *            from a task scheduled by this executor
+	 */
+	public void pause(long ticks) throws IllegalStateException;
+
+	/**
+	 * Release the resources held by tasks that have not terminated.
+	 * This method should be called when the simulation that runs the
+	 * tasks will not be run again: tasks that have paused are not
+	 * resumed and tasks that have not started will not run.
+	 * The default implementation does nothing.
+	 * @exception IllegalStateException this method was called from
+	 *            a task scheduled by this executor
+	 */
+	default void close() throws IllegalStateException {
+	}
+    }
+
+    private static class TaskThreadExecutor implements TaskExecutor {
+	DramaSimulation sim;
+	TaskThreadExecutor(DramaSimulation sim) {
+	    this.sim = sim;
+	}
+	public void scheduleTask(Runnable body, long delay) {
+	    sim.scheduleTask(body, delay);
+	}
+	public void pause(long ticks) {
+	    TaskThread.pause(ticks);
+	}
+    }
+
+    /**
+     * Create a task executor that uses simulation task threads.
+     * Each task runs in its own platform thread, and a
+     * simulation's threads are coordinated by the simulation so that
+     * only one runs at a time. This is the default.
+     * @param sim the simulation
+     * @return the task executor
+     * @see TaskThread
+     */
+    public static TaskExecutor newTaskThreadExecutor(DramaSimulation sim) {
+	return new TaskThreadExecutor(sim);
+    }
+
+    /**
+     * Determine if virtual threads are supported.
+     * Virtual threads require Java 21 or later.
+     * @return true if virtual threads are supported; false otherwise
+     */
+    public static boolean virtualThreadsSupported() {
+	return VirtualThreadExecutor.isSupported();
+    }
+
+    /**
+     * Create a task executor that uses virtual threads.
+     * Each task runs in its own virtual thread. When a task pauses,
+     * its thread is unmounted rather than blocking a platform thread,
+     * so the cost of switching between a task and the simulation and
+     * the memory used per worker are much lower than for simulation
+     * task threads. A paused virtual thread is released only when its
+     * task resumes or the executor is closed, so the executor should
+     * be closed when the simulation will not be run again. When
+     * virtual threads are not supported, an executor that uses
+     * simulation task threads is returned instead.
+     * @param sim the simulation
+     * @return the task executor
+     */
+    public static TaskExecutor newVirtualThreadExecutor(DramaSimulation sim)
+    {
+	if (VirtualThreadExecutor.isSupported()) {
+	    return new VirtualThreadExecutor(sim);
+	} else {
+	    return new TaskThreadExecutor(sim);
+	}
+    }
+
+    private TaskExecutor taskExecutor = null;
+
+    /**
+     * Set the task executor for this worker.
+     * Several workers may share the same task executor.
+     * @param executor the task executor; null for the default, which
+     *        uses simulation task threads
+     * @exception IllegalStateException the worker is running
+     * @see #newTaskThreadExecutor(DramaSimulation)
+     * @see #newVirtualThreadExecutor(DramaSimulation)
+     */
+    public void setTaskExecutor(TaskExecutor executor)
+	throws IllegalStateException
+    {
+	if (workerRunning) {
+	    throw new IllegalStateException
+		(errorMsg("workerRunning", getName()));
+	}
+	taskExecutor = executor;
+    }
+
+    /**
+     * Get the task executor for this worker.
+     * @return the task executor; null if the default is used
+     */
+    public TaskExecutor getTaskExecutor() {
+	return taskExecutor;
+    }
+
+    private void scheduleBody(Runnable runnable) {
+	if (taskExecutor == null) {
+	    sim.scheduleTask(runnable);
+	} else {
+	    taskExecutor.scheduleTask(runnable, 0);
+	}
+    }
+
+    private void scheduleBody(Runnable runnable, long delay) {
+	if (taskExecutor == null) {
+	    sim.scheduleTask(runnable, delay);
+	} else {
+	    taskExecutor.scheduleTask(runnable, delay);
+	}
+    }
+
+    /**
+     * Pause the task that is running this worker.
+     * Subclasses that override the methods that run a worker's
+     * modes should call this method instead of
+     * {@link TaskThread#pause(long)} so that the worker's task
+     * executor is used.
+     * @param ticks the number of simulation ticks for which the
+     *        task pauses
+     */
+    protected void pauseTask(long ticks) {
+	if (taskExecutor == null) {
+	    TaskThread.pause(ticks);
+	} else {
+	    taskExecutor.pause(ticks);
+	}
+    }
+
     /**
      * Enumeration listing the Worker modes.
      * The class {@link HubWorker} uses this enumeration as an
@@ -204,14 +463,15 @@ public class HubWorker extends Actor {
 
     Mode currentMode = null;
 
-    private Vector<HubWorkerListener> hubWorkerListenerList = new Vector<>();
+    private final HubWorkerListeners hubWorkerListeners =
+	new HubWorkerListeners();
 
     /**
      * Add a hub-worker listener to the current object.
      * @param listener the listener to add
      */
     public void addHubWorkerListener(HubWorkerListener listener) {
-	hubWorkerListenerList.add(listener);
+	hubWorkerListeners.add(listener);
     }
 
     /**
@@ -219,7 +479,38 @@ public class HubWorker extends Actor {
      * @param listener the listener to remove
      */
     public void removeHubWorkerListener(HubWorkerListener listener) {
-	hubWorkerListenerList.remove(listener);
+	hubWorkerListeners.remove(listener);
+    }
+
+    private static final int DEQUEUED = HubWorkerListeners.DEQUEUED;
+    private static final int ENTERED_HUB = HubWorkerListeners.ENTERED_HUB;
+    private static final int FIXING_OVERFLOWS =
+	HubWorkerListeners.FIXING_OVERFLOWS;
+    private static final int FIXING_PREFERRED =
+	HubWorkerListeners.FIXING_PREFERRED;
+    private static final int LEFT_HUB = HubWorkerListeners.LEFT_HUB;
+    private static final int QUEUED = HubWorkerListeners.QUEUED;
+    private static final int CHANGED_COUNT = HubWorkerListeners.CHANGED_COUNT;
+
+    // Notify this worker's listeners, followed by the subscribers for
+    // a hub, of an event.  Both listener arrays are copy-on-write, so
+    // a listener can add or remove listeners or subscriptions while
+    // the event is being delivered.
+    private void dispatch(int event, Hub hub, int oldCount, int newCount) {
+	HubWorkerListeners subscribers =
+	    (hub == null)? null: hub.workerSubscribers;
+	if (hubWorkerListeners.isEmpty()
+	    && (subscribers == null || subscribers.isEmpty())) {
+	    return;
+	}
+	double time = sim.currentTime();
+	long ticks = sim.currentTicks();
+	hubWorkerListeners.fire(event, this, time, ticks,
+				hub, oldCount, newCount);
+	if (subscribers != null) {
+	    subscribers.fire(event, this, time, ticks,
+			     hub, oldCount, newCount);
+	}
     }
 
     /**
@@ -228,11 +519,7 @@ public class HubWorker extends Actor {
      * @param hub the hub at which this event occurred
      */
     void fireDequeued(Hub hub) {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (HubWorkerListener listener: hubWorkerListenerList) {
-	    listener.dequeued(this, time, ticks, hub);
-	}
+	dispatch(DEQUEUED, hub, 0, 0);
     }
 
     /**
@@ -240,11 +527,22 @@ public class HubWorker extends Actor {
      * @param hub the hub at which this event occurred
      */
     protected void fireEnteredHub(Hub hub) {
-	double time = sim.currentTime();
 	long ticks = sim.currentTicks();
-	for (HubWorkerListener listener: hubWorkerListenerList) {
-	    listener.enteredHub(this, time, ticks, hub);
+	if (departedHub != null) {
+	    travelTicks += ticks - departedTicks;
+	    if (hub != null && hub != departedHub) {
+		distance += Math.hypot(hub.getX() - departedHub.getX(),
+				       hub.getY() - departedHub.getY());
+	    }
+	    trips++;
+	    departedHub = null;
 	}
+	if (hub != null && !(hub instanceof StorageHub)) {
+	    visits++;
+	    visitedHub = hub;
+	    visitChanged = false;
+	}
+	dispatch(ENTERED_HUB, hub, 0, 0);
     }
 
     /**
@@ -252,11 +550,7 @@ public class HubWorker extends Actor {
      * @param hub the hub at which this event occurred
      */
     protected void fireFixingOverflows(Hub hub) {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (HubWorkerListener listener: hubWorkerListenerList) {
-	    listener.fixingOverflows(this, time, ticks, hub);
-	}
+	dispatch(FIXING_OVERFLOWS, hub, 0, 0);
     }
 
     /**
@@ -264,11 +558,7 @@ public class HubWorker extends Actor {
      * @param hub the hub at which this event occurred
      */
     protected void fireFixingPreferred(Hub hub) {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (HubWorkerListener listener: hubWorkerListenerList) {
-	    listener.fixingPreferred(this, time, ticks, hub);
-	}
+	dispatch(FIXING_PREFERRED, hub, 0, 0);
     }
 
     /**
@@ -277,11 +567,14 @@ public class HubWorker extends Actor {
      * @param hub the hub at which this event occurred
      */
     void fireLeftHub(Hub hub) {
-	double time = sim.currentTime();
 	long ticks = sim.currentTicks();
-	for (HubWorkerListener listener: hubWorkerListenerList) {
-	    listener.leftHub(this, time, ticks, hub);
+	if (visitedHub != null && hub == visitedHub) {
+	    if (!visitChanged) emptyVisits++;
+	    visitedHub = null;
 	}
+	departedHub = hub;
+	departedTicks = ticks;
+	dispatch(LEFT_HUB, hub, 0, 0);
     }
 
     /**
@@ -289,11 +582,12 @@ public class HubWorker extends Actor {
      * @param hub the hub at which this event occurred
      */
     protected void fireQueued(Hub hub) {
-	double time = sim.currentTime();
 	long ticks = sim.currentTicks();
-	for (HubWorkerListener listener: hubWorkerListenerList) {
-	    listener.queued(this, time, ticks, hub);
+	if (busy) {
+	    busyTicks += ticks - busySince;
+	    busy = false;
 	}
+	dispatch(QUEUED, hub, 0, 0);
     }
 
     /**
@@ -303,11 +597,13 @@ public class HubWorker extends Actor {
      * @param newCount the new value fo the bicycle count
      */
     protected void fireChangedCount(Hub hub, int oldCount, int newCount) {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (HubWorkerListener listener: hubWorkerListenerList) {
-	    listener.changedCount(this, time, ticks, hub, oldCount, newCount);
+	if (newCount > oldCount) {
+	    bikesPickedUp += newCount - oldCount;
+	} else {
+	    bikesDroppedOff += oldCount - newCount;
 	}
+	if (newCount != oldCount && hub == visitedHub) visitChanged = true;
+	dispatch(CHANGED_COUNT, hub, oldCount, newCount);
     }
 
     /**
@@ -330,16 +626,44 @@ public class HubWorker extends Actor {
 	/**
 	 * Get the the hubs whose bicycle count in the preferred area of the
 	 * hub is larger than the nominal value for  that hub.
+	 * Only the first {@link #getOverNominalCount()} elements of the
+	 * array are used, so an implementation may return the same,
+	 * possibly longer, array each time {@link #sort()} is called.
 	 * @return an array of hubs sorted into traversal order
 	 */
 	public abstract Hub[] getOverNominal();
 	/**
 	 * The the hubs whose bicycle count in the preferred area of the
 	 * hub is lower than the nominal value for  that hub.
+	 * Only the first {@link #getUnderNominalCount()} elements of the
+	 * array are used, so an implementation may return the same,
+	 * possibly longer, array each time {@link #sort()} is called.
 	 * @return an array of hubs sorted into traversal order
 	 */
 	public abstract Hub[] getUnderNominal();
 
+	/**
+	 * Get the number of hubs in the array returned by
+	 * {@link #getOverNominal()}.
+	 * The default implementation returns the length of that array.
+	 * @return the number of hubs
+	 */
+	default int getOverNominalCount() {
+	    Hub[] array = getOverNominal();
+	    return (array == null)? 0: array.length;
+	}
+
+	/**
+	 * Get the number of hubs in the array returned by
+	 * {@link #getUnderNominal()}.
+	 * The default implementation returns the length of that array.
+	 * @return the number of hubs
+	 */
+	default int getUnderNominalCount() {
+	    Hub[] array = getUnderNominal();
+	    return (array == null)? 0: array.length;
+	}
+
 	/**
 	 * Get the desired initial bicycle count for a worker.
 	 * This is the number of bicycles given the state of hubs
@@ -352,6 +676,30 @@ public class HubWorker extends Actor {
 	 * @return the desired initial bicycle count
 	 */
 	public abstract int getInitialCountEstimate();
+
+	/**
+	 * Plan the route for a pass over this sorter's hubs.
+	 * This method is called by a worker after {@link #sort()} is
+	 * called, and only for modes that adjust the preferred area
+	 * (the modes whose names do not end in TO_FIX_OVERFLOWS).
+	 * When the value returned is not null, the worker will visit
+	 * the hubs in the order given, skipping hubs at which it
+	 * cannot pick up or drop off bicycles when it arrives, instead
+	 * of alternating between the hubs returned by
+	 * {@link #getOverNominal()} and {@link #getUnderNominal()}.
+	 * The worker's current hub, bicycle count, capacity, and
+	 * storage hub can be used for planning (for example, by a
+	 * {@link RoutePlanner}).
+	 * <P>
+	 * The default implementation returns null.
+	 * @param worker the worker that will follow the route
+	 * @return the hubs in the order in which they should be visited;
+	 *         null if the arrays returned by {@link #getOverNominal()}
+	 *         and {@link #getUnderNominal()} should be used instead
+	 */
+	default Hub[] planRoute(HubWorker worker) {
+	    return null;
+	}
     }
 
     /**
@@ -377,11 +725,19 @@ public class HubWorker extends Actor {
 	if (mode == null) mode = Mode.LOOP;
 	currentMode = mode;
 	workerRunning = true;
+	if (!busy) {
+	    busy = true;
+	    busySince = sim.currentTicks();
+	}
 	currentHubs = hubSorter.getHubs();
 	long lwait = sim.getTicks(wait);
 	long loffset = sim.getTicks(offset);
-	trace(BikeShare.level2, "successfully started, servicing %d hubs",
+	trace(context.level2(), "successfully started, servicing %d hubs",
 	      currentHubs.length);
+	if (eventDriven) {
+	    new WorkerStateMachine(mode, hubSorter, lwait, loffset).start();
+	    return;
+	}
 	switch(mode) {
 	case LOOP:
 	    loop(hubSorter, lwait, loffset);
@@ -419,7 +775,7 @@ public class HubWorker extends Actor {
 	int old = nbikes;
 	nbikes += storageHub.decrBikeCount(n);
 	fireChangedCount(storageHub, old, nbikes);
-	trace(BikeShare.level3, "took %d bicycles from storage hub \"%s\""
+	trace(context.level3(), "took %d bicycles from storage hub \"%s\""
 	      + ", worker bicycle count = %d",
 	      n, storageHub.getName(), nbikes);
     }
@@ -429,124 +785,280 @@ public class HubWorker extends Actor {
 	int old = nbikes;
 	nbikes -= change;
 	fireChangedCount(storageHub, old, nbikes);
-	trace(BikeShare.level3, "added %d bicycles to storage hub \"%s\""
+	trace(context.level3(), "added %d bicycles to storage hub \"%s\""
 	      + ", worker bicycle count = %d",
 	      change, storageHub.getName(), nbikes);
     }
 
-    private void visitAux(String action, HubSorter hubSorter) {
-	trace(BikeShare.level2, "started %s, nbikes = %d",
-	      action, nbikes);
-	hubSorter.sort();
-	Hub[] harray1 = hubSorter.getOverNominal();
-	Hub[] harray2 = hubSorter.getUnderNominal();
+    private int limitTake(int take) {
+	if (take > 0) {
+	    int delta = capacity - nbikes;
+	    if (take > delta) {
+		take = delta;
+	    }
+	} else {
+	    if (-take > nbikes) {
+		take = -nbikes;
+	    }
+	}
+	return take;
+    }
+
+    // The change this worker intends to make at the hub to which it
+    // is traveling.  The hub records the claim so that other workers
+    // and hub sorters use counts net of it; the claim is removed when
+    // the worker arrives.
+    private Hub claimedHub = null;
+    private int claimedBikes = 0;
+    private int claimedOverflow = 0;
+
+    private void claim(Hub hub, int bikes, int overflow) {
+	releaseClaim();
+	hub.addClaim(bikes, overflow);
+	claimedHub = hub;
+	claimedBikes = bikes;
+	claimedOverflow = overflow;
+	trace(context.level4(), "claimed %d + %d bicycles at hub %s",
+	      bikes, overflow, hub.getName());
+    }
+
+    // Claim the bicycles to be taken from (take > 0) or given to
+    // (take < 0) a hub, with overflows picked up first when pickup
+    // is true.
+    private void claimTake(Hub hub, int take, boolean pickup) {
+	int overflow = 0;
+	if (pickup && take > 0) {
+	    overflow = hub.getUnclaimedOverflow();
+	    if (overflow > take) overflow = take;
+	    if (overflow < 0) overflow = 0;
+	}
+	claim(hub, take - overflow, overflow);
+    }
+
+    // Also called by StorageHub.removeWorker: a worker removed from
+    // its storage hub while traveling may never arrive.
+    void releaseClaim() {
+	if (claimedHub != null) {
+	    claimedHub.removeClaim(claimedBikes, claimedOverflow);
+	    claimedHub = null;
+	}
+    }
+
+    // A worker removed from its storage hub while running has no
+    // storage hub to return to, so its task ends where it is.
+    private boolean abandoned() {
+	if (storageHub != null) return false;
+	releaseClaim();
+	trace(context.level2(), "removed from storage hub, stopped at %s",
+	      currentHub.getName());
+	workerRunning = false;
+	currentMode = null;
+	currentHubs = null;
+	return true;
+    }
+
+    // Adjust the number of bicycles in the current hub's preferred area.
+    private void fixPreferred() {
+	int take = limitTake(currentHub.getBikeCount()
+			     - currentHub.getNominal());
+	fireFixingPreferred(currentHub);
+	int old = nbikes;
+	nbikes += take;
+	fireChangedCount(currentHub, old, nbikes);
+	trace(context.level3(), "at hub %s, bikes before change = %d",
+	      currentHub.getName(), currentHub.getBikeCount());
+	currentHub.decrBikeCount(take);
+	trace(context.level3(),
+	      "at hub %s after change, worker bikes = %d, hub bikes = %d",
+	      currentHub.getName(), nbikes, currentHub.getBikeCount());
+    }
+
+    // Determine if a hub on a planned route should be visited.
+    private boolean routeHubNeeded(Hub hub, boolean pickup) {
+	if (pickup && hub.getUnclaimedOverflow() > 0 && nbikes < capacity) {
+	    return true;
+	}
+	int take = hub.getUnclaimedBikeCount() - hub.getNominal();
+	if (take > 0) {
+	    return nbikes < capacity;
+	} else if (take < 0) {
+	    return nbikes > 0;
+	} else {
+	    return false;
+	}
+    }
+
+    private void moveTo(Hub hub) {
+	boolean moving = currentHub != hub;
+	if (moving) fireLeftHub(currentHub);
+	double delay = domain.getDelay(currentHub, hub, 1);
+	trace(context.level3(), "moving from %s to %s, delay = %g",
+	      currentHub.getName(), hub.getName(), delay);
+	long ldelay = sim.getTicks(delay);
+	if (ldelay > 0) {
+	    pauseTask(sim.getTicks(delay));
+	}
+	releaseClaim();
+	currentHub = hub;
+	if (moving) fireEnteredHub(currentHub);
+    }
+
+    private void claimRouteHub(Hub hub, boolean pickup) {
+	int take = hub.getUnclaimedBikeCount() - hub.getNominal();
+	if (pickup) take += hub.getUnclaimedOverflow();
+	claimTake(hub, limitTake(take), pickup);
+    }
+
+    /*
+     * Chooses the hubs a worker visits in the balancing modes (those
+     * that do not fix overflows) and claims the bicycles to be moved
+     * at each.  Threaded and event-driven workers both use this class
+     * so that they choose the same hubs.  The hubs are taken from the
+     * route planned by the hub sorter if there is one, and otherwise
+     * alternately from the hubs over and under their nominal values.
+     */
+    private class HubSelector {
+	String action;
+	boolean pickup;
+	Hub[] route;
+	int rindex = 0;
+	Hub[] harray1;
+	Hub[] harray2;
+	int n1;
+	int n2;
 	int index1 = 0;
 	int index2 = 0;
 	boolean tmode = true;
-	while (index1 < harray1.length ||
-	       index2 < harray2.length) {
-	    Hub hub1 = ((index1 < harray1.length)?
-			harray1[index1]: null);
-	    Hub hub2 = ((index2 < harray2.length)?
-			harray2[index2]: null);
-	    Hub hub = (tmode)? hub1: hub2;
-	    trace(BikeShare.level4, "choosing between %s and %s",
-		  ((hub1 == null)? "null": hub1.getName()),
-		  ((hub2 == null)? "null": hub2.getName()));
-	    if (hub == null) {
-		tmode = !tmode;
-		continue;
+
+	// Sort the hubs and start a pass.
+	HubSelector(String action, HubSorter hubSorter, boolean pickup) {
+	    this.action = action;
+	    this.pickup = pickup;
+	    trace(context.level2(), "started %s, nbikes = %d",
+		  action, nbikes);
+	    hubSorter.sort();
+	    harray1 = hubSorter.getOverNominal();
+	    harray2 = hubSorter.getUnderNominal();
+	    n1 = hubSorter.getOverNominalCount();
+	    n2 = hubSorter.getUnderNominalCount();
+	    if (pickup) {
+		trace(context.level4(), "n1 = %d, n2 = %d", n1, n2);
 	    }
-	    int take = hub.getBikeCount() - hub.getNominal();
-	    trace(BikeShare.level4, "chose %s, take = %d, tmode = %b",
-		  hub.getName(), take, tmode);
-	    if (tmode) {
-		if (take > 0) {
-		    int delta = capacity - nbikes;
-		    trace(BikeShare.level4, "delta = %d", delta);
-		    if (delta == 0) {
-			if (index2 == harray2.length) {
-			    return;
-			} else {
-			    tmode = !tmode;
-			    continue;
-			}
-		    }
-		    if (take > delta) {
-			take = delta;
-			trace(BikeShare.level4, "changing take to %d", take);
+	    route = hubSorter.planRoute(HubWorker.this);
+	}
 
-		    }
-		} else {
-		    index1++;
-		    trace(BikeShare.level4, "incrementing index1 to %d",index1);
-		    if (index1 == harray1.length) {
-			tmode = !tmode;
-			trace(BikeShare.level4, "changing tmode to %b",tmode);
-		    }
+	// Find the next hub to visit and claim the change to be made
+	// there.  Returns null when the pass is over.
+	Hub next() {
+	    if (route != null) return nextFromRoute();
+	    while (index1 < n1 || index2 < n2) {
+		Hub hub1 = ((index1 < n1)? harray1[index1]: null);
+		Hub hub2 = ((index2 < n2)? harray2[index2]: null);
+		Hub hub = (tmode)? hub1: hub2;
+		trace(context.level4(), "choosing between %s and %s",
+		      ((hub1 == null)? "null": hub1.getName()),
+		      ((hub2 == null)? "null": hub2.getName()));
+		if (hub == null) {
+		    tmode = !tmode;
 		    continue;
 		}
-	    } else {
-		if (take < 0) {
-		    if (-take > nbikes) {
-			take = -nbikes;
-			trace(BikeShare.level4, "changing take to %d",take);
-					
+		int take = hub.getUnclaimedBikeCount() - hub.getNominal();
+		if (tmode && pickup) take += hub.getUnclaimedOverflow();
+		trace(context.level4(), "chose %s, take = %d, tmode = %b",
+		      hub.getName(), take, tmode);
+		if (tmode) {
+		    if (take > 0) {
+			int delta = capacity - nbikes;
+			trace(context.level4(), "delta = %d", delta);
+			if (delta == 0) {
+			    if (index2 == n2) {
+				return null;
+			    } else {
+				tmode = !tmode;
+				continue;
+			    }
+			}
+			if (take > delta) {
+			    take = delta;
+			    trace(context.level4(), "changing take to %d",
+				  take);
+			}
+		    } else {
+			index1++;
+			trace(context.level4(), "incrementing index1 to %d",
+			      index1);
+			if (index1 == n1) {
+			    tmode = !tmode;
+			    trace(context.level4(), "changing tmode to %b",
+				  tmode);
+			}
+			continue;
 		    }
 		} else {
-		    index2++;
-		    trace(BikeShare.level4, "incrementing index2 to %d",index2);
-		    if (index2 == harray2.length) {
-			index1 = harray1.length;
-			trace(BikeShare.level4, "setting index1 to %d", index1);
+		    if (take < 0) {
+			if (-take > nbikes) {
+			    take = -nbikes;
+			    trace(context.level4(), "changing take to %d",
+				  take);
+			}
+		    } else {
+			index2++;
+			trace(context.level4(), "incrementing index2 to %d",
+			      index2);
+			if (index2 == n2) {
+			    index1 = n1;
+			    trace(context.level4(), "setting index1 to %d",
+				  index1);
+			}
+			continue;
 		    }
-		    continue;
 		}
+		claimTake(hub, take, tmode && pickup);
+		return hub;
 	    }
-	    boolean moving = currentHub != hub;
-	    if (moving) fireLeftHub(currentHub);
-	    double delay = domain.getDelay(currentHub, hub, 1);
-	    trace(BikeShare.level3, "moving from %s to %s, delay = %g",
-		  currentHub.getName(), hub.getName(), delay);
-	    long ldelay = sim.getTicks(delay);
-	    if (ldelay > 0) {
-		TaskThread.pause(sim.getTicks(delay));
-	    }
-	    currentHub = hub;
-	    if (moving) fireEnteredHub(currentHub);
-	    take = currentHub.getBikeCount() - currentHub.getNominal();
-	    if (take > 0) {
-		int delta = capacity - nbikes;
-		if (take > delta) {
-		    take = delta;
-		}
-	    } else {
-		if (-take > nbikes) {
-		    take = -nbikes;
+	    trace(context.level2(), "completed %s, nbikes = %d",
+		  action, nbikes);
+	    return null;
+	}
+
+	private Hub nextFromRoute() {
+	    while (rindex < route.length) {
+		Hub hub = route[rindex++];
+		if (!routeHubNeeded(hub, pickup)) {
+		    trace(context.level4(), "skipping %s", hub.getName());
+		    continue;
 		}
+		claimRouteHub(hub, pickup);
+		return hub;
 	    }
-	    fireFixingPreferred(currentHub);
-	    int old = nbikes;
-	    nbikes += take;
-	    fireChangedCount(currentHub, old, nbikes);
-	    trace(BikeShare.level3, "at hub %s, bikes before change = %d",
-		  currentHub.getName(), currentHub.getBikeCount());
-	    currentHub.decrBikeCount(take);
-	    trace(BikeShare.level3,
-		  "at hub %s after change, worker bikes = %d, hub bikes = %d",
-		  currentHub.getName(), nbikes, currentHub.getBikeCount());
+	    trace(context.level2(), "completed %s, nbikes = %d",
+		  action, nbikes);
+	    return null;
+	}
+
+	// Called after the hub returned by next() has been serviced.
+	void advance() {
+	    if (route != null) return;
 	    if (tmode) {
 		index1++;
-		if (index1 == harray1.length) tmode = !tmode;
+		if (index1 == n1) tmode = !tmode;
 	    } else {
 		index2++;
-		if (index2 == harray2.length) tmode = !tmode;
+		if (index2 == n2) tmode = !tmode;
 	    }
-	    trace(BikeShare.level4, "index1 = %d, index2 = %d, tmode = %b",
+	    trace(context.level4(), "index1 = %d, index2 = %d, tmode = %b",
 		  index1, index2, tmode);
 	}
-	trace(BikeShare.level2, "completed %s, nbikes = %d",
-	      action, nbikes);
+    }
+
+    private void visitAux(String action, HubSorter hubSorter) {
+	HubSelector selector = new HubSelector(action, hubSorter, false);
+	Hub hub;
+	while ((hub = selector.next()) != null) {
+	    moveTo(hub);
+	    fixPreferred();
+	    selector.advance();
+	}
     }
 
 
@@ -564,7 +1076,7 @@ public class HubWorker extends Actor {
 	// final Hub[] xhubs = hubs.clone();
 	Runnable runnable = new Runnable() {
 		public void run() {
-		    TaskThread.pause(loffset);
+		    pauseTask(loffset);
 		    
 		    // Hub current = storageHub;
 		    if (currentHub == storageHub) {
@@ -574,30 +1086,31 @@ public class HubWorker extends Actor {
 		    for (;;) {
 			long startingTime = sim.currentTicks();
 			visitAux("loop",  hubSorter);
+			if (abandoned()) return;
 			if (currentHub != storageHub) {
 			    double delay =
 				domain.getDelay(currentHub, storageHub, 1);
 			    fireLeftHub(currentHub);
-			    TaskThread.pause(sim.getTicks(delay));
+			    pauseTask(sim.getTicks(delay));
 			    currentHub = storageHub;
 			    fireEnteredHub(storageHub);
-			    trace(BikeShare.level3, "at storage hub %s",
+			    trace(context.level3(), "at storage hub %s",
 				  storageHub.getName());
 			} else {
-			    trace(BikeShare.level3, "already at storage hub %s",
+			    trace(context.level3(), "already at storage hub %s",
 				  storageHub.getName());
 			}
 			long interval = sim.currentTicks() - startingTime;
 			if (period > interval) {
 			    storeBikes();
-			    TaskThread.pause(period - interval);
+			    pauseTask(period - interval);
 			    loadBikes(hubSorter);
 			    fireLeftHub(currentHub);
 			}
 		    }
 		}
 	    };
-	sim.scheduleTask(runnable, period);
+	scheduleBody(runnable, period);
     }
 
 
@@ -615,17 +1128,18 @@ public class HubWorker extends Actor {
 		    }
 		    // fireLeftHub(currentHub);
 		    visitAux("visit",  hubSorter);
+		    if (abandoned()) return;
 		    if (currentHub != storageHub) {
 			fireLeftHub(currentHub);
 			double delay =
 			    domain.getDelay(currentHub, storageHub, 1);
-			TaskThread.pause(sim.getTicks(delay));
+			pauseTask(sim.getTicks(delay));
 			currentHub = storageHub;
 			fireEnteredHub(currentHub);
-			trace(BikeShare.level3, "at storage hub %s",
+			trace(context.level3(), "at storage hub %s",
 			      storageHub.getName());
 		    } else {
-			trace(BikeShare.level3, "already at storage hub %s",
+			trace(context.level3(), "already at storage hub %s",
 			      storageHub.getName());
 		    }
 		    storeBikes();
@@ -635,156 +1149,57 @@ public class HubWorker extends Actor {
 		    currentHubs = null;
 		}
 	    };
-	sim.scheduleTask(runnable);
+	scheduleBody(runnable);
     }
 
-    private void visitWithPickupAux(String action, HubSorter hubSorter)
-    {
-	trace(BikeShare.level2, "started %s, nbikes = %d", action, nbikes);
-	hubSorter.sort();
-	Hub[] harray1 = hubSorter.getOverNominal();
-	Hub[] harray2 = hubSorter.getUnderNominal();
-	trace(BikeShare.level4, "harray1.length = %d, harray2.length = %d",
-	      harray1.length, harray2.length);
-	int index1 = 0;
-	int index2 = 0;
-	boolean tmode = true;
-	while (index1 < harray1.length || index2 < harray2.length) {
-	    Hub hub1 = ((index1 < harray1.length)? harray1[index1]: null);
-	    Hub hub2 = ((index2 < harray2.length)? harray2[index2]: null);
-	    Hub hub = (tmode)? hub1: hub2;
-	    trace(BikeShare.level4, "choosing between %s and %s",
-		  ((hub1 == null)? "null": hub1.getName()),
-		  ((hub2 == null)? "null": hub2.getName()));
-	    if (hub == null) {
-		tmode = !tmode;
-		continue;
-	    }
-	    int take = hub.getBikeCount() - hub.getNominal();
-	    if (tmode) take += hub.getOverflow();
-	    trace(BikeShare.level4,
-		  "chose %s, take = %d, tmode = %b",
-		  hub.getName(), take, tmode);
-	    if (tmode) {
-		if (take > 0) {
-		    int delta = capacity - nbikes;
-		    trace(BikeShare.level4, "delta = %d", delta);
-		    if (delta == 0) {
-			if (index2 == harray2.length) {
-			    return;
-			} else {
-			    tmode = !tmode;
-			    continue;
-			}
-		    }
-		    if (take > delta) {
-			take = delta;
-			trace(BikeShare.level4, "changing take to %d", take);
-
-		    }
-		} else {
-		    index1++;
-		    trace(BikeShare.level4, "incrementing index1 to %d",index1);
-		    if (index1 == harray1.length) {
-			tmode = !tmode;
-			trace(BikeShare.level4, "changing tmode to %b",tmode);
-		    }
-		    continue;
-		}
-	    } else {
-		if (take < 0) {
-		    if (-take > nbikes) {
-			take = -nbikes;
-			trace(BikeShare.level4, "changing take to %d",take);
-					
-		    }
-		} else {
-		    index2++;
-		    trace(BikeShare.level4, "incrementing index2 to %d",index2);
-		    if (index2 == harray2.length) {
-			index1 = harray1.length;
-			trace(BikeShare.level4, "setting index1 to %d", index1);
-		    }
-		    continue;
-		}
-	    }
-	    boolean moving = currentHub != hub;
-	    if (moving) fireLeftHub(currentHub);
-	    double delay = domain.getDelay(currentHub, hub, 1);
-	    trace(BikeShare.level3, "moving from %s to %s, delay = %g",
-		  currentHub.getName(), hub.getName(), delay);
-	    long ldelay = sim.getTicks(delay);
-	    if (ldelay > 0) {
-		TaskThread.pause(sim.getTicks(delay));
-	    }
-	    currentHub = hub;
-	    if (moving) fireEnteredHub(currentHub);
-	    int n = currentHub.getOverflow();
-	    int nr = 0;
-	    if (n > (capacity - nbikes)) {
-		nr = n;
-		n = capacity - nbikes;
-		nr -= n;
+    // Pick up bicycles from the current hub's overflow area and adjust
+    // the number of bicycles in its preferred area.
+    private void serviceWithPickup(Hub hub) {
+	int n = currentHub.getOverflow();
+	int nr = 0;
+	if (n > (capacity - nbikes)) {
+	    nr = n;
+	    n = capacity - nbikes;
+	    nr -= n;
+	}
+	if (n > 0) {
+	    fireFixingOverflows(currentHub);
+	    int old = nbikes;
+	    nbikes += n;
+	    fireChangedCount(currentHub, old, nbikes);
+	    trace(context.level3(),
+		  "at hub %s, picking up %d bicycles from "
+		  + "the overflow area",
+		  currentHub.getName(), n);
+	    pauseTask(hub.pickupOverflow(n));
+	}
+	fixPreferred();
+	if (nr > 0) {
+	    if (nr > (capacity - nbikes)) {
+		nr = capacity - nbikes;
 	    }
-	    if (n > 0) {
+	    if (nr > 0) {
 		fireFixingOverflows(currentHub);
+		trace(context.level3(), "at hub %s, picking up %d "
+		      + "more bicycles from overflow",
+		      currentHub.getName(), nr);
 		int old = nbikes;
-		nbikes += n;
+		nbikes += nr;
 		fireChangedCount(currentHub, old, nbikes);
-		trace(BikeShare.level3,
-		      "at hub %s, picking up %d bicycles from "
-		      + "the overflow area",
-		      currentHub.getName(), n);
-		TaskThread.pause(hub.pickupOverflow(n));
-	    }
-	    take = currentHub.getBikeCount() - currentHub.getNominal();
-	    if (take > 0) {
-		int delta = capacity - nbikes;
-		if (take > delta) {
-		    take = delta;
-		}
-	    } else {
-		if (-take > nbikes) {
-		    take = -nbikes;
-		}
+		pauseTask(hub.pickupOverflow(nr));
 	    }
-	    fireFixingPreferred(currentHub);
-	    int old1 = nbikes;
-	    nbikes += take;
-	    fireChangedCount(currentHub, old1, nbikes);
-	    trace(BikeShare.level3, "at hub %s, bikes before change = %d",
-		  currentHub.getName(), currentHub.getBikeCount());
-	    currentHub.decrBikeCount(take);
-	    trace(BikeShare.level3,
-		  "at hub %s after change, worker bikes = %d, hub bikes = %d",
-		  currentHub.getName(), nbikes,
-		  currentHub.getBikeCount());
-	    if (nr > 0) {
-		if (nr > (capacity - nbikes)) {
-		    nr = capacity - nbikes;
-		}
-		if (nr > 0) {
-		    fireFixingOverflows(currentHub);
-		    trace(BikeShare.level3, "at hub %s, picking up %d "
-			  + "more bicycles from overflow",
-			  currentHub.getName(), nr);
-		    int old = nbikes;
-		    nbikes += nr;
-		    fireChangedCount(currentHub, old, nbikes);
-		    TaskThread.pause(hub.pickupOverflow(nr));
-		}
-	    }
-	    if (tmode) {
-		index1++;
-		if (index1 == harray1.length) tmode = !tmode;
-	    } else {
-		index2++;
-		if (index2 == harray2.length) tmode = !tmode;
-	    }
-	    trace(BikeShare.level4, "index1 = %d, index2 = %d, tmode = %b",
-		  index1, index2, tmode);
 	}
-	trace(BikeShare.level2, "completed %s, nbikes = %d", action, nbikes);
+    }
+
+    private void visitWithPickupAux(String action, HubSorter hubSorter)
+    {
+	HubSelector selector = new HubSelector(action, hubSorter, true);
+	Hub hub;
+	while ((hub = selector.next()) != null) {
+	    moveTo(hub);
+	    serviceWithPickup(hub);
+	    selector.advance();
+	}
     }
 
     /**
@@ -802,7 +1217,7 @@ public class HubWorker extends Actor {
 	// final Hub[] xhubs = hubs.clone();
 	Runnable runnable = new Runnable() {
 		public void run() {
-		    TaskThread.pause(loffset);
+		    pauseTask(loffset);
 		    if (currentHub == storageHub) {
 			loadBikes(hubSorter);
 		    }
@@ -810,30 +1225,31 @@ public class HubWorker extends Actor {
 		    for (;;) {
 			long startingTime = sim.currentTicks();
 			visitWithPickupAux("loop with pickup", hubSorter);
+			if (abandoned()) return;
 			if (currentHub != storageHub) {
 			    double delay =
 				domain.getDelay(currentHub, storageHub, 1);
 			    fireLeftHub(currentHub);
-			    TaskThread.pause(sim.getTicks(delay));
+			    pauseTask(sim.getTicks(delay));
 			    currentHub = storageHub;
 			    fireEnteredHub(currentHub);
-			    trace(BikeShare.level3, "at storage hub %s",
+			    trace(context.level3(), "at storage hub %s",
 				  storageHub.getName());
 			} else {
-			    trace(BikeShare.level3, "already at storage hub %s",
+			    trace(context.level3(), "already at storage hub %s",
 				  storageHub.getName());
 			}
 			long interval = sim.currentTicks() - startingTime;
 			if (period > interval) {
 			    storeBikes();
-			    TaskThread.pause(period - interval);
+			    pauseTask(period - interval);
 			    loadBikes(hubSorter);
 			    fireLeftHub(currentHub);
 			}
 		    }
 		}
 	    };
-	sim.scheduleTask(runnable, period);
+	scheduleBody(runnable, period);
     }
 
     /**
@@ -851,17 +1267,18 @@ public class HubWorker extends Actor {
 		    }
 		    // fireLeftHub(currentHub);
 		    visitWithPickupAux("visit with pickup", hubSorter);
+		    if (abandoned()) return;
 		    if (currentHub != storageHub) {
 			double delay =
 			    domain.getDelay(currentHub, storageHub, 1);
 			fireLeftHub(currentHub);
-			TaskThread.pause(sim.getTicks(delay));
+			pauseTask(sim.getTicks(delay));
 			currentHub = storageHub;
 			fireEnteredHub(currentHub);
-			trace(BikeShare.level3, "at storage hub %s",
+			trace(context.level3(), "at storage hub %s",
 			      storageHub.getName());
 		    } else {
-			trace(BikeShare.level3, "already at storage hub %s",
+			trace(context.level3(), "already at storage hub %s",
 			      storageHub.getName());
 		    }
 		    storeBikes();
@@ -871,12 +1288,12 @@ public class HubWorker extends Actor {
 		    currentHubs = null;
 		}
 	    };
-	sim.scheduleTask(runnable);
+	scheduleBody(runnable);
     }
 
     private void visitToFixOverflowsAux(String action, HubSorter hubSorter)
     {
-	trace(BikeShare.level2, "started %s, number of bicycles = %d",
+	trace(context.level2(), "started %s, number of bicycles = %d",
 	      action, nbikes);
 	hubSorter.sort();
 	Hub[] hubs = hubSorter.getHubs();
@@ -885,31 +1302,33 @@ public class HubWorker extends Actor {
 		throw new RuntimeException
 		    (errorMsg("storageHub", hub.getName()));
 	    }
-	    trace(BikeShare.level4, "checking hub %s", hub.getName());
+	    trace(context.level4(), "checking hub %s", hub.getName());
 	    // first check what would happen and skip a
 	    // hub if there is nothing to do. We assume
 	    // there are communication links that can
 	    // provide this information.
-	    int n = hub.getOverflow();
+	    int n = hub.getUnclaimedOverflow();
 	    if (n > capacity - nbikes) n = capacity - nbikes;
 	    int freespace =
-		hub.getCapacity() - hub.getBikeCount();
+		hub.getCapacity() - hub.getUnclaimedBikeCount();
 	    if (freespace < n) {
 		n = freespace;
 	    }
 	    if(n <= 0) {
-		trace(BikeShare.level3, "nothing to do for hub %s, n=%d",
+		trace(context.level3(), "nothing to do for hub %s, n=%d",
 		      hub.getName(), n);
 		continue;
 	    }
+	    claim(hub, -n, n);
 	    boolean moving = currentHub != hub;
 	    if (moving) fireLeftHub(currentHub);
 	    double delay = domain.getDelay(currentHub, hub, 1);
-	    trace(BikeShare.level3, "moving from %s to %s, delay = %g",
+	    trace(context.level3(), "moving from %s to %s, delay = %g",
 		  currentHub.getName(), hub.getName(), delay);
 	    if (delay > 0.0) {
-		TaskThread.pause(sim.getTicks(delay));
+		pauseTask(sim.getTicks(delay));
 	    }
+	    releaseClaim();
 	    if (moving) fireEnteredHub(hub);
 	    // Now recompute, in case something changed,
 	    // and actually make the required changes.
@@ -921,24 +1340,24 @@ public class HubWorker extends Actor {
 	    }
 	    currentHub = hub;
 	    if(n <= 0) {
-		trace(BikeShare.level3, "at hub %s, no change",
+		trace(context.level3(), "at hub %s, no change",
 		      currentHub.getName());
 		continue;
 	    }
 	    fireFixingOverflows(currentHub);
-	    trace(BikeShare.level3, 
+	    trace(context.level3(), 
 		  "at hub %s, picking up %d bicycles from overflow area",
 		  hub.getName(), n);
 	    currentHub.incrBikeCount(n);
 	    fireChangedCount(currentHub, nbikes, nbikes+n);
-	    TaskThread.pause(currentHub.pickupOverflow(n));
+	    pauseTask(currentHub.pickupOverflow(n));
 	    fireFixingPreferred(currentHub);
 	    fireChangedCount(currentHub, nbikes+n, nbikes);
-	    trace(BikeShare.level3,
+	    trace(context.level3(),
 		  "number of worker bikes = %d, at hub %s overflow = %d",
 		  nbikes, currentHub.getName(), currentHub.getOverflow());
 	}
-	trace(BikeShare.level2, "ended %s, number of bicycles = %d",
+	trace(context.level2(), "ended %s, number of bicycles = %d",
 	      action, nbikes);
     }
 
@@ -957,7 +1376,7 @@ public class HubWorker extends Actor {
 	// final Hub[] xhubs = hubs.clone();
 	Runnable runnable = new Runnable() {
 		public void run() {
-		    TaskThread.pause(loffset);
+		    pauseTask(loffset);
 		    if (currentHub == storageHub) {
 			loadBikes(hubSorter);
 		    }
@@ -966,32 +1385,33 @@ public class HubWorker extends Actor {
 			long startingTime = sim.currentTicks();
 			visitToFixOverflowsAux("loop to fix overflows",
 					       hubSorter);
+			if (abandoned()) return;
 			if (currentHub != storageHub) {
 			    double delay =
 				domain.getDelay(currentHub, storageHub, 1);
-			    trace(BikeShare.level3,
+			    trace(context.level3(),
 				  "moving from %s to storageHub %s, delay=%g",
 				  currentHub.getName(), storageHub.getName(),
 				  delay);
-			    TaskThread.pause(sim.getTicks(delay));
+			    pauseTask(sim.getTicks(delay));
 			    currentHub = storageHub;
-			    trace(BikeShare.level3, "at storage hub %s",
+			    trace(context.level3(), "at storage hub %s",
 				  storageHub.getName());
 			} else {
-			    trace(BikeShare.level3, "already at storage hub %s",
+			    trace(context.level3(), "already at storage hub %s",
 				  storageHub.getName());
 			}
 			long interval = sim.currentTicks() - startingTime;
 			if (period > interval) {
 			    storeBikes();
-			    TaskThread.pause(period - interval);
+			    pauseTask(period - interval);
 			    loadBikes(hubSorter);
 			    fireLeftHub(currentHub);
 			}
 		    }
 		}
 	    };
-	sim.scheduleTask(runnable, period);
+	scheduleBody(runnable, period);
     }
 
     /**
@@ -1009,19 +1429,20 @@ public class HubWorker extends Actor {
 		    }
 		    // fireLeftHub(currentHub);
 		    visitToFixOverflowsAux("visit to fix overflows", hubSorter);
+		    if (abandoned()) return;
 		    if (currentHub != storageHub) {
 			double delay =
 			    domain.getDelay(currentHub, storageHub, 1);
-			trace(BikeShare.level3,
+			trace(context.level3(),
 			      "moving from %s to storageHub %s, delay=%g",
 			      currentHub.getName(), storageHub.getName(),
 			      delay);
-			TaskThread.pause(sim.getTicks(delay));
+			pauseTask(sim.getTicks(delay));
 			currentHub = storageHub;
-			trace(BikeShare.level3, "at storage hub %s",
+			trace(context.level3(), "at storage hub %s",
 			      storageHub.getName());
 		    } else {
-			trace(BikeShare.level3, "already at storage hub %s",
+			trace(context.level3(), "already at storage hub %s",
 			      storageHub.getName());
 		    }
 		    storeBikes();
@@ -1031,7 +1452,370 @@ public class HubWorker extends Actor {
 		    currentHubs = null;
 		}
 	    };
-	sim.scheduleTask(runnable);
+	scheduleBody(runnable);
+    }
+
+    // Steps for event-driven workers.  The code for each step is the
+    // code between calls to pauseTask in the methods used by
+    // workers that run as simulation tasks.
+    private static enum Step {
+	OFFSET,			// initial offset for loops
+	LOAD,			// load bicycles at the storage hub
+	BEGIN_PASS,		// sort hubs and start a pass
+	SELECT,			// choose the next hub (balancing modes)
+	ARRIVE,			// at a hub (balancing without pickup)
+	ARRIVE_PICKUP,		// at a hub (balancing with pickup)
+	PICKUP_PREFERRED,	// fix the preferred area after a pickup
+	NEXT_HUB,		// advance to the next hub (balancing modes)
+	FIX_SELECT,		// choose the next hub (fixing overflows)
+	FIX_ARRIVE,		// at a hub (fixing overflows)
+	FIX_DONE,		// overflows moved to the preferred area
+	RETURN,			// return to the storage hub
+	RETURNED,		// arrived at the storage hub
+	AFTER_RETURN,		// wait for the next loop or finish a visit
+	RESUME			// start the next loop
+    }
+
+    private static final int BALANCE = 0;
+    private static final int BALANCE_WITH_PICKUP = 1;
+    private static final int FIX_OVERFLOWS = 2;
+
+    /*
+     * State machine for event-driven workers.  Each call runs steps
+     * until one of them schedules the next step (where the threaded
+     * implementation would pause) or the worker finishes a visit.
+     */
+    private class WorkerStateMachine implements Callable {
+	HubSorter hubSorter;
+	long period;
+	long loffset;
+	boolean looping;
+	int kind;
+	String action;
+
+	Step step;
+	long startingTime;
+	HubSelector selector;
+	Hub[] hubs;
+	int hindex;
+	Hub hub;
+	boolean moving;
+	int n;
+	int nr;
+
+	WorkerStateMachine(Mode mode, HubSorter hubSorter, long period,
+			   long loffset)
+	{
+	    this.hubSorter = hubSorter;
+	    this.period = period;
+	    this.loffset = loffset;
+	    switch (mode) {
+	    case LOOP:
+		looping = true; kind = BALANCE; action = "loop";
+		break;
+	    case VISIT:
+		looping = false; kind = BALANCE; action = "visit";
+		break;
+	    case LOOP_WITH_PICKUP:
+		looping = true; kind = BALANCE_WITH_PICKUP;
+		action = "loop with pickup";
+		break;
+	    case VISIT_WITH_PICKUP:
+		looping = false; kind = BALANCE_WITH_PICKUP;
+		action = "visit with pickup";
+		break;
+	    case LOOP_TO_FIX_OVERFLOWS:
+		looping = true; kind = FIX_OVERFLOWS;
+		action = "loop to fix overflows";
+		break;
+	    case VISIT_TO_FIX_OVERFLOWS:
+		looping = false; kind = FIX_OVERFLOWS;
+		action = "visit to fix overflows";
+		break;
+	    }
+	}
+
+	void start() {
+	    if (looping) {
+		step = Step.OFFSET;
+		sim.scheduleCall(this, period);
+	    } else {
+		step = Step.LOAD;
+		sim.scheduleCall(this, 0);
+	    }
+	}
+
+	private boolean pause(long ticks, Step next) {
+	    step = next;
+	    sim.scheduleCall(this, ticks);
+	    return false;
+	}
+
+	public void call() {
+	    while (doStep());
+	}
+
+	// Returns true if the next step should run immediately.
+	private boolean doStep() {
+	    switch (step) {
+	    case OFFSET:
+		return pause(loffset, Step.LOAD);
+	    case LOAD:
+		if (currentHub == storageHub) {
+		    loadBikes(hubSorter);
+		}
+		step = Step.BEGIN_PASS;
+		return true;
+	    case BEGIN_PASS:
+		return beginPass();
+	    case SELECT:
+		return select();
+	    case ARRIVE:
+		return arrive();
+	    case ARRIVE_PICKUP:
+		return arrivePickup();
+	    case PICKUP_PREFERRED:
+		return pickupPreferred();
+	    case NEXT_HUB:
+		selector.advance();
+		step = Step.SELECT;
+		return true;
+	    case FIX_SELECT:
+		return fixSelect();
+	    case FIX_ARRIVE:
+		return fixArrive();
+	    case FIX_DONE:
+		fireFixingPreferred(currentHub);
+		fireChangedCount(currentHub, nbikes+n, nbikes);
+		trace(context.level3(),
+		      "number of worker bikes = %d, at hub %s overflow = %d",
+		      nbikes, currentHub.getName(), currentHub.getOverflow());
+		step = Step.FIX_SELECT;
+		return true;
+	    case RETURN:
+		return returnToStorage();
+	    case RETURNED:
+		currentHub = storageHub;
+		if (kind != FIX_OVERFLOWS) fireEnteredHub(currentHub);
+		trace(context.level3(), "at storage hub %s",
+		      storageHub.getName());
+		step = Step.AFTER_RETURN;
+		return true;
+	    case AFTER_RETURN:
+		return afterReturn();
+	    case RESUME:
+		loadBikes(hubSorter);
+		fireLeftHub(currentHub);
+		step = Step.BEGIN_PASS;
+		return true;
+	    default:
+		return false;
+	    }
+	}
+
+	private boolean beginPass() {
+	    startingTime = sim.currentTicks();
+	    if (kind == FIX_OVERFLOWS) {
+		trace(context.level2(), "started %s, number of bicycles = %d",
+		      action, nbikes);
+		hubSorter.sort();
+		hubs = hubSorter.getHubs();
+		hindex = 0;
+		step = Step.FIX_SELECT;
+	    } else {
+		selector = new HubSelector(action, hubSorter,
+					   kind == BALANCE_WITH_PICKUP);
+		step = Step.SELECT;
+	    }
+	    return true;
+	}
+
+	private boolean select() {
+	    Hub hub = selector.next();
+	    if (hub == null) {
+		step = Step.RETURN;
+		return true;
+	    }
+	    this.hub = hub;
+	    moving = currentHub != hub;
+	    if (moving) fireLeftHub(currentHub);
+	    double delay = domain.getDelay(currentHub, hub, 1);
+	    trace(context.level3(), "moving from %s to %s, delay = %g",
+		  currentHub.getName(), hub.getName(), delay);
+	    long ldelay = sim.getTicks(delay);
+	    Step next = (kind == BALANCE)? Step.ARRIVE: Step.ARRIVE_PICKUP;
+	    if (ldelay > 0) {
+		return pause(ldelay, next);
+	    }
+	    step = next;
+	    return true;
+	}
+
+	private boolean arrive() {
+	    releaseClaim();
+	    currentHub = hub;
+	    if (moving) fireEnteredHub(currentHub);
+	    fixPreferred();
+	    selector.advance();
+	    step = Step.SELECT;
+	    return true;
+	}
+
+	private boolean arrivePickup() {
+	    releaseClaim();
+	    currentHub = hub;
+	    if (moving) fireEnteredHub(currentHub);
+	    n = currentHub.getOverflow();
+	    nr = 0;
+	    if (n > (capacity - nbikes)) {
+		nr = n;
+		n = capacity - nbikes;
+		nr -= n;
+	    }
+	    if (n > 0) {
+		fireFixingOverflows(currentHub);
+		int old = nbikes;
+		nbikes += n;
+		fireChangedCount(currentHub, old, nbikes);
+		trace(context.level3(),
+		      "at hub %s, picking up %d bicycles from "
+		      + "the overflow area",
+		      currentHub.getName(), n);
+		return pause(hub.pickupOverflow(n), Step.PICKUP_PREFERRED);
+	    }
+	    step = Step.PICKUP_PREFERRED;
+	    return true;
+	}
+
+	private boolean pickupPreferred() {
+	    fixPreferred();
+	    if (nr > 0) {
+		if (nr > (capacity - nbikes)) {
+		    nr = capacity - nbikes;
+		}
+		if (nr > 0) {
+		    fireFixingOverflows(currentHub);
+		    trace(context.level3(), "at hub %s, picking up %d "
+			  + "more bicycles from overflow",
+			  currentHub.getName(), nr);
+		    int old = nbikes;
+		    nbikes += nr;
+		    fireChangedCount(currentHub, old, nbikes);
+		    return pause(hub.pickupOverflow(nr), Step.NEXT_HUB);
+		}
+	    }
+	    step = Step.NEXT_HUB;
+	    return true;
+	}
+
+	// Before traveling to a hub, other workers' claims are excluded;
+	// on arrival, as in visitToFixOverflowsAux, the actual counts
+	// are used.
+	private int overflowsToMove(Hub hub, boolean arrived) {
+	    int n = arrived? hub.getOverflow(): hub.getUnclaimedOverflow();
+	    if (n > capacity - nbikes) n = capacity - nbikes;
+	    int freespace = hub.getCapacity()
+		- (arrived? hub.getBikeCount(): hub.getUnclaimedBikeCount());
+	    if (freespace < n) {
+		n = freespace;
+	    }
+	    return n;
+	}
+
+	private boolean fixSelect() {
+	    while (hindex < hubs.length) {
+		Hub hub = hubs[hindex++];
+		if (hub instanceof StorageHub) {
+		    throw new RuntimeException
+			(errorMsg("storageHub", hub.getName()));
+		}
+		trace(context.level4(), "checking hub %s", hub.getName());
+		int n = overflowsToMove(hub, false);
+		if(n <= 0) {
+		    trace(context.level3(), "nothing to do for hub %s, n=%d",
+			  hub.getName(), n);
+		    continue;
+		}
+		claim(hub, -n, n);
+		this.hub = hub;
+		moving = currentHub != hub;
+		if (moving) fireLeftHub(currentHub);
+		double delay = domain.getDelay(currentHub, hub, 1);
+		trace(context.level3(), "moving from %s to %s, delay = %g",
+		      currentHub.getName(), hub.getName(), delay);
+		if (delay > 0.0) {
+		    return pause(sim.getTicks(delay), Step.FIX_ARRIVE);
+		}
+		step = Step.FIX_ARRIVE;
+		return true;
+	    }
+	    trace(context.level2(), "ended %s, number of bicycles = %d",
+		  action, nbikes);
+	    step = Step.RETURN;
+	    return true;
+	}
+
+	private boolean fixArrive() {
+	    releaseClaim();
+	    if (moving) fireEnteredHub(hub);
+	    n = overflowsToMove(hub, true);
+	    currentHub = hub;
+	    if (n <= 0) {
+		trace(context.level3(), "at hub %s, no change",
+		      currentHub.getName());
+		step = Step.FIX_SELECT;
+		return true;
+	    }
+	    fireFixingOverflows(currentHub);
+	    trace(context.level3(),
+		  "at hub %s, picking up %d bicycles from overflow area",
+		  hub.getName(), n);
+	    currentHub.incrBikeCount(n);
+	    fireChangedCount(currentHub, nbikes, nbikes+n);
+	    return pause(currentHub.pickupOverflow(n), Step.FIX_DONE);
+	}
+
+	private boolean returnToStorage() {
+	    if (abandoned()) return false;
+	    if (currentHub != storageHub) {
+		if (kind == FIX_OVERFLOWS) {
+		    double delay = domain.getDelay(currentHub, storageHub, 1);
+		    trace(context.level3(),
+			  "moving from %s to storageHub %s, delay=%g",
+			  currentHub.getName(), storageHub.getName(),
+			  delay);
+		    return pause(sim.getTicks(delay), Step.RETURNED);
+		} else {
+		    double delay = domain.getDelay(currentHub, storageHub, 1);
+		    fireLeftHub(currentHub);
+		    return pause(sim.getTicks(delay), Step.RETURNED);
+		}
+	    } else {
+		trace(context.level3(), "already at storage hub %s",
+		      storageHub.getName());
+		step = Step.AFTER_RETURN;
+		return true;
+	    }
+	}
+
+	private boolean afterReturn() {
+	    if (looping) {
+		long interval = sim.currentTicks() - startingTime;
+		if (period > interval) {
+		    storeBikes();
+		    return pause(period - interval, Step.RESUME);
+		}
+		step = Step.BEGIN_PASS;
+		return true;
+	    } else {
+		storeBikes();
+		storageHub.queueWorker(HubWorker.this);
+		workerRunning = false;
+		currentMode = null;
+		currentHubs = null;
+		return false;
+	    }
+	}
     }
 
      /**
@@ -1087,7 +1871,13 @@ public class HubWorker extends Actor {
      *   <LI> the hub this worker is currently visiting.
      *   <LI> whether or not the worker is running.
      *   <LI> the current value of the worker mode for this worker.
+     *   <LI> the hub this worker is traveling to and the changes it
+     *        has claimed there, if any.
      *   <LI> when the worker is running, a list of the hubs being visited.
+     *   <LI> the worker's statistics: busy and idle time, utilization,
+     *        travel time, distance, and trip count, the number of
+     *        bicycles picked up and dropped off, and the number of
+     *        visits and of empty-handed visits.
      * </UL>
      * @param iPrefix the prefix to use for an initial line when printName is
      *        true with null treated as an empty string
@@ -1110,6 +1900,14 @@ public class HubWorker extends Actor {
 	}
 	out.println(prefix + "worker running: " + workerRunning);
 	out.println(prefix + "current worker mode: " + currentMode);
+	if (claimedHub == null) {
+	    out.println(prefix + "claim: <none>");
+	} else {
+	    out.println(prefix + "claim: " + claimedHub.getName()
+			+ " (removing " + claimedBikes
+			+ " from the preferred area, " + claimedOverflow
+			+ " from the overflow area)");
+	}
 	if (currentHubs == null) {
 	    out.println(prefix + "no hubs being visited");
 	} else {
@@ -1120,6 +1918,25 @@ public class HubWorker extends Actor {
 		}
 	    }
 	}
+	printStatistics(prefix, getStatistics(), out);
+    }
+
+    // also used by StorageHub and SysDomain
+    static void printStatistics(String prefix, WorkerStatistics stats,
+				PrintWriter out)
+    {
+	out.println(prefix + "statistics:");
+	out.println(prefix + "    busy time: " + stats.getBusyTime()
+		    + " seconds, idle time: " + stats.getIdleTime()
+		    + " seconds, utilization: " + stats.getUtilization());
+	out.println(prefix + "    travel time: " + stats.getTravelTime()
+		    + " seconds, distance: " + stats.getDistance()
+		    + ", trips: " + stats.getTripCount());
+	out.println(prefix + "    bicycles picked up: "
+		    + stats.getBikesPickedUp() + ", dropped off: "
+		    + stats.getBikesDroppedOff());
+	out.println(prefix + "    visits: " + stats.getVisitCount()
+		    + ", empty-handed visits: " + stats.getEmptyVisitCount());
     }
 }
 
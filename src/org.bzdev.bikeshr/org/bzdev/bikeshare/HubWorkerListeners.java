@@ -0,0 +1,55 @@
+package org.bzdev.bikeshare;
+
+/*
+ * Hub worker listeners for a hub worker or the worker subscribers
+ * for a hub.
+ */
+class HubWorkerListeners extends ListenerArray<HubWorkerListener> {
+
+    // Events passed to fire.
+    static final int DEQUEUED = 0;
+    static final int ENTERED_HUB = 1;
+    static final int FIXING_OVERFLOWS = 2;
+    static final int FIXING_PREFERRED = 3;
+    static final int LEFT_HUB = 4;
+    static final int QUEUED = 5;
+    static final int CHANGED_COUNT = 6;
+
+    private static final HubWorkerListener[] NO_LISTENERS =
+	new HubWorkerListener[0];
+
+    HubWorkerListeners() {
+	super(NO_LISTENERS);
+    }
+
+    void fire(int event, HubWorker worker, double time, long ticks,
+	      Hub hub, int oldCount, int newCount)
+    {
+	for (HubWorkerListener listener: get()) {
+	    switch (event) {
+	    case DEQUEUED:
+		listener.dequeued(worker, time, ticks, hub);
+		break;
+	    case ENTERED_HUB:
+		listener.enteredHub(worker, time, ticks, hub);
+		break;
+	    case FIXING_OVERFLOWS:
+		listener.fixingOverflows(worker, time, ticks, hub);
+		break;
+	    case FIXING_PREFERRED:
+		listener.fixingPreferred(worker, time, ticks, hub);
+		break;
+	    case LEFT_HUB:
+		listener.leftHub(worker, time, ticks, hub);
+		break;
+	    case QUEUED:
+		listener.queued(worker, time, ticks, hub);
+		break;
+	    case CHANGED_COUNT:
+		listener.changedCount(worker, time, ticks, hub,
+				      oldCount, newCount);
+		break;
+	    }
+	}
+    }
+}
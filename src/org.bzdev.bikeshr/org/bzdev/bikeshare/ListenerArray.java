@@ -0,0 +1,48 @@
+package org.bzdev.bikeshare;
+import java.util.Arrays;
+
+/*
+ * Copy-on-write array of listeners.  Adding or removing a listener
+ * replaces the array, so the array returned by get() is never
+ * modified and can be iterated while a listener adds or removes
+ * listeners.  Notifying listeners thus does not allocate anything.
+ * Subclasses provide the code that delivers an event to each type of
+ * listener so that the list a trip generator or hub worker keeps and
+ * the per-hub subscriber lists share it.
+ */
+class ListenerArray<T> {
+
+    private volatile T[] listeners;
+
+    ListenerArray(T[] empty) {
+	listeners = empty;
+    }
+
+    T[] get() {
+	return listeners;
+    }
+
+    boolean isEmpty() {
+	return listeners.length == 0;
+    }
+
+    synchronized void add(T listener) {
+	T[] old = listeners;
+	T[] array = Arrays.copyOf(old, old.length + 1);
+	array[old.length] = listener;
+	listeners = array;
+    }
+
+    // Removes the first occurrence of a listener, as Vector.remove does.
+    synchronized void remove(T listener) {
+	T[] old = listeners;
+	for (int i = 0; i < old.length; i++) {
+	    if (old[i].equals(listener)) {
+		T[] array = Arrays.copyOf(old, old.length - 1);
+		System.arraycopy(old, i+1, array, i, old.length - i - 1);
+		listeners = array;
+		return;
+	    }
+	}
+    }
+}
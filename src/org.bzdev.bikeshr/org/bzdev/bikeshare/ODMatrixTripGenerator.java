@@ -0,0 +1,262 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.math.StaticRandom;
+import org.bzdev.math.rv.DoubleRandomVariable;
+import org.bzdev.math.rv.ExpDistrRV;
+
+import java.io.PrintWriter;
+
+/**
+ * Trip generator for Poisson traffic described by an
+ * origin-destination matrix.
+ * Each entry in the matrix consists of a starting hub, a destination
+ * hub, the rate at which trips between the two start, and the
+ * probability of using the destination's overflow area.  The traffic
+ * is equivalent to that produced by one {@link BasicTripGenerator}
+ * per starting hub, but is generated as a single superposed Poisson
+ * process: the interarrival time is chosen using the total rate, and
+ * each trip's starting and destination hubs are then chosen with
+ * probabilities proportional to the rates for the matrix entries.  As
+ * a result, a single trip generator with a single pending simulation
+ * event provides the demand for an entire system.
+ * <P>
+ * Trip data listeners receive the same events that a
+ * {@link BasicTripGenerator} would generate.
+ */
+public class ODMatrixTripGenerator extends TripGenerator {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    DramaSimulation sim;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     * @param name the name of this object
+     * @param intern true if this object should be interned in the
+     *        simulation's name table; false otherwise
+     */
+    public ODMatrixTripGenerator(DramaSimulation sim,
+				 String name,
+				 boolean intern)
+    {
+	super(sim, name, intern);
+	this.sim = sim;
+    }
+
+    Hub[] origins = new Hub[0];
+    Hub[] dests = new Hub[0];
+    double[] rates = new double[0];
+    double[] overflowProb = new double[0];
+    int nbikes = 1;
+    double totalRate = 0.0;
+    double scaleFactor = 1.0;
+    DoubleRandomVariable rv = null;
+    DestSampler sampler = null;
+
+    private void createRV() {
+	double rate = totalRate * scaleFactor;
+	rv = (rate > 0.0)? new ExpDistrRV(1.0/rate): null;
+    }
+
+    /**
+     * Initialization.
+     * The arrays origins, dests, rates, and overflowProb are parallel
+     * arrays, with each index denoting an entry in the
+     * origin-destination matrix.  Entries that do not appear have a
+     * rate of zero.
+     * @param nbikes the number of bicycles per trip
+     * @param origins the starting hubs
+     * @param dests the destination hubs
+     * @param rates the rates, in trips per second, at which trips
+     *        start
+     * @param overflowProb the probability that a trip uses the
+     *        overflow area at its destination regardless of whether
+     *        or not there is excess capacity in the preferred location
+     * @exception IllegalArgumentException the array lengths differ or
+     *            a rate or probability is negative
+     */
+    public void init(int nbikes, Hub[] origins, Hub[] dests,
+		     double[] rates, double[] overflowProb)
+	throws IllegalArgumentException
+    {
+	int n = origins.length;
+	if (dests.length != n) {
+	    throw new IllegalArgumentException
+		(errorMsg("lengthMismatch", n, dests.length));
+	}
+	if (rates.length != n) {
+	    throw new IllegalArgumentException
+		(errorMsg("lengthMismatch", n, rates.length));
+	}
+	if (overflowProb.length != n) {
+	    throw new IllegalArgumentException
+		(errorMsg("lengthMismatch", n, overflowProb.length));
+	}
+	double total = 0.0;
+	for (int i = 0; i < n; i++) {
+	    if (rates[i] < 0.0) {
+		throw new IllegalArgumentException
+		    (errorMsg("valueNegative", rates[i]));
+	    }
+	    if (overflowProb[i] < 0.0) {
+		throw new IllegalArgumentException
+		    (errorMsg("valueNegative", overflowProb[i]));
+	    }
+	    total += rates[i];
+	}
+	this.nbikes = nbikes;
+	this.origins = origins.clone();
+	this.dests = dests.clone();
+	this.rates = rates.clone();
+	this.overflowProb = overflowProb.clone();
+	totalRate = total;
+	sampler = (total > 0.0)? new DestSampler(this.rates): null;
+	boolean wasRunning = isStarted();
+	if (wasRunning) stop();
+	createRV();
+	if (wasRunning) restart();
+	fireRatesChanged();
+	trace(context.level1(), "trip generator configured, %d entries", n);
+    }
+
+    /**
+     * Get the total rate at which trips start.
+     * The value does not include the scale factor.
+     * @return the sum of the rates, in trips per second, for the
+     *         entries in the origin-destination matrix
+     * @see #setScaleFactor(double)
+     */
+    public double getTotalRate() {
+	return totalRate;
+    }
+
+    /**
+     * Set the scale factor.
+     * The rate for each entry in the origin-destination matrix is
+     * multiplied by this factor, allowing the overall level of
+     * demand to change during a simulation without changing the
+     * proportions between entries.  This method will stop the trip
+     * generator, change the scale factor, and restart the trip
+     * generator, which is valid because Poisson traffic is
+     * memoryless.
+     * @param scaleFactor the scale factor
+     * @exception IllegalArgumentException the argument was negative
+     */
+    public void setScaleFactor(double scaleFactor)
+	throws IllegalArgumentException
+    {
+	if (scaleFactor < 0.0) {
+	    throw new IllegalArgumentException
+		(errorMsg("valueNegative", scaleFactor));
+	}
+	if (this.scaleFactor != scaleFactor) {
+	    boolean wasRunning = isStarted();
+	    if (wasRunning) stop();
+	    this.scaleFactor = scaleFactor;
+	    createRV();
+	    if (wasRunning) restart();
+	    fireRatesChanged();
+	}
+    }
+
+    /**
+     * Get the scale factor.
+     * @return the scale factor
+     * @see #setScaleFactor(double)
+     */
+    public double getScaleFactor() {
+	return scaleFactor;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * For class ODMatrixTripGenerator, there is one rate for each
+     * entry in the origin-destination matrix, multiplied by the
+     * scale factor.
+     * @return {@inheritDoc}
+     */
+    @Override
+    public TripRate[] getTripRates() {
+	TripRate[] results = new TripRate[rates.length];
+	for (int i = 0; i < rates.length; i++) {
+	    results[i] = new TripRate(origins[i], dests[i],
+				      rates[i] * scaleFactor, nbikes, false);
+	}
+	return results;
+    }
+
+    @Override
+    protected double getNextInterval() {
+	// a negative value indicates that no trip should be scheduled
+	return (rv == null)? -1.0: rv.next();
+    }
+
+    @Override
+    protected boolean action() {
+	if (sampler == null) return true;
+	int index = sampler.next();
+	final Hub hub = origins[index];
+	final Hub dest = dests[index];
+	final long tripID = createTripID();
+	boolean willOverflow =
+	    StaticRandom.nextDouble() < overflowProb[index];
+	trace(context.level4(),
+	      "sending %d bike-share users from %s to %s, "
+	      + "intending to use the %s",
+	      nbikes, hub, dest,
+	      (willOverflow? "overflow area": "preferred area"));
+	startTrip(acquireTripState(tripID, hub, dest, nbikes), willOverflow);
+	return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * Defined for class ODMatrixTripGenerator:
+     * <UL>
+     *  <LI> the number of bicycles per trip.
+     *  <LI> the total rate at which trips start and the scale factor.
+     *  <LI> the probability function.
+     *  <LI> the entries in the origin-destination matrix. For each
+     *       entry, the following are printed:
+     *       <UL>
+     *         <LI> the names of the starting and destination hubs.
+     *         <LI> the rate in trips per second.
+     *         <LI> the probability of using the overflow area.
+     *       </UL>
+     * </UL>
+     * @param iPrefix {@inheritDoc}
+     * @param prefix {@inheritDoc}
+     * @param printName {@inheritDoc}
+     * @param out {@inheritDoc}
+     */
+    @Override
+    public void printConfiguration(String iPrefix, String prefix,
+				   boolean printName,
+				   PrintWriter out)
+    {
+	super.printConfiguration(iPrefix, prefix, printName, out);
+	out.println(prefix + "number of bicycles per trip: " + nbikes);
+	out.println(prefix + "total rate: " + totalRate
+		    + " trips per second");
+	out.println(prefix + "scale factor: " + scaleFactor);
+	out.println(prefix + "probability function: "
+		    + ((sfpf == null)? "<none>": sfpf.getName()));
+	out.println(prefix + "origin-destination entries:");
+	for (int i = 0; i < origins.length; i++) {
+	    out.println(prefix + "    " + origins[i].getName()
+			+ " to " + dests[i].getName() + ":");
+	    out.println(prefix + "        rate: " + rates[i]
+			+ " trips per second");
+	    out.println(prefix + "        probability of using overflow area: "
+			+ overflowProb[i]);
+	}
+    }
+}
+
+//  LocalWords:  ODMatrixTripGenerator BasicTripGenerator nbikes
+//  LocalWords:  overflowProb interarrival iPrefix printName sfpf
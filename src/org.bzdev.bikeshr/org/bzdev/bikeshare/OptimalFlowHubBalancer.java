@@ -0,0 +1,775 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.io.PrintWriter;
+
+/**
+ * Hub balancer that moves bicycles along a minimum-cost flow.
+ * This hub balancer treats rebalancing as a transportation problem.
+ * A hub in the over-trigger set or the overflow set has a surplus
+ * equal to the number of bicycles in its preferred area above its
+ * nominal value plus the number of bicycles in its overflow area,
+ * and a hub in the under-trigger set has a deficit equal to the
+ * number of bicycles needed to bring its preferred area up to its
+ * nominal value.  Bicycles are shipped from hubs with a surplus to
+ * hubs with a deficit so that as many bicycles as possible are moved
+ * while minimizing the sum over all bicycles of the estimated delay
+ * for moving them, with the delays provided by the hub balancer's
+ * system domain.
+ * <P>
+ * The solution is kept up to date as hubs change state: each call
+ * to {@link HubBalancer#hubStatusChanged(Hub)} adjusts the solution
+ * incrementally instead of solving the problem again.  Because a
+ * hub's bicycle count can change while it stays in the same set, the
+ * balancer also listens to the hubs and, before tasks are created,
+ * refreshes the surplus and deficit of the hubs whose counts changed
+ * since the last refresh. To keep the
+ * problem sparse, each hub is connected to its nearest neighbors
+ * (the number of neighbors is configurable) and shipments between
+ * distant hubs are routed through intermediate hubs; the cost of such
+ * a shipment is the sum of the delays for each step.
+ * <P>
+ * When {@link #startAdditionalWorkers()} is called, the solution is
+ * split into tasks, one per available worker. A task starts at the
+ * hubs with the largest shipments for which the worker's storage hub
+ * is responsible, and includes the hubs that receive those shipments,
+ * with the total number of bicycles picked up limited by the worker's
+ * capacity.  The hubs in a task are removed from the transportation
+ * problem until the worker leaves them, so that subsequent tasks do
+ * not duplicate work. The worker visits the hubs in the order
+ * provided by its {@link HubWorker.HubSorter hub sorter}, which picks
+ * up the bicycles from a hub before delivering them.
+ * <P>
+ * A hub is the responsibility of a storage hub if the hub was added
+ * to the storage hub for the modes
+ * {@link HubWorker.Mode#VISIT} or
+ * {@link HubWorker.Mode#VISIT_WITH_PICKUP}.  Otherwise the storage
+ * hub with the shortest estimated delay to the hub is used.
+ */
+public class OptimalFlowHubBalancer extends HubBalancer {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    DramaSimulation sim;
+
+    long lastTime = 0;
+    long initialLastTime = 0;
+
+    long quietPeriod = 0;
+    boolean quiet = false;
+    boolean needStart = false;
+
+    int neighbors = 8;
+
+    // Dense indices for the hubs in the transportation problem, in
+    // the order given by Hub.getIndex() so that the solver's choices
+    // do not depend on the iteration order of a hash set.
+    Hub[] hubArray = null;
+    // Position in hubArray indexed by Hub.getIndex(); -1 if a hub is
+    // not in the transportation problem.
+    int[] position = null;
+    StorageHub[] serving;
+    // The storage hubs, sorted by Hub.getIndex().
+    StorageHub[] storageHubs;
+    // The hubs each storage hub is responsible for, indexed by the
+    // storage hub's Hub.getIndex().
+    int[][] served = null;
+    boolean[] claimed;
+    int nclaimed = 0;
+    TransportSolver solver = null;
+    int[] amount = new int[1];
+
+    // Scratch space for findSources and startTask.  A hub is in the
+    // task being built when its taskMark entry is taskGen.
+    long[] sourceKeys;
+    int[] sources;
+    int[] taskHubs;
+    int[] taskMark;
+    int taskGen = 0;
+
+    // Hubs whose counts changed since the last call to refreshProblem.
+    boolean[] dirty;
+    int[] dirtyHubs;
+    int ndirty = 0;
+
+    long solverTime = 0;	// nanoseconds
+    long tasksStarted = 0;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     * @param name the name of this object
+     * @param intern true if this object should be interned in the
+     *        simulation's name table; false otherwise
+     */
+    public OptimalFlowHubBalancer(DramaSimulation sim, String name,
+				  boolean intern)
+    {
+	super(sim, name, intern);
+	this.sim = sim;
+	sim.scheduleInitCall(new Callable() {
+		public void call() {
+		    lastTime = OptimalFlowHubBalancer.this.sim.currentTicks();
+		    initialLastTime = lastTime;
+		}
+	    }, 0);
+    }
+
+    /**
+     * Set the quiet period.
+     * If additional workers are scheduled at some simulation time t, the
+     * quiet period &delta; indicates that no more workers should
+     * be scheduled until the simulation time reaches t + &delta;.
+     * @param value the quiet period in seconds
+     */
+    public void setQuietPeriod(double value) {
+	quietPeriod = sim.getTicksCeil(value);
+    }
+
+    /**
+     * Get the quiet period.
+     * If additional workers are scheduled at some simulation time t, the
+     * quiet period &delta; indicates that no more workers should
+     * be scheduled until the simulation time reaches t + &delta;.
+     * @return the quite period in units of simulation ticks
+     */
+    public long getQuietPeriod() {return quietPeriod;}
+
+    /**
+     * Set the number of neighbors for each hub.
+     * Bicycles can be shipped directly from a hub to this number of
+     * its nearest hubs, measured by the distance between their
+     * locations. Shipments to other hubs pass through intermediate
+     * hubs. Larger values produce solutions closer to those for a
+     * problem in which every pair of hubs is connected but increase
+     * the time needed to update the solution.
+     * @param n the number of neighbors
+     * @exception IllegalArgumentException the argument was not positive
+     * @exception IllegalStateException the transportation problem was
+     *            already created
+     */
+    public void setNeighbors(int n)
+	throws IllegalArgumentException, IllegalStateException
+    {
+	if (n < 1) {
+	    throw new IllegalArgumentException(errorMsg("notPositive", n));
+	}
+	if (solver != null) {
+	    throw new IllegalStateException();
+	}
+	neighbors = n;
+    }
+
+    /**
+     * Get the number of neighbors for each hub.
+     * @return the number of neighbors
+     * @see #setNeighbors(int)
+     */
+    public int getNeighbors() {
+	return neighbors;
+    }
+
+    /**
+     * Get the number of bicycles the current solution ships.
+     * Hubs claimed by running workers are not included.  The value
+     * reflects the hubs' bicycle counts when the solution was last
+     * updated.
+     * @return the number of bicycles; 0 if the transportation problem
+     *         has not yet been created
+     */
+    public int getBikesToShip() {
+	return (solver == null)? 0: solver.getTotalFlow();
+    }
+
+    /**
+     * Get the total estimated delay for the current solution.
+     * This is the sum over all bicycles shipped of the estimated
+     * delay for moving each one.
+     * @return the total estimated delay in seconds; 0.0 if the
+     *         transportation problem has not yet been created
+     * @see #getBikesToShip()
+     */
+    public double getShippingDelay() {
+	return (solver == null)? 0.0: solver.getTotalCost();
+    }
+
+    private static double distance(Hub h1, Hub h2) {
+	double dx = h1.getX() - h2.getX();
+	double dy = h1.getY() - h2.getY();
+	return Math.sqrt(dx*dx + dy*dy);
+    }
+
+    // Create the transportation problem the first time it is needed,
+    // by which time all the hubs have been configured.
+    private void createProblem() {
+	if (solver != null) return;
+	SysDomain domain = getSysDomain();
+	Set<Hub> userHubs = domain.getUserHubs();
+	int n = userHubs.size();
+	hubArray = userHubs.toArray(new Hub[n]);
+	Arrays.sort(hubArray, indexComparator);
+	position = new int[(n == 0)? 0: hubArray[n-1].getIndex() + 1];
+	Arrays.fill(position, -1);
+	for (int i = 0; i < n; i++) {
+	    position[hubArray[i].getIndex()] = i;
+	}
+	// k nearest neighbors, with the relation made symmetric so that
+	// bicycles can move in both directions.
+	int k = Math.max(0, Math.min(neighbors, n-1));
+	int[][] nearest = new int[n][k];
+	double[] ndist = new double[k];
+	int[] degree = new int[n];
+	for (int i = 0; i < n && k > 0; i++) {
+	    int m = 0;
+	    for (int j = 0; j < n; j++) {
+		if (j == i) continue;
+		double d = distance(hubArray[i], hubArray[j]);
+		if (m == k && d >= ndist[k-1]) continue;
+		int pos = (m < k)? m++: k-1;
+		while (pos > 0 && ndist[pos-1] > d) {
+		    ndist[pos] = ndist[pos-1];
+		    nearest[i][pos] = nearest[i][pos-1];
+		    pos--;
+		}
+		ndist[pos] = d;
+		nearest[i][pos] = j;
+	    }
+	    degree[i] += k;
+	    for (int j: nearest[i]) {
+		degree[j]++;
+	    }
+	}
+	int[][] adjacent = new int[n][];
+	int[] count = new int[n];
+	for (int i = 0; i < n; i++) {
+	    adjacent[i] = new int[degree[i]];
+	}
+	for (int i = 0; i < n; i++) {
+	    for (int j: nearest[i]) {
+		adjacent[i][count[i]++] = j;
+		adjacent[j][count[j]++] = i;
+	    }
+	}
+	double[][] delays = new double[n][];
+	for (int i = 0; i < n; i++) {
+	    // remove duplicates (j in i's list and i in j's list).
+	    int[] list = adjacent[i];
+	    Arrays.sort(list);
+	    int m = 0;
+	    for (int j = 0; j < list.length; j++) {
+		if (m == 0 || list[m-1] != list[j]) {
+		    list[m++] = list[j];
+		}
+	    }
+	    adjacent[i] = Arrays.copyOf(list, m);
+	    delays[i] = new double[m];
+	    for (int j = 0; j < m; j++) {
+		delays[i][j] = domain.estimateDelay(hubArray[i],
+						    hubArray[adjacent[i][j]],
+						    1);
+	    }
+	}
+	// Storage hubs are also sorted by index so that ties are broken
+	// the same way in every run.
+	StorageHub[] shubs = domain.getStorageHubs().toArray(new StorageHub[0]);
+	Arrays.sort(shubs, indexComparator);
+	storageHubs = shubs;
+	serving = new StorageHub[n];
+	for (StorageHub shub: shubs) {
+	    for (Hub hub: shub.getHubs(HubWorker.Mode.VISIT)) {
+		int i = positionOf(hub);
+		if (i != -1 && serving[i] == null) serving[i] = shub;
+	    }
+	    for (Hub hub: shub.getHubs(HubWorker.Mode.VISIT_WITH_PICKUP)) {
+		int i = positionOf(hub);
+		if (i != -1 && serving[i] == null) serving[i] = shub;
+	    }
+	}
+	for (int i = 0; i < n; i++) {
+	    if (serving[i] != null) continue;
+	    double best = Double.POSITIVE_INFINITY;
+	    for (StorageHub shub: shubs) {
+		double d = domain.estimateDelay(shub, hubArray[i], 1);
+		if (d < best) {
+		    best = d;
+		    serving[i] = shub;
+		}
+	    }
+	}
+	int nshubs = (shubs.length == 0)? 0:
+	    shubs[shubs.length-1].getIndex() + 1;
+	int[] nserved = new int[nshubs];
+	for (int i = 0; i < n; i++) {
+	    if (serving[i] != null) nserved[serving[i].getIndex()]++;
+	}
+	served = new int[nshubs][];
+	for (StorageHub shub: shubs) {
+	    served[shub.getIndex()] = new int[nserved[shub.getIndex()]];
+	}
+	Arrays.fill(nserved, 0);
+	for (int i = 0; i < n; i++) {
+	    if (serving[i] != null) {
+		int sindex = serving[i].getIndex();
+		served[sindex][nserved[sindex]++] = i;
+	    }
+	}
+	sourceKeys = new long[n];
+	sources = new int[n];
+	taskHubs = new int[n];
+	taskMark = new int[n];
+	claimed = new boolean[n];
+	dirty = new boolean[n];
+	dirtyHubs = new int[n];
+	for (Hub hub: hubArray) {
+	    hub.addHubListener(dirtyListener);
+	    hub.addHubDataListener(dirtyDataListener);
+	}
+	long t0 = System.nanoTime();
+	solver = new TransportSolver(delays, adjacent);
+	for (int i = 0; i < n; i++) {
+	    Hub hub = hubArray[i];
+	    if (overSet.contains(hub) || underSet.contains(hub)
+		|| overflowSet.contains(hub)) {
+		updateProblem(i);
+	    }
+	}
+	solverTime += System.nanoTime() - t0;
+	trace(context.level2(),
+	      "transportation problem created for %d hubs, flow = %d",
+	      n, solver.getTotalFlow());
+    }
+
+    // Set hub i's surplus and deficit from its current state.  The
+    // solver is not called for values that did not change.
+    private void updateProblem(int i) {
+	int surplus = 0;
+	int deficit = 0;
+	if (!claimed[i]) {
+	    Hub hub = hubArray[i];
+	    boolean inOverflowSet = overflowSet.contains(hub);
+	    int net = hub.getBikeCount() - hub.getNominal();
+	    if (inOverflowSet) net += hub.getOverflow();
+	    if (net > 0 && (inOverflowSet || overSet.contains(hub))) {
+		surplus = net;
+	    } else if (net < 0 && underSet.contains(hub)) {
+		deficit = -net;
+	    }
+	}
+	if (solver.getSurplus(i) != surplus) {
+	    solver.setSurplus(i, surplus);
+	}
+	if (solver.getDeficit(i) != deficit) {
+	    solver.setDeficit(i, deficit);
+	}
+    }
+
+    private static Comparator<Hub> indexComparator = new Comparator<Hub>() {
+	    public int compare(Hub h1, Hub h2) {
+		return Integer.compare(h1.getIndex(), h2.getIndex());
+	    }
+	};
+
+    // The position of a hub in hubArray; -1 if the hub is not in the
+    // transportation problem.
+    private int positionOf(Hub hub) {
+	int index = hub.getIndex();
+	return (index < position.length)? position[index]: -1;
+    }
+
+    private void markDirty(Hub hub) {
+	int i = positionOf(hub);
+	if (i == -1) return;
+	if (!dirty[i]) {
+	    dirty[i] = true;
+	    dirtyHubs[ndirty++] = i;
+	}
+    }
+
+    // Hub data listeners are notified of every change in a hub's
+    // counts except for an increase in the overflow count, which
+    // notifies hub listeners.
+    private HubListener dirtyListener = new HubListener() {
+	    public void hubChanged(Hub hub, int need, int excess,
+				   int overflow)
+	    {
+		markDirty(hub);
+	    }
+	};
+
+    private HubDataListener dirtyDataListener = new HubDataListener() {
+	    public void hubChanged(Hub hub, int bikeCount,
+				   boolean newBikeCount,
+				   int overflowCount, boolean newOverflowCount,
+				   double time, long ticks)
+	    {
+		markDirty(hub);
+	    }
+	};
+
+    // Bring the surplus and deficit of the hubs whose counts changed
+    // up to date.  These depend on the hubs' bicycle counts, which
+    // change without a call to hubStatusChanged while a hub stays in
+    // the same set.
+    private void refreshProblem() {
+	long t0 = System.nanoTime();
+	for (int k = 0; k < ndirty; k++) {
+	    int i = dirtyHubs[k];
+	    dirty[i] = false;
+	    updateProblem(i);
+	}
+	ndirty = 0;
+	solverTime += System.nanoTime() - t0;
+    }
+
+    @Override
+    protected void hubStatusChanged(Hub hub) {
+	if (solver == null) {
+	    createProblem();
+	    return;
+	}
+	int i = positionOf(hub);
+	if (i == -1) return;
+	long t0 = System.nanoTime();
+	updateProblem(i);
+	solverTime += System.nanoTime() - t0;
+    }
+
+    private void claim(int i) {
+	if (!claimed[i]) {
+	    claimed[i] = true;
+	    nclaimed++;
+	    updateProblem(i);
+	}
+    }
+
+    private void release(int i) {
+	if (claimed[i]) {
+	    claimed[i] = false;
+	    nclaimed--;
+	    updateProblem(i);
+	}
+    }
+
+    // The hubs claimed by a running worker.
+    static class Task {
+	Hub[] route;
+	int[] indices;
+	Task(Hub[] route, int[] indices) {
+	    this.route = route;
+	    this.indices = indices;
+	}
+    }
+
+    Map<HubWorker,Task> tasks = new HashMap<>();
+    Set<HubWorker> observedWorkers = new HashSet<>();
+    Set<StorageHub> waiting = new HashSet<>();
+
+    private Callable startCallable = new Callable() {
+	    public void call() {
+		startAdditionalWorkers();
+	    }
+	};
+
+    private HubWorkerListener workerListener = new HubWorkerAdapter() {
+	    @Override
+	    public void leftHub(HubWorker worker, double time, long ticks,
+				Hub hub)
+	    {
+		Task task = tasks.get(worker);
+		if (task == null) return;
+		for (int i = 0; i < task.route.length; i++) {
+		    if (task.route[i] == hub) {
+			release(task.indices[i]);
+		    }
+		}
+	    }
+	    @Override
+	    public void queued(HubWorker worker, double time, long ticks,
+			       Hub hub)
+	    {
+		Task task = tasks.remove(worker);
+		if (task == null) return;
+		for (int i: task.indices) {
+		    release(i);
+		}
+		// The storage hub may pass this worker to a queued
+		// request when this method returns, so look for more
+		// work afterwards.
+		sim.scheduleCall(startCallable, 0);
+	    }
+	};
+
+    /**
+     * Hub sorter for a task created by an optimal-flow hub balancer.
+     * The route lists each hub providing bicycles before the hubs
+     * receiving them.
+     */
+    static class FlowHubSorter extends BasicHubBalancer.HubSorter {
+	Hub[] route;
+
+	FlowHubSorter(HubWorker.Mode mode, Hub[] route) {
+	    super(mode, route);
+	    this.route = route;
+	}
+
+	@Override
+	public Hub[] planRoute(HubWorker worker) {
+	    return route;
+	}
+    }
+
+    // Find the hubs with bicycles to ship for a storage hub, storing
+    // them in the array sources so that the largest shipments come
+    // first (ties in hub order).  Only the hubs the storage hub is
+    // responsible for are examined.  Returns the number of hubs found.
+    private int findSources(StorageHub shub) {
+	int sindex = shub.getIndex();
+	if (sindex >= served.length || served[sindex] == null) return 0;
+	int m = 0;
+	for (int i: served[sindex]) {
+	    int shipped = solver.getShipped(i);
+	    if (!claimed[i] && shipped > 0) {
+		// the low 32 bits hold i, which is nonnegative
+		sourceKeys[m++] = ((long)(-shipped) << 32) | i;
+	    }
+	}
+	Arrays.sort(sourceKeys, 0, m);
+	for (int k = 0; k < m; k++) {
+	    sources[k] = (int) sourceKeys[k];
+	}
+	return m;
+    }
+
+    // Create a task for a worker from the first nsources entries in
+    // the array sources, and start the worker.  Returns false if
+    // there is nothing for the worker to do.
+    private boolean startTask(StorageHub shub, HubWorker worker,
+			      int nsources)
+    {
+	int capacity = worker.getCapacity();
+	int planned = 0;
+	boolean pickup = false;
+	int n = 0;
+	if (taskGen == Integer.MAX_VALUE) {
+	    Arrays.fill(taskMark, 0);
+	    taskGen = 0;
+	}
+	taskGen++;
+	solver.startTrace();
+	for (int k = 0; k < nsources; k++) {
+	    if (planned >= capacity) break;
+	    int src = sources[k];
+	    int limit = Math.min(solver.getShipped(src), capacity - planned);
+	    int remaining = limit;
+	    if (taskMark[src] != taskGen) {
+		taskMark[src] = taskGen;
+		taskHubs[n++] = src;
+	    }
+	    if (hubArray[src].getOverflow() > 0) pickup = true;
+	    while (remaining > 0) {
+		int dest = solver.traceFlow(src, remaining, amount);
+		if (dest == -1) break;
+		remaining -= amount[0];
+		if (taskMark[dest] != taskGen) {
+		    taskMark[dest] = taskGen;
+		    taskHubs[n++] = dest;
+		}
+	    }
+	    planned += limit - remaining;
+	}
+	if (planned == 0) return false;
+	Hub[] route = new Hub[n];
+	int[] iarray = Arrays.copyOf(taskHubs, n);
+	for (int i = 0; i < n; i++) {
+	    route[i] = hubArray[iarray[i]];
+	}
+	long t0 = System.nanoTime();
+	for (int i: iarray) {
+	    claim(i);
+	}
+	solverTime += System.nanoTime() - t0;
+	HubWorker.Mode mode = pickup? HubWorker.Mode.VISIT_WITH_PICKUP:
+	    HubWorker.Mode.VISIT;
+	tasks.put(worker, new Task(route, iarray));
+	if (!observedWorkers.contains(worker)) {
+	    worker.addHubWorkerListener(workerListener);
+	    observedWorkers.add(worker);
+	}
+	trace(context.level2(),
+	      "starting worker %s for %d hubs, %d bicycles, mode %s",
+	      worker.getName(), n, planned, mode);
+	tasksStarted++;
+	lastTime = sim.currentTicks();
+	worker.start(mode, new FlowHubSorter(mode, route), 0.0, 0.0);
+	return true;
+    }
+
+    @Override
+    public HubWorker.HubSorter getHubSorter(HubWorker.Mode mode,
+					    StorageHub shub,
+					    Hub[] hubs)
+    {
+	return new BasicHubBalancer.CountingHubSorter(mode, hubs);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * This method uses a "quiet period" to prevent multiple workers from
+     * responding to the same event. When not in a quiet period, a
+     * task is created for each storage hub that has hubs with
+     * bicycles to ship and a worker that is available or that will
+     * become available.
+     */
+    @Override
+    protected void startAdditionalWorkers() {
+	if (quiet) {
+	    trace(context.level2(),
+		  "start of additional workers delayed - in quiet period");
+	    needStart = true;
+	    return;
+	}
+	createProblem();
+	refreshProblem();
+	if (solver.getTotalFlow() == 0) {
+	    trace(context.level4(), "startAdditionalWorkers: nothing to do");
+	    return;
+	}
+	boolean haveAdditionalWork = false;
+	// Storage hubs added after the problem was created are not
+	// responsible for any hub, so only those in storageHubs are
+	// examined.
+	for (StorageHub shub: storageHubs) {
+	    if (waiting.contains(shub) || shub.workerQueueNotUseable()) {
+		continue;
+	    }
+	    int nsources = findSources(shub);
+	    if (nsources == 0) continue;
+	    HubWorker worker = shub.pollWorkers();
+	    if (worker != null) {
+		if (startTask(shub, worker, nsources)) {
+		    haveAdditionalWork = true;
+		} else {
+		    shub.queueWorker(worker);
+		}
+	    } else {
+		trace(context.level2(),
+		      "queuing request for a worker for storage hub %s",
+		      shub.getName());
+		haveAdditionalWork = true;
+		waiting.add(shub);
+		final StorageHub xshub = shub;
+		shub.addOnQueueCallable(new Callable() {
+			public void call() {
+			    waiting.remove(xshub);
+			    HubWorker w = xshub.pollWorkers();
+			    if (w == null) return;
+			    refreshProblem();
+			    if (!startTask(xshub, w, findSources(xshub))) {
+				xshub.queueWorker(w);
+			    }
+			}
+		    });
+	    }
+	}
+	if (haveAdditionalWork) {
+	    sim.scheduleCall(new Callable() {
+		    public void call() {
+			quiet = false;
+			if (needStart) {
+			    needStart = false;
+			    startAdditionalWorkers();
+			}
+		    }
+		}, quietPeriod);
+	    quiet = true;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * Defined for class OptimalFlowHubBalancer:
+     * <UL>
+     *   <LI> the quiet period in seconds.
+     *   <LI> the number of neighbors for each hub.
+     * </UL>
+     * @param iPrefix {@inheritDoc}
+     * @param prefix {@inheritDoc}
+     * @param printName {@inheritDoc}
+     * @param out {@inheritDoc}
+     */
+    @Override
+    public void printConfiguration(String iPrefix, String prefix,
+				   boolean printName, PrintWriter out)
+    {
+	super.printConfiguration(iPrefix, prefix, printName, out);
+	out.println(prefix + "quietPeriod: " + quietPeriod);
+	out.println(prefix + "neighbors: " + neighbors);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Defined for class OptimalFlowHubBalancer:
+     * <UL>
+     *   <LI> the last time non-looping workers were started.
+     *   <LI> the number of tasks started.
+     *   <LI> the state of the transportation problem, once created:
+     *        <UL>
+     *           <LI> the number of hubs.
+     *           <LI> the number of hubs claimed by running workers.
+     *           <LI> the number of bicycles to ship and the total
+     *                estimated delay for shipping them.
+     *           <LI> the number of shortest-path searches and
+     *                augmentations used to update the solution.
+     *           <LI> the real time spent updating the solution.
+     *        </UL>
+     * </UL>
+     * @param iPrefix {@inheritDoc}
+     * @param prefix {@inheritDoc}
+     * @param printName {@inheritDoc}
+     * @param out {@inheritDoc}
+     */
+    @Override
+    public void printState(String iPrefix, String prefix,
+			   boolean printName, PrintWriter out)
+    {
+	super.printState(iPrefix, prefix, printName, out);
+	if (lastTime != initialLastTime) {
+	    out.println(prefix + "last time non-looping workers were started: "
+			+ sim.getTime(lastTime) + " (seconds)");
+	} else {
+	    out.println(prefix + "non-looping workers not yet started");
+	}
+	out.println(prefix + "tasks started: " + tasksStarted);
+	if (solver == null) {
+	    out.println(prefix + "transportation problem: <not created>");
+	} else {
+	    out.println(prefix + "transportation problem:");
+	    out.println(prefix + "    number of hubs: " + hubArray.length);
+	    out.println(prefix + "    claimed hubs: " + nclaimed);
+	    out.println(prefix + "    bicycles to ship: "
+			+ solver.getTotalFlow());
+	    out.println(prefix + "    total estimated delay: "
+			+ solver.getTotalCost() + " (seconds)");
+	    out.println(prefix + "    shortest-path searches: "
+			+ solver.searches);
+	    out.println(prefix + "    augmentations: " + solver.augmentations);
+	    out.println(prefix + "    update time: " + (solverTime/1.0e9)
+			+ " (seconds)");
+	}
+    }
+}
+
+//  LocalWords:  balancer balancer's hubStatusChanged HubWorker
+//  LocalWords:  startAdditionalWorkers HubSorter IllegalStateException
+//  LocalWords:  IllegalArgumentException OptimalFlowHubBalancer
+//  LocalWords:  iPrefix printName quietPeriod augmentations
@@ -0,0 +1,563 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.io.PrintWriter;
+
+/**
+ * Hub balancer that dispatches workers ahead of predicted shortages
+ * and surpluses.
+ * This hub balancer extends {@link BasicHubBalancer} with a forecast
+ * of each hub's bicycle count computed from the configured rates of
+ * a set of trip generators. Each trip generator must provide these
+ * rates by implementing {@link TripGenerator#getTripRates()}.  For
+ * trips that start at a rate &lambda; and that use n bicycles per
+ * trip, bicycles leave the starting hub at a rate of n&lambda; per
+ * second and arrive at the destination hub at the same rate. The
+ * forecast for a hub over a time interval T (the horizon) is
+ * <BLOCKQUOTE>
+ *   c + rT &plusmn; z(vT)<sup>1/2</sup>
+ * </BLOCKQUOTE>
+ * where c is the current number of bicycles at the hub's preferred
+ * location, r is the sum of the arrival rates minus the sum of the
+ * departure rates, v is the variance rate of the number of bicycles
+ * (trips start as a Poisson process, so each trip rate adds
+ * n<sup>2</sup>&lambda; per second at both hubs), and z is a safety
+ * factor.
+ * Round trips return their bicycles, so a round-trip generator does
+ * not change r but contributes to v in both directions.
+ * <P>
+ * A hub that is not in the over-trigger, under-trigger, or overflow
+ * sets is forecast to need bicycles if the lower value of its forecast
+ * is below the hub's lower trigger, and is forecast to have too many
+ * bicycles if the upper value of its forecast is above the hub's upper
+ * trigger. These hubs are treated as if they were in the under-trigger
+ * or over-trigger sets respectively when {@link BasicHubBalancer}
+ * decides whether to start additional workers and which hubs the
+ * workers visit, and the hub sorters returned by
+ * {@link #getHubSorter(HubWorker.Mode,StorageHub,Hub[])} use the
+ * forecasts in place of the current bicycle counts. Because the
+ * forecasts already account for bicycles arriving at a hub, the
+ * look-ahead interval set by {@link #setLookAhead(double)} is not
+ * used.
+ * <P>
+ * Forecasts are updated when a hub's bicycle count changes and when a
+ * trip generator's rates change. The latter requires time proportional
+ * to the number of trip rates of the trip generators that changed.
+ * Changes to hub counts are not handled by the hub's listener: the
+ * hubs are recorded and a single call, scheduled for the current
+ * simulation time, updates their forecasts and, if necessary, starts
+ * additional workers once for all the changes.
+ */
+public class PredictiveHubBalancer extends BasicHubBalancer {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    double horizon = 0.0;
+    double safetyFactor = 1.0;
+
+    // Net rate and variance rate (both per second) for the number of
+    // bicycles at each hub, indexed by Hub.getIndex().
+    double[] netRates = new double[16];
+    double[] varRates = new double[16];
+
+    // Hubs forecast to need service that are not in the over-trigger,
+    // under-trigger, or overflow sets, indexed by Hub.getIndex().
+    BitSet forecastOver = new BitSet();
+    BitSet forecastUnder = new BitSet();
+    int nForecastOver = 0;
+    int nForecastUnder = 0;
+
+    /*
+     * The rates a trip generator contributes to each hub it uses.  The
+     * rates are recorded so that they can be subtracted exactly when
+     * the trip generator changes.
+     */
+    static class Flow {
+	Hub[] hubs;
+	double[] netRates;
+	double[] varRates;
+
+	Flow(int n) {
+	    hubs = new Hub[n];
+	    netRates = new double[n];
+	    varRates = new double[n];
+	}
+    }
+
+    private static final Flow NO_FLOW = new Flow(0);
+
+    Map<TripGenerator,Flow> flows = new LinkedHashMap<>();
+
+    private boolean forecasting = false;
+
+    // Hubs whose forecasts must be recomputed and whether additional
+    // workers may be needed.  These are handled by a single call
+    // scheduled for the current time, so that a series of changes is
+    // coalesced and the balancer is not reentered from a hub's
+    // listeners or a trip generator.
+    private BitSet dirty = new BitSet();
+    private ArrayList<Hub> dirtyHubs = new ArrayList<>();
+    private boolean startNeeded = false;
+    private boolean updateScheduled = false;
+    private Callable updateCallable = new Callable() {
+	    public void call() {
+		updateScheduled = false;
+		boolean changed = startNeeded;
+		startNeeded = false;
+		Hub[] hubs = dirtyHubs.toArray(new Hub[dirtyHubs.size()]);
+		dirtyHubs.clear();
+		dirty.clear();
+		for (Hub hub: hubs) {
+		    if (updateForecast(hub)) changed = true;
+		}
+		if (changed && forecasting) startAdditionalWorkers();
+	    }
+	};
+
+    private void scheduleUpdate() {
+	if (!updateScheduled) {
+	    updateScheduled = true;
+	    sim.scheduleCall(updateCallable, 0);
+	}
+    }
+
+    private void markDirty(Hub hub) {
+	int index = hub.getIndex();
+	if (!dirty.get(index)) {
+	    dirty.set(index);
+	    dirtyHubs.add(hub);
+	}
+	scheduleUpdate();
+    }
+
+    // Before the simulation starts, the initialization call started
+    // by the constructor handles any forecasts that need service.
+    private void requestStart() {
+	if (!forecasting) return;
+	startNeeded = true;
+	scheduleUpdate();
+    }
+
+    private HubDataListener dataListener = new HubDataListener() {
+	    public void hubChanged(Hub hub, int bikeCount,
+				   boolean newBikeCount,
+				   int overflowCount,
+				   boolean newOverflowCount,
+				   double time, long ticks)
+	    {
+		markDirty(hub);
+	    }
+	};
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     * @param name the name of this object
+     * @param intern true if this object should be interned in the
+     *        simulation's name table; false otherwise
+     */
+    public PredictiveHubBalancer(DramaSimulation sim, String name,
+				 boolean intern)
+    {
+	super(sim, name, intern);
+	sim.scheduleInitCall(new Callable() {
+		public void call() {
+		    for (Hub hub: getSysDomain().getUserHubs()) {
+			hub.addHubDataListener(dataListener);
+		    }
+		    forecasting = true;
+		    if (nForecastOver + nForecastUnder > 0) {
+			startAdditionalWorkers();
+		    }
+		}
+	    }, 0);
+    }
+
+    /**
+     * Set the forecast horizon.
+     * @param value the time interval in seconds over which hub counts
+     *        are forecast
+     * @exception IllegalArgumentException the argument was negative
+     */
+    public void setHorizon(double value) throws IllegalArgumentException {
+	if (value < 0.0) {
+	    throw new IllegalArgumentException(errorMsg("timeNegative", value));
+	}
+	horizon = value;
+	updateAllForecasts();
+    }
+
+    /**
+     * Get the forecast horizon.
+     * @return the time interval in seconds over which hub counts
+     *         are forecast
+     */
+    public double getHorizon() {
+	return horizon;
+    }
+
+    /**
+     * Set the safety factor.
+     * The safety factor is the number of standard deviations by which
+     * a forecast is widened when comparing it with a hub's triggers.
+     * A value of zero uses only the expected bicycle count.
+     * @param value the safety factor
+     * @exception IllegalArgumentException the argument was negative
+     */
+    public void setSafetyFactor(double value) throws IllegalArgumentException {
+	if (value < 0.0) {
+	    throw new IllegalArgumentException(errorMsg("valueNegative", value));
+	}
+	safetyFactor = value;
+	updateAllForecasts();
+    }
+
+    /**
+     * Get the safety factor.
+     * @return the safety factor
+     * @see #setSafetyFactor(double)
+     */
+    public double getSafetyFactor() {
+	return safetyFactor;
+    }
+
+    /**
+     * Add a trip generator whose rates are used in forecasts.
+     * @param tgen the trip generator
+     * @exception IllegalArgumentException the trip generator does not
+     *            provide rates (its method
+     *            {@link TripGenerator#getTripRates()} returns null)
+     */
+    public void addTripGenerator(TripGenerator tgen)
+	throws IllegalArgumentException
+    {
+	if (tgen.getTripRates() == null) {
+	    throw new IllegalArgumentException
+		(errorMsg("notForecastable", tgen.getName()));
+	}
+	if (flows.containsKey(tgen)) return;
+	flows.put(tgen, NO_FLOW);
+	tgen.addTripRateListener(rateListener);
+	ratesChanged(tgen);
+    }
+
+    /**
+     * Remove a trip generator whose rates are used in forecasts.
+     * @param tgen the trip generator
+     */
+    public void removeTripGenerator(TripGenerator tgen) {
+	Flow flow = flows.remove(tgen);
+	if (flow == null) return;
+	tgen.removeTripRateListener(rateListener);
+	addFlow(flow, -1.0);
+	boolean changed = false;
+	for (Hub hub: flow.hubs) {
+	    if (updateForecast(hub)) changed = true;
+	}
+	if (changed) requestStart();
+    }
+
+    private void ensureIndex(int i) {
+	if (i < netRates.length) return;
+	int n = Math.max(i + 1, 2*netRates.length);
+	netRates = Arrays.copyOf(netRates, n);
+	varRates = Arrays.copyOf(varRates, n);
+    }
+
+    // Each trip rate changes the bicycle count at its starting hub
+    // and its destination hub.
+    private static Flow createFlow(TripRate[] tripRates) {
+	if (tripRates == null || tripRates.length == 0) {
+	    return NO_FLOW;
+	}
+	Flow flow = new Flow(2 * tripRates.length);
+	for (int i = 0; i < tripRates.length; i++) {
+	    TripRate tr = tripRates[i];
+	    int nbikes = tr.getBikeCount();
+	    double rate = tr.getRate() * nbikes;
+	    boolean round = tr.isRoundTrip();
+	    double varRate = (round? 2.0: 1.0) * rate * nbikes;
+	    flow.hubs[2*i] = tr.getOrigin();
+	    flow.netRates[2*i] = round? 0.0: -rate;
+	    flow.varRates[2*i] = varRate;
+	    flow.hubs[2*i+1] = tr.getDestination();
+	    flow.netRates[2*i+1] = round? 0.0: rate;
+	    flow.varRates[2*i+1] = varRate;
+	}
+	return flow;
+    }
+
+    private void addFlow(Flow flow, double sign) {
+	for (int i = 0; i < flow.hubs.length; i++) {
+	    int index = flow.hubs[i].getIndex();
+	    ensureIndex(index);
+	    netRates[index] += sign * flow.netRates[i];
+	    varRates[index] += sign * flow.varRates[i];
+	}
+    }
+
+    private TripRateListener rateListener = new TripRateListener() {
+	    public void tripRatesChanged(TripGenerator tgen) {
+		ratesChanged(tgen);
+	    }
+	};
+
+    // Called when a trip generator's rates change.
+    private void ratesChanged(TripGenerator tgen) {
+	Flow oldFlow = flows.get(tgen);
+	if (oldFlow == null) return;
+	Flow flow = createFlow(tgen.getTripRates());
+	addFlow(oldFlow, -1.0);
+	addFlow(flow, 1.0);
+	flows.put(tgen, flow);
+	trace(context.level3(), "rates changed for trip generator %s",
+	      tgen.getName());
+	boolean changed = false;
+	for (Hub hub: oldFlow.hubs) {
+	    if (updateForecast(hub)) changed = true;
+	}
+	for (Hub hub: flow.hubs) {
+	    if (updateForecast(hub)) changed = true;
+	}
+	if (changed) requestStart();
+    }
+
+    private void updateAllForecasts() {
+	SysDomain domain = getSysDomain();
+	if (domain == null) return;
+	boolean changed = false;
+	for (Hub hub: domain.getUserHubs()) {
+	    if (updateForecast(hub)) changed = true;
+	}
+	if (changed) requestStart();
+    }
+
+    /**
+     * Get the expected net rate at which bicycles arrive at a hub.
+     * @param hub the hub
+     * @return the rate in bicycles per second; negative if bicycles
+     *         are expected to leave the hub faster than they arrive
+     */
+    public double getNetRate(Hub hub) {
+	int index = hub.getIndex();
+	return (index < netRates.length)? netRates[index]: 0.0;
+    }
+
+    /**
+     * Get the expected number of bicycles at a hub's preferred location
+     * at the end of the forecast horizon.
+     * @param hub the hub
+     * @return the expected number of bicycles
+     */
+    public double getExpectedCount(Hub hub) {
+	return hub.getBikeCount() + getNetRate(hub) * horizon;
+    }
+
+    private double getDeviation(Hub hub) {
+	int index = hub.getIndex();
+	double var = (index < varRates.length)? varRates[index]: 0.0;
+	return (var > 0.0)? safetyFactor * Math.sqrt(var * horizon): 0.0;
+    }
+
+    /**
+     * Determine if a hub is forecast to have fewer bicycles than
+     * allowed by its lower trigger before the end of the forecast
+     * horizon.
+     * Hubs in the over-trigger, under-trigger, or overflow sets are
+     * excluded.
+     * @param hub the hub
+     * @return true if the hub is forecast to need bicycles;
+     *         false otherwise
+     */
+    public boolean isForecastUnder(Hub hub) {
+	return forecastUnder.get(hub.getIndex());
+    }
+
+    /**
+     * Determine if a hub is forecast to have more bicycles than
+     * allowed by its upper trigger before the end of the forecast
+     * horizon.
+     * Hubs in the over-trigger, under-trigger, or overflow sets are
+     * excluded.
+     * @param hub the hub
+     * @return true if the hub is forecast to have too many bicycles;
+     *         false otherwise
+     */
+    public boolean isForecastOver(Hub hub) {
+	return forecastOver.get(hub.getIndex());
+    }
+
+    /*
+     * Recompute the forecast for a hub.  Returns true if the hub was
+     * added to one of the forecast sets.
+     */
+    private boolean updateForecast(Hub hub) {
+	if (hub instanceof StorageHub) return false;
+	int index = hub.getIndex();
+	boolean over = false;
+	boolean under = false;
+	if (!overSet.contains(hub) && !underSet.contains(hub)
+	    && !overflowSet.contains(hub)) {
+	    double expected = getExpectedCount(hub);
+	    double deviation = getDeviation(hub);
+	    over = expected + deviation > hub.getUpperTrigger();
+	    under = expected - deviation < hub.getLowerTrigger();
+	    if (over && under) {
+		if (getNetRate(hub) < 0.0) {
+		    over = false;
+		} else {
+		    under = false;
+		}
+	    }
+	}
+	boolean wasOver = forecastOver.get(index);
+	boolean wasUnder = forecastUnder.get(index);
+	if (over == wasOver && under == wasUnder) return false;
+	forecastOver.set(index, over);
+	forecastUnder.set(index, under);
+	if (over != wasOver) nForecastOver += over? 1: -1;
+	if (under != wasUnder) nForecastUnder += under? 1: -1;
+	updateSlots(hub);
+	if (over || under) {
+	    trace(context.level3(), "hub %s forecast to have too %s bicycles",
+		  hub.getName(), (over? "many": "few"));
+	    return true;
+	}
+	return false;
+    }
+
+    // Hub count used by hub sorters: the end of the forecast closest
+    // to the trigger the hub is expected to cross, net of the changes
+    // claimed by workers traveling to the hub.
+    int getSortCount(Hub hub) {
+	double count = getExpectedCount(hub) - hub.getClaimedBikes();
+	int index = hub.getIndex();
+	if (forecastUnder.get(index)) {
+	    count -= getDeviation(hub);
+	} else if (forecastOver.get(index)) {
+	    count += getDeviation(hub);
+	}
+	int result = (int)Math.round(count);
+	if (result < 0) return 0;
+	int capacity = hub.getCapacity();
+	return (result > capacity)? capacity: result;
+    }
+
+    @Override
+    boolean inServiceOver(Hub hub) {
+	return super.inServiceOver(hub) || forecastOver.get(hub.getIndex());
+    }
+
+    @Override
+    boolean inServiceUnder(Hub hub) {
+	return super.inServiceUnder(hub) || forecastUnder.get(hub.getIndex());
+    }
+
+    @Override
+    int serviceOverCount() {
+	return super.serviceOverCount() + nForecastOver;
+    }
+
+    @Override
+    int serviceUnderCount() {
+	return super.serviceUnderCount() + nForecastUnder;
+    }
+
+    @Override
+    double serviceLookAhead() {
+	return 0.0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * This implementation also updates the hub's forecast.
+     * @param hub {@inheritDoc}
+     */
+    @Override
+    protected void hubStatusChanged(Hub hub) {
+	updateForecast(hub);
+	super.hubStatusChanged(hub);
+    }
+
+    @Override
+    public HubWorker.HubSorter getHubSorter(HubWorker.Mode mode,
+					    StorageHub shub,
+					    Hub[] hubs)
+    {
+	return new BasicHubBalancer.CountingHubSorter(mode, hubs,
+						      routePlanner, 0.0) {
+		@Override
+		int getCount(Hub hub) {
+		    return getSortCount(hub);
+		}
+	    };
+    }
+
+    /**
+     * {@inheritDoc}
+     * Defined for class PredictiveHubBalancer:
+     * <UL>
+     *   <LI> the forecast horizon in seconds.
+     *   <LI> the safety factor.
+     *   <LI> the trip generators used for forecasts.
+     * </UL>
+     * @param iPrefix {@inheritDoc}
+     * @param prefix {@inheritDoc}
+     * @param printName {@inheritDoc}
+     * @param out {@inheritDoc}
+     */
+    @Override
+    public void printConfiguration(String iPrefix, String prefix,
+				   boolean printName, PrintWriter out)
+    {
+	super.printConfiguration(iPrefix, prefix, printName, out);
+	out.println(prefix + "horizon: " + horizon);
+	out.println(prefix + "safetyFactor: " + safetyFactor);
+	if (flows.isEmpty()) {
+	    out.println(prefix + "trip generators: <none>");
+	} else {
+	    out.println(prefix + "trip generators:");
+	    for (TripGenerator tgen: flows.keySet()) {
+		out.println(prefix + "    " + tgen.getName());
+	    }
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * Defined for class PredictiveHubBalancer:
+     * <UL>
+     *   <LI> the number of hubs forecast to need bicycles.
+     *   <LI> the number of hubs forecast to have too many bicycles.
+     * </UL>
+     * @param iPrefix {@inheritDoc}
+     * @param prefix {@inheritDoc}
+     * @param printName {@inheritDoc}
+     * @param out {@inheritDoc}
+     */
+    @Override
+    public void printState(String iPrefix, String prefix,
+			   boolean printName, PrintWriter out)
+    {
+	super.printState(iPrefix, prefix, printName, out);
+	out.println(prefix + "hubs forecast to need bicycles: "
+		    + nForecastUnder);
+	out.println(prefix + "hubs forecast to have too many bicycles: "
+		    + nForecastOver);
+    }
+}
+
+//  LocalWords:  balancer BasicHubBalancer BasicTripGenerator lambda
+//  LocalWords:  RoundTripGenerator interarrival plusmn rT vT sup
+//  LocalWords:  getHubSorter HubWorker StorageHub setLookAhead tgen
+//  LocalWords:  IllegalArgumentException PredictiveHubBalancer
+//  LocalWords:  iPrefix printName safetyFactor
@@ -4,7 +4,6 @@ import org.bzdev.lang.Callable;
 import org.bzdev.math.StaticRandom;
 import org.bzdev.math.rv.DoubleRandomVariable;
 import org.bzdev.math.rv.ExpDistrRV;
-import java.util.Arrays;
 
 import java.io.PrintWriter;
 
@@ -49,27 +48,15 @@ public class RoundTripGenerator extends TripGenerator {
 	this.sim = sim;
     }
 
-    static class Dest implements Comparable<Dest> {
+    static class Dest {
 	public Hub hub;
 	public double cvalue;
 	public double oprob;
 
-	private long instance;
-	static long instanceCounter = 0;
-
 	Dest(Hub hub, double cvalue, double oprob) {
 	    this.hub = hub;
 	    this.cvalue = cvalue;
 	    this.oprob = oprob;
-	    this.instance = (instanceCounter++);
-	}
-	
-	public int compareTo(Dest other) {
-	    if (cvalue < other.cvalue) return -1;
-	    if (cvalue > other.cvalue) return 1;
-	    if (instance > other.instance) return -1;
-	    if (instance < other.instance) return 1;
-	    else return 0;
 	}
     }
 
@@ -81,6 +68,7 @@ public class RoundTripGenerator extends TripGenerator {
     DoubleRandomVariable waitrv;
     double oprob;
     Dest[] dests;
+    DestSampler sampler;
     int nbikes;
 
     /**
@@ -103,6 +91,7 @@ public class RoundTripGenerator extends TripGenerator {
 	    this.mean = mean;
 	    rv = new ExpDistrRV(mean);
 	    if (wasRunning) restart();
+	    fireRatesChanged();
 
 	}
     }
@@ -149,7 +138,9 @@ public class RoundTripGenerator extends TripGenerator {
      * @param overflowProb the probability for a destination hub
      *        that the overflow area is used regardless of whether
      *        or not there is excess capacity in the preferred location
-     * 
+     * @exception IllegalArgumentException there were no weights, a
+     *            weight was negative, or the weights did not have a
+     *            finite, positive sum
      */
     public void init(Hub hub, double mean,
 		     int nbikes,
@@ -158,7 +149,9 @@ public class RoundTripGenerator extends TripGenerator {
 		     Hub[] destHubs,
 		     double[] weights,
 		     double[] overflowProb)
+	throws IllegalArgumentException
     {
+	double sum = DestSampler.checkWeights(weights);
 	this.hub = hub;
 	rv = new ExpDistrRV(mean);
 	this.mean = mean;
@@ -166,15 +159,7 @@ public class RoundTripGenerator extends TripGenerator {
 	this.waitrv = waitrv;
 	this.oprob = returnOverflowProb;
 
-	double sum = 0.0;
 	weights = weights.clone();
-	for (int i = 0; i < destHubs.length; i++) {
-	    if (weights[i] < 0.0) {
-		throw new IllegalArgumentException
-		    (errorMsg("weights", weights[i]));
-	    }
-	    sum += weights[i];
-	}
 	for (int i = 0; i < destHubs.length; i++) {
 	    weights[i] /= sum;
 	}
@@ -187,16 +172,37 @@ public class RoundTripGenerator extends TripGenerator {
 	    dests[i] = new Dest(destHubs[i], total, overflowProb[i]);
 	    last = total;
 	}
-	trace(BikeShare.level1, "trip generator configured");
+	sampler = new DestSampler(weights);
+	fireRatesChanged();
+	trace(context.level1(), "trip generator configured");
     }
 
+    /**
+     * {@inheritDoc}
+     * <P>
+     * For class RoundTripGenerator, trips to each destination hub start
+     * at a rate equal to the probability of choosing that hub divided
+     * by the mean interarrival time.
+     * @return {@inheritDoc}
+     */
+    @Override
+    public TripRate[] getTripRates() {
+	if (dests == null || !(mean > 0.0)) return new TripRate[0];
+	TripRate[] results = new TripRate[dests.length];
+	double last = 0.0;
+	for (int i = 0; i < dests.length; i++) {
+	    double prob = dests[i].cvalue - last;
+	    last = dests[i].cvalue;
+	    results[i] = new TripRate(hub, dests[i].hub, prob / mean, nbikes,
+				      true);
+	}
+	return results;
+    }
+
+    // init checked the weights, so the sampler always returns an
+    // index into dests.
     Dest chooseDest() {
-	double rval = StaticRandom.nextDouble();
-	while (rval == 1.0) rval = StaticRandom.nextDouble();
-	Dest key = new Dest(null, rval, 0.0);
-	int index = Arrays.binarySearch(dests, key);
-	if (index < 0) index = -index - 1;
-	return dests[index];
+	return dests[sampler.next()];
     }
 
     @Override
@@ -216,44 +222,16 @@ public class RoundTripGenerator extends TripGenerator {
 	    StaticRandom.nextDouble() < dest.oprob;
 	final boolean willOverflowR =
 	    StaticRandom.nextDouble() < oprob;
-	trace(BikeShare.level4,
+	trace(context.level4(),
 	      "sending %d bike-share users from %s to %s, "
 	      + "intending to use the %s",
 	      nbikes, hub, dest.hub,
 	      (willOverflow? "overflow area": "preferred area"));
-	final Callable nextContinuation = new Callable() {
-		public void call() {
-		    fireTripEnded(tripID, hub);
-		}
-	    };
-
-	final Callable nextCall = new Callable() {
-		public void call() {
-		    HubDomain rd = dest.hub.sendUsers(hub, nbikes,
-						      willOverflowR,
-						      getProbabilityFunction(),
-						      nextContinuation);
-		    if (rd != null) {
-			fireTripPauseEnd(tripID, dest.hub, rd);
-		    } else {
-			fireTripFailedMidstream(tripID, dest.hub);
-		    }
-		}
-	    };
-
-	Callable continuation = new Callable() {
-		public void call() {
-		    fireTripPauseStart(tripID, dest.hub);
-		    sim.scheduleCall(nextCall, sim.getTicks(wait));
-		}
-	    };
-	HubDomain d = hub.sendUsers(dest.hub, nbikes, willOverflow,
-				    getProbabilityFunction(), continuation);
-	if (d != null) {
-	    fireTripStarted(tripID, hub, d);
-	} else {
-	    fireTripFailedAtStart(tripID, hub);
-	}
+	TripState ts = acquireTripState(tripID, hub, dest.hub, nbikes);
+	ts.phase = TripState.OUTBOUND;
+	ts.wait = wait;
+	if (willOverflowR) ts.flags |= TripState.OVERFLOW_RETURN;
+	startTrip(ts, willOverflow);
 	return true;
     }
 
@@ -0,0 +1,665 @@
+package org.bzdev.bikeshare;
+import java.util.Arrays;
+
+/**
+ * Route planner for hub workers.
+ * A route planner orders the hubs a worker will visit so that the
+ * worker can pick up and drop off as many bicycles as possible while
+ * keeping the estimated travel time low. Each hub is given an amount:
+ * a positive amount is the number of bicycles the worker should pick
+ * up and a negative amount is the number the worker should drop off.
+ * Given the worker's initial bicycle count and capacity, the amount a
+ * route serves at each hub is limited so that the worker's count
+ * stays in the range [0, capacity]; hubs at which nothing can be
+ * served are skipped. Routes are compared first by the total number
+ * of bicycles served and then by the estimated travel time, which
+ * includes the trip from the starting hub and the trip to the ending
+ * hub (typically the worker's storage hub).
+ * <P>
+ * A route is constructed by choosing the nearest hub at which the
+ * worker can pick up or drop off bicycles, and is then improved by
+ * 2-opt moves (reversing a subsequence) and or-opt moves (moving a
+ * subsequence of one to three hubs) until no move improves the
+ * route or the move budget is exhausted. The move budget is the
+ * maximum number of candidate moves evaluated for a plan, so a plan
+ * depends only on its arguments and not on how fast the planner
+ * runs. Travel times are estimated using the delay table for a hub
+ * domain (normally a worker's system domain) via
+ * {@link HubDomain#estimateDelay(Hub,Hub,int)}.
+ * <P>
+ * Candidate moves are not evaluated by traversing the whole route.
+ * Instead, the planner keeps the state of the worker before each
+ * position in the route, and summaries of each route suffix and of
+ * the subsequence being moved, tabulated by the worker's bicycle
+ * count when entering it. A candidate is then evaluated in constant
+ * time, and extending a moved subsequence by one hub takes time
+ * proportional to the worker's capacity.
+ * <P>
+ * Metrics describing the quality of the last plan and the time spent
+ * planning are provided so that the benefit of planning can be
+ * compared to its cost.
+ * <P>
+ * A route planner may be shared by multiple hub sorters, but is not
+ * thread safe.
+ * @see HubWorker.HubSorter#planRoute(HubWorker)
+ */
+public class RoutePlanner {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    private HubDomain domain;
+    private long moveBudget = 100000L;
+
+    // A sequence of hubs summarized for each bicycle count x in
+    // [0, capacity] with which a worker could enter it: exit[x] is
+    // the count when leaving the sequence, served[x] the number of
+    // bicycles picked up or dropped off, first[x] and last[x] the
+    // first and last hubs at which bicycles are served (-1 if there
+    // are none), and inner[x] the delay from first[x] to last[x].
+    private static final class Seg {
+	int[] exit = new int[0];
+	int[] served = new int[0];
+	int[] first = new int[0];
+	int[] last = new int[0];
+	double[] inner = new double[0];
+
+	void ensureCapacity(int capacity) {
+	    if (exit.length < capacity + 1) {
+		exit = new int[capacity+1];
+		served = new int[capacity+1];
+		first = new int[capacity+1];
+		last = new int[capacity+1];
+		inner = new double[capacity+1];
+	    }
+	}
+
+	void clear(int capacity) {
+	    ensureCapacity(capacity);
+	    for (int x = 0; x <= capacity; x++) {
+		exit[x] = x;
+		served[x] = 0;
+		first[x] = -1;
+		last[x] = -1;
+		inner[x] = 0.0;
+	    }
+	}
+    }
+
+    // buffers reused between plans
+    private double[][] delays = new double[0][];
+    private int[] route = new int[0];
+    private int[] candidate = new int[0];
+    private boolean[] used = new boolean[0];
+    // worker state before route[k]
+    private int[] preLoad = new int[0];
+    private int[] prePrev = new int[0];
+    private int[] preServed = new int[0];
+    private double[] preDelay = new double[0];
+    // suffix[k] summarizes route[k..n-1]
+    private Seg[] suffix = new Seg[0];
+    private Seg seg1 = new Seg();
+    private Seg seg2 = new Seg();
+    private Seg seg3 = new Seg();
+
+    // the arguments of the plan being created
+    private int[] amounts;
+    private int capacity;
+
+    // metrics
+    private long planCount = 0;
+    private long budgetExceededCount = 0;
+    private long totalPlanningTime = 0;
+    private long lastPlanningTime = 0;
+    private double lastInitialDelay = 0.0;
+    private double lastDelay = 0.0;
+    private int lastServed = 0;
+    private int lastDemand = 0;
+    private int lastImprovements = 0;
+    private long lastEvaluations = 0;
+    private boolean lastBudgetExceeded = false;
+
+    /**
+     * Constructor.
+     * @param domain the hub domain whose delay table is used to
+     *        estimate travel times
+     */
+    public RoutePlanner(HubDomain domain) {
+	this.domain = domain;
+    }
+
+    /**
+     * Set the move budget for each plan.
+     * The budget is the maximum number of candidate moves that will
+     * be evaluated when improving a route. The initial route is
+     * always constructed.
+     * @param moves the move budget; 0 if a route should not be
+     *        improved
+     * @exception IllegalArgumentException the argument was negative
+     */
+    public void setMoveBudget(long moves) throws IllegalArgumentException
+    {
+	if (moves < 0) {
+	    throw new IllegalArgumentException
+		(errorMsg("valueNegative", moves));
+	}
+	moveBudget = moves;
+    }
+
+    /**
+     * Get the move budget for each plan.
+     * @return the maximum number of candidate moves evaluated for
+     *         each plan
+     */
+    public long getMoveBudget() {
+	return moveBudget;
+    }
+
+    // The route is given by the indices in route[0..n-1].  Index n
+    // denotes the starting hub and n+1 the ending hub.
+
+    private int served;
+
+    private double evaluate(int[] order, int n, int load) {
+	double delay = 0.0;
+	int prev = n;
+	served = 0;
+	for (int i = 0; i < n; i++) {
+	    int h = order[i];
+	    int s = serve(h, load);
+	    if (s > 0) {
+		load += (amounts[h] > 0)? s: -s;
+		served += s;
+		delay += delays[prev][h];
+		prev = h;
+	    }
+	}
+	return delay + delays[prev][n+1];
+    }
+
+    // the number of bicycles served at hub h by a worker carrying
+    // load bicycles
+    private int serve(int h, int load) {
+	int amount = amounts[h];
+	if (amount > 0) {
+	    return Math.min(amount, capacity - load);
+	} else if (amount < 0) {
+	    return Math.min(-amount, load);
+	} else {
+	    return 0;
+	}
+    }
+
+    private void construct(int n, int load) {
+	Arrays.fill(used, 0, n, false);
+	int prev = n;
+	for (int i = 0; i < n; i++) {
+	    int best = -1;
+	    double bestDelay = Double.POSITIVE_INFINITY;
+	    for (int j = 0; j < n; j++) {
+		if (used[j]) continue;
+		if (serve(j, load) > 0 && delays[prev][j] < bestDelay) {
+		    best = j;
+		    bestDelay = delays[prev][j];
+		}
+	    }
+	    if (best == -1) {
+		// nothing can be served now, so just append the rest
+		for (int j = 0; j < n; j++) {
+		    if (!used[j]) route[i++] = j;
+		}
+		break;
+	    }
+	    used[best] = true;
+	    route[i] = best;
+	    int s = serve(best, load);
+	    load += (amounts[best] > 0)? s: -s;
+	    prev = best;
+	}
+    }
+
+    // Set dst to the sequence h followed by src.
+    private void prepend(Seg dst, Seg src, int h) {
+	for (int x = 0; x <= capacity; x++) {
+	    int s = serve(h, x);
+	    if (s == 0) {
+		dst.exit[x] = src.exit[x];
+		dst.served[x] = src.served[x];
+		dst.first[x] = src.first[x];
+		dst.last[x] = src.last[x];
+		dst.inner[x] = src.inner[x];
+	    } else {
+		int y = (amounts[h] > 0)? x + s: x - s;
+		dst.exit[x] = src.exit[y];
+		dst.served[x] = s + src.served[y];
+		dst.first[x] = h;
+		if (src.first[y] >= 0) {
+		    dst.last[x] = src.last[y];
+		    dst.inner[x] = delays[h][src.first[y]] + src.inner[y];
+		} else {
+		    dst.last[x] = h;
+		    dst.inner[x] = 0.0;
+		}
+	    }
+	}
+    }
+
+    // Add h to the end of seg.
+    private void append(Seg seg, int h) {
+	for (int x = 0; x <= capacity; x++) {
+	    int y = seg.exit[x];
+	    int s = serve(h, y);
+	    if (s > 0) {
+		seg.exit[x] = (amounts[h] > 0)? y + s: y - s;
+		seg.served[x] += s;
+		if (seg.first[x] < 0) {
+		    seg.first[x] = h;
+		    seg.inner[x] = 0.0;
+		} else {
+		    seg.inner[x] += delays[seg.last[x]][h];
+		}
+		seg.last[x] = h;
+	    }
+	}
+    }
+
+    // Recompute the worker states before each position and the
+    // suffix summaries after the route changed.
+    private void tabulate(int n, int load) {
+	int prev = n;
+	int sv = 0;
+	double delay = 0.0;
+	for (int k = 0; k < n; k++) {
+	    preLoad[k] = load;
+	    prePrev[k] = prev;
+	    preServed[k] = sv;
+	    preDelay[k] = delay;
+	    int h = route[k];
+	    int s = serve(h, load);
+	    if (s > 0) {
+		load += (amounts[h] > 0)? s: -s;
+		sv += s;
+		delay += delays[prev][h];
+		prev = h;
+	    }
+	}
+	preLoad[n] = load;
+	prePrev[n] = prev;
+	preServed[n] = sv;
+	preDelay[n] = delay;
+	suffix[n].clear(capacity);
+	for (int k = n - 1; k >= 0; k--) {
+	    suffix[k].ensureCapacity(capacity);
+	    prepend(suffix[k], suffix[k+1], route[k]);
+	}
+    }
+
+    // The state of the worker while a candidate is evaluated.
+    private int cLoad;
+    private int cPrev;
+    private int cServed;
+    private double cDelay;
+
+    private void begin(int k) {
+	cLoad = preLoad[k];
+	cPrev = prePrev[k];
+	cServed = preServed[k];
+	cDelay = preDelay[k];
+    }
+
+    private void traverse(Seg seg) {
+	int x = cLoad;
+	if (seg.first[x] >= 0) {
+	    cDelay += delays[cPrev][seg.first[x]] + seg.inner[x];
+	    cPrev = seg.last[x];
+	    cServed += seg.served[x];
+	    cLoad = seg.exit[x];
+	}
+    }
+
+    private double end(int n) {
+	return cDelay + delays[cPrev][n+1];
+    }
+
+    private static void reverse(int[] order, int i, int j) {
+	while (i < j) {
+	    int tmp = order[i];
+	    order[i++] = order[j];
+	    order[j--] = tmp;
+	}
+    }
+
+    private static boolean better(int served1, double delay1,
+				  int served2, double delay2)
+    {
+	if (served1 != served2) return served1 > served2;
+	return delay1 < delay2 - 1.0e-9;
+    }
+
+    /**
+     * Plan a route.
+     * The hubs and amounts arrays must have the same length.
+     * @param start the hub at which the worker starts
+     * @param end the hub at which the worker ends (typically the
+     *        worker's storage hub)
+     * @param hubs the hubs that may be visited
+     * @param amounts the number of bicycles to pick up (positive
+     *        values) or drop off (negative values) at the corresponding
+     *        hub
+     * @param load the number of bicycles the worker has initially
+     * @param capacity the number of bicycles the worker can carry
+     * @return the hubs in the order in which they should be visited;
+     *         hubs at which nothing can be served are placed at the end
+     *         of the array
+     * @exception IllegalArgumentException the hubs and amounts arrays
+     *            have different lengths, or the load is not in the
+     *            range [0, capacity]
+     */
+    public Hub[] plan(Hub start, Hub end, Hub[] hubs, int[] amounts,
+		      int load, int capacity)
+	throws IllegalArgumentException
+    {
+	long startTime = System.nanoTime();
+	int n = hubs.length;
+	if (amounts.length != n) {
+	    throw new IllegalArgumentException
+		(errorMsg("lengthMismatch", n, amounts.length));
+	}
+	if (load < 0 || load > capacity) {
+	    throw new IllegalArgumentException
+		(errorMsg("loadRange", load, capacity));
+	}
+	if (delays.length < n + 2) {
+	    delays = new double[n+2][n+2];
+	    route = new int[n];
+	    candidate = new int[n];
+	    used = new boolean[n];
+	    preLoad = new int[n+1];
+	    prePrev = new int[n+1];
+	    preServed = new int[n+1];
+	    preDelay = new double[n+1];
+	    Seg[] tmp = new Seg[n+1];
+	    System.arraycopy(suffix, 0, tmp, 0, suffix.length);
+	    for (int i = suffix.length; i <= n; i++) {
+		tmp[i] = new Seg();
+	    }
+	    suffix = tmp;
+	}
+	for (int i = 0; i < n + 2; i++) {
+	    Hub hi = (i < n)? hubs[i]: ((i == n)? start: end);
+	    for (int j = 0; j < n + 2; j++) {
+		Hub hj = (j < n)? hubs[j]: ((j == n)? start: end);
+		delays[i][j] = (i == j)? 0.0: domain.estimateDelay(hi, hj, 1);
+	    }
+	}
+	this.amounts = amounts;
+	this.capacity = capacity;
+	lastDemand = 0;
+	for (int amount: amounts) {
+	    lastDemand += Math.abs(amount);
+	}
+	construct(n, load);
+	double bestDelay = evaluate(route, n, load);
+	int bestServed = served;
+	lastInitialDelay = bestDelay;
+	lastImprovements = 0;
+	lastEvaluations = 0;
+	lastBudgetExceeded = false;
+	boolean improved = (moveBudget > 0);
+	if (improved) {
+	    seg1.clear(capacity);
+	    seg2.clear(capacity);
+	    seg3.clear(capacity);
+	    tabulate(n, load);
+	}
+	while (improved) {
+	    improved = false;
+	    // 2-opt moves: reverse route[i..j].  rev summarizes the
+	    // reversed subsequence and is extended by prepending route[j].
+	    for (int i = 0; i < n - 1 && !lastBudgetExceeded; i++) {
+		Seg rev = seg1;
+		Seg tmp = seg2;
+		tmp.clear(capacity);
+		prepend(rev, tmp, route[i]);
+		for (int j = i + 1; j < n; j++) {
+		    if (lastEvaluations == moveBudget) {
+			lastBudgetExceeded = true;
+			break;
+		    }
+		    lastEvaluations++;
+		    prepend(tmp, rev, route[j]);
+		    Seg t = rev; rev = tmp; tmp = t;
+		    begin(i);
+		    traverse(rev);
+		    traverse(suffix[j+1]);
+		    double delay = end(n);
+		    if (better(cServed, delay, bestServed, bestDelay)) {
+			bestServed = cServed;
+			bestDelay = delay;
+			improved = true;
+			lastImprovements++;
+			reverse(route, i, j);
+			tabulate(n, load);
+			// route[i..j] is now in the reversed order, so rev
+			// is rebuilt for the reversal of the new subsequence
+			rev.clear(capacity);
+			for (int p = i; p <= j; p++) {
+			    prepend(tmp, rev, route[p]);
+			    Seg t2 = rev; rev = tmp; tmp = t2;
+			}
+		    }
+		}
+	    }
+	    if (lastBudgetExceeded) break;
+	    // or-opt moves: move route[i..i+len-1] so it starts at k
+	    for (int len = 1; len <= 3 && !lastBudgetExceeded; len++) {
+		for (int i = 0; i + len <= n && !lastBudgetExceeded; i++) {
+		    Seg moved = seg3;
+		    moved.clear(capacity);
+		    for (int q = 0; q < len; q++) {
+			append(moved, route[i+q]);
+		    }
+		    int k = orOpt(n, i, len, moved, bestServed, bestDelay);
+		    if (k >= 0) {
+			bestServed = cServed;
+			bestDelay = end(n);
+			int m = 0;
+			for (int p = 0; p < n; p++) {
+			    if (p >= i && p < i + len) continue;
+			    if (m == k) {
+				for (int q = 0; q < len; q++) {
+				    candidate[m++] = route[i+q];
+				}
+			    }
+			    candidate[m++] = route[p];
+			}
+			if (m == k) {
+			    for (int q = 0; q < len; q++) {
+				candidate[m++] = route[i+q];
+			    }
+			}
+			System.arraycopy(candidate, 0, route, 0, n);
+			tabulate(n, load);
+			improved = true;
+			lastImprovements++;
+		    }
+		}
+	    }
+	}
+	// Evaluate the final route directly so the reported delay does
+	// not depend on the order in which the tables summed delays.
+	lastDelay = evaluate(route, n, load);
+	lastServed = served;
+	// Put hubs that are skipped at the end so callers can tell
+	// how much of the route will actually be traveled.
+	Hub[] result = new Hub[n];
+	int m = 0;
+	int r = n;
+	int cload = load;
+	for (int i = 0; i < n; i++) {
+	    int h = route[i];
+	    int s = serve(h, cload);
+	    if (s > 0) {
+		cload += (amounts[h] > 0)? s: -s;
+		result[m++] = hubs[h];
+	    } else {
+		candidate[--r] = h;
+	    }
+	}
+	for (int i = n - 1; i >= r; i--) {
+	    result[m++] = hubs[candidate[i]];
+	}
+	this.amounts = null;
+	lastPlanningTime = System.nanoTime() - startTime;
+	totalPlanningTime += lastPlanningTime;
+	planCount++;
+	if (lastBudgetExceeded) budgetExceededCount++;
+	return result;
+    }
+
+    // Find the first position k at which moving route[i..i+len-1]
+    // (summarized by moved) improves the route, trying positions
+    // before i in decreasing order and then positions after i in
+    // increasing order.  The hubs between the old and new positions
+    // are summarized by a block extended by one hub per position.
+    // Returns -1 if there is no such position; otherwise the worker
+    // state for the candidate is left in cLoad, cPrev, cServed, and
+    // cDelay.
+    private int orOpt(int n, int i, int len, Seg moved,
+		      int bestServed, double bestDelay)
+    {
+	Seg block = seg1;
+	Seg tmp = seg2;
+	block.clear(capacity);
+	for (int k = i - 1; k >= 0; k--) {
+	    if (lastEvaluations == moveBudget) {
+		lastBudgetExceeded = true;
+		return -1;
+	    }
+	    lastEvaluations++;
+	    prepend(tmp, block, route[k]);
+	    Seg t = block; block = tmp; tmp = t;
+	    begin(k);
+	    traverse(moved);
+	    traverse(block);
+	    traverse(suffix[i+len]);
+	    if (better(cServed, end(n), bestServed, bestDelay)) {
+		return k;
+	    }
+	}
+	block.clear(capacity);
+	for (int k = i + 1; k + len <= n; k++) {
+	    if (lastEvaluations == moveBudget) {
+		lastBudgetExceeded = true;
+		return -1;
+	    }
+	    lastEvaluations++;
+	    append(block, route[k+len-1]);
+	    begin(i);
+	    traverse(block);
+	    traverse(moved);
+	    traverse(suffix[k+len]);
+	    if (better(cServed, end(n), bestServed, bestDelay)) {
+		return k;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Get the number of plans that have been created.
+     * @return the number of plans
+     */
+    public long getPlanCount() {
+	return planCount;
+    }
+
+    /**
+     * Get the number of plans whose improvement phase was stopped
+     * because the move budget was exhausted.
+     * @return the number of plans
+     */
+    public long getBudgetExceededCount() {
+	return budgetExceededCount;
+    }
+
+    /**
+     * Get the real time spent creating the last plan.
+     * This value is informational: it does not affect the plan.
+     * @return the time in seconds
+     */
+    public double getLastPlanningTime() {
+	return lastPlanningTime / 1.0e9;
+    }
+
+    /**
+     * Get the total real time spent creating plans.
+     * @return the time in seconds
+     */
+    public double getTotalPlanningTime() {
+	return totalPlanningTime / 1.0e9;
+    }
+
+    /**
+     * Get the estimated travel time for the last plan.
+     * @return the estimated travel time in seconds
+     */
+    public double getLastEstimatedDelay() {
+	return lastDelay;
+    }
+
+    /**
+     * Get the estimated travel time for the last plan before
+     * the route was improved.
+     * This is the travel time for the nearest-neighbor route.
+     * @return the estimated travel time in seconds
+     */
+    public double getLastInitialDelay() {
+	return lastInitialDelay;
+    }
+
+    /**
+     * Get the number of bicycles the last plan picks up or drops off.
+     * @return the number of bicycles
+     */
+    public int getLastServed() {
+	return lastServed;
+    }
+
+    /**
+     * Get the number of bicycles requested for the last plan.
+     * This is the sum of the absolute values of the amounts.
+     * @return the number of bicycles
+     */
+    public int getLastDemand() {
+	return lastDemand;
+    }
+
+    /**
+     * Get the number of improving moves made for the last plan.
+     * @return the number of moves
+     */
+    public int getLastImprovements() {
+	return lastImprovements;
+    }
+
+    /**
+     * Get the number of candidate moves evaluated for the last plan.
+     * @return the number of moves
+     */
+    public long getLastEvaluations() {
+	return lastEvaluations;
+    }
+
+    /**
+     * Determine if the move budget was exhausted for the last plan.
+     * @return true if the move budget was exhausted; false otherwise
+     */
+    public boolean lastBudgetExceeded() {
+	return lastBudgetExceeded;
+    }
+}
+
+//  LocalWords:  HubDomain estimateDelay HubSorter planRoute
+//  LocalWords:  HubWorker IllegalArgumentException
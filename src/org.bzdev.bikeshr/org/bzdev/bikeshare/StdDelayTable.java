@@ -129,7 +129,8 @@ public class StdDelayTable extends DelayTable {
 		     double stopProbability,
 		     double maxWait) {
 	this.speedRV = speedRV;
-	speedRV.tightenMinimum(BikeShare.minStdDelayTableSpeed, true);
+	speedRV.tightenMinimum(BikeShareContext.get(sim).minStdDelayTableSpeed(),
+			       true);
 	defaultEntry.dist = dist;
 	defaultEntry.stops = stops;
 	defaultEntry.stopProbability = stopProbability;
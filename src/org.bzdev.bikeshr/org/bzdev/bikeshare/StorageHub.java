@@ -4,16 +4,16 @@ import org.bzdev.drama.*;
 import org.bzdev.lang.Callable;
 import org.bzdev.math.rv.DoubleRandomVariable;
 
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.LinkedList;
-import java.util.Set;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.HashMap;
-import java.util.Collection;
+import java.util.Set;
 import java.io.PrintWriter;
 
 /**
@@ -226,16 +226,111 @@ public class StorageHub extends Hub {
 	}
     }
 
-    private Map<HubWorker.Mode,LinkedList<Hub>>
-	hublistMap = new HashMap<>();
-       
+    /*
+     * The hubs for a worker mode in insertion order.  Hubs are stored
+     * in an array, with the slot of each hub recorded in an array
+     * indexed by Hub.getIndex(), so adding, removing, or testing for
+     * a hub takes constant time.  A removed hub leaves an empty slot
+     * and the array is compacted when more than half of its slots are
+     * empty.  A snapshot containing just the hubs is created when
+     * needed and is shared until the table changes.
+     */
+    private static class HubTable {
+	Hub[] slots = new Hub[8];
+	int end = 0;		// one past the last slot used
+	int size = 0;
+	int[] slotOf = new int[0]; // slot + 1 indexed by hub; 0 if absent
+	Hub[] snapshot = null;
+
+	boolean contains(Hub hub) {
+	    int index = hub.getIndex();
+	    return index < slotOf.length && slotOf[index] != 0;
+	}
+
+	boolean add(Hub hub) {
+	    int index = hub.getIndex();
+	    if (index >= slotOf.length) {
+		slotOf = Arrays.copyOf(slotOf,
+				       Math.max(index + 1, 2*slotOf.length));
+	    }
+	    if (slotOf[index] != 0) return false;
+	    if (end == slots.length) {
+		slots = Arrays.copyOf(slots, 2*end);
+	    }
+	    slots[end++] = hub;
+	    slotOf[index] = end;
+	    size++;
+	    snapshot = null;
+	    return true;
+	}
+
+	boolean remove(Hub hub) {
+	    if (!contains(hub)) return false;
+	    int index = hub.getIndex();
+	    slots[slotOf[index] - 1] = null;
+	    slotOf[index] = 0;
+	    size--;
+	    snapshot = null;
+	    if (2*size < end) {
+		int n = 0;
+		for (int i = 0; i < end; i++) {
+		    Hub h = slots[i];
+		    if (h != null) {
+			slots[n++] = h;
+			slotOf[h.getIndex()] = n;
+		    }
+		}
+		Arrays.fill(slots, n, end, null);
+		end = n;
+	    }
+	    return true;
+	}
+
+	Hub[] getSnapshot() {
+	    if (snapshot == null) {
+		if (size == end) {
+		    snapshot = Arrays.copyOf(slots, size);
+		} else {
+		    snapshot = new Hub[size];
+		    int n = 0;
+		    for (int i = 0; i < end; i++) {
+			if (slots[i] != null) snapshot[n++] = slots[i];
+		    }
+		}
+	    }
+	    return snapshot;
+	}
+    }
+
+    private static final Hub[] NO_HUBS = new Hub[0];
+
+    private EnumMap<HubWorker.Mode,HubTable>
+	hubTables = new EnumMap<>(HubWorker.Mode.class);
+
+    // Incremented whenever the hub table changes so that classes
+    // that index the hub table can tell when to rebuild their indices.
+    int hubTableVersion = 0;
+
+    /**
+     * Get the version number for the hub table.
+     * The version number changes whenever a hub is added to or
+     * removed from the hub table for any mode, so callers that cache
+     * data computed from the hub table can tell if that data is
+     * out of date.
+     * @return the version number
+     * @see #getHubSnapshot(HubWorker.Mode)
+     */
+    public int getHubTableVersion() {
+	return hubTableVersion;
+    }
+
     /**
      * Add a hub to the hub table for all modes.
      * If the hub is a storage hub, the hub will not be added
      * @param hub the hub to add
      */
     public void addHub(Hub hub) {
-	for (HubWorker.Mode mode: HubWorker.Mode.class.getEnumConstants()) {
+	for (HubWorker.Mode mode: HubWorker.Mode.values()) {
 	    addHub(mode, hub);
 	}
     }
@@ -245,7 +340,7 @@ public class StorageHub extends Hub {
      * @param hub the hub to remove
      */
     public void removeHub(Hub hub) {
-	for (HubWorker.Mode mode: HubWorker.Mode.class.getEnumConstants()) {
+	for (HubWorker.Mode mode: HubWorker.Mode.values()) {
 	    removeHub(mode, hub);
 	}
     }
@@ -265,13 +360,23 @@ public class StorageHub extends Hub {
      */
     public boolean addHub(HubWorker.Mode mode, Hub hub) {
 	if (hub instanceof StorageHub) return false;
-	if (mode == null) addHub(hub);
-	LinkedList<Hub> hubs = hublistMap.get(mode);
-	if (hubs == null) {
-	    hubs = new LinkedList<Hub>();
-	    hublistMap.put(mode, hubs);
+	if (mode == null) {
+	    boolean result = false;
+	    for (HubWorker.Mode m: HubWorker.Mode.values()) {
+		result |= addHub(m, hub);
+	    }
+	    return result;
+	}
+	HubTable table = hubTables.get(mode);
+	if (table == null) {
+	    table = new HubTable();
+	    hubTables.put(mode, table);
 	}
-	return hubs.add(hub);
+	if (table.add(hub)) {
+	    hubTableVersion++;
+	    return true;
+	}
+	return false;
     }
     
     /**
@@ -287,48 +392,36 @@ public class StorageHub extends Hub {
      */
     public boolean removeHub(HubWorker.Mode mode, Hub hub) {
 	if (hub instanceof StorageHub) return false;
-	LinkedList<Hub> hubs = hublistMap.get(mode);
-	if (hubs == null) {
+	HubTable table = hubTables.get(mode);
+	if (table == null || !table.remove(hub)) {
 	    return false;
 	}
-	boolean result = hubs.removeLastOccurrence(hub);
-	if (hubs.isEmpty()) {
-	    hublistMap.remove(mode);
+	if (table.size == 0) {
+	    hubTables.remove(mode);
 	}
-	return result;
+	hubTableVersion++;
+	return true;
     }
 
-    static private LinkedList<Hub> emptyList = new LinkedList<Hub>() {
-	public boolean add(Hub e) {return false;}
-	public void add(int index, Hub e) {return;}
-	public boolean addAll(Collection<? extends Hub> collection)
-	{
-	    return false;
-	}
-	public boolean addAll(int index, Collection<? extends Hub> collection)
-	{
-	    return false;
-	}
-	public void addFirst(Hub e) {return;}
-	public void addLast(Hub e) {return;}
-	public boolean offer(Hub e) {return false;}
-	public boolean offerFirst(Hub e) {return false;}
-	public boolean offerLast(Hub e) {return false;}
-	public void push(Hub e) {return;}
-    };
-
     /**
      * Get a set of the hubs for a specified worker mode.
      * These are the hubs that a worker will "visit" for the specified
-     * mode. 
+     * mode. The list is a read-only view of the hub table, so it
+     * reflects subsequent changes to the table.
      * @param mode the worker mode
      * @return a list of the corresponding hubs, ordered by the
      *         sequence in which they were inserted into the hub table
      */
-    public List<Hub> getHubs(HubWorker.Mode mode) {
-	LinkedList<Hub> hubs = hublistMap.get(mode);
-	if (hubs == null) hubs = emptyList;
-	return Collections.unmodifiableList(hubs);
+    public List<Hub> getHubs(final HubWorker.Mode mode) {
+	return new AbstractList<Hub>() {
+	    public Hub get(int i) {
+		return getHubSnapshot(mode)[i];
+	    }
+	    public int size() {
+		HubTable table = hubTables.get(mode);
+		return (table == null)? 0: table.size;
+	    }
+	};
     }
 
     /**
@@ -340,14 +433,71 @@ public class StorageHub extends Hub {
      *         sequence in which they were inserted into the hub table
      */
     public Hub[] getHubsAsArray(HubWorker.Mode mode) {
-	LinkedList<Hub> hubs = hublistMap.get(mode);
-	if (hubs == null) return new Hub[0];
-	Hub[] array = new Hub[hubs.size()];
-	return hubs.toArray(array);
+	return getHubSnapshot(mode).clone();
+    }
+
+    /**
+     * Get a shared array of the hubs for a specified worker mode.
+     * This method is like {@link #getHubsAsArray(HubWorker.Mode)},
+     * but returns the same array until the hub table changes, so no
+     * copy is made. The array must not be modified.
+     * @param mode the worker mode
+     * @return an array of the corresponding hubs, ordered by the
+     *         sequence in which they were inserted into the hub table
+     * @see #getHubTableVersion()
+     */
+    public Hub[] getHubSnapshot(HubWorker.Mode mode) {
+	HubTable table = hubTables.get(mode);
+	return (table == null)? NO_HUBS: table.getSnapshot();
     }
 
     Set<HubWorker> workers = new LinkedHashSet<>();
-    LinkedList<HubWorker> workerQueue = new LinkedList<>();
+    // A worker queue ordered by insertion that allows a worker to be
+    // removed in constant time.
+    LinkedHashSet<HubWorker> workerQueue = new LinkedHashSet<>();
+
+    // Worker statistics are attributed to the storage hub to which a
+    // worker was assigned when the work was done: for each assigned
+    // worker, the worker's statistics when it was assigned, and for
+    // workers no longer assigned, the totals accumulated while they
+    // were assigned.
+    private Map<HubWorker,WorkerStatistics> joinStatistics = new HashMap<>();
+    private WorkerStatistics formerWorkerStatistics =
+	WorkerStatistics.sum(new ArrayList<WorkerStatistics>(), 0, 0.0);
+
+    private void attach(HubWorker worker) {
+	if (workers.add(worker)) {
+	    joinStatistics.put(worker, worker.getStatistics());
+	}
+    }
+
+    private void detach(HubWorker worker) {
+	if (workers.remove(worker)) {
+	    WorkerStatistics stats = worker.getStatistics()
+		.since(joinStatistics.remove(worker), 0);
+	    formerWorkerStatistics =
+		formerWorkerStatistics.plus(stats);
+	}
+    }
+
+    private WorkerPool getWorkerPool() {
+	SysDomain domain = getSysDomain();
+	return (domain == null)? null: domain.workerPool;
+    }
+
+    private void enqueue(HubWorker worker) {
+	workerQueue.add(worker);
+	WorkerPool pool = getWorkerPool();
+	if (pool != null) pool.setIdle(this, true);
+    }
+
+    private void dequeue(HubWorker worker) {
+	workerQueue.remove(worker);
+	if (workerQueue.isEmpty()) {
+	    WorkerPool pool = getWorkerPool();
+	    if (pool != null) pool.setIdle(this, false);
+	}
+    }
 
     boolean moving = false;
 
@@ -382,9 +532,9 @@ public class StorageHub extends Hub {
 	if (old != null) old.removeWorker(worker);
 	Hub hub = worker.getCurrentHub();
 	if (hub == null || hub == this  || !(hub instanceof StorageHub)) {
-	    workers.add(worker);
+	    attach(worker);
 	    if (!worker.isRunning()) {
-		workerQueue.add(worker);
+		enqueue(worker);
 	    }
 	    worker.setStorageHub(this);
 	} else {
@@ -395,8 +545,8 @@ public class StorageHub extends Hub {
 	    worker.setMoveCompletionTime(sim.currentTime() + moveInterval);
 	    sim.scheduleCall(new Callable() {
 		    public void call() {
-			workers.add(worker);
-			workerQueue.add(worker);
+			attach(worker);
+			enqueue(worker);
 			worker.setStorageHub(StorageHub.this);
 			worker.setMoving(false);
 		    }
@@ -407,12 +557,18 @@ public class StorageHub extends Hub {
     /**
      * Remove a worker from this storage hub.
      * This method also removes the worker from this storage hub's worker
-     * queue.
+     * queue.  If the worker is traveling to a hub, the bicycles it
+     * claimed at that hub are released so that other workers and hub
+     * sorters no longer exclude them.  A running worker that is
+     * removed finishes its current pass over its hubs and then stops
+     * at the last hub it visited instead of returning to a storage
+     * hub.
      * @param worker the worker to remove
      */
     public void removeWorker(HubWorker worker) {
-	workers.remove(worker);
-	while(workerQueue.remove(worker));
+	detach(worker);
+	dequeue(worker);
+	worker.releaseClaim();
 	worker.setStorageHub(null);
     }
 
@@ -420,14 +576,34 @@ public class StorageHub extends Hub {
      * Determine if the worker queue is not usable.
      * A worker queue is not use-able if all its entries are in
      * permanent use. I.e., they were started with a worker mode
-     * that causes the worker to loop indefinitely.
+     * that causes the worker to loop indefinitely.  When the system
+     * domain uses a shared worker pool, the queue is not use-able
+     * only if the same is true for every storage hub in the pool.
      * @return true if the queue is not use-able; false otherwise
      */
     public boolean workerQueueNotUseable() {
+	WorkerPool pool = getWorkerPool();
+	return (pool == null)? localWorkerQueueNotUseable(): pool.notUseable();
+    }
+
+    boolean localWorkerQueueNotUseable() {
 	return (workers.size() - totalPreallocatedWorkers <= 0);
     }
 
-    LinkedList<Callable> onQueueCallableList = new LinkedList<>();
+    // A callable waiting for a worker, with the time at which it
+    // was added so the wait can be recorded.
+    private static final class QueuedCallable {
+	Callable callable;
+	long ticks;
+	QueuedCallable(Callable callable, long ticks) {
+	    this.callable = callable;
+	    this.ticks = ticks;
+	}
+    }
+
+    LinkedList<QueuedCallable> onQueueCallableList = new LinkedList<>();
+    private long queuedActions = 0;
+    private long queueWaitTicks = 0;
 
     /**
      * Add a callable to a list whose first element will be
@@ -440,22 +616,43 @@ public class StorageHub extends Hub {
      * @param c the Callable to add.
      */
     public void addOnQueueCallable(Callable c) {
-	trace(BikeShare.level2, "action queued until worker available"); 
-	onQueueCallableList.add(c);
+	trace(context.level2(), "action queued until worker available"); 
+	onQueueCallableList.add(new QueuedCallable(c, sim.currentTicks()));
     }
 
     /**
      * Take a worker off of the worker queue.
+     * When the system domain uses a shared worker pool, the worker
+     * is taken from the queue of the storage hub nearest to this
+     * storage hub (based on the system domain's delay estimates)
+     * that has an idle worker, starting with this storage hub.  A
+     * worker taken from another storage hub is only lent to this
+     * storage hub: it remains assigned to its own storage hub, starts
+     * from there, and returns there when its task is complete.
      * @return a worker; null if no worker is available
+     * @see SysDomain#setSharedWorkerPool(boolean)
      */
     public HubWorker pollWorkers() {
-	HubWorker worker = workerQueue.poll();
+	StorageHub shub = this;
+	WorkerPool pool = getWorkerPool();
+	if (pool != null) {
+	    shub = pool.nearest(this);
+	    if (shub == null) shub = this;
+	}
+	HubWorker worker = shub.workerQueue.isEmpty()? null:
+	    shub.workerQueue.iterator().next();
 	if (worker != null) {
-	    trace(BikeShare.level2, "worker %s unqueue",
-		  worker.getName());
-	    worker.fireDequeued(this);
+	    shub.dequeue(worker);
+	    if (shub == this) {
+		trace(context.level2(), "worker %s unqueue",
+		      worker.getName());
+	    } else {
+		trace(context.level2(), "worker %s unqueue from %s",
+		      worker.getName(), shub.getName());
+	    }
+	    worker.fireDequeued(shub);
 	} else {
-	    trace(BikeShare.level2, "no workers available");
+	    trace(context.level2(), "no workers available");
 	}
 	return worker;
     }
@@ -466,15 +663,44 @@ public class StorageHub extends Hub {
      */
     public void queueWorker(HubWorker worker) {
 	if (workers.contains(worker)) {
-	    workerQueue.add(worker);
-	    trace(BikeShare.level2, "worker %s queued", worker.getName());
+	    enqueue(worker);
+	    trace(context.level2(), "worker %s queued", worker.getName());
 	    worker.fireQueued(this);
 	    if (!onQueueCallableList.isEmpty()) {
-		onQueueCallableList.poll().call();
+		QueuedCallable qc = onQueueCallableList.poll();
+		queuedActions++;
+		queueWaitTicks += sim.currentTicks() - qc.ticks;
+		qc.callable.call();
 	    }
 	}
     }
 
+    /**
+     * Get a snapshot of the statistics for the workers assigned to
+     * this storage hub.
+     * Each worker's activity is attributed to the storage hub to
+     * which the worker was assigned at the time.  The values are the
+     * sums of the changes in the values provided by
+     * {@link HubWorker#getStatistics()} while each worker was assigned
+     * to this storage hub, including workers that have since been
+     * removed or reassigned to another storage hub, together with the
+     * queue-wait statistics for callables added by
+     * {@link #addOnQueueCallable(Callable)}.  The number of workers is
+     * the number currently assigned to this storage hub.
+     * @return the worker statistics
+     */
+    public WorkerStatistics getWorkerStatistics() {
+	ArrayList<WorkerStatistics> list =
+	    new ArrayList<>(workers.size() + 1);
+	list.add(formerWorkerStatistics);
+	for (HubWorker worker: workers) {
+	    list.add(worker.getStatistics()
+		     .since(joinStatistics.get(worker), 1));
+	}
+	return WorkerStatistics.sum(list, queuedActions,
+				    sim.getTime(queueWaitTicks));
+    }
+
     /**
      * {@inheritDoc}
      * Defined for class StorageHub:
@@ -529,11 +755,9 @@ public class StorageHub extends Hub {
 	    out.println(prefix + "    " + worker.getName());
 	}
 	out.println(prefix + "hub table:");
-	for (Map.Entry<HubWorker.Mode,LinkedList<Hub>> entry: 
-		 hublistMap.entrySet()) {
-	    HubWorker.Mode mode = entry.getKey();
-	    LinkedList<Hub> hublist = entry.getValue();
-	    if (hublist.size() > 0) {
+	for (HubWorker.Mode mode: hubTables.keySet()) {
+	    Hub[] hublist = getHubSnapshot(mode);
+	    if (hublist.length > 0) {
 		out.println(prefix + "    mode: " + mode + "; hubs:");
 		for (Hub hub: hublist) {
 		    out.println(prefix + "        " + hub.getName());
@@ -548,6 +772,10 @@ public class StorageHub extends Hub {
      * <UL>
      *   <LI> the worker-queue and its length, with workers in the queue
      *        listed by name.
+     *   <LI> the number of callables waiting for a worker, and the
+     *        number that have waited and their mean wait.
+     *   <LI> the statistics summed over the workers assigned to this
+     *        storage hub.
      * </UL>
      * @param iPrefix {@inheritDoc}
      * @param prefix {@inheritDoc}
@@ -563,6 +791,13 @@ public class StorageHub extends Hub {
 	for (HubWorker worker: workerQueue) {
 	    out.println(prefix + "    " + worker.getName());
 	}
+	WorkerStatistics stats = getWorkerStatistics();
+	out.println(prefix + "actions waiting for a worker: "
+		    + onQueueCallableList.size());
+	out.println(prefix + "actions that waited: "
+		    + stats.getQueuedActionCount() + ", mean wait: "
+		    + stats.getMeanQueueWaitTime() + " seconds");
+	HubWorker.printStatistics(prefix, stats, out);
     }
 }
 
@@ -3,6 +3,7 @@ import org.bzdev.drama.*;
 import org.bzdev.drama.common.*;
 
 import java.util.Set;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Collections;
 import java.io.PrintWriter;
@@ -51,7 +52,8 @@ public class SysDomain extends HubDomain {
      */
     public SysDomain(DramaSimulation sim, String name, boolean intern,
 		     Domain parent) {
-	super(sim, name, intern, parent, BikeShare.sysDomainPriority);
+	super(sim, name, intern, parent, 
+	      BikeShareContext.get(sim).sysDomainPriority());
 	condition = new HubCondition(sim, name+"_condition", false);
 	addCondition(condition);
 	hubListener = new HubListener() {
@@ -65,6 +67,65 @@ public class SysDomain extends HubDomain {
 	    };
     }
 
+    /**
+     * Get the hub condition for this domain.
+     * The condition tracks the status of the hubs that are members
+     * of this domain and notifies hub balancers of changes.
+     * @return the hub condition
+     */
+    public HubCondition getHubCondition() {
+	return condition;
+    }
+
+    /**
+     * Set whether changes in hub status are reported to hub balancers
+     * in batches.
+     * When true, all the changes during a simulation event are
+     * reported by a single notification.
+     * @param value true if notifications should be coalesced; false
+     *        otherwise
+     * @see HubCondition#setCoalescing(boolean)
+     */
+    public void setCoalescingNotifications(boolean value) {
+	condition.setCoalescing(value);
+    }
+
+    WorkerPool workerPool = null;
+
+    /**
+     * Set whether the storage hubs in this domain share their idle
+     * workers.
+     * When workers are shared, {@link StorageHub#pollWorkers()} returns
+     * an idle worker from the storage hub nearest to the one
+     * requesting the worker, using this domain's delay estimates,
+     * rather than only from the requesting storage hub.  A worker
+     * taken from another storage hub performs the requesting storage
+     * hub's task but remains assigned to its own storage hub, to
+     * which it returns when the task is complete.
+     * Callables added by
+     * {@link StorageHub#addOnQueueCallable(org.bzdev.lang.Callable)}
+     * are still run only when a worker is queued at the storage hub
+     * to which the callable was added.
+     * @param value true if idle workers are shared; false otherwise
+     */
+    public void setSharedWorkerPool(boolean value) {
+	if (value) {
+	    if (workerPool == null) workerPool = new WorkerPool(this);
+	} else {
+	    workerPool = null;
+	}
+    }
+
+    /**
+     * Determine whether the storage hubs in this domain share their
+     * idle workers.
+     * @return true if idle workers are shared; false otherwise
+     * @see #setSharedWorkerPool(boolean)
+     */
+    public boolean getSharedWorkerPool() {
+	return workerPool != null;
+    }
+
     Set<StorageHub> storageHubs = new HashSet<>();
     Set<Hub> userHubs = new HashSet<>();
 
@@ -91,11 +152,33 @@ public class SysDomain extends HubDomain {
 	return userHubsView;
     }
 
+    /**
+     * Get a snapshot of the statistics for the workers assigned to
+     * the storage hubs in this domain.
+     * The values are the sums of those provided by
+     * {@link StorageHub#getWorkerStatistics()} for each storage hub
+     * in this domain, so the activity of a worker that moved from one
+     * storage hub to another is counted once.
+     * @return the worker statistics
+     */
+    public WorkerStatistics getWorkerStatistics() {
+	ArrayList<WorkerStatistics> list =
+	    new ArrayList<>(storageHubs.size());
+	for (StorageHub hub: storageHubs) {
+	    list.add(hub.getWorkerStatistics());
+	}
+	return WorkerStatistics.sum(list, 0, 0.0);
+    }
+
     @Override
     protected void onJoinedDomain(Actor actor, boolean trackCondition) {
 	if (actor instanceof StorageHub) {
 	    StorageHub hub = (StorageHub) actor;
 	    storageHubs.add(hub);
+	    if (workerPool != null) {
+		workerPool.invalidate();
+		workerPool.setIdle(hub, !hub.workerQueue.isEmpty());
+	    }
 	} else if (actor instanceof Hub) {
 	    Hub hub = (Hub) actor;
 	    userHubs.add(hub);
@@ -108,6 +191,10 @@ public class SysDomain extends HubDomain {
 	if (actor instanceof StorageHub) {
 	    StorageHub hub = (StorageHub)actor;
 	    storageHubs.remove(hub);
+	    if (workerPool != null) {
+		workerPool.invalidate();
+		workerPool.setIdle(hub, false);
+	    }
 	} else if (actor instanceof Hub) {
 	    Hub hub = (Hub) actor;
 	    userHubs.remove(hub);
@@ -120,6 +207,7 @@ public class SysDomain extends HubDomain {
      * Defined for class SysDomain:
      * <UL>
      *   <LI> a list of the storage hubs for this domain.
+     *   <LI> whether the storage hubs share their idle workers.
      * </UL>
      * @param iPrefix {@inheritDoc}
      * @param prefix {@inheritDoc}
@@ -135,6 +223,7 @@ public class SysDomain extends HubDomain {
 	for (StorageHub hub: storageHubs) {
 	    out.println(prefix + "    " + hub.getName());
 	}
+	out.println(prefix + "shared worker pool: " + (workerPool != null));
     }
 }
 //  LocalWords:  sysDomain sim unmodifiableSet storageHubs userHubs
@@ -0,0 +1,585 @@
+package org.bzdev.bikeshare;
+import org.bzdev.devqsim.SimulationEvent;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+import org.bzdev.math.StaticRandom;
+import org.bzdev.math.rv.DoubleRandomVariable;
+import org.bzdev.math.rv.ExpDistrRV;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Trip generator for Poisson traffic whose rate varies with the time
+ * of day.
+ * The rate is given by a profile: a sequence of times of day, each
+ * with a rate, that divides a period (by default one day) into time
+ * slots.  The rate is either constant within each slot or varies
+ * linearly from the rate at the start of a slot to the rate at the
+ * start of the next slot, with the last slot followed by the first
+ * slot of the next period.  Trips are generated by Lewis-Shedler
+ * thinning: candidate starting times are generated using an envelope
+ * whose rate in each slot is the maximum rate for that slot, and a
+ * candidate is accepted with a probability equal to the ratio of the
+ * rate to the envelope's rate.
+ * <P>
+ * As with {@link BasicTripGenerator}, each trip starts at a single
+ * hub with a fixed number of bicycles, and the destination is chosen
+ * randomly.  Each time slot may have its own destination weights;
+ * slots without their own weights use the weights provided when the
+ * trip generator was initialized.  Trip data listeners receive the
+ * same events that a {@link BasicTripGenerator} would generate.
+ */
+public class TimeVaryingTripGenerator extends TripGenerator {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    DramaSimulation sim;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     * @param name the name of this object
+     * @param intern true if this object should be interned in the
+     *        simulation's name table; false otherwise
+     */
+    public TimeVaryingTripGenerator(DramaSimulation sim,
+				    String name,
+				    boolean intern)
+    {
+	super(sim, name, intern);
+	this.sim = sim;
+    }
+
+    Hub hub;
+    int nbikes;
+    Hub[] destHubs = new Hub[0];
+    double[] weights = new double[0];
+    double[] overflowProb = new double[0];
+    DestSampler sampler = null;
+
+    double period = 86400.0;
+    double offset = 0.0;
+    boolean linear = false;
+    double[] times = new double[0];
+    double[] rates = new double[0];
+    // per-slot destination weights and samplers; null entries use
+    // the default weights and sampler.
+    double[][] slotWeights = new double[0][];
+    DestSampler[] slotSamplers = new DestSampler[0];
+
+    // the envelope's rate for each slot and the expected number of
+    // candidate trips over one period.
+    double[] envelope = new double[0];
+    double cycleMass = 0.0;
+
+    // exponentially distributed with a mean of 1.0
+    private DoubleRandomVariable unitRV = new ExpDistrRV(1.0);
+    // slot for the next trip
+    private int nextSlot = 0;
+
+    private static double[] normalize(double[] weights) {
+	double sum = DestSampler.checkWeights(weights);
+	double[] results = new double[weights.length];
+	for (int i = 0; i < weights.length; i++) {
+	    results[i] = weights[i] / sum;
+	}
+	return results;
+    }
+
+    /**
+     * Initialization.
+     * A rate profile must also be provided by calling
+     * {@link #setProfile(double,double[],double[],boolean)} or
+     * {@link #readProfile(Reader,double,boolean)}.  Until a profile
+     * is provided, no trips will be generated.
+     * Per-slot destination weights previously set are removed.
+     * @param hub the hub from which trips originate
+     * @param nbikes the number of bicycles per trip
+     * @param destHubs the destination hubs
+     * @param weights the probabilities that the destination is a
+     *        particular hub
+     * @param overflowProb the probability for a destination hub
+     *        that the overflow area is used regardless of whether
+     *        or not there is excess capacity in the preferred location
+     * @exception IllegalArgumentException the array lengths differ,
+     *            there were no weights, a weight was negative, or the
+     *            weights did not have a finite, positive sum
+     */
+    public void init(Hub hub, int nbikes,
+		     Hub[] destHubs,
+		     double[] weights,
+		     double[] overflowProb)
+	throws IllegalArgumentException
+    {
+	if (weights.length != destHubs.length) {
+	    throw new IllegalArgumentException
+		(errorMsg("lengthMismatch", destHubs.length, weights.length));
+	}
+	if (overflowProb.length != destHubs.length) {
+	    throw new IllegalArgumentException
+		(errorMsg("lengthMismatch", destHubs.length,
+			  overflowProb.length));
+	}
+	this.hub = hub;
+	this.nbikes = nbikes;
+	this.destHubs = destHubs.clone();
+	this.weights = normalize(weights);
+	this.overflowProb = overflowProb.clone();
+	sampler = new DestSampler(this.weights);
+	// slot weights refer to the previous destinations.
+	slotWeights = new double[times.length][];
+	slotSamplers = new DestSampler[times.length];
+	ratesChanged();
+	trace(context.level1(), "trip generator configured");
+    }
+
+    /**
+     * Set the rate profile.
+     * The times must be in increasing order, with the first time at
+     * least 0.0 and the last time less than the period.  The time
+     * slot with index i starts at times[i] and ends at times[i+1],
+     * or, for the last slot, at the first time plus the period.
+     * Per-slot destination weights previously set are removed.
+     * <P>
+     * If the trip generator is running, it is stopped and restarted,
+     * which is valid because Poisson traffic is memoryless.
+     * @param period the period in seconds (86400.0 for a day)
+     * @param times the starting times in seconds, relative to the
+     *        start of a period, for the time slots
+     * @param rates the rates in trips per second at the starting
+     *        time of each time slot
+     * @param linear true if the rate varies linearly during a time
+     *        slot; false if it is constant during a time slot
+     * @exception IllegalArgumentException the period is not positive,
+     *            the array lengths differ, the times are out of order
+     *            or out of range, or a rate is negative
+     */
+    public void setProfile(double period, double[] times, double[] rates,
+			   boolean linear)
+	throws IllegalArgumentException
+    {
+	configureProfile(period, times, rates, linear);
+	ratesChanged();
+    }
+
+    // Set the profile without notifying the trip rate listeners.
+    private void configureProfile(double period, double[] times,
+				  double[] rates, boolean linear)
+	throws IllegalArgumentException
+    {
+	if (!(period > 0.0)) {
+	    throw new IllegalArgumentException
+		(errorMsg("notPositive", period));
+	}
+	int m = times.length;
+	if (rates.length != m) {
+	    throw new IllegalArgumentException
+		(errorMsg("lengthMismatch", m, rates.length));
+	}
+	for (int i = 0; i < m; i++) {
+	    if (times[i] < 0.0 || times[i] >= period) {
+		throw new IllegalArgumentException
+		    (errorMsg("profileRange", times[i], period));
+	    }
+	    if (i > 0 && times[i] <= times[i-1]) {
+		throw new IllegalArgumentException
+		    (errorMsg("notIncreasing", i));
+	    }
+	    if (rates[i] < 0.0) {
+		throw new IllegalArgumentException
+		    (errorMsg("valueNegative", rates[i]));
+	    }
+	}
+	boolean wasRunning = isStarted();
+	if (wasRunning) stop();
+	this.period = period;
+	this.times = times.clone();
+	this.rates = rates.clone();
+	this.linear = linear;
+	slotWeights = new double[m][];
+	slotSamplers = new DestSampler[m];
+	envelope = new double[m];
+	cycleMass = 0.0;
+	for (int k = 0; k < m; k++) {
+	    double max = rates[k];
+	    if (linear && rates[(k+1) % m] > max) max = rates[(k+1) % m];
+	    envelope[k] = max;
+	    cycleMass += max * (slotEnd(k) - times[k]);
+	}
+	if (wasRunning) restart();
+	trace(context.level1(), "rate profile set, %d time slots", m);
+    }
+
+    /**
+     * Set the destination weights for a time slot.
+     * The destinations are the ones provided when the trip generator
+     * was initialized.
+     * @param slot the index of the time slot
+     * @param weights the probabilities that the destination is a
+     *        particular hub; null to use the weights provided when the
+     *        trip generator was initialized
+     * @exception IllegalArgumentException a weight was negative, the
+     *            weights did not have a finite, positive sum, or the
+     *            number of weights is not the number of destinations
+     * @exception IndexOutOfBoundsException the slot does not exist
+     * @see #init(Hub,int,Hub[],double[],double[])
+     */
+    public void setSlotWeights(int slot, double[] weights)
+	throws IllegalArgumentException, IndexOutOfBoundsException
+    {
+	configureSlotWeights(slot, weights);
+	ratesChanged();
+    }
+
+    // Set a slot's weights without notifying the trip rate listeners.
+    private void configureSlotWeights(int slot, double[] weights)
+	throws IllegalArgumentException, IndexOutOfBoundsException
+    {
+	if (slot < 0 || slot >= times.length) {
+	    throw new IndexOutOfBoundsException
+		(errorMsg("slotIndex", slot, times.length));
+	}
+	if (weights == null) {
+	    slotWeights[slot] = null;
+	    slotSamplers[slot] = null;
+	} else {
+	    if (weights.length != destHubs.length) {
+		throw new IllegalArgumentException
+		    (errorMsg("lengthMismatch", destHubs.length,
+			      weights.length));
+	    }
+	    slotWeights[slot] = normalize(weights);
+	    slotSamplers[slot] = new DestSampler(slotWeights[slot]);
+	}
+    }
+
+    /**
+     * Read the rate profile from CSV (comma-separated values) data.
+     * Each line contains a time in seconds relative to the start of a
+     * period and the rate in trips per second at that time.  The rate
+     * may be followed by the destination weights for the time slot
+     * starting at that time, one per destination hub in the order
+     * provided when the trip generator was initialized. Blank lines
+     * and lines starting with '#' are ignored.
+     * @param in the reader providing the CSV data
+     * @param period the period in seconds (86400.0 for a day)
+     * @param linear true if the rate varies linearly during a time
+     *        slot; false if it is constant during a time slot
+     * @exception IOException an IO error occurred
+     * @exception IllegalArgumentException the data could not be
+     *            parsed or contained illegal values
+     * @see #setProfile(double,double[],double[],boolean)
+     * @see #setSlotWeights(int,double[])
+     */
+    public void readProfile(Reader in, double period, boolean linear)
+	throws IOException, IllegalArgumentException
+    {
+	BufferedReader r = (in instanceof BufferedReader)? (BufferedReader)in:
+	    new BufferedReader(in);
+	ArrayList<double[]> rows = new ArrayList<>();
+	String line;
+	int lineno = 0;
+	while ((line = r.readLine()) != null) {
+	    lineno++;
+	    line = line.trim();
+	    if (line.length() == 0 || line.startsWith("#")) continue;
+	    String[] fields = line.split(",");
+	    if (fields.length != 2 && fields.length != 2 + destHubs.length) {
+		throw new IllegalArgumentException
+		    (errorMsg("csvFields", lineno, fields.length));
+	    }
+	    double[] row = new double[fields.length];
+	    try {
+		for (int i = 0; i < fields.length; i++) {
+		    row[i] = Double.parseDouble(fields[i].trim());
+		}
+	    } catch (NumberFormatException e) {
+		throw new IllegalArgumentException
+		    (errorMsg("csvNumber", lineno), e);
+	    }
+	    rows.add(row);
+	}
+	int m = rows.size();
+	double[] ptimes = new double[m];
+	double[] prates = new double[m];
+	for (int k = 0; k < m; k++) {
+	    ptimes[k] = rows.get(k)[0];
+	    prates[k] = rows.get(k)[1];
+	}
+	configureProfile(period, ptimes, prates, linear);
+	for (int k = 0; k < m; k++) {
+	    double[] row = rows.get(k);
+	    if (row.length > 2) {
+		double[] w = new double[destHubs.length];
+		System.arraycopy(row, 2, w, 0, w.length);
+		configureSlotWeights(k, w);
+	    }
+	}
+	// the trip rate listeners are notified once for the whole profile
+	ratesChanged();
+    }
+
+    /**
+     * Set the time of day at the start of the simulation.
+     * @param offset the time in seconds, relative to the start of a
+     *        period, corresponding to a simulation time of zero
+     */
+    public void setTimeOffset(double offset) {
+	boolean wasRunning = isStarted();
+	if (wasRunning) stop();
+	this.offset = offset;
+	if (wasRunning) restart();
+	ratesChanged();
+    }
+
+    /**
+     * Get the time of day at the start of the simulation.
+     * @return the time in seconds, relative to the start of a
+     *         period, corresponding to a simulation time of zero
+     */
+    public double getTimeOffset() {
+	return offset;
+    }
+
+    // The end of slot k, using times past the period for the last slot.
+    private double slotEnd(int k) {
+	return (k == times.length - 1)? period + times[0]: times[k+1];
+    }
+
+    // Find the slot containing a time of day t, 0 <= t < period.
+    // When t precedes the first slot, it is in the last slot.
+    private int slotOf(double t) {
+	int lo = 0;
+	int hi = times.length - 1;
+	if (t < times[0]) return hi;
+	while (lo < hi) {
+	    int mid = (lo + hi + 1) >>> 1;
+	    if (times[mid] <= t) lo = mid; else hi = mid - 1;
+	}
+	return lo;
+    }
+
+    // The rate in slot k at a time t with times[k] <= t < slotEnd(k).
+    private double rate(int k, double t) {
+	if (!linear) return rates[k];
+	double r0 = rates[k];
+	double r1 = rates[(k+1) % rates.length];
+	return r0 + (r1 - r0) * (t - times[k]) / (slotEnd(k) - times[k]);
+    }
+
+    /**
+     * Get the rate at which trips start at a given simulation time.
+     * @param time the simulation time in seconds
+     * @return the rate in trips per second
+     */
+    public double getRate(double time) {
+	if (times.length == 0) return 0.0;
+	double t = (time + offset) % period;
+	if (t < 0.0) t += period;
+	int k = slotOf(t);
+	if (t < times[k]) t += period;
+	return rate(k, t);
+    }
+
+    // The rates are the ones for the current time slot, so the trip
+    // rate listeners are notified at the end of the slot.  The event
+    // is scheduled only while there are trip rate listeners.
+    private SimulationEvent slotEvent = null;
+    private Callable slotCallable = new Callable() {
+	    public void call() {
+		slotEvent = null;
+		fireRatesChanged();
+		scheduleSlotEvent();
+	    }
+	};
+
+    private void cancelSlotEvent() {
+	if (slotEvent != null) {
+	    slotEvent.cancel();
+	    slotEvent = null;
+	}
+    }
+
+    private void scheduleSlotEvent() {
+	if (slotEvent != null || times.length == 0 || destHubs.length == 0
+	    || !hasTripRateListeners()) {
+	    return;
+	}
+	double t = (sim.currentTime() + offset) % period;
+	if (t < 0.0) t += period;
+	int k = slotOf(t);
+	if (t < times[k]) t += period;
+	long ticks = sim.getTicks(slotEnd(k) - t);
+	slotEvent = sim.scheduleCall(slotCallable, (ticks > 0)? ticks: 1);
+    }
+
+    @Override
+    void tripRateListenersChanged() {
+	if (hasTripRateListeners()) {
+	    scheduleSlotEvent();
+	} else {
+	    cancelSlotEvent();
+	}
+    }
+
+    private void ratesChanged() {
+	cancelSlotEvent();
+	fireRatesChanged();
+	scheduleSlotEvent();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * For class TimeVaryingTripGenerator, the rates are the ones for
+     * the time slot containing the current simulation time, using the
+     * mean rate over the slot when the rate varies linearly and the
+     * slot's destination weights.  The trip rate listeners are
+     * notified when the next time slot starts.
+     * @return {@inheritDoc}
+     */
+    @Override
+    public TripRate[] getTripRates() {
+	if (times.length == 0 || destHubs.length == 0) {
+	    return new TripRate[0];
+	}
+	double t = (sim.currentTime() + offset) % period;
+	if (t < 0.0) t += period;
+	int k = slotOf(t);
+	if (t < times[k]) t += period;
+	double rate = linear? (rates[k] + rates[(k+1) % rates.length]) / 2.0:
+	    rates[k];
+	double[] w = (slotWeights[k] == null)? weights: slotWeights[k];
+	TripRate[] results = new TripRate[destHubs.length];
+	for (int i = 0; i < destHubs.length; i++) {
+	    results[i] = new TripRate(hub, destHubs[i], rate * w[i], nbikes,
+				      false);
+	}
+	return results;
+    }
+
+    @Override
+    protected double getNextInterval() {
+	if (times.length == 0 || !(cycleMass > 0.0)) {
+	    // a negative value indicates that no trip should be scheduled
+	    return -1.0;
+	}
+	double t = (sim.currentTime() + offset) % period;
+	if (t < 0.0) t += period;
+	int k = slotOf(t);
+	if (t < times[k]) t += period;
+	double elapsed = 0.0;
+	for (;;) {
+	    // next candidate from the envelope process
+	    double e = unitRV.next();
+	    for (;;) {
+		double remaining = slotEnd(k) - t;
+		double mass = envelope[k] * remaining;
+		if (e < mass) {
+		    double dt = e / envelope[k];
+		    elapsed += dt;
+		    t += dt;
+		    break;
+		}
+		e -= mass;
+		elapsed += remaining;
+		k = (k + 1) % times.length;
+		t = times[k];
+	    }
+	    if (StaticRandom.nextDouble() * envelope[k] < rate(k, t)) {
+		nextSlot = k;
+		return elapsed;
+	    }
+	}
+    }
+
+    @Override
+    protected boolean action() {
+	DestSampler s = (nextSlot < slotSamplers.length)?
+	    slotSamplers[nextSlot]: null;
+	if (s == null) s = sampler;
+	if (s == null || s.size() == 0) return true;
+	final int index = s.next();
+	final Hub dest = destHubs[index];
+	final long tripID = createTripID();
+	boolean willOverflow =
+	    StaticRandom.nextDouble() < overflowProb[index];
+	trace(context.level4(),
+	      "sending %d bike-share users from %s to %s, "
+	      + "intending to use the %s",
+	      nbikes, hub, dest,
+	      (willOverflow? "overflow area": "preferred area"));
+	startTrip(acquireTripState(tripID, hub, dest, nbikes), willOverflow);
+	return true;
+    }
+
+     /**
+     * {@inheritDoc}
+     * <P>
+     * Defined for class TimeVaryingTripGenerator:
+     * <UL>
+     *  <LI> the number of bicycles per trip.
+     *  <LI> the starting hub.
+     *  <LI> the probability function.
+     *  <LI> the destination hubs. For each destination, the following
+     *       are printed:
+     *       <UL>
+     *         <LI> the name of a destination hub.
+     *         <LI> the probability of choosing this hub.
+     *         <LI> the probability of using the overflow area.
+     *       </UL>
+     *  <LI> the period, the time offset, and whether the rate varies
+     *       linearly within a time slot.
+     *  <LI> the time slots. For each time slot, its starting time,
+     *       its rate, and its destination probabilities if these
+     *       differ from the default.
+     * </UL>
+     * @param iPrefix {@inheritDoc}
+     * @param prefix {@inheritDoc}
+     * @param printName {@inheritDoc}
+     * @param out {@inheritDoc}
+     */
+    @Override
+    public void printConfiguration(String iPrefix, String prefix,
+				   boolean printName,
+				   PrintWriter out)
+    {
+	super.printConfiguration(iPrefix, prefix, printName, out);
+	out.println(prefix + "number of bicycles per trip: " + nbikes);
+	out.println(prefix + "starting hub: "
+		    + ((hub == null)? "[null]": hub.getName()));
+	out.println(prefix + "probability function: "
+		    + ((sfpf == null)? "<none>": sfpf.getName()));
+	out.println(prefix + "destination hubs:");
+	for (int i = 0; i < destHubs.length; i++) {
+	    out.println(prefix + "    " + destHubs[i].getName() + ":");
+	    out.println(prefix + "        probability: " + weights[i]);
+	    out.println(prefix + "        probability of using overflow area: "
+			+ overflowProb[i]);
+	}
+	out.println(prefix + "period: " + period + " seconds");
+	out.println(prefix + "time offset: " + offset + " seconds");
+	out.println(prefix + "rates vary linearly: " + linear);
+	out.println(prefix + "time slots:");
+	for (int k = 0; k < times.length; k++) {
+	    out.println(prefix + "    starting time " + times[k]
+			+ ", rate " + rates[k] + " trips per second");
+	    if (slotWeights[k] != null) {
+		for (int i = 0; i < destHubs.length; i++) {
+		    out.println(prefix + "        probability for "
+				+ destHubs[i].getName() + ": "
+				+ slotWeights[k][i]);
+		}
+	    }
+	}
+    }
+}
+
+//  LocalWords:  TimeVaryingTripGenerator BasicTripGenerator nbikes
+//  LocalWords:  destHubs overflowProb CSV iPrefix printName sfpf
@@ -0,0 +1,445 @@
+package org.bzdev.bikeshare;
+import java.util.Arrays;
+
+/*
+ * Incremental min-cost transportation solver used by
+ * OptimalFlowHubBalancer.
+ *
+ * The network has a node for each hub plus a source S and a sink T.
+ * Arc S->i has a capacity equal to hub i's surplus and arc i->T has a
+ * capacity equal to hub i's deficit.  Hubs are connected to their k
+ * nearest neighbors (in both directions) by arcs with unlimited
+ * capacity whose costs are estimated delays, so flow may pass through
+ * intermediate hubs; for delays satisfying the triangle inequality
+ * this approximates the complete transportation network with O(kn)
+ * arcs instead of O(n^2).  An arc T->S with unlimited capacity and a
+ * cost of -M, where M is larger than the cost of any path, turns the
+ * problem into a min-cost circulation whose solution is a maximum
+ * flow from S to T with minimum cost.
+ *
+ * The solver maintains node potentials such that every arc with
+ * residual capacity has a nonnegative reduced cost.  Changing a
+ * capacity can violate this only for the arc being changed, and is
+ * repaired locally by moving flow on that arc, which leaves one
+ * endpoint with an excess and the other with a deficit.  The
+ * imbalance is then removed along shortest paths found by Dijkstra's
+ * algorithm with reduced costs, searching outward from the hub (with
+ * arcs followed backwards when the hub has a deficit) and stopping
+ * at the first node with the opposite imbalance (S or T).  Each
+ * change thus costs a few shortest-path searches that usually
+ * explore only the hub's neighborhood, rather than a full solve.
+ * A search records the nodes it reaches, and both resetting the
+ * distances and updating the potentials afterwards visit only those
+ * nodes: the potential update adds the target's distance to every
+ * node (which does not change any reduced cost) minus the amount by
+ * which a reached node is closer, so nodes that were not reached are
+ * left as is.  A search that passes through S or T may still scan
+ * their arcs to every hub.
+ *
+ * A pair of hubs whose estimated delay is not finite (one cannot be
+ * reached from the other) has no arc, so M and the reduced costs
+ * remain finite.
+ */
+class TransportSolver {
+
+    static final int INF = Integer.MAX_VALUE / 2;
+
+    int n;			// number of hubs
+    int source;
+    int sink;
+
+    // arcs are stored in pairs: arc e and its reverse e^1
+    int[] to;
+    int[] cap;		// residual capacity
+    double[] cost;
+    int[] nextArc;
+    int[] firstArc;
+    int narcs = 0;
+
+    int[] sourceArc;		// S->i for each hub i
+    int[] sinkArc;		// i->T for each hub i
+    int returnArc;		// T->S
+
+    int[] excess;
+    double[] potential;
+    double[] dist;		// valid only when mark[v] == searchMark
+    int[] parentArc;
+    int[] mark;
+    int searchMark = 0;
+    int[] reached;		// the nodes reached by the last search
+    int nreached = 0;
+
+    // binary heap with lazy deletion: entries are (key, node)
+    double[] heapKey;
+    int[] heapNode;
+    int heapSize = 0;
+
+    long searches = 0;
+    long augmentations = 0;
+
+    TransportSolver(double[][] delays, int[][] neighbors) {
+	n = delays.length;
+	source = n;
+	sink = n + 1;
+	int nnodes = n + 2;
+	int maxArcs = 0;
+	for (int i = 0; i < n; i++) {
+	    maxArcs += neighbors[i].length;
+	}
+	maxArcs = 2 * (maxArcs + 2*n + 1);
+	to = new int[maxArcs];
+	cap = new int[maxArcs];
+	cost = new double[maxArcs];
+	nextArc = new int[maxArcs];
+	firstArc = new int[nnodes];
+	Arrays.fill(firstArc, -1);
+	sourceArc = new int[n];
+	sinkArc = new int[n];
+	excess = new int[nnodes];
+	potential = new double[nnodes];
+	dist = new double[nnodes];
+	parentArc = new int[nnodes];
+	mark = new int[nnodes];
+	reached = new int[nnodes];
+	heapKey = new double[maxArcs + nnodes];
+	heapNode = new int[maxArcs + nnodes];
+	used = new int[maxArcs/2];
+	usedMark = new int[maxArcs/2];
+	double m = 1.0;
+	for (int i = 0; i < n; i++) {
+	    for (int k = 0; k < neighbors[i].length; k++) {
+		int j = neighbors[i][k];
+		double w = delays[i][k];
+		// unreachable (or NaN): no arc
+		if (!(w < Double.POSITIVE_INFINITY)) continue;
+		addArc(i, j, INF, w);
+		m += w;
+	    }
+	}
+	for (int i = 0; i < n; i++) {
+	    sourceArc[i] = addArc(source, i, 0, 0.0);
+	    sinkArc[i] = addArc(i, sink, 0, 0.0);
+	}
+	returnArc = addArc(sink, source, INF, -m);
+	// With no flow, only the hub arcs and T->S have residual
+	// capacity, so these potentials make all reduced costs zero
+	// or positive.
+	potential[sink] = m;
+    }
+
+    private int addArc(int u, int v, int c, double w) {
+	int e = narcs;
+	to[e] = v; cap[e] = c; cost[e] = w;
+	nextArc[e] = firstArc[u]; firstArc[u] = e;
+	to[e+1] = u; cap[e+1] = 0; cost[e+1] = -w;
+	nextArc[e+1] = firstArc[v]; firstArc[v] = e+1;
+	narcs += 2;
+	return e;
+    }
+
+    private double reducedCost(int e) {
+	return cost[e] + potential[to[e^1]] - potential[to[e]];
+    }
+
+    private void push(double key, int node) {
+	if (heapSize == heapKey.length) {
+	    heapKey = Arrays.copyOf(heapKey, 2*heapSize);
+	    heapNode = Arrays.copyOf(heapNode, 2*heapSize);
+	}
+	int i = heapSize++;
+	while (i > 0) {
+	    int p = (i - 1) >> 1;
+	    if (heapKey[p] <= key) break;
+	    heapKey[i] = heapKey[p];
+	    heapNode[i] = heapNode[p];
+	    i = p;
+	}
+	heapKey[i] = key;
+	heapNode[i] = node;
+    }
+
+    private int pop() {
+	int result = heapNode[0];
+	double key = heapKey[--heapSize];
+	int node = heapNode[heapSize];
+	int i = 0;
+	for (;;) {
+	    int c = 2*i + 1;
+	    if (c >= heapSize) break;
+	    if (c + 1 < heapSize && heapKey[c+1] < heapKey[c]) c++;
+	    if (key <= heapKey[c]) break;
+	    heapKey[i] = heapKey[c];
+	    heapNode[i] = heapNode[c];
+	    i = c;
+	}
+	if (heapSize > 0) {
+	    heapKey[i] = key;
+	    heapNode[i] = node;
+	}
+	return result;
+    }
+
+    // The distance to v found by the current search.
+    private double distance(int v) {
+	return (mark[v] == searchMark)? dist[v]: Double.POSITIVE_INFINITY;
+    }
+
+    private void reach(int v, double d, int arc) {
+	if (mark[v] != searchMark) {
+	    mark[v] = searchMark;
+	    reached[nreached++] = v;
+	}
+	dist[v] = d;
+	parentArc[v] = arc;
+    }
+
+    // Find a shortest path in the residual graph between s and the
+    // nearest node whose excess has the opposite sign, and update the
+    // potentials.  When s has a deficit, the search follows arcs
+    // backwards.  Returns that node or -1 if there is none.
+    private int search(int s) {
+	searches++;
+	boolean forward = excess[s] > 0;
+	if (searchMark == Integer.MAX_VALUE) {
+	    Arrays.fill(mark, 0);
+	    searchMark = 0;
+	}
+	searchMark++;
+	nreached = 0;
+	reach(s, 0.0, -1);
+	heapSize = 0;
+	push(0.0, s);
+	int t = -1;
+	search:
+	while (heapSize > 0) {
+	    double d = heapKey[0];
+	    int u = pop();
+	    if (d > distance(u)) continue;
+	    if (forward? excess[u] < 0: excess[u] > 0) {
+		t = u;
+		break;
+	    }
+	    // S and T have an arc to every hub but the arc between them
+	    // is listed first and has a reduced cost of zero when it
+	    // carries flow, so the test for a target with no increase in
+	    // distance usually avoids scanning the other arcs.
+	    for (int e = firstArc[u]; e != -1; e = nextArc[e]) {
+		// f is the arc in the direction of the search
+		int f = forward? e: e^1;
+		if (cap[f] <= 0) continue;
+		int v = to[e];
+		// reduced costs are nonnegative except for rounding errors
+		double rc = forward? cost[f] + potential[u] - potential[v]:
+		    cost[f] + potential[v] - potential[u];
+		double nd = (rc > 0.0)? d + rc: d;
+		if (nd < distance(v)) {
+		    reach(v, nd, f);
+		    if (nd == d && (forward? excess[v] < 0: excess[v] > 0)) {
+			// no other node can be closer
+			t = v;
+			break search;
+		    }
+		    push(nd, v);
+		}
+	    }
+	}
+	if (t == -1) return -1;
+	// Nodes whose distances were not finalized are treated as
+	// being at t's distance, which keeps reduced costs nonnegative.
+	// Adding min(dist[v], dt) to each potential is the same as
+	// adding dt to every potential, which does not change reduced
+	// costs, and then subtracting dt - dist[v] for the reached nodes
+	// closer than t.
+	double dt = dist[t];
+	for (int k = 0; k < nreached; k++) {
+	    int v = reached[k];
+	    double dv = dist[v];
+	    if (dv < dt) {
+		if (forward) {
+		    potential[v] -= dt - dv;
+		} else {
+		    potential[v] += dt - dv;
+		}
+	    }
+	}
+	return t;
+    }
+
+    // Remove the excess or deficit at s by moving flow to or from the
+    // nearest nodes with the opposite imbalance.
+    private void balance(int s) {
+	while (excess[s] != 0) {
+	    boolean forward = excess[s] > 0;
+	    int t = search(s);
+	    if (t == -1) break;
+	    int amount = Math.min(Math.abs(excess[s]), Math.abs(excess[t]));
+	    // walk the path from its end back to s
+	    for (int v = t; v != s;) {
+		int e = parentArc[v];
+		if (cap[e] < amount) amount = cap[e];
+		v = forward? to[e^1]: to[e];
+	    }
+	    for (int v = t; v != s;) {
+		int e = parentArc[v];
+		cap[e] -= amount;
+		cap[e^1] += amount;
+		v = forward? to[e^1]: to[e];
+	    }
+	    if (forward) {
+		excess[s] -= amount;
+		excess[t] += amount;
+	    } else {
+		excess[s] += amount;
+		excess[t] -= amount;
+	    }
+	    augmentations++;
+	}
+    }
+
+    // Change the flow on arc e by delta, adjusting the excesses at
+    // its endpoints.
+    private void addFlow(int e, int delta) {
+	cap[e] -= delta;
+	cap[e^1] += delta;
+	excess[to[e^1]] -= delta;
+	excess[to[e]] += delta;
+    }
+
+    /*
+     * Set the capacity of S->i (surplus) or i->T (deficit).
+     */
+    private void setCapacity(int arc, int hub, int value) {
+	int flow = cap[arc^1];
+	if (value < flow) {
+	    addFlow(arc, value - flow);
+	    cap[arc] = 0;
+	} else {
+	    cap[arc] = value - flow;
+	    if (cap[arc] > 0 && reducedCost(arc) < 0.0) {
+		addFlow(arc, cap[arc]);
+	    }
+	}
+	// Search from the hub rather than from S or T, so that only
+	// the hub's neighborhood is usually explored.
+	balance(hub);
+    }
+
+    void setSurplus(int hub, int value) {
+	setCapacity(sourceArc[hub], hub, value);
+    }
+
+    void setDeficit(int hub, int value) {
+	setCapacity(sinkArc[hub], hub, value);
+    }
+
+    // An arc's capacity is its residual capacity plus its flow.
+    int getSurplus(int hub) {
+	int arc = sourceArc[hub];
+	return cap[arc] + cap[arc^1];
+    }
+
+    int getDeficit(int hub) {
+	int arc = sinkArc[hub];
+	return cap[arc] + cap[arc^1];
+    }
+
+    int getShipped(int hub) {
+	return cap[sourceArc[hub]^1];
+    }
+
+    int getReceived(int hub) {
+	return cap[sinkArc[hub]^1];
+    }
+
+    int getTotalFlow() {
+	return cap[returnArc^1];
+    }
+
+    double getTotalCost() {
+	double total = 0.0;
+	for (int i = 0; i < n; i++) {
+	    for (int e = firstArc[i]; e != -1; e = nextArc[e]) {
+		if ((e & 1) == 0 && to[e] < n) {
+		    total += cost[e] * cap[e^1];
+		}
+	    }
+	}
+	return total;
+    }
+
+    // Flow already assigned by traceFlow, indexed by arc pair.  An
+    // entry is valid only when its mark is traceMark, so starting a
+    // new decomposition does not clear the array.
+    private int[] used;
+    private int[] usedMark;
+    private int traceMark = 0;
+
+    private int usedFlow(int pair) {
+	return (usedMark[pair] == traceMark)? used[pair]: 0;
+    }
+
+    private void addUsed(int pair, int a) {
+	if (usedMark[pair] != traceMark) {
+	    usedMark[pair] = traceMark;
+	    used[pair] = 0;
+	}
+	used[pair] += a;
+    }
+
+    /*
+     * Start decomposing the flow into paths: subsequent calls to
+     * traceFlow ignore the flow assigned by calls made before this
+     * method was called.
+     */
+    void startTrace() {
+	if (traceMark == Integer.MAX_VALUE) {
+	    Arrays.fill(usedMark, 0);
+	    traceMark = 0;
+	}
+	traceMark++;
+    }
+
+    /*
+     * Find a destination for flow leaving hub i by following arcs
+     * with positive flow.  The flow already assigned by previous
+     * calls since the last call to startTrace is recorded, so that
+     * repeated calls decompose the flow into paths without modifying
+     * the network.  Returns the destination hub and stores the amount
+     * (at most limit) in amount[0]; -1 if there is no flow leaving i.
+     */
+    int traceFlow(int i, int limit, int[] amount) {
+	if (pathArcs == null) pathArcs = new int[n];
+	int u = i;
+	int a = limit;
+	int len = 0;
+	while (len < n) {
+	    int e = sinkArc[u];
+	    int atSink = cap[e^1] - usedFlow(e >> 1);
+	    if (atSink > 0 && u != i) {
+		if (atSink < a) a = atSink;
+		addUsed(e >> 1, a);
+		for (int k = 0; k < len; k++) {
+		    addUsed(pathArcs[k] >> 1, a);
+		}
+		amount[0] = a;
+		return u;
+	    }
+	    int next = -1;
+	    for (int f = firstArc[u]; f != -1; f = nextArc[f]) {
+		if ((f & 1) != 0 || to[f] >= n) continue;
+		if (cap[f^1] - usedFlow(f >> 1) > 0) {
+		    next = f;
+		    break;
+		}
+	    }
+	    if (next == -1) return -1;
+	    int flow = cap[next^1] - usedFlow(next >> 1);
+	    if (flow < a) a = flow;
+	    pathArcs[len++] = next;
+	    u = to[next];
+	}
+	return -1;
+    }
+
+    private int[] pathArcs = null;
+}
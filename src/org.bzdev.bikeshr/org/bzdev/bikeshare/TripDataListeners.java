@@ -0,0 +1,50 @@
+package org.bzdev.bikeshare;
+
+/*
+ * Trip data listeners for a trip generator or the trip subscribers
+ * for a hub.
+ */
+class TripDataListeners extends ListenerArray<TripDataListener> {
+
+    // Events passed to fire.
+    static final int TRIP_STARTED = 0;
+    static final int TRIP_PAUSE_START = 1;
+    static final int TRIP_PAUSE_END = 2;
+    static final int TRIP_ENDED = 3;
+    static final int TRIP_FAILED_AT_START = 4;
+    static final int TRIP_FAILED_MIDSTREAM = 5;
+
+    private static final TripDataListener[] NO_LISTENERS =
+	new TripDataListener[0];
+
+    TripDataListeners() {
+	super(NO_LISTENERS);
+    }
+
+    void fire(int event, long tripID, double time, long ticks,
+	      Hub hub, HubDomain d)
+    {
+	for (TripDataListener listener: get()) {
+	    switch (event) {
+	    case TRIP_STARTED:
+		listener.tripStarted(tripID, time, ticks, hub, d);
+		break;
+	    case TRIP_PAUSE_START:
+		listener.tripPauseStart(tripID, time, ticks, hub);
+		break;
+	    case TRIP_PAUSE_END:
+		listener.tripPauseEnd(tripID, time, ticks, hub, d);
+		break;
+	    case TRIP_ENDED:
+		listener.tripEnded(tripID, time, ticks, hub);
+		break;
+	    case TRIP_FAILED_AT_START:
+		listener.tripFailedAtStart(tripID, time, ticks, hub);
+		break;
+	    case TRIP_FAILED_MIDSTREAM:
+		listener.tripFailedMidstream(tripID, time, ticks, hub);
+		break;
+	    }
+	}
+    }
+}
@@ -0,0 +1,472 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recorder for histograms of trip durations.
+ * A trip-duration recorder is a trip data listener that keeps, for
+ * each origin hub (the hub at which a trip started), a histogram of
+ * the durations of the trips that ended successfully.  A trip's
+ * duration is the time from the start of the trip to its end,
+ * including any pauses at intermediate hubs.  The histograms have
+ * a fixed number of bins of equal width, with the last bin
+ * containing all durations that do not fit into the preceding bins.
+ * The number of failed trips (trips that failed at the start or
+ * midstream) is also recorded for each origin.
+ * <P>
+ * The recorder listens to the trip generators added by calling
+ * {@link #addTripGenerator(TripGenerator)} (or by the factory
+ * parameter "tripGenerators"). The histograms can be written,
+ * as comma-separated values with one line per origin hub, to a
+ * file or writer by calling {@link #write(Writer)} or
+ * {@link #close()}, or when the stop time is reached.  The first line
+ * is a header containing the word "origin", the lower bound of each
+ * bin, and the word "failed".
+ * <P>
+ * All the work is done in Java: when a recorder is created by a
+ * factory from a scripted scenario, no script code runs when trip
+ * events occur.
+ * @see TripDurationRecorderFactory
+ */
+public class TripDurationRecorder extends Actor implements TripDataListener {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    DramaSimulation sim;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     * @param name the name of this object
+     * @param intern true if this object should be interned in the
+     *        simulation's name table; false otherwise
+     */
+    public TripDurationRecorder(DramaSimulation sim, String name,
+				boolean intern)
+    {
+	super(sim, name, intern);
+	this.sim = sim;
+	sim.scheduleInitCall(new Callable() {
+		public void call() {
+		    started = true;
+		    if (stopTime < Double.POSITIVE_INFINITY) {
+			long delay = TripDurationRecorder.this.sim
+			    .getTicks(stopTime);
+			TripDurationRecorder.this.sim
+			    .scheduleCall(new Callable() {
+				    public void call() {
+					close();
+				    }
+				}, delay);
+		    }
+		}
+	    }, 0);
+    }
+
+    private double binWidth = 60.0;
+    private int nbins = 60;
+    private double stopTime = Double.POSITIVE_INFINITY;
+    private String filename = null;
+    private boolean started = false;
+    private boolean closed = false;
+    private long tripCount = 0;
+    private long failureCount = 0;
+
+    // Trips in progress: an open-addressing hash table with linear
+    // probing, keyed by trip ID, storing the start time and the
+    // origin's histogram for each trip.  A null histogram marks an
+    // empty slot.  The arrays are reused, so recording a trip does
+    // not allocate memory once the table is large enough.
+    private long[] tripIDs = new long[INITIAL_TABLE_SIZE];
+    private double[] startTimes = new double[INITIAL_TABLE_SIZE];
+    private long[][] startHistograms = new long[INITIAL_TABLE_SIZE][];
+    private int inProgress = 0;
+
+    private static final int INITIAL_TABLE_SIZE = 64;
+
+    private int slot(long tripID, int mask) {
+	long h = tripID * 0x9E3779B97F4A7C15L;
+	return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    private int find(long tripID) {
+	int mask = tripIDs.length - 1;
+	int i = slot(tripID, mask);
+	while (startHistograms[i] != null) {
+	    if (tripIDs[i] == tripID) return i;
+	    i = (i + 1) & mask;
+	}
+	return -1;
+    }
+
+    private void put(long tripID, double time, long[] histogram) {
+	int i = find(tripID);
+	if (i < 0) {
+	    if (2 * (inProgress + 1) > tripIDs.length) {
+		resize(2 * tripIDs.length);
+	    }
+	    int mask = tripIDs.length - 1;
+	    i = slot(tripID, mask);
+	    while (startHistograms[i] != null) {
+		i = (i + 1) & mask;
+	    }
+	    inProgress++;
+	}
+	tripIDs[i] = tripID;
+	startTimes[i] = time;
+	startHistograms[i] = histogram;
+    }
+
+    private void resize(int size) {
+	long[] oldIDs = tripIDs;
+	double[] oldTimes = startTimes;
+	long[][] oldHistograms = startHistograms;
+	tripIDs = new long[size];
+	startTimes = new double[size];
+	startHistograms = new long[size][];
+	int mask = size - 1;
+	for (int j = 0; j < oldIDs.length; j++) {
+	    if (oldHistograms[j] == null) continue;
+	    int i = slot(oldIDs[j], mask);
+	    while (startHistograms[i] != null) {
+		i = (i + 1) & mask;
+	    }
+	    tripIDs[i] = oldIDs[j];
+	    startTimes[i] = oldTimes[j];
+	    startHistograms[i] = oldHistograms[j];
+	}
+    }
+
+    // Remove the entry in slot i, moving later entries in the same
+    // probe sequence back so that no tombstones are needed.
+    private void removeSlot(int i) {
+	int mask = tripIDs.length - 1;
+	startHistograms[i] = null;
+	inProgress--;
+	int j = (i + 1) & mask;
+	while (startHistograms[j] != null) {
+	    int k = slot(tripIDs[j], mask);
+	    // move j to i if k is not cyclically in (i, j]
+	    if ((i <= j)? (k <= i || k > j): (k <= i && k > j)) {
+		tripIDs[i] = tripIDs[j];
+		startTimes[i] = startTimes[j];
+		startHistograms[i] = startHistograms[j];
+		startHistograms[j] = null;
+		i = j;
+	    }
+	    j = (j + 1) & mask;
+	}
+    }
+
+    private void clearInProgress() {
+	Arrays.fill(startHistograms, null);
+	inProgress = 0;
+    }
+
+    // Each histogram has nbins entries followed by the failure count.
+    private Map<Hub,long[]> histograms = new LinkedHashMap<>();
+
+    /**
+     * Initialize this recorder.
+     * @param binWidth the width of each histogram bin in seconds
+     * @param nbins the number of bins
+     * @exception IllegalArgumentException an argument was not positive
+     * @exception IllegalStateException this method was called after the
+     *            simulation started
+     */
+    public void init(double binWidth, int nbins)
+	throws IllegalArgumentException, IllegalStateException
+    {
+	if (started) {
+	    throw new IllegalStateException
+		(errorMsg("recorderStarted", getName()));
+	}
+	if (!(binWidth > 0.0)) {
+	    throw new IllegalArgumentException
+		(errorMsg("notPositive", binWidth));
+	}
+	if (nbins <= 0) {
+	    throw new IllegalArgumentException(errorMsg("notPositive", nbins));
+	}
+	this.binWidth = binWidth;
+	this.nbins = nbins;
+    }
+
+    /**
+     * Add a trip generator whose trips will be recorded.
+     * @param tgen the trip generator
+     */
+    public void addTripGenerator(TripGenerator tgen) {
+	tgen.addTripDataListener(this);
+    }
+
+    /**
+     * Remove a trip generator whose trips were recorded.
+     * @param tgen the trip generator
+     */
+    public void removeTripGenerator(TripGenerator tgen) {
+	tgen.removeTripDataListener(this);
+    }
+
+    /**
+     * Set the time at which the histograms are written and the
+     * output is closed.
+     * @param time the stop time in seconds;
+     *        Double.POSITIVE_INFINITY for no limit
+     * @exception IllegalStateException this method was called after the
+     *            simulation started
+     */
+    public void setStopTime(double time) throws IllegalStateException {
+	if (started) {
+	    throw new IllegalStateException
+		(errorMsg("recorderStarted", getName()));
+	}
+	stopTime = time;
+    }
+
+    /**
+     * Set the file to which the histograms will be written when
+     * the stop time is reached or {@link #close()} is called.
+     * @param filename the name of the file; null if there is none
+     */
+    public void setOutput(String filename) {
+	this.filename = filename;
+    }
+
+    private long[] getHistogram(Hub hub, boolean create) {
+	long[] histogram = histograms.get(hub);
+	if (histogram == null && create) {
+	    histogram = new long[nbins+1];
+	    histograms.put(hub, histogram);
+	}
+	return histogram;
+    }
+
+    /**
+     * Get the histogram for an origin hub.
+     * @param origin the hub at which trips started
+     * @return a copy of the histogram, whose length is the number of
+     *         bins; null if no trips started at the hub
+     */
+    public long[] getHistogram(Hub origin) {
+	long[] histogram = histograms.get(origin);
+	if (histogram == null) return null;
+	long[] result = new long[nbins];
+	System.arraycopy(histogram, 0, result, 0, nbins);
+	return result;
+    }
+
+    /**
+     * Get the number of failed trips for an origin hub.
+     * @param origin the hub at which trips started
+     * @return the number of trips that failed
+     */
+    public long getFailureCount(Hub origin) {
+	long[] histogram = histograms.get(origin);
+	return (histogram == null)? 0: histogram[nbins];
+    }
+
+    /**
+     * Get the origin hubs.
+     * @return the hubs at which recorded trips started, in the order
+     *         in which each first appeared
+     */
+    public Hub[] getOrigins() {
+	return histograms.keySet().toArray(new Hub[histograms.size()]);
+    }
+
+    /**
+     * Get the number of trips that ended successfully.
+     * @return the number of trips
+     */
+    public long getTripCount() {
+	return tripCount;
+    }
+
+    @Override
+    public void tripStarted(long tripID, double time, long ticks, Hub hub,
+			    HubDomain d)
+    {
+	if (closed) return;
+	put(tripID, time, getHistogram(hub, true));
+    }
+
+    @Override
+    public void tripPauseStart(long tripID, double time, long ticks, Hub hub)
+    {
+    }
+
+    @Override
+    public void tripPauseEnd(long tripID, double time, long ticks, Hub hub,
+			     HubDomain d)
+    {
+    }
+
+    @Override
+    public void tripEnded(long tripID, double time, long ticks, Hub hub) {
+	int i = find(tripID);
+	if (i < 0) return;
+	int bin = (int)Math.floor((time - startTimes[i])/binWidth);
+	if (bin >= nbins) bin = nbins-1;
+	if (bin < 0) bin = 0;
+	startHistograms[i][bin]++;
+	tripCount++;
+	removeSlot(i);
+    }
+
+    @Override
+    public void tripFailedAtStart(long tripID, double time, long ticks,
+				  Hub hub)
+    {
+	if (closed) return;
+	getHistogram(hub, true)[nbins]++;
+	failureCount++;
+    }
+
+    @Override
+    public void tripFailedMidstream(long tripID, double time, long ticks,
+				    Hub hub)
+    {
+	int i = find(tripID);
+	if (i < 0) return;
+	startHistograms[i][nbins]++;
+	failureCount++;
+	removeSlot(i);
+    }
+
+    /**
+     * Write the histograms.
+     * @param writer the writer to use
+     */
+    public void write(Writer writer) {
+	PrintWriter out = (writer instanceof PrintWriter)? (PrintWriter)writer:
+	    new PrintWriter(writer);
+	StringBuilder sb = new StringBuilder();
+	sb.append("origin");
+	for (int i = 0; i < nbins; i++) {
+	    sb.append(',');
+	    sb.append(i*binWidth);
+	}
+	sb.append(",failed");
+	out.println(sb);
+	for (Map.Entry<Hub,long[]> entry: histograms.entrySet()) {
+	    sb.setLength(0);
+	    sb.append(entry.getKey().getName());
+	    for (long value: entry.getValue()) {
+		sb.append(',');
+		sb.append(value);
+	    }
+	    out.println(sb);
+	}
+	out.flush();
+    }
+
+    /**
+     * Stop recording and write the histograms to the output file
+     * if one was set.
+     * Calling this method more than once has no additional effect.
+     */
+    public void close() {
+	if (closed) return;
+	closed = true;
+	clearInProgress();
+	if (filename != null) {
+	    try (PrintWriter out = new PrintWriter
+		 (new BufferedWriter(new FileWriter(filename)))) {
+		write(out);
+	    } catch (IOException e) {
+		throw new IllegalStateException
+		    (errorMsg("recorderIO", getName(), filename), e);
+	    }
+	}
+    }
+
+    /**
+     * Print the configuration for an instance of TripDurationRecorder.
+     * The documentation for method
+     * {@link org.bzdev.devqsim.SimObject#printConfiguration(String,String,boolean,java.io.PrintWriter)}
+     * contains a description of how this method is used and how to
+     * override it. The method
+     * {@link org.bzdev.drama.Actor#printConfiguration(String,String,boolean,java.io.PrintWriter)}
+     * describes the data that will be printed for the
+     * superclass of this class. The data that will be printed
+     * when this method is called are the following.
+     * <P>
+     * For class {@link TripDurationRecorder}:
+     * <UL>
+     *  <LI> the bin width.
+     *  <LI> the number of bins.
+     *  <LI> the stop time.
+     * </UL>
+     * @param iPrefix the prefix to use for an initial line when printName is
+     *        true with null treated as an empty string
+     * @param prefix a prefix string (typically whitespace) to put at
+     *        the start of each line other than the initial line that is
+     *        printed when printName is true
+     * @param printName requests printing the name of an object
+     * @param out the output print writer
+     */
+    @Override
+    public void printConfiguration(String iPrefix, String prefix,
+				   boolean printName,
+				   PrintWriter out)
+    {
+	super.printConfiguration(iPrefix, prefix, printName, out);
+	out.println(prefix + "bin width: " + binWidth);
+	out.println(prefix + "number of bins: " + nbins);
+	out.println(prefix + "stop time: " + stopTime);
+    }
+
+    /**
+     * Print the state for an instance of TripDurationRecorder.
+     * The documentation for method
+     * {@link org.bzdev.devqsim.SimObject#printState(String,String,boolean,java.io.PrintWriter)}
+     * contains a description of how this method is used and how to
+     * override it. The method
+     * {@link org.bzdev.drama.Actor#printState(String,String,boolean,java.io.PrintWriter)}
+     * describes the data that will be printed for the
+     * superclass of this class. The data that will be printed
+     * when this method is called are the following.
+     * <P>
+     * For class {@link TripDurationRecorder}:
+     * <UL>
+     *   <LI> the number of trips that ended successfully.
+     *   <LI> the number of trips that failed.
+     *   <LI> the number of trips in progress.
+     *   <LI> the number of origin hubs.
+     * </UL>
+     * @param iPrefix the prefix to use for an initial line when printName is
+     *        true with null treated as an empty string
+     * @param prefix a prefix string (typically whitespace) to put at
+     *        the start of each line other than the initial line that is
+     *        printed when printName is true
+     * @param printName requests printing the name of an object
+     * @param out the output print writer
+     */
+    @Override
+    public void printState(String iPrefix, String prefix,
+			   boolean printName, PrintWriter out) {
+	super.printState(iPrefix, prefix, printName, out);
+	out.println(prefix + "completed trips: " + tripCount);
+	out.println(prefix + "failed trips: " + failureCount);
+	out.println(prefix + "trips in progress: " + inProgress);
+	out.println(prefix + "origins: " + histograms.size());
+    }
+}
+
+//  LocalWords:  addTripGenerator tripGenerators TripDataListener sim
+//  LocalWords:  TripDurationRecorderFactory binWidth nbins tgen
+//  LocalWords:  IllegalArgumentException IllegalStateException
+//  LocalWords:  superclass printConfiguration iPrefix printName
+//  LocalWords:  whitespace printState
@@ -9,7 +9,6 @@ import org.bzdev.math.rv.DoubleRandomVariable;
 import org.bzdev.math.rv.ExpDistrRV;
 
 import java.io.PrintWriter;
-import java.util.Vector;
 import java.util.Arrays;
 
 /**
@@ -42,6 +41,7 @@ public abstract class TripGenerator extends Actor {
     }
 
     DramaSimulation sim;
+    BikeShareContext context;
 
     /**
      * Constructor.
@@ -53,6 +53,7 @@ public abstract class TripGenerator extends Actor {
     public TripGenerator(DramaSimulation sim, String name, boolean intern) {
 	super(sim, name, intern);
 	this.sim = sim;
+	context = BikeShareContext.get(sim);
 	event = sim.scheduleInitCall(new Callable() {
 		public void call() {
 		    TripGenerator.this.sim.scheduleCall(new Callable() {
@@ -242,16 +243,101 @@ public abstract class TripGenerator extends Actor {
 	initialDelay = delay;
     }
 
-
-    private static long currentTripID = 0;
-
     /**
      * Create a new trip ID.
      * Trip IDs must be created using this method to avoid duplicating an ID.
+     * Trip IDs are numbered consecutively, starting from 1, in each
+     * simulation, and are shared by all of a simulation's trip generators.
      * @return a new trip ID.
      */
     protected long createTripID() {
-	return ++currentTripID;
+	return context.nextTripID();
+    }
+
+    // Trip states available for reuse, linked by their next fields.
+    private TripState freeTripStates = null;
+    private int tripStatesCreated = 0;
+    private int tripStatesFree = 0;
+
+    /**
+     * Get a trip state from this trip generator's pool.
+     * A new instance is created only when the pool is empty.  The
+     * trip state's phase is {@link TripState#ONE_WAY} and its flags
+     * are cleared.
+     * @param tripID the ID for the trip
+     * @param src the hub at which the trip starts
+     * @param dest the hub to which users are initially sent
+     * @param nbikes the number of bicycles used by the trip
+     * @return the trip state
+     */
+    TripState acquireTripState(long tripID, Hub src, Hub dest, int nbikes) {
+	TripState ts = freeTripStates;
+	if (ts == null) {
+	    ts = new TripState(this);
+	    tripStatesCreated++;
+	} else {
+	    freeTripStates = ts.next;
+	    ts.next = null;
+	    tripStatesFree--;
+	}
+	ts.tripID = tripID;
+	ts.src = src;
+	ts.dest = dest;
+	ts.nbikes = nbikes;
+	ts.phase = TripState.ONE_WAY;
+	ts.wait = 0.0;
+	ts.flags = 0;
+	return ts;
+    }
+
+    /**
+     * Return a trip state to this trip generator's pool.
+     * @param ts the trip state, which must not be in use
+     */
+    void releaseTripState(TripState ts) {
+	ts.src = null;
+	ts.dest = null;
+	ts.next = freeTripStates;
+	freeTripStates = ts;
+	tripStatesFree++;
+    }
+
+    /**
+     * Start a trip described by a trip state.
+     * Users are sent from the trip state's source hub to its
+     * destination hub, with the trip state acting as the continuation,
+     * and either {@link #fireTripStarted(long,Hub,HubDomain)} or
+     * {@link #fireTripFailedAtStart(long,Hub)} is called. If the trip
+     * could not start, the trip state is released.
+     * @param ts the trip state
+     * @param willOverflow true if the trip will use the destination's
+     *        overflow area regardless of whether or not there is
+     *        excess capacity in the preferred location; false otherwise
+     * @return the hub domain used for the trip; null if the trip could
+     *         not start
+     */
+    HubDomain startTrip(TripState ts, boolean willOverflow) {
+	long tripID = ts.tripID;
+	Hub src = ts.src;
+	HubDomain d = src.sendUsers(ts.dest, ts.nbikes, willOverflow,
+				    getProbabilityFunction(), ts);
+	if (d != null) {
+	    fireTripStarted(tripID, src, d);
+	} else {
+	    fireTripFailedAtStart(tripID, src);
+	    releaseTripState(ts);
+	}
+	return d;
+    }
+
+    /**
+     * Called when a trip started by {@link #startTrip(TripState,boolean)}
+     * ends, after trip data listeners have been notified and before
+     * the trip state is released.
+     * The default implementation does nothing.
+     * @param ts the trip state
+     */
+    void tripCompleted(TripState ts) {
     }
 
     /**
@@ -284,12 +370,18 @@ public abstract class TripGenerator extends Actor {
     protected abstract boolean action();
 
     private boolean started = false;
+    // true if started but no action is scheduled because
+    // getNextInterval() returned a negative value (e.g., a zero rate)
+    private boolean waiting = false;
     SimulationEvent event = null;
 
     /**
      * Stop the trip generator.
      * If this method is called when a trip generator is not
-     * running, it will have no effect. After {@link #stop()} is
+     * running, it will have no effect unless the trip generator was
+     * started but did not schedule an action because
+     * {@link #getNextInterval()} returned a negative value, in which
+     * case it is marked as stopped. After {@link #stop()} is
      * called, the traffic generator may be restarted. If one stops
      * and restarts before the event associated with the initial delay
      * is processed, the initial delay will be ignored.
@@ -300,7 +392,11 @@ public abstract class TripGenerator extends Actor {
 	    event.cancel();
 	    event = null;
 	    started = false;
-	    trace(BikeShare.level1, "trip generator stopped");
+	    trace(context.level1(), "trip generator stopped");
+	} else if (waiting) {
+	    waiting = false;
+	    started = false;
+	    trace(context.level1(), "trip generator stopped");
 	}
     }
 
@@ -313,6 +409,15 @@ public abstract class TripGenerator extends Actor {
 	return (event != null);
     }
 
+    // Determine if the trip generator was started and not stopped,
+    // including when no action is scheduled because the next interval
+    // was negative.  Subclasses that stop and restart a trip generator
+    // to change its rates use this instead of isRunning() so that a
+    // rate changing from zero to a positive value starts trips.
+    boolean isStarted() {
+	return (event != null) || waiting;
+    }
+
     /**
      * Restart the trip generator after it has been stopped.
      * If the trip generator is already
@@ -321,7 +426,7 @@ public abstract class TripGenerator extends Actor {
      */
     public void restart() {
 	if (started) return;
-	trace(BikeShare.level1, "trip generator started");
+	trace(context.level1(), "trip generator started");
 	started = true;
 	task = new Callable() {
 		public void call() {
@@ -330,6 +435,9 @@ public abstract class TripGenerator extends Actor {
 			if (interval >= 0.0) {
 			    event = sim.scheduleCall(task,
 						     sim.getTicks(interval));
+			} else {
+			    event = null;
+			    waiting = true;
 			}
 		    } else {
 			// started is still true so we cannot restart.
@@ -340,17 +448,80 @@ public abstract class TripGenerator extends Actor {
 	double interval = getNextInterval();
 	if (interval >= 0.0) {
 	    event = sim.scheduleCall(task, sim.getTicks(interval));
+	} else {
+	    waiting = true;
 	}
     }
 
-    private Vector<TripDataListener> tripDataListenerList = new Vector<>();
+    private static final TripRateListener[] NO_RATE_LISTENERS =
+	new TripRateListener[0];
+    private final ListenerArray<TripRateListener> tripRateListeners =
+	new ListenerArray<>(NO_RATE_LISTENERS);
+
+    /**
+     * Add a trip rate listener to the current object.
+     * The listener is notified each time the rates returned by
+     * {@link #getTripRates()} change.
+     * @param listener the listener to add
+     */
+    public void addTripRateListener(TripRateListener listener) {
+	tripRateListeners.add(listener);
+	tripRateListenersChanged();
+    }
+
+    /**
+     * Remove a trip rate listener from the current object.
+     * @param listener the listener to remove
+     */
+    public void removeTripRateListener(TripRateListener listener) {
+	tripRateListeners.remove(listener);
+	tripRateListenersChanged();
+    }
+
+    // Determine if any trip rate listeners were added, so that a
+    // subclass whose rates vary with time need not schedule events
+    // to report changes no one will see.
+    boolean hasTripRateListeners() {
+	return !tripRateListeners.isEmpty();
+    }
+
+    // Called when a trip rate listener is added or removed.
+    void tripRateListenersChanged() {
+    }
+
+    /**
+     * Get the rates at which this trip generator starts trips.
+     * The rates are used by {@link PredictiveHubBalancer} to forecast
+     * the number of bicycles at each hub.  Subclasses that can
+     * describe their traffic by rates override this method, and must
+     * notify the trip rate listeners whenever the value returned
+     * changes. The default implementation returns null.
+     * @return the rates for each pair of starting and destination
+     *         hubs used by this trip generator (an empty array if
+     *         the trip generator has not been initialized); null if
+     *         the trip generator's traffic cannot be described by rates
+     */
+    public TripRate[] getTripRates() {
+	return null;
+    }
+
+    // Called by subclasses when the rates returned by getTripRates()
+    // change.
+    void fireRatesChanged() {
+	for (TripRateListener listener: tripRateListeners.get()) {
+	    listener.tripRatesChanged(this);
+	}
+    }
+
+    private final TripDataListeners tripDataListeners =
+	new TripDataListeners();
 
     /**
      * Add a trip data listener to the current object.
      * @param listener the listener to add
      */
     public void addTripDataListener(TripDataListener listener) {
-	tripDataListenerList.add(listener);
+	tripDataListeners.add(listener);
     }
 
     /**
@@ -358,7 +529,39 @@ public abstract class TripGenerator extends Actor {
      * @param listener the listener to remove
      */
     public void removeTripDataListener(TripDataListener listener) {
-	tripDataListenerList.remove(listener);
+	tripDataListeners.remove(listener);
+    }
+
+    private static final int TRIP_STARTED = TripDataListeners.TRIP_STARTED;
+    private static final int TRIP_PAUSE_START =
+	TripDataListeners.TRIP_PAUSE_START;
+    private static final int TRIP_PAUSE_END =
+	TripDataListeners.TRIP_PAUSE_END;
+    private static final int TRIP_ENDED = TripDataListeners.TRIP_ENDED;
+    private static final int TRIP_FAILED_AT_START =
+	TripDataListeners.TRIP_FAILED_AT_START;
+    private static final int TRIP_FAILED_MIDSTREAM =
+	TripDataListeners.TRIP_FAILED_MIDSTREAM;
+
+    // Notify this trip generator's listeners, followed by the
+    // subscribers for a hub, of an event.  Both listener arrays are
+    // copy-on-write, so a listener can add or remove listeners or
+    // subscriptions while the event is being delivered.  The hub
+    // may be null, in which case only this trip generator's
+    // listeners are notified.
+    private void dispatch(int event, long tripID, Hub hub, HubDomain d) {
+	TripDataListeners subscribers =
+	    (hub == null)? null: hub.tripSubscribers;
+	if (tripDataListeners.isEmpty()
+	    && (subscribers == null || subscribers.isEmpty())) {
+	    return;
+	}
+	double time = sim.currentTime();
+	long ticks = sim.currentTicks();
+	tripDataListeners.fire(event, tripID, time, ticks, hub, d);
+	if (subscribers != null) {
+	    subscribers.fire(event, tripID, time, ticks, hub, d);
+	}
     }
 
     /**
@@ -370,11 +573,7 @@ public abstract class TripGenerator extends Actor {
      */
     protected void fireTripStarted(long tripID, Hub hub, HubDomain d)
     {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (TripDataListener listener: tripDataListenerList) {
-	    listener.tripStarted(tripID, time, ticks, hub, d);
-	}
+	dispatch(TRIP_STARTED, tripID, hub, d);
     }
 
     /**
@@ -385,11 +584,7 @@ public abstract class TripGenerator extends Actor {
      */
     protected void fireTripPauseStart(long tripID, Hub hub)
     {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (TripDataListener listener: tripDataListenerList) {
-	    listener.tripPauseStart(tripID, time, ticks, hub);
-	}
+	dispatch(TRIP_PAUSE_START, tripID, hub, null);
     }
 
     /**
@@ -401,11 +596,7 @@ public abstract class TripGenerator extends Actor {
      */
     protected void fireTripPauseEnd(long tripID, Hub hub, HubDomain d)
     {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (TripDataListener listener: tripDataListenerList) {
-	    listener.tripPauseEnd(tripID, time, ticks, hub, d);
-	}
+	dispatch(TRIP_PAUSE_END, tripID, hub, d);
     }
 
     /**
@@ -415,11 +606,7 @@ public abstract class TripGenerator extends Actor {
      */
     protected void fireTripEnded(long tripID, Hub hub)
     {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (TripDataListener listener: tripDataListenerList) {
-	    listener.tripEnded(tripID, time, ticks, hub);
-	}
+	dispatch(TRIP_ENDED, tripID, hub, null);
     }
 
     /**
@@ -429,11 +616,7 @@ public abstract class TripGenerator extends Actor {
      */
     protected void fireTripFailedAtStart(long tripID, Hub hub)
     {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (TripDataListener listener: tripDataListenerList) {
-	    listener.tripFailedAtStart(tripID, time, ticks, hub);
-	}
+	dispatch(TRIP_FAILED_AT_START, tripID, hub, null);
     }
 
     /**
@@ -443,11 +626,7 @@ public abstract class TripGenerator extends Actor {
      */
     protected void fireTripFailedMidstream(long tripID, Hub hub)
     {
-	double time = sim.currentTime();
-	long ticks = sim.currentTicks();
-	for (TripDataListener listener: tripDataListenerList) {
-	    listener.tripFailedMidstream(tripID, time, ticks, hub);
-	}
+	dispatch(TRIP_FAILED_MIDSTREAM, tripID, hub, null);
     }
 
      /**
@@ -500,6 +679,8 @@ public abstract class TripGenerator extends Actor {
      * <UL>
      *   <LI> whether or not the trip generator is running and the next
      *        time an action will be run if the trip generator is running.
+     *   <LI> the number of trip states created and the number that
+     *        are available for reuse.
      * </UL>
      * @param iPrefix the prefix to use for an initial line when printName is
      *        true with null treated as an empty string
@@ -516,11 +697,13 @@ public abstract class TripGenerator extends Actor {
 	super.printState(iPrefix, prefix, printName, out);
 	boolean r = isRunning();
 	if (r) {
-	    out.println(prefix + "running: " + r);
-	} else {
 	    out.println(prefix + "running: " + r + ", next action at "
 			+ sim.getTime(event.getTime()) + " sec");
+	} else {
+	    out.println(prefix + "running: " + r);
 	}
+	out.println(prefix + "trip states: " + tripStatesCreated
+		    + " created, " + tripStatesFree + " available");
     }
 }
 
@@ -0,0 +1,79 @@
+package org.bzdev.bikeshare;
+
+/**
+ * The rate at which a trip generator starts trips between two hubs.
+ * Instances are returned by {@link TripGenerator#getTripRates()} and
+ * describe Poisson traffic: trips from a starting hub to a destination
+ * hub start at a given rate, and each trip uses a fixed number of
+ * bicycles.  For a round trip, the bicycles return to the starting
+ * hub after a pause at the destination hub.
+ */
+public final class TripRate {
+    private Hub origin;
+    private Hub destination;
+    private double rate;
+    private int nbikes;
+    private boolean roundTrip;
+
+    /**
+     * Constructor.
+     * @param origin the starting hub
+     * @param destination the destination hub
+     * @param rate the rate, in trips per second, at which trips start
+     * @param nbikes the number of bicycles per trip
+     * @param roundTrip true if the bicycles return to the starting hub;
+     *        false otherwise
+     */
+    public TripRate(Hub origin, Hub destination, double rate, int nbikes,
+		    boolean roundTrip)
+    {
+	this.origin = origin;
+	this.destination = destination;
+	this.rate = rate;
+	this.nbikes = nbikes;
+	this.roundTrip = roundTrip;
+    }
+
+    /**
+     * Get the starting hub.
+     * @return the hub at which trips start
+     */
+    public Hub getOrigin() {
+	return origin;
+    }
+
+    /**
+     * Get the destination hub.
+     * @return the hub at which trips end or, for round trips, pause
+     */
+    public Hub getDestination() {
+	return destination;
+    }
+
+    /**
+     * Get the rate at which trips start.
+     * @return the rate in trips per second
+     */
+    public double getRate() {
+	return rate;
+    }
+
+    /**
+     * Get the number of bicycles per trip.
+     * @return the number of bicycles
+     */
+    public int getBikeCount() {
+	return nbikes;
+    }
+
+    /**
+     * Determine if the trips are round trips.
+     * @return true if the bicycles return to the starting hub;
+     *         false otherwise
+     */
+    public boolean isRoundTrip() {
+	return roundTrip;
+    }
+}
+
+//  LocalWords:  getTripRates nbikes roundTrip
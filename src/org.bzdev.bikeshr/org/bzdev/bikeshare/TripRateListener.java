@@ -0,0 +1,22 @@
+package org.bzdev.bikeshare;
+import java.util.EventListener;
+
+/**
+ * Trip rate listener interface.
+ * This listener is notified when the rates returned by a trip
+ * generator's {@link TripGenerator#getTripRates()} method change,
+ * either because the trip generator was reconfigured or because the
+ * rates vary with time (for example, at the start of each time slot
+ * of a {@link TimeVaryingTripGenerator}).  A
+ * {@link PredictiveHubBalancer} uses one to update its forecasts.
+ * @see TripGenerator#addTripRateListener(TripRateListener)
+ */
+public interface TripRateListener extends EventListener {
+    /**
+     * Notify this listener that a trip generator's rates changed.
+     * The new rates can be obtained by calling the trip generator's
+     * {@link TripGenerator#getTripRates()} method.
+     * @param tgen the trip generator whose rates changed
+     */
+    void tripRatesChanged(TripGenerator tgen);
+}
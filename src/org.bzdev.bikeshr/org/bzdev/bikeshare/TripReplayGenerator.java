@@ -0,0 +1,440 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.devqsim.Simulation;
+import org.bzdev.devqsim.SimulationAdapter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Trip generator that replays trips read from CSV (comma-separated
+ * values) data.
+ * Each line describes one trip and contains five fields:
+ * <OL>
+ *   <LI> the time at which the trip starts, in seconds.
+ *   <LI> the name of the starting hub.
+ *   <LI> the name of the destination hub.
+ *   <LI> the number of bicycles used for the trip, which must be
+ *        positive.
+ *   <LI> "true" or "1" if the trip uses the destination's overflow area
+ *        regardless of whether or not there is excess capacity in the
+ *        preferred location; "false" or "0" otherwise.  Case is
+ *        ignored for "true" and "false".
+ * </OL>
+ * Lines must be in order of increasing time.  Blank lines, lines
+ * starting with '#', and a first line whose initial field is not a
+ * number (a header) are ignored.  The simulation time at which a trip
+ * starts is its time minus the time offset
+ * (see {@link #setTimeOffset(double)}).  Trips whose simulation time
+ * precedes the time at which the trip generator starts or restarts,
+ * and trips naming a hub that does not exist, are skipped.  A line
+ * that does not follow these rules, or whose time is less than the
+ * time on a previous line, causes an {@link IllegalStateException}
+ * to be thrown.
+ * <P>
+ * The data is read as the simulation runs, one line at a time, and
+ * only the next trip is scheduled, so the memory used does not depend
+ * on the number of trips.  Hub names are looked up in the
+ * simulation's name table once and then cached.  Trip data
+ * listeners receive the same events that a {@link BasicTripGenerator}
+ * would generate.  When the input is a file, the file is closed
+ * whenever a call to the simulation's run method returns, and is
+ * reopened at the same position if the simulation continues.
+ */
+public class TripReplayGenerator extends TripGenerator {
+
+    static String errorMsg(String key, Object... args) {
+	return BikeShare.errorMsg(key, args);
+    }
+
+    DramaSimulation sim;
+
+    /**
+     * Constructor.
+     * @param sim the simulation
+     * @param name the name of this object
+     * @param intern true if this object should be interned in the
+     *        simulation's name table; false otherwise
+     */
+    public TripReplayGenerator(DramaSimulation sim,
+			       String name,
+			       boolean intern)
+    {
+	super(sim, name, intern);
+	this.sim = sim;
+    }
+
+    private String filename = null;
+    private BufferedReader in = null;
+    // A file is read as bytes so that the position of the next line is
+    // known: the file is closed whenever a call to the simulation's
+    // run method returns, so that it is not left open when the
+    // simulation ends, and is reopened at that position when needed.
+    // A reader provided by setInput(Reader) cannot be reopened, so it
+    // is left open.  The listener is registered while the file is in
+    // use.
+    private InputStream fin = null;
+    private long position = 0;
+    private byte[] lineBuffer = new byte[128];
+    private boolean listening = false;
+    private SimulationAdapter stopListener = new SimulationAdapter() {
+	    public void simulationStop(Simulation s) {
+		closeFile();
+	    }
+	};
+    private boolean eof = false;
+    private long lineno = 0;
+    private boolean dataSeen = false;
+    private double offset = 0.0;
+
+    private HashMap<String,Hub> hubIndex = new HashMap<>();
+
+    // the next trip, read but not yet started
+    private boolean pending = false;
+    private double nextTime = Double.NEGATIVE_INFINITY;
+    private Hub nextOrigin = null;
+    private Hub nextDest = null;
+    private int nextCount = 0;
+    private boolean nextOverflow = false;
+
+    private long replayed = 0;
+    private long skipped = 0;
+
+    /**
+     * Set the input to a file.
+     * The file is opened when the first trip is needed and is read
+     * using the UTF-8 character encoding.
+     * @param filename the name of the file
+     * @exception IllegalStateException an input has already been opened
+     */
+    public void setInput(String filename) throws IllegalStateException {
+	if (in != null || lineno > 0) {
+	    throw new IllegalStateException
+		(errorMsg("replayInput", getName()));
+	}
+	this.filename = filename;
+    }
+
+    /**
+     * Set the input to a reader.
+     * @param reader the reader
+     * @exception IllegalStateException an input has already been opened
+     */
+    public void setInput(Reader reader) throws IllegalStateException {
+	if (in != null || lineno > 0) {
+	    throw new IllegalStateException
+		(errorMsg("replayInput", getName()));
+	}
+	filename = null;
+	in = (reader instanceof BufferedReader)? (BufferedReader) reader:
+	    new BufferedReader(reader);
+    }
+
+    /**
+     * Set the time offset.
+     * The simulation time at which a trip starts is the time provided
+     * by the input minus this offset. This allows the times in a log
+     * to be measured from some time other than the start of the
+     * simulation.
+     * @param offset the offset in seconds
+     */
+    public void setTimeOffset(double offset) {
+	this.offset = offset;
+    }
+
+    /**
+     * Get the time offset.
+     * @return the offset in seconds
+     * @see #setTimeOffset(double)
+     */
+    public double getTimeOffset() {
+	return offset;
+    }
+
+    /**
+     * Get the number of trips that have been started.
+     * @return the number of trips
+     */
+    public long getReplayedCount() {
+	return replayed;
+    }
+
+    /**
+     * Get the number of trips that were skipped.
+     * Trips are skipped when they would start before the trip
+     * generator started or restarted or when a hub name is not the
+     * name of a hub.
+     * @return the number of trips
+     */
+    public long getSkippedCount() {
+	return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * For class TripReplayGenerator, the trips are read as the
+     * simulation runs and are not known in advance, so its traffic
+     * cannot be described by rates and the value returned is null.
+     * @return {@inheritDoc}
+     */
+    @Override
+    public TripRate[] getTripRates() {
+	return null;
+    }
+
+    /**
+     * Close the input.
+     * No more trips will be generated.
+     */
+    public void close() {
+	eof = true;
+	pending = false;
+	if (in != null) {
+	    try {
+		in.close();
+	    } catch (IOException e) {}
+	    in = null;
+	}
+	closeFile();
+	if (listening) {
+	    sim.removeSimulationListener(stopListener);
+	    listening = false;
+	}
+    }
+
+    // Close the file, keeping its position so that it can be reopened.
+    private void closeFile() {
+	if (fin != null) {
+	    try {
+		fin.close();
+	    } catch (IOException e) {}
+	    fin = null;
+	}
+    }
+
+    // Read a line from the file, which is opened at the current
+    // position if necessary.  The line terminator is "\n" or "\r\n".
+    private String readFileLine() throws IOException {
+	if (fin == null) {
+	    FileChannel channel = FileChannel.open(Paths.get(filename));
+	    channel.position(position);
+	    fin = new BufferedInputStream(Channels.newInputStream(channel));
+	    if (!listening) {
+		sim.addSimulationListener(stopListener);
+		listening = true;
+	    }
+	}
+	int len = 0;
+	int c;
+	while ((c = fin.read()) != -1) {
+	    position++;
+	    if (c == '\n') break;
+	    if (len == lineBuffer.length) {
+		lineBuffer = Arrays.copyOf(lineBuffer, 2*len);
+	    }
+	    lineBuffer[len++] = (byte) c;
+	}
+	if (c == -1 && len == 0) return null;
+	if (len > 0 && lineBuffer[len-1] == '\r') len--;
+	return new String(lineBuffer, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private Hub lookup(String name) {
+	Hub hub = hubIndex.get(name);
+	if (hub == null && !hubIndex.containsKey(name)) {
+	    Object object = sim.getObject(name, Hub.class);
+	    hub = (object instanceof Hub)? (Hub) object: null;
+	    hubIndex.put(name, hub);
+	}
+	return hub;
+    }
+
+    // Read lines until a trip is found.
+    private boolean readTrip() {
+	try {
+	    if (in == null && filename == null) return false;
+	    String line;
+	    while ((line = (in == null)? readFileLine(): in.readLine())
+		   != null) {
+		lineno++;
+		line = line.trim();
+		if (line.length() == 0 || line.charAt(0) == '#') continue;
+		int i1 = line.indexOf(',');
+		double time;
+		int count;
+		try {
+		    time = Double.parseDouble
+			(line.substring(0, (i1 < 0)? line.length(): i1).trim());
+		} catch (NumberFormatException e) {
+		    if (!dataSeen) {
+			// a header
+			dataSeen = true;
+			continue;
+		    }
+		    throw new IllegalStateException
+			(errorMsg("replaySyntax", getName(), lineno), e);
+		}
+		dataSeen = true;
+		int i2 = (i1 < 0)? -1: line.indexOf(',', i1+1);
+		int i3 = (i2 < 0)? -1: line.indexOf(',', i2+1);
+		int i4 = (i3 < 0)? -1: line.indexOf(',', i3+1);
+		if (i4 < 0) {
+		    throw new IllegalStateException
+			(errorMsg("replaySyntax", getName(), lineno));
+		}
+		int i5 = line.indexOf(',', i4+1);
+		if (i5 < 0) i5 = line.length();
+		try {
+		    count = Integer.parseInt(line.substring(i3+1, i4).trim());
+		} catch (NumberFormatException e) {
+		    throw new IllegalStateException
+			(errorMsg("replaySyntax", getName(), lineno), e);
+		}
+		String flag = line.substring(i4+1, i5).trim();
+		boolean overflow = flag.equals("1")
+		    || flag.equalsIgnoreCase("true");
+		if (count <= 0 || !(overflow || flag.equals("0")
+				    || flag.equalsIgnoreCase("false"))) {
+		    throw new IllegalStateException
+			(errorMsg("replaySyntax", getName(), lineno));
+		}
+		time -= offset;
+		if (time < nextTime) {
+		    throw new IllegalStateException
+			(errorMsg("replayOrder", getName(), lineno));
+		}
+		nextTime = time;
+		if (time < sim.currentTime()) {
+		    skipped++;
+		    continue;
+		}
+		Hub origin = lookup(line.substring(i1+1, i2).trim());
+		Hub dest = lookup(line.substring(i2+1, i3).trim());
+		if (origin == null || dest == null) {
+		    trace(context.level4(), "line %d: unknown hub", lineno);
+		    skipped++;
+		    continue;
+		}
+		nextOrigin = origin;
+		nextDest = dest;
+		nextCount = count;
+		nextOverflow = overflow;
+		return true;
+	    }
+	} catch (IOException e) {
+	    close();
+	    throw new IllegalStateException
+		(errorMsg("replayIO", getName(),
+			  (filename == null)? "<reader>": filename), e);
+	}
+	close();
+	return false;
+    }
+
+    @Override
+    protected double getNextInterval() {
+	for (;;) {
+	    if (!pending) {
+		if (eof || !readTrip()) {
+		    // a negative value indicates that no trip should be
+		    // scheduled
+		    return -1.0;
+		}
+		pending = true;
+	    }
+	    double interval = nextTime - sim.currentTime();
+	    if (interval >= 0.0) return interval;
+	    // The trip generator was stopped and restarted after the
+	    // pending trip should have started, so the trip is skipped
+	    // just as it would have been if it had been read after the
+	    // restart.
+	    pending = false;
+	    skipped++;
+	}
+    }
+
+    @Override
+    protected boolean action() {
+	if (!pending) return true;
+	pending = false;
+	final Hub hub = nextOrigin;
+	final Hub dest = nextDest;
+	final long tripID = createTripID();
+	trace(context.level4(),
+	      "sending %d bike-share users from %s to %s, "
+	      + "intending to use the %s",
+	      nextCount, hub, dest,
+	      (nextOverflow? "overflow area": "preferred area"));
+	startTrip(acquireTripState(tripID, hub, dest, nextCount),
+		  nextOverflow);
+	replayed++;
+	return true;
+    }
+
+     /**
+     * {@inheritDoc}
+     * <P>
+     * Defined for class TripReplayGenerator:
+     * <UL>
+     *  <LI> the input file, if any.
+     *  <LI> the time offset.
+     *  <LI> the probability function.
+     * </UL>
+     * @param iPrefix {@inheritDoc}
+     * @param prefix {@inheritDoc}
+     * @param printName {@inheritDoc}
+     * @param out {@inheritDoc}
+     */
+    @Override
+    public void printConfiguration(String iPrefix, String prefix,
+				   boolean printName,
+				   PrintWriter out)
+    {
+	super.printConfiguration(iPrefix, prefix, printName, out);
+	out.println(prefix + "input file: "
+		    + ((filename == null)? "<none>": filename));
+	out.println(prefix + "time offset: " + offset + " seconds");
+	out.println(prefix + "probability function: "
+		    + ((sfpf == null)? "<none>": sfpf.getName()));
+    }
+
+     /**
+     * {@inheritDoc}
+     * <P>
+     * Defined for class TripReplayGenerator:
+     * <UL>
+     *  <LI> the number of lines read.
+     *  <LI> the number of trips started and the number skipped.
+     *  <LI> whether the end of the input was reached.
+     * </UL>
+     * @param iPrefix {@inheritDoc}
+     * @param prefix {@inheritDoc}
+     * @param printName {@inheritDoc}
+     * @param out {@inheritDoc}
+     */
+    @Override
+    public void printState(String iPrefix, String prefix,
+			   boolean printName,
+			   PrintWriter out)
+    {
+	super.printState(iPrefix, prefix, printName, out);
+	out.println(prefix + "lines read: " + lineno);
+	out.println(prefix + "trips replayed: " + replayed
+		    + ", trips skipped: " + skipped);
+	out.println(prefix + "end of input: " + eof);
+    }
+}
+
+//  LocalWords:  CSV TripReplayGenerator BasicTripGenerator iPrefix
+//  LocalWords:  printName sfpf
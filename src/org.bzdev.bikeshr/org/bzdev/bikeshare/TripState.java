@@ -0,0 +1,89 @@
+package org.bzdev.bikeshare;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+import org.bzdev.math.RealValuedFunctionTwo;
+
+/**
+ * The state of a trip created by a trip generator.
+ * An instance is the continuation passed to
+ * {@link Hub#sendUsers(Hub,int,boolean,RealValuedFunctionTwo,Callable)}
+ * and, for round trips, the callable scheduled to end the pause at
+ * the destination.  Its phase determines what happens each time it
+ * is called.  When the trip ends or fails, the instance is returned
+ * to its trip generator's pool (see
+ * {@link TripGenerator#acquireTripState(long,Hub,Hub,int)}) so that
+ * a trip generator does not allocate new objects for each trip.
+ * An instance must not be used after it has been released.
+ */
+final class TripState implements Callable {
+
+    // Phases.
+    // Arrival at dest ends the trip.
+    static final int ONE_WAY = 0;
+    // Arrival at dest starts a pause of length wait.
+    static final int OUTBOUND = 1;
+    // The pause at dest ends and the users return to src.
+    static final int PAUSED = 2;
+    // Arrival at src ends the trip.
+    static final int RETURN = 3;
+
+    // Flags.
+    // The return trip uses the overflow area at src.
+    static final int OVERFLOW_RETURN = 1;
+
+    TripGenerator generator;
+    TripState next = null;
+
+    long tripID;
+    Hub src;
+    Hub dest;
+    int nbikes;
+    int phase;
+    double wait;
+    int flags;
+
+    TripState(TripGenerator generator) {
+	this.generator = generator;
+    }
+
+    @Override
+    public void call() {
+	long id = tripID;
+	switch (phase) {
+	case ONE_WAY:
+	    generator.fireTripEnded(id, dest);
+	    generator.tripCompleted(this);
+	    generator.releaseTripState(this);
+	    break;
+	case OUTBOUND:
+	    phase = PAUSED;
+	    generator.fireTripPauseStart(id, dest);
+	    DramaSimulation sim = generator.sim;
+	    sim.scheduleCall(this, sim.getTicks(wait));
+	    break;
+	case PAUSED:
+	    {
+		Hub hub = dest;
+		phase = RETURN;
+		HubDomain rd =
+		    hub.sendUsers(src, nbikes,
+				  (flags & OVERFLOW_RETURN) != 0,
+				  generator.getProbabilityFunction(), this);
+		if (rd != null) {
+		    generator.fireTripPauseEnd(id, hub, rd);
+		} else {
+		    generator.fireTripFailedMidstream(id, hub);
+		    generator.releaseTripState(this);
+		}
+	    }
+	    break;
+	case RETURN:
+	    generator.fireTripEnded(id, src);
+	    generator.tripCompleted(this);
+	    generator.releaseTripState(this);
+	    break;
+	}
+    }
+}
+
+//  LocalWords:  RealValuedFunctionTwo src dest
@@ -45,7 +45,8 @@ public class UsrDomain extends HubDomain {
     public UsrDomain(DramaSimulation sim, String name,
 		     boolean intern, Domain parent)
     {
-	super(sim, name, intern, parent, BikeShare.usrDomainPriority);
+	super(sim, name, intern, parent, 
+	      BikeShareContext.get(sim).usrDomainPriority());
     }
 }
 
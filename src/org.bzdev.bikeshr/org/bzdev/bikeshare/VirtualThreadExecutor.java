@@ -0,0 +1,159 @@
+package org.bzdev.bikeshare;
+import org.bzdev.devqsim.Simulation;
+import org.bzdev.lang.Callable;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Semaphore;
+
+/*
+ * Task executor that runs hub-worker bodies on virtual threads.
+ * Virtual threads were added in Java 21 but this library is compiled
+ * for Java 11, so they are created using reflection.
+ *
+ * As with TaskThread, only one thread runs at a time: the simulation
+ * thread blocks while a body runs, and a body blocks while the
+ * simulation thread processes events.  A pause schedules an event
+ * that will resume the body and then hands control back to the
+ * simulation thread.
+ *
+ * A virtual thread that is paused when a simulation is no longer run
+ * would remain blocked indefinitely, so close() resumes each such
+ * thread and makes its pause throw an error that ends the body.
+ */
+class VirtualThreadExecutor implements HubWorker.TaskExecutor {
+
+    private static Method ofVirtual = null;
+    private static Method unstarted = null;
+
+    // On Java 19 and 20, Thread.ofVirtual exists but throws an
+    // UnsupportedOperationException unless preview features are
+    // enabled, so an unstarted thread is created to test that virtual
+    // threads can actually be used.
+    static {
+	try {
+	    ofVirtual = Thread.class.getMethod("ofVirtual");
+	    Class<?> builder = ofVirtual.getReturnType();
+	    unstarted = builder.getMethod("unstarted", Runnable.class);
+	    unstarted.invoke(ofVirtual.invoke(null), new Runnable() {
+		    public void run() {}
+		});
+	} catch (ReflectiveOperationException | RuntimeException e) {
+	    ofVirtual = null;
+	    unstarted = null;
+	}
+    }
+
+    static boolean isSupported() {
+	return ofVirtual != null;
+    }
+
+    private static Thread newThread(Runnable runnable) {
+	try {
+	    return (Thread) unstarted.invoke(ofVirtual.invoke(null), runnable);
+	} catch (ReflectiveOperationException e) {
+	    throw new UnsupportedOperationException
+		(BikeShare.errorMsg("noVirtualThreads"), e);
+	}
+    }
+
+    private Simulation sim;
+    // released when a body pauses or terminates.
+    private Semaphore simTurn = new Semaphore(0);
+    private Task running = null;
+    // tasks whose threads have started and not terminated.
+    private LinkedHashSet<Task> live = new LinkedHashSet<>();
+    private boolean closed = false;
+
+    // Thrown by pause() in a body resumed by close().
+    private static class Closed extends Error {
+	Closed() {
+	    super(BikeShare.errorMsg("executorClosed"));
+	}
+    }
+
+    private class Task implements Callable {
+	Runnable body;
+	Thread thread = null;
+	Semaphore turn = new Semaphore(0);
+	RuntimeException exception = null;
+	Error error = null;
+
+	Task(Runnable body) {
+	    this.body = body;
+	}
+
+	public void call() {
+	    if (closed) return;
+	    running = this;
+	    if (thread == null) {
+		thread = newThread(new Runnable() {
+			public void run() {
+			    try {
+				body.run();
+			    } catch (Closed e) {
+			    } catch (RuntimeException e) {
+				exception = e;
+			    } catch (Error e) {
+				error = e;
+			    } finally {
+				live.remove(Task.this);
+				simTurn.release();
+			    }
+			}
+		    });
+		live.add(this);
+		thread.start();
+	    } else {
+		turn.release();
+	    }
+	    simTurn.acquireUninterruptibly();
+	    running = null;
+	    if (exception != null) throw exception;
+	    if (error != null) throw error;
+	}
+    }
+
+    VirtualThreadExecutor(Simulation sim) {
+	if (!isSupported()) {
+	    throw new UnsupportedOperationException
+		(BikeShare.errorMsg("noVirtualThreads"));
+	}
+	this.sim = sim;
+    }
+
+    @Override
+    public void scheduleTask(Runnable body, long delay) {
+	sim.scheduleCall(new Task(body), delay);
+    }
+
+    @Override
+    public void pause(long ticks) {
+	Task task = running;
+	if (task == null || task.thread != Thread.currentThread()) {
+	    throw new IllegalStateException
+		(BikeShare.errorMsg("notWorkerThread"));
+	}
+	if (closed) throw new Closed();
+	sim.scheduleCall(task, ticks);
+	simTurn.release();
+	task.turn.acquireUninterruptibly();
+	if (closed) throw new Closed();
+    }
+
+    @Override
+    public void close() {
+	if (running != null) {
+	    throw new IllegalStateException
+		(BikeShare.errorMsg("closeFromTask"));
+	}
+	if (closed) return;
+	closed = true;
+	for (Task task: live.toArray(new Task[live.size()])) {
+	    task.turn.release();
+	    simTurn.acquireUninterruptibly();
+	}
+    }
+}
+
+//  LocalWords:  TaskThread
@@ -0,0 +1,201 @@
+package org.bzdev.bikeshare;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * City-wide pool of idle workers for the storage hubs in a system
+ * domain.  Idle workers wait at their storage hubs, so the pool
+ * indexes them by storage hub.  The storage hubs are numbered
+ * consecutively, in the order given by Hub.getIndex(), when the pool
+ * is built, and idle[m] is true when storage hub m has a worker in its
+ * queue.
+ *
+ * For each storage hub that requests a worker, the storage hubs are
+ * ordered by the estimated delay to reach the requesting storage hub
+ * (computed once from the system domain's delay table), with the
+ * requester first and ties broken by member number, and a segment
+ * tree over the positions in that order counts the idle storage hubs
+ * in each range of positions.  The nearest storage hub with an idle
+ * worker is found by descending the tree to its first nonzero leaf.
+ *
+ * A change in a storage hub's idle state is appended to a log in
+ * constant time.  A requester's tree is brought up to date when that
+ * requester next searches it, updating one leaf-to-root path for each
+ * change logged since its previous search.  When the log is full, the
+ * trees of requesters that have not seen every change are rebuilt
+ * from the idle array on their next search, so a search costs
+ * O(min(k log n, n)) time for k changes and n storage hubs.
+ * A request that can be handled locally costs a single test.
+ */
+class WorkerPool {
+
+    SysDomain domain;
+
+    // null when the pool must be rebuilt
+    StorageHub[] members = null;
+    // member numbers indexed by Hub.getIndex(); -1 for other hubs
+    int[] memberIndex = new int[0];
+    boolean[] idle;
+    int size;			// number of leaves, a power of two
+
+    // member numbers whose idle state changed, oldest first
+    int[] changes;
+    int nchanges = 0;
+
+    // The storage hubs ordered by proximity to a requester.
+    static class Requester {
+	int[] order;		// member indices by position
+	int[] position;		// positions by member index
+	int[] tree;		// idle counts; leaves start at size
+	int synced;		// number of logged changes applied
+	boolean stale;		// true if the tree must be rebuilt
+    }
+    Requester[] requesters;
+
+    WorkerPool(SysDomain domain) {
+	this.domain = domain;
+    }
+
+    // called when the set of storage hubs changes
+    void invalidate() {
+	members = null;
+    }
+
+    private void build() {
+	members = domain.getStorageHubs().toArray(new StorageHub[0]);
+	Arrays.sort(members, new Comparator<StorageHub>() {
+		public int compare(StorageHub x, StorageHub y) {
+		    return Integer.compare(x.getIndex(), y.getIndex());
+		}
+	    });
+	int n = members.length;
+	int maxIndex = (n == 0)? -1: members[n-1].getIndex();
+	memberIndex = new int[maxIndex + 1];
+	Arrays.fill(memberIndex, -1);
+	idle = new boolean[n];
+	for (int m = 0; m < n; m++) {
+	    memberIndex[members[m].getIndex()] = m;
+	    idle[m] = !members[m].workerQueue.isEmpty();
+	}
+	size = 1;
+	while (size < n) size <<= 1;
+	changes = new int[Math.max(64, 4*n)];
+	nchanges = 0;
+	requesters = new Requester[n];
+    }
+
+    // Get a storage hub's member number; -1 if it is not a member.
+    private int memberOf(StorageHub shub) {
+	int index = shub.getIndex();
+	return (index < memberIndex.length)? memberIndex[index]: -1;
+    }
+
+    void setIdle(StorageHub shub, boolean value) {
+	if (members == null) return;
+	int m = memberOf(shub);
+	if (m < 0) return;
+	if (idle[m] == value) return;
+	idle[m] = value;
+	if (nchanges == changes.length) {
+	    for (Requester r: requesters) {
+		if (r == null) continue;
+		if (r.synced < nchanges) r.stale = true;
+		r.synced = 0;
+	    }
+	    nchanges = 0;
+	}
+	changes[nchanges++] = m;
+    }
+
+    // Apply the changes logged since a requester's previous search.
+    private void sync(Requester r) {
+	if (r.stale) {
+	    for (int k = 0; k < r.order.length; k++) {
+		r.tree[size + k] = idle[r.order[k]]? 1: 0;
+	    }
+	    for (int i = size - 1; i > 0; i--) {
+		r.tree[i] = r.tree[2*i] + r.tree[2*i+1];
+	    }
+	    r.stale = false;
+	} else {
+	    for (int k = r.synced; k < nchanges; k++) {
+		int m = changes[k];
+		int leaf = size + r.position[m];
+		int delta = (idle[m]? 1: 0) - r.tree[leaf];
+		if (delta == 0) continue;
+		for (int i = leaf; i > 0; i >>= 1) {
+		    r.tree[i] += delta;
+		}
+	    }
+	}
+	r.synced = nchanges;
+    }
+
+    private Requester getRequester(int req) {
+	Requester r = requesters[req];
+	if (r == null) {
+	    final StorageHub requester = members[req];
+	    int n = members.length;
+	    final double[] delays = new double[n];
+	    Integer[] sorted = new Integer[n];
+	    for (int m = 0; m < n; m++) {
+		sorted[m] = m;
+		delays[m] = (m == req)? -1.0:
+		    domain.estimateDelay(members[m], requester, 1);
+	    }
+	    Arrays.sort(sorted, new Comparator<Integer>() {
+		    public int compare(Integer x, Integer y) {
+			int c = Double.compare(delays[x], delays[y]);
+			return (c != 0)? c: Integer.compare(x, y);
+		    }
+		});
+	    r = new Requester();
+	    r.order = new int[n];
+	    r.position = new int[n];
+	    r.tree = new int[2*size];
+	    for (int k = 0; k < n; k++) {
+		int m = sorted[k];
+		r.order[k] = m;
+		r.position[m] = k;
+		if (idle[m]) r.tree[size + k] = 1;
+	    }
+	    for (int i = size - 1; i > 0; i--) {
+		r.tree[i] = r.tree[2*i] + r.tree[2*i+1];
+	    }
+	    r.synced = nchanges;
+	    requesters[req] = r;
+	} else {
+	    sync(r);
+	}
+	return r;
+    }
+
+    /*
+     * Find the storage hub nearest to a requesting storage hub that
+     * has an idle worker.  Returns null if there is none.
+     */
+    StorageHub nearest(StorageHub requester) {
+	if (members == null) build();
+	int req = memberOf(requester);
+	if (req < 0) return null;
+	if (idle[req]) return requester;
+	Requester r = getRequester(req);
+	if (r.tree[1] == 0) return null;
+	int i = 1;
+	while (i < size) {
+	    i = (r.tree[2*i] > 0)? 2*i: 2*i + 1;
+	}
+	return members[r.order[i - size]];
+    }
+
+    /*
+     * Determine if no storage hub in the pool has workers that
+     * can be used for additional tasks.
+     */
+    boolean notUseable() {
+	for (StorageHub shub: domain.getStorageHubs()) {
+	    if (!shub.localWorkerQueueNotUseable()) return false;
+	}
+	return true;
+    }
+}
@@ -0,0 +1,242 @@
+package org.bzdev.bikeshare;
+
+/**
+ * Snapshot of the statistics accumulated by one or more hub workers.
+ * Instances are returned by {@link HubWorker#getStatistics()},
+ * {@link StorageHub#getWorkerStatistics()}, and
+ * {@link SysDomain#getWorkerStatistics()}. A snapshot is immutable:
+ * it records the values at the simulation time at which it was
+ * created. For a storage hub or system domain, each value is the sum
+ * of the values for the workers while they were assigned to the
+ * storage hub or storage hubs, so the totals for a storage hub keep
+ * the activity of workers that were later moved to another storage
+ * hub or removed.
+ * <P>
+ * The busy time for a worker is the time from when it was started
+ * until it was put back into its storage hub's worker queue (or the
+ * current simulation time if the worker is still running). The idle
+ * time is the time since the worker was initialized during which the
+ * worker was not busy.  A visit is an arrival at a hub that is not a
+ * storage hub, and a visit is empty-handed if the worker left that
+ * hub without picking up or dropping off any bicycles.
+ * <P>
+ * The queue-wait values apply to storage hubs: they count the
+ * callables added by
+ * {@link StorageHub#addOnQueueCallable(org.bzdev.lang.Callable)}
+ * that have been run and the total time these callables waited for a
+ * worker to be queued.  For an individual worker, these values are
+ * zero.
+ */
+public final class WorkerStatistics {
+    private final int nworkers;
+    private final double busyTime;
+    private final double idleTime;
+    private final double travelTime;
+    private final double distance;
+    private final long trips;
+    private final long bikesPickedUp;
+    private final long bikesDroppedOff;
+    private final long visits;
+    private final long emptyVisits;
+    private final long queuedActions;
+    private final double queueWaitTime;
+
+    WorkerStatistics(int nworkers, double busyTime, double idleTime,
+		     double travelTime, double distance, long trips,
+		     long bikesPickedUp, long bikesDroppedOff,
+		     long visits, long emptyVisits,
+		     long queuedActions, double queueWaitTime)
+    {
+	this.nworkers = nworkers;
+	this.busyTime = busyTime;
+	this.idleTime = idleTime;
+	this.travelTime = travelTime;
+	this.distance = distance;
+	this.trips = trips;
+	this.bikesPickedUp = bikesPickedUp;
+	this.bikesDroppedOff = bikesDroppedOff;
+	this.visits = visits;
+	this.emptyVisits = emptyVisits;
+	this.queuedActions = queuedActions;
+	this.queueWaitTime = queueWaitTime;
+    }
+
+    // Sum a series of snapshots, adding queue-wait values that
+    // were not included in any of them.
+    static WorkerStatistics sum(Iterable<WorkerStatistics> list,
+				long queuedActions, double queueWaitTime)
+    {
+	int nworkers = 0;
+	double busyTime = 0.0;
+	double idleTime = 0.0;
+	double travelTime = 0.0;
+	double distance = 0.0;
+	long trips = 0;
+	long bikesPickedUp = 0;
+	long bikesDroppedOff = 0;
+	long visits = 0;
+	long emptyVisits = 0;
+	for (WorkerStatistics stats: list) {
+	    nworkers += stats.nworkers;
+	    busyTime += stats.busyTime;
+	    idleTime += stats.idleTime;
+	    travelTime += stats.travelTime;
+	    distance += stats.distance;
+	    trips += stats.trips;
+	    bikesPickedUp += stats.bikesPickedUp;
+	    bikesDroppedOff += stats.bikesDroppedOff;
+	    visits += stats.visits;
+	    emptyVisits += stats.emptyVisits;
+	    queuedActions += stats.queuedActions;
+	    queueWaitTime += stats.queueWaitTime;
+	}
+	return new WorkerStatistics(nworkers, busyTime, idleTime,
+				    travelTime, distance, trips,
+				    bikesPickedUp, bikesDroppedOff,
+				    visits, emptyVisits,
+				    queuedActions, queueWaitTime);
+    }
+
+    // The change in each value since an earlier snapshot for the same
+    // workers, with the number of workers given explicitly.  A null
+    // snapshot is treated as zero.
+    WorkerStatistics since(WorkerStatistics base, int nworkers) {
+	if (base == null) {
+	    return new WorkerStatistics(nworkers, busyTime, idleTime,
+					travelTime, distance, trips,
+					bikesPickedUp, bikesDroppedOff,
+					visits, emptyVisits,
+					queuedActions, queueWaitTime);
+	}
+	return new WorkerStatistics(nworkers,
+				    busyTime - base.busyTime,
+				    idleTime - base.idleTime,
+				    travelTime - base.travelTime,
+				    distance - base.distance,
+				    trips - base.trips,
+				    bikesPickedUp - base.bikesPickedUp,
+				    bikesDroppedOff - base.bikesDroppedOff,
+				    visits - base.visits,
+				    emptyVisits - base.emptyVisits,
+				    queuedActions - base.queuedActions,
+				    queueWaitTime - base.queueWaitTime);
+    }
+
+    // The sum of this snapshot and another.
+    WorkerStatistics plus(WorkerStatistics other) {
+	return new WorkerStatistics(nworkers + other.nworkers,
+				    busyTime + other.busyTime,
+				    idleTime + other.idleTime,
+				    travelTime + other.travelTime,
+				    distance + other.distance,
+				    trips + other.trips,
+				    bikesPickedUp + other.bikesPickedUp,
+				    bikesDroppedOff + other.bikesDroppedOff,
+				    visits + other.visits,
+				    emptyVisits + other.emptyVisits,
+				    queuedActions + other.queuedActions,
+				    queueWaitTime + other.queueWaitTime);
+    }
+
+    /**
+     * Get the number of workers whose statistics are included.
+     * @return the number of workers
+     */
+    public int getWorkerCount() {return nworkers;}
+
+    /**
+     * Get the total time workers were busy.
+     * @return the busy time in seconds
+     */
+    public double getBusyTime() {return busyTime;}
+
+    /**
+     * Get the total time workers were idle.
+     * @return the idle time in seconds
+     */
+    public double getIdleTime() {return idleTime;}
+
+    /**
+     * Get the fraction of the time workers were busy.
+     * @return the busy time divided by the sum of the busy and idle
+     *         times; 0.0 if that sum is zero
+     */
+    public double getUtilization() {
+	double total = busyTime + idleTime;
+	return (total == 0.0)? 0.0: busyTime / total;
+    }
+
+    /**
+     * Get the total time workers spent traveling between hubs.
+     * @return the travel time in seconds
+     */
+    public double getTravelTime() {return travelTime;}
+
+    /**
+     * Get the total distance workers traveled between hubs.
+     * Distances are the straight-line distances between the
+     * coordinates of the hubs, in the units used for those
+     * coordinates.
+     * @return the distance traveled
+     * @see Hub#getX()
+     * @see Hub#getY()
+     */
+    public double getDistance() {return distance;}
+
+    /**
+     * Get the number of trips between hubs.
+     * @return the number of trips
+     */
+    public long getTripCount() {return trips;}
+
+    /**
+     * Get the number of bicycles workers picked up, whether from a
+     * storage hub, a hub's preferred area, or a hub's overflow area.
+     * @return the number of bicycles picked up
+     */
+    public long getBikesPickedUp() {return bikesPickedUp;}
+
+    /**
+     * Get the number of bicycles workers dropped off, whether at a
+     * storage hub or a hub's preferred area.
+     * @return the number of bicycles dropped off
+     */
+    public long getBikesDroppedOff() {return bikesDroppedOff;}
+
+    /**
+     * Get the number of visits to hubs that are not storage hubs.
+     * @return the number of visits
+     */
+    public long getVisitCount() {return visits;}
+
+    /**
+     * Get the number of visits to hubs that are not storage hubs
+     * in which no bicycles were picked up or dropped off.
+     * @return the number of empty-handed visits
+     */
+    public long getEmptyVisitCount() {return emptyVisits;}
+
+    /**
+     * Get the number of actions that waited for a worker to be queued.
+     * @return the number of actions added by
+     *  {@link StorageHub#addOnQueueCallable(org.bzdev.lang.Callable)}
+     *  that have been run
+     */
+    public long getQueuedActionCount() {return queuedActions;}
+
+    /**
+     * Get the total time actions waited for a worker to be queued.
+     * @return the total wait in seconds
+     */
+    public double getQueueWaitTime() {return queueWaitTime;}
+
+    /**
+     * Get the mean time an action waited for a worker to be queued.
+     * @return the mean wait in seconds; 0.0 if no actions have waited
+     */
+    public double getMeanQueueWaitTime() {
+	return (queuedActions == 0)? 0.0: queueWaitTime / queuedActions;
+    }
+}
+
+//  LocalWords:  callables nworkers
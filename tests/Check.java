@@ -0,0 +1,40 @@
+/*
+ * Checks shared by the tests.  A test calls check for each condition
+ * it tests, or fail when it has already determined that a condition
+ * does not hold, and ends by calling exit, which prints a summary and
+ * exits with a non-zero status if any check failed.  The methods are
+ * synchronized so that checks can be made from threads other than the
+ * simulation thread.
+ */
+
+public class Check {
+
+    static int failures = 0;
+
+    static synchronized void check(boolean test, String msg) {
+	if (!test) fail(msg);
+    }
+
+    static synchronized void fail(String msg) {
+	System.out.println("FAILED: " + msg);
+	failures++;
+    }
+
+    static synchronized int failures() {
+	return failures;
+    }
+
+    static void exit() {
+	exit("all checks passed");
+    }
+
+    static void exit(String passedMsg) {
+	int n = failures();
+	if (n > 0) {
+	    System.out.println(n + " checks failed");
+	    System.exit(1);
+	}
+	System.out.println(passedMsg);
+	System.exit(0);
+    }
+}
@@ -0,0 +1,182 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+
+/*
+ * Benchmark for hub-worker task executors.  For 100, 1000, and 10000
+ * workers, each worker's task pauses a fixed number of times and the
+ * time per context switch (a task pausing and later resuming) and the
+ * heap memory per worker are printed for simulation task threads,
+ * virtual threads (when supported), and event-driven callables.
+ *
+ * The heap measurement does not include the native stacks of
+ * platform threads, so it understates the memory used by simulation
+ * task threads.
+ *
+ * The pause lengths depend on the worker and the number of pauses,
+ * and the order in which workers resume and the simulation time at
+ * which they resume must be the same for each executor.  Tasks run by
+ * a virtual-thread executor that is closed while they are paused must
+ * terminate.  The program exits with a non-zero status if any check
+ * fails.
+ */
+
+public class Test10 {
+
+    static final int PAUSES = 100;
+
+    static long delay(int i, int j) {
+	return 1 + (i + j) % 3;
+    }
+
+    // Records the order in which workers resume and the time at which
+    // each resumes.  Only one task runs at a time.
+    static class Trace {
+	DramaSimulation sim;
+	long hash = 0;
+	long count = 0;
+
+	Trace(DramaSimulation sim) {
+	    this.sim = sim;
+	}
+
+	void record(int i) {
+	    hash = 31 * (31 * hash + i) + sim.currentTicks();
+	    count++;
+	}
+    }
+
+    static void checkTrace(String name, int n, Trace trace, Trace expected) {
+	Check.check(trace.count == (long)n * (PAUSES + 1),
+		    name + ", " + n + " workers: " + trace.count
+		    + " resumptions");
+	if (expected != null) {
+	    Check.check(trace.hash == expected.hash,
+			name + ", " + n + " workers: resumptions differ"
+			+ " from those for events");
+	}
+    }
+
+    static long usedMemory() {
+	Runtime rt = Runtime.getRuntime();
+	for (int i = 0; i < 3; i++) {
+	    System.gc();
+	}
+	return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static void report(String name, int n, long nanos, long bytes) {
+	double switches = (double)n * PAUSES;
+	System.out.format("%-16s workers = %5d: %8.3f us/switch, "
+			  + "%10.1f bytes/worker\n",
+			  name, n, (nanos/1000.0)/switches,
+			  ((double)bytes)/n);
+    }
+
+    static void runExecutor(String name, int n, boolean virtual,
+			    Trace expected)
+    {
+	final DramaSimulation sim = new DramaSimulation(1000.0);
+	final HubWorker.TaskExecutor executor = virtual?
+	    HubWorker.newVirtualThreadExecutor(sim):
+	    HubWorker.newTaskThreadExecutor(sim);
+	final Trace trace = new Trace(sim);
+	long m0 = usedMemory();
+	for (int i = 0; i < n; i++) {
+	    final int index = i;
+	    executor.scheduleTask(new Runnable() {
+		    public void run() {
+			for (int j = 0; j < PAUSES; j++) {
+			    trace.record(index);
+			    executor.pause(delay(index, j));
+			}
+			trace.record(index);
+		    }
+		}, 1);
+	}
+	// start all tasks so that each has paused once.
+	sim.run(2);
+	long m1 = usedMemory();
+	long t0 = System.nanoTime();
+	sim.run();
+	long t1 = System.nanoTime();
+	report(name, n, t1 - t0, m1 - m0);
+	checkTrace(name, n, trace, expected);
+	executor.close();
+    }
+
+    static Trace runEvents(int n) {
+	final DramaSimulation sim = new DramaSimulation(1000.0);
+	final Trace trace = new Trace(sim);
+	long m0 = usedMemory();
+	for (int i = 0; i < n; i++) {
+	    final int index = i;
+	    sim.scheduleCall(new Callable() {
+		    int count = 0;
+		    public void call() {
+			trace.record(index);
+			if (count < PAUSES) {
+			    sim.scheduleCall(this, delay(index, count));
+			}
+			count++;
+		    }
+		}, 1);
+	}
+	sim.run(2);
+	long m1 = usedMemory();
+	long t0 = System.nanoTime();
+	sim.run();
+	long t1 = System.nanoTime();
+	report("events", n, t1 - t0, m1 - m0);
+	checkTrace("events", n, trace, null);
+	return trace;
+    }
+
+    // Close a virtual-thread executor while its tasks are paused.
+    static void closeExecutor(int n) {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	final HubWorker.TaskExecutor executor =
+	    HubWorker.newVirtualThreadExecutor(sim);
+	final int[] counts = new int[2];
+	for (int i = 0; i < n; i++) {
+	    executor.scheduleTask(new Runnable() {
+		    public void run() {
+			try {
+			    for (int j = 0; j < PAUSES; j++) {
+				executor.pause(1);
+				counts[0]++;
+			    }
+			} finally {
+			    counts[1]++;
+			}
+		    }
+		}, 1);
+	}
+	sim.run(2);
+	executor.close();
+	Check.check(counts[1] == n, counts[1] + " of " + n
+		    + " tasks terminated when the executor was closed");
+	int resumed = counts[0];
+	sim.run();
+	Check.check(counts[0] == resumed,
+		    "tasks resumed after the executor was closed");
+    }
+
+    public static void main(String argv[]) throws Exception {
+	int[] counts = {100, 1000, 10000};
+	if (!HubWorker.virtualThreadsSupported()) {
+	    System.out.println("virtual threads not supported");
+	}
+	for (int n: counts) {
+	    Trace expected = runEvents(n);
+	    runExecutor("task threads", n, false, expected);
+	    if (HubWorker.virtualThreadsSupported()) {
+		runExecutor("virtual threads", n, true, expected);
+	    }
+	}
+	if (HubWorker.virtualThreadsSupported()) {
+	    closeExecutor(100);
+	}
+	Check.exit();
+    }
+}
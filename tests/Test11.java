@@ -0,0 +1,128 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.util.Random;
+
+/*
+ * Route planning: hubs on a grid are given random surpluses and
+ * deficits and a route is planned for a worker starting and ending
+ * at a storage hub.  The estimated travel time for the planned route
+ * is compared to the time for the order a worker uses without a
+ * planner (alternating between hubs sorted by surplus and hubs sorted
+ * by deficit).
+ */
+
+public class Test11 {
+
+    static double routeDelay(SysDomain domain, Hub start, Hub end,
+			     Hub[] route, int[] amounts, Hub[] hubs,
+			     int load, int capacity)
+    {
+	double delay = 0.0;
+	Hub prev = start;
+	for (Hub hub: route) {
+	    int amount = 0;
+	    for (int i = 0; i < hubs.length; i++) {
+		if (hubs[i] == hub) amount = amounts[i];
+	    }
+	    int s = 0;
+	    if (amount > 0) {
+		s = Math.min(amount, capacity - load);
+		load += s;
+	    } else if (amount < 0) {
+		s = Math.min(-amount, load);
+		load -= s;
+	    }
+	    if (s > 0) {
+		delay += domain.estimateDelay(prev, hub, 1);
+		prev = hub;
+	    }
+	}
+	return delay + domain.estimateDelay(prev, end, 1);
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(MKS.mph(25.0),
+							 MKS.mph(3.0));
+	sysSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV, MKS.miles(1.0),
+		      4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	StorageHub storageHub = new StorageHub(sim, "storageHub", true);
+	storageHub.init(-1, -1, -1, -1, MKS.miles(2.0), MKS.miles(2.0),
+			sysDomain);
+
+	Random random = new Random(17);
+	int n = 0;
+	Hub[] hubs = new Hub[25];
+	int[] amounts = new int[25];
+	for (int i = 0; i < 5; i++) {
+	    for (int j = 0; j < 5; j++) {
+		int count = random.nextInt(11);
+		Hub hub = new Hub(sim, "hub" + i + j, true);
+		hub.init(10, 3, 5, 7, pickupTime,
+			 count, 0,
+			 MKS.miles(i), MKS.miles(j), usrDomain, sysDomain);
+		hubs[n] = hub;
+		amounts[n++] = count - 5;
+	    }
+	}
+	int capacity = 10;
+	int load = 5;
+
+	RoutePlanner planner = new RoutePlanner(sysDomain);
+	planner.setMoveBudget(1000000);
+	Hub[] route = planner.plan(storageHub, storageHub, hubs, amounts,
+				   load, capacity);
+	System.out.format("planned: served %d of %d, delay = %g "
+			  + "(initially %g), %d improvements, %g s\n",
+			  planner.getLastServed(), planner.getLastDemand(),
+			  planner.getLastEstimatedDelay(),
+			  planner.getLastInitialDelay(),
+			  planner.getLastImprovements(),
+			  planner.getLastPlanningTime());
+	double check = routeDelay(sysDomain, storageHub, storageHub,
+				  route, amounts, hubs, load, capacity);
+	if (Math.abs(check - planner.getLastEstimatedDelay()) > 1.0e-6) {
+	    System.out.println("planned delay inconsistent: " + check);
+	    System.exit(1);
+	}
+
+	// The order used without a planner: the hub with the largest
+	// surplus, then the hub with the largest deficit, and so on.
+	Hub[] greedy = new Hub[n];
+	Integer[] over = new Integer[n];
+	Integer[] under = new Integer[n];
+	int no = 0, nu = 0;
+	for (int i = 0; i < n; i++) {
+	    if (amounts[i] > 0) over[no++] = i;
+	    else if (amounts[i] < 0) under[nu++] = i;
+	}
+	java.util.Arrays.sort(over, 0, no, (x, y) -> amounts[y] - amounts[x]);
+	java.util.Arrays.sort(under, 0, nu, (x, y) -> amounts[x] - amounts[y]);
+	int m = 0;
+	for (int i = 0; i < Math.max(no, nu); i++) {
+	    if (i < no) greedy[m++] = hubs[over[i]];
+	    if (i < nu) greedy[m++] = hubs[under[i]];
+	}
+	Hub[] greedyRoute = new Hub[m];
+	System.arraycopy(greedy, 0, greedyRoute, 0, m);
+	System.out.format("alternating: delay = %g\n",
+			  routeDelay(sysDomain, storageHub, storageHub,
+				     greedyRoute, amounts, hubs,
+				     load, capacity));
+	System.exit(0);
+    }
+}
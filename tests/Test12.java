@@ -0,0 +1,179 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+import org.bzdev.lang.Callable;
+
+/*
+ * Optimal-flow hub balancer.  The first part uses three pairs of
+ * hubs, each pair far from the others, with one hub in each pair
+ * given a surplus and the other an equal deficit, and no workers, so
+ * the optimal solution ships each surplus to the other hub in its
+ * pair.  The shipped flow and its estimated delay are checked against
+ * that optimum, both when the problem is created and after bicycle
+ * counts change without hubs leaving their sets.  The program exits
+ * with a non-zero status if a check fails.
+ *
+ * The second part uses hubs on a grid with one-way trips from the
+ * hubs in the first row to the hubs in the last row, so that bicycles
+ * accumulate in the last row and workers have to move them back.
+ * The balancer's state, including the statistics for its
+ * transportation problem, is printed at the end of the run.
+ */
+
+public class Test12 {
+
+    static void checkFlow(OptimalFlowHubBalancer balancer,
+			  int flow, double delay, String when)
+    {
+	if (balancer.getBikesToShip() != flow
+	    || Math.abs(balancer.getShippingDelay() - delay) > 1.0e-6 * delay) {
+	    Check.fail(String.format("%s: shipping %d bicycles "
+				     + "with delay %g, optimum is %d "
+				     + "with delay %g", when,
+				     balancer.getBikesToShip(),
+				     balancer.getShippingDelay(),
+				     flow, delay));
+	}
+    }
+
+    static void knownOptimum() {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	final SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	final OptimalFlowHubBalancer balancer =
+	    new OptimalFlowHubBalancer(sim, "balancer", true);
+	balancer.initDomain(sysDomain);
+	balancer.setQuietPeriod(0.0);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(MKS.mph(25.0),
+							 MKS.mph(3.0));
+	sysSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	// no workers, so the solution is never claimed
+	StorageHub storageHub = new StorageHub(sim, "storageHub", true);
+	storageHub.init(-1, -1, -1, -1, 0.0, MKS.miles(1.0), sysDomain);
+
+	// hubs[2k] and hubs[2k+1] are a pair, 10 miles from other pairs
+	final Hub[] hubs = new Hub[6];
+	for (int i = 0; i < hubs.length; i++) {
+	    hubs[i] = new Hub(sim, "hub" + i, true);
+	    hubs[i].init(10, 3, 5, 7, pickupTime, 5, 0,
+			 MKS.miles(10.0*(i/2) + (i%2)), 0.0,
+			 usrDomain, sysDomain);
+	    storageHub.addHub(HubWorker.Mode.VISIT, hubs[i]);
+	}
+	final double[] pairDelay = new double[3];
+	for (int k = 0; k < 3; k++) {
+	    pairDelay[k] = sysDomain.estimateDelay(hubs[2*k], hubs[2*k+1], 1);
+	}
+
+	sim.scheduleCall(new Callable() {
+		public void call() {
+		    hubs[0].incrBikeCount(3);
+		    hubs[1].decrBikeCount(3);
+		    hubs[2].incrBikeCount(4);
+		    hubs[3].decrBikeCount(4);
+		}
+	    }, sim.getTicks(MKS.minutes(10.0)));
+	sim.scheduleCall(new Callable() {
+		public void call() {
+		    checkFlow(balancer, 7, 3*pairDelay[0] + 4*pairDelay[1],
+			      "problem created");
+		    // hubs 0 and 1 stay in their sets
+		    hubs[0].incrBikeCount(1);
+		    hubs[1].decrBikeCount(1);
+		    // hubs 4 and 5 enter their sets
+		    hubs[4].incrBikeCount(3);
+		    hubs[5].decrBikeCount(3);
+		}
+	    }, sim.getTicks(MKS.minutes(20.0)));
+	sim.run(sim.getTicks(MKS.minutes(30.0)));
+	checkFlow(balancer, 11,
+		  4*pairDelay[0] + 4*pairDelay[1] + 3*pairDelay[2],
+		  "counts changed");
+    }
+
+    public static void main(String argv[]) throws Exception {
+	knownOptimum();
+
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	OptimalFlowHubBalancer balancer =
+	    new OptimalFlowHubBalancer(sim, "balancer", true);
+	balancer.initDomain(sysDomain);
+	balancer.setQuietPeriod(MKS.minutes(10));
+	balancer.setNeighbors(4);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(MKS.mph(25.0),
+							 MKS.mph(3.0));
+	sysSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	StorageHub storageHub = new StorageHub(sim, "storageHub", true);
+	storageHub.init(-1, -1, -1, -1, MKS.miles(2.0), MKS.miles(2.0),
+			sysDomain);
+
+	int n = 5;
+	Hub[][] hubs = new Hub[n][n];
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < n; j++) {
+		Hub hub = new Hub(sim, "hub" + i + j, true);
+		hub.init(10, 3, 5, 7, pickupTime, 5, 0,
+			 MKS.miles(i), MKS.miles(j), usrDomain, sysDomain);
+		storageHub.addHub(HubWorker.Mode.VISIT, hub);
+		hubs[i][j] = hub;
+	    }
+	}
+	for (int k = 0; k < 3; k++) {
+	    HubWorker worker = new HubWorker(sim, "worker" + k, true);
+	    worker.init(10, storageHub, sysDomain, storageHub);
+	}
+
+	double weights[] = {1.0};
+	double overflowProb[] = {0.0};
+	for (int j = 0; j < n; j++) {
+	    Hub[] dest = {hubs[n-1][j]};
+	    BasicTripGenerator tgen =
+		new BasicTripGenerator(sim, "tgen" + j, true);
+	    tgen.init(hubs[0][j], MKS.minutes(20.0), 1, dest,
+		      weights, overflowProb);
+	}
+
+	sim.run(sim.getTicks(MKS.hours(12.0)));
+
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < n; j++) {
+		System.out.format("%3d", hubs[i][j].getBikeCount());
+	    }
+	    System.out.println();
+	}
+	balancer.printConfiguration(System.out);
+	balancer.printState(System.out);
+	Check.exit();
+    }
+}
@@ -0,0 +1,167 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+/*
+ * Per-hub subscriptions: trips run from hub1 to hub2 and hub3 has no
+ * traffic.  A trip data listener subscribed to hub2 must see every
+ * trip end, one subscribed to hub1 must see every trip start and no
+ * trip end, one subscribed to hub1 and hub3 unsubscribes itself from
+ * inside a callback after a fixed number of trips started, and a hub
+ * data listener subscribed to hub3 must see only its initial
+ * notification.  The program exits with a non-zero status if any
+ * check fails.
+ */
+
+public class Test13 {
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(100, 3, 5, 7, pickupTime, 100, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(100, 3, 5, 7, pickupTime, 0, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+	Hub hub3 = new Hub(sim, "hub3", true);
+	hub3.init(10, 3, 5, 7, pickupTime, 5, 0,
+		  MKS.miles(2.0), 0.0, usrDomain, sysDomain);
+
+	Hub[] dests = {hub2};
+	double weights[] = {1.0};
+	double overflowProb[] = {0.0};
+	BasicTripGenerator tgen = new BasicTripGenerator(sim, "tgen", true);
+	tgen.init(hub1, MKS.minutes(5.0), 1, dests, weights, overflowProb);
+
+	final int[] allStarted = {0};
+	final int[] allEnded = {0};
+	tgen.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    allStarted[0]++;
+		}
+		public void tripEnded(long tripID, double time, long ticks,
+				      Hub hub)
+		{
+		    allEnded[0]++;
+		}
+	    });
+
+	final HubSubscriptions subs = new HubSubscriptions();
+
+	final int[] hub2Ended = {0};
+	final int[] hub2Other = {0};
+	subs.subscribe(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    hub2Other[0]++;
+		}
+		public void tripEnded(long tripID, double time, long ticks,
+				      Hub hub)
+		{
+		    if (hub.getName().equals("hub2")) hub2Ended[0]++;
+		    else hub2Other[0]++;
+		}
+	    }, hub2);
+
+	final int[] hub1Started = {0};
+	final int[] hub1Other = {0};
+	subs.subscribe(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    if (hub.getName().equals("hub1")) hub1Started[0]++;
+		    else hub1Other[0]++;
+		}
+		public void tripEnded(long tripID, double time, long ticks,
+				      Hub hub)
+		{
+		    hub1Other[0]++;
+		}
+	    }, hub1);
+
+	final int limit = 5;
+	final int[] selfRemoving = {0};
+	TripDataListener remover = new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    selfRemoving[0]++;
+		    if (selfRemoving[0] == limit) {
+			subs.unsubscribe(this);
+		    }
+		}
+	    };
+	Check.check(subs.subscribe(remover, hub1, hub3) == 2,
+		    "subscribe returned the wrong count");
+	Check.check(subs.getHubs(remover).length == 2,
+		    "getHubs returned the wrong number of hubs");
+
+	final int[] hub3Changes = {0};
+	final int[] otherChanges = {0};
+	subs.subscribe(new HubDataAdapter() {
+		public void hubChanged(Hub hub, int bc, boolean newbc,
+				       int oc, boolean newoc,
+				       double time, long ticks)
+		{
+		    if (hub.getName().equals("hub3")) hub3Changes[0]++;
+		    else otherChanges[0]++;
+		}
+	    }, hub3);
+
+	sim.run(sim.getTicks(MKS.hours(4.0)));
+
+	Check.check(allEnded[0] > limit, "too few trips for the test: "
+		    + allEnded[0]);
+	Check.check(hub2Ended[0] == allEnded[0],
+		    "hub2 subscriber saw " + hub2Ended[0] + " of "
+		    + allEnded[0] + " trips end");
+	Check.check(hub2Other[0] == 0,
+		    "hub2 subscriber saw " + hub2Other[0]
+		    + " events at other hubs");
+	Check.check(hub1Started[0] == allStarted[0],
+		    "hub1 subscriber saw " + hub1Started[0] + " of "
+		    + allStarted[0] + " trips start");
+	Check.check(hub1Other[0] == 0,
+		    "hub1 subscriber saw " + hub1Other[0]
+		    + " events at other hubs");
+	Check.check(selfRemoving[0] == limit,
+		    "self-removing subscriber called " + selfRemoving[0]
+		    + " times, expected " + limit);
+	Check.check(subs.getHubs(remover).length == 0,
+		    "unsubscribed listener still has hubs");
+	Check.check(otherChanges[0] == 0,
+		    "hub3 subscriber saw " + otherChanges[0]
+		    + " changes at other hubs");
+	// only the initial notification made when subscribing
+	Check.check(hub3Changes[0] == 1,
+		    "hub3 subscriber saw " + hub3Changes[0]
+		    + " notifications, expected 1");
+
+	subs.unsubscribeAll();
+	int ended = hub2Ended[0];
+	sim.run(sim.getTicks(MKS.hours(1.0)));
+	Check.check(hub2Ended[0] == ended,
+		    "listener notified after unsubscribeAll");
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,228 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+/*
+ * Worker statistics when a worker moves between storage hubs: a worker
+ * runs from storage hub A, is moved to storage hub B while queued, and
+ * runs from B.  A's totals must keep the trips made while the worker
+ * was assigned to A, and the totals for A and B and for the system
+ * domain must add up to the worker's own totals.
+ * <P>
+ * The statistics are also checked in a deterministic scenario, with
+ * both threaded and event-driven workers: a worker travels at a fixed
+ * speed with no stops from a storage hub to a hub 1000 meters away,
+ * where it picks up 5 bicycles, then to a hub 2000 meters away that is
+ * fixed while the worker travels, so that the visit is empty-handed,
+ * and then back to the storage hub, where a callable waits for it to
+ * be queued.  The busy and idle times, utilization, travel time,
+ * distance, trips, visits, bicycles moved, and queue wait must have
+ * the expected values.  The program exits with a non-zero status if
+ * any check fails.
+ */
+
+public class Test14 {
+
+    static void checkValue(String name, double value, double expected) {
+	Check.check(Math.abs(value - expected) < 0.01,
+		    name + " = " + value + ", expected " + expected);
+    }
+
+    static void deterministic(boolean eventDriven) {
+	String mode = eventDriven? "event-driven: ": "threaded: ";
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	// A balancer in a separate domain provides a hub sorter without
+	// starting workers of its own.
+	SysDomain otherDomain = new SysDomain(sim, "otherDomain", true);
+	BasicHubBalancer balancer = new BasicHubBalancer(sim, "balancer", true);
+	balancer.initDomain(otherDomain);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	// 10 meters per second with no stops
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(10.0, 1.0e-9);
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV, 1000.0, 0, 0.0, 0.0);
+	sysTable.addToDomain(sysDomain);
+
+	final Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(20, 3, 5, 7, pickupTime, 10, 0,
+		  1000.0, 0.0, usrDomain, sysDomain);
+	final Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(20, 3, 5, 7, pickupTime, 1, 0,
+		  2000.0, 0.0, usrDomain, sysDomain);
+
+	final StorageHub shub = new StorageHub(sim, "shub", true);
+	shub.init(-1, -1, -1, 0, 0.0, 0.0, sysDomain);
+
+	HubWorker worker = new HubWorker(sim, "worker", true);
+	worker.init(10, shub, sysDomain, shub);
+	worker.setEventDriven(eventDriven);
+
+	// hub2 is fixed while the worker travels to it (from 100 to 200
+	// seconds), and a callable waits from 10 seconds until the
+	// worker is queued at 400 seconds.
+	sim.scheduleCall(new Callable() {
+		public void call() {
+		    hub2.incrBikeCount(4);
+		}
+	    }, sim.getTicks(150.0));
+	sim.scheduleCall(new Callable() {
+		public void call() {
+		    shub.addOnQueueCallable(new Callable() {
+			    public void call() {}
+			});
+		}
+	    }, sim.getTicks(10.0));
+
+	Check.check(shub.pollWorkers() == worker, mode + "worker not queued");
+	Hub[] hubs = {hub1, hub2};
+	worker.start(HubWorker.Mode.VISIT,
+		     balancer.getHubSorter(HubWorker.Mode.VISIT, shub, hubs),
+		     0.0, 0.0);
+	sim.run(sim.getTicks(1000.0));
+
+	Check.check(!worker.isRunning(), mode + "worker still running");
+	Check.check(hub1.getBikeCount() == 5 && hub2.getBikeCount() == 5
+		    && shub.getBikeCount() == 5, mode + "bicycles not moved");
+	WorkerStatistics stats = worker.getStatistics();
+	checkValue(mode + "busy time", stats.getBusyTime(), 400.0);
+	checkValue(mode + "idle time", stats.getIdleTime(), 600.0);
+	checkValue(mode + "utilization", stats.getUtilization(), 0.4);
+	checkValue(mode + "travel time", stats.getTravelTime(), 400.0);
+	checkValue(mode + "distance", stats.getDistance(), 4000.0);
+	Check.check(stats.getTripCount() == 3, mode + "trip count "
+		    + stats.getTripCount() + ", expected 3");
+	Check.check(stats.getVisitCount() == 2, mode + "visit count "
+		    + stats.getVisitCount() + ", expected 2");
+	Check.check(stats.getEmptyVisitCount() == 1,
+		    mode + "empty visit count " + stats.getEmptyVisitCount()
+		    + ", expected 1");
+	Check.check(stats.getBikesPickedUp() == 5
+		    && stats.getBikesDroppedOff() == 5,
+		    mode + "bicycles picked up " + stats.getBikesPickedUp()
+		    + ", dropped off " + stats.getBikesDroppedOff()
+		    + ", expected 5 and 5");
+	Check.check(stats.getQueuedActionCount() == 0
+		    && stats.getQueueWaitTime() == 0.0,
+		    mode + "worker has queue-wait values");
+
+	WorkerStatistics sstats = shub.getWorkerStatistics();
+	Check.check(sstats.getWorkerCount() == 1, mode + "storage hub has "
+		    + sstats.getWorkerCount() + " workers");
+	checkValue(mode + "storage hub busy time", sstats.getBusyTime(), 400.0);
+	checkValue(mode + "storage hub distance", sstats.getDistance(), 4000.0);
+	Check.check(sstats.getEmptyVisitCount() == 1,
+		    mode + "storage hub empty visit count "
+		    + sstats.getEmptyVisitCount());
+	Check.check(sstats.getQueuedActionCount() == 1,
+		    mode + "queued actions " + sstats.getQueuedActionCount()
+		    + ", expected 1");
+	checkValue(mode + "queue wait", sstats.getQueueWaitTime(), 390.0);
+	checkValue(mode + "mean queue wait", sstats.getMeanQueueWaitTime(),
+		   390.0);
+    }
+
+    public static void main(String argv[]) throws Exception {
+	deterministic(false);
+	deterministic(true);
+
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	BasicHubBalancer balancer = new BasicHubBalancer(sim, "balancer", true);
+	balancer.initDomain(sysDomain);
+	balancer.setQuietPeriod(MKS.minutes(30));
+	balancer.setThreshold(0.75);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(MKS.mph(25.0),
+							 MKS.mph(3.0));
+	sysSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(10, 3, 5, 7, pickupTime, 5, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(10, 3, 5, 7, pickupTime, 5, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	StorageHub shubA = new StorageHub(sim, "shubA", true);
+	shubA.init(-1, -1, -1, -1, MKS.miles(0.25), 0.0, sysDomain);
+	shubA.addHub(HubWorker.Mode.LOOP, hub1);
+	shubA.addHub(HubWorker.Mode.LOOP, hub2);
+
+	StorageHub shubB = new StorageHub(sim, "shubB", true);
+	shubB.init(-1, -1, -1, -1, MKS.miles(0.75), 0.0, sysDomain);
+	shubB.addHub(HubWorker.Mode.LOOP, hub1);
+	shubB.addHub(HubWorker.Mode.LOOP, hub2);
+
+	HubWorker worker = new HubWorker(sim, "worker", true);
+	worker.init(5, shubA, sysDomain, shubA);
+	worker.setEventDriven(true);
+
+	Hub[] dests1 = {hub2};
+	Hub[] dests2 = {hub1};
+	double weights[] = {1.0};
+	double overflowProb[] = {0.0};
+	BasicTripGenerator tgen1 = new BasicTripGenerator(sim, "tgen1", true);
+	tgen1.init(hub1, MKS.minutes(4.0), 1, dests1, weights, overflowProb);
+	BasicTripGenerator tgen2 = new BasicTripGenerator(sim, "tgen2", true);
+	tgen2.init(hub2, MKS.minutes(8.0), 1, dests2, weights, overflowProb);
+
+	long phase = sim.getTicks(MKS.hours(8.0));
+	sim.run(phase);
+	// let the worker finish its current pass so that it is queued.
+	while (worker.isRunning()) {
+	    sim.run(sim.getTicks(MKS.minutes(1.0)));
+	}
+	long tripsA = shubA.getWorkerStatistics().getTripCount();
+	Check.check(tripsA > 0, "no worker trips from shubA");
+	Check.check(shubB.getWorkerStatistics().getTripCount() == 0,
+		    "worker trips from shubB before the move");
+
+	shubB.addWorker(worker);
+	sim.run(phase);
+
+	WorkerStatistics statsA = shubA.getWorkerStatistics();
+	WorkerStatistics statsB = shubB.getWorkerStatistics();
+	long tripsW = worker.getStatistics().getTripCount();
+	Check.check(worker.getStorageHub() == shubB,
+		    "worker not moved to shubB");
+	Check.check(statsA.getTripCount() == tripsA,
+		    "shubA lost trips after the move: " + statsA.getTripCount()
+		    + " != " + tripsA);
+	Check.check(statsA.getWorkerCount() == 0, "shubA still has a worker");
+	Check.check(statsB.getWorkerCount() == 1, "shubB has no worker");
+	Check.check(statsB.getTripCount() > 0, "no worker trips from shubB");
+	Check.check(statsA.getTripCount() + statsB.getTripCount() == tripsW,
+		    "shubA + shubB trips != worker trips: "
+		    + (statsA.getTripCount() + statsB.getTripCount())
+		    + " != " + tripsW);
+	Check.check(sysDomain.getWorkerStatistics().getTripCount() == tripsW,
+		    "system-domain trips != worker trips");
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,121 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+/*
+ * Origin-destination matrix trip generator: init must reject arrays
+ * whose lengths differ without changing the generator's
+ * configuration, a matrix whose rates are all zero (or a scale factor
+ * of zero) must not start any trips, and an entry with a zero rate
+ * must never be chosen.  The program exits with a non-zero status if
+ * any check fails.
+ */
+
+public class Test15 {
+
+    static void checkRejected(ODMatrixTripGenerator tgen, int nbikes,
+			      Hub[] origins, Hub[] dests,
+			      double[] rates, double[] overflowProb,
+			      String msg)
+    {
+	double total = tgen.getTotalRate();
+	try {
+	    tgen.init(nbikes, origins, dests, rates, overflowProb);
+	    Check.check(false, msg + " not rejected");
+	} catch (IllegalArgumentException e) {
+	    Check.check(tgen.getTotalRate() == total,
+			msg + " changed the total rate");
+	}
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(100, 3, 5, 7, pickupTime, 100, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(100, 3, 5, 7, pickupTime, 0, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+	Hub hub3 = new Hub(sim, "hub3", true);
+	hub3.init(100, 3, 5, 7, pickupTime, 0, 0,
+		  MKS.miles(2.0), 0.0, usrDomain, sysDomain);
+
+	ODMatrixTripGenerator tgen =
+	    new ODMatrixTripGenerator(sim, "tgen", true);
+
+	final int[] started = {0};
+	final int[] toHub3 = {0};
+	tgen.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    started[0]++;
+		}
+		public void tripEnded(long tripID, double time, long ticks,
+				      Hub hub)
+		{
+		    if (hub.getName().equals("hub3")) toHub3[0]++;
+		}
+	    });
+
+	Hub[] origins = {hub1, hub1};
+	Hub[] dests = {hub2, hub3};
+	double[] zeroRates = {0.0, 0.0};
+	double[] rates = {1.0/MKS.minutes(5.0), 0.0};
+	double[] overflowProb = {0.0, 0.0};
+
+	// array-length validation
+	checkRejected(tgen, 1, origins, new Hub[] {hub2}, rates,
+		      overflowProb, "short dests array");
+	checkRejected(tgen, 1, origins, dests, new double[] {1.0},
+		      overflowProb, "short rates array");
+	checkRejected(tgen, 1, origins, dests, rates,
+		      new double[] {0.0, 0.0, 0.0}, "long overflowProb array");
+	checkRejected(tgen, 1, origins, dests, new double[] {-1.0, 0.0},
+		      overflowProb, "negative rate");
+
+	// all rates zero: no trips are scheduled
+	tgen.init(1, origins, dests, zeroRates, overflowProb);
+	Check.check(tgen.getTotalRate() == 0.0, "total rate not zero");
+	sim.run(sim.getTicks(MKS.hours(2.0)));
+	Check.check(started[0] == 0, "trips started with zero rates: "
+		    + started[0]);
+
+	// nonzero rates with a scale factor of zero: still no trips
+	tgen.setScaleFactor(0.0);
+	tgen.init(1, origins, dests, rates, overflowProb);
+	sim.run(sim.getTicks(MKS.hours(2.0)));
+	Check.check(started[0] == 0, "trips started with a zero scale factor: "
+		    + started[0]);
+
+	// a failed init leaves the previous matrix in place
+	checkRejected(tgen, 1, origins, dests, new double[] {1.0},
+		      overflowProb, "short rates array after init");
+
+	// restoring the scale factor starts trips, none to hub3
+	tgen.setScaleFactor(1.0);
+	sim.run(sim.getTicks(MKS.hours(2.0)));
+	Check.check(started[0] > 0, "no trips started after the scale factor "
+		    + "was restored");
+	Check.check(toHub3[0] == 0, "trips ended at hub3, whose rate is zero: "
+		    + toHub3[0]);
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,255 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.StaticRandom;
+import org.bzdev.math.rv.*;
+
+import java.io.StringReader;
+import java.util.HashMap;
+
+/*
+ * Time-varying trip generator: the thinning sampler must produce the
+ * number of trips given by the rate profile in each part of a period,
+ * for both piecewise-constant and linear profiles, and per-slot
+ * destination weights must be applied.  A factory configured with a
+ * slotDest entry whose slot or hub does not appear in the slot or dest
+ * tables must fail, and one configured correctly must report the
+ * per-slot weights in its trip rates.  A trip generator started with
+ * a profile whose rates are all zero must start no trips, and must
+ * start trips once it is given a non-zero profile.  Reading a profile
+ * with per-slot weights must notify a trip rate listener once, and
+ * weights whose sum is zero must be rejected.  Counts are checked to
+ * within five standard deviations.  The program exits with a non-zero status
+ * if any check fails.
+ */
+
+public class Test16 {
+
+    // check a Poisson count against its expected value
+    static void checkCount(long count, double expected, String msg) {
+	Check.check(Math.abs(count - expected) <= 5.0 * Math.sqrt(expected),
+		    msg + ": " + count + " trips, expected " + expected);
+    }
+
+    static boolean rejects(TimeVaryingTripGenFactory factory, String name) {
+	try {
+	    factory.createObject(name);
+	    return false;
+	} catch (RuntimeException e) {
+	    for (Throwable t = e; t != null; t = t.getCause()) {
+		if (t instanceof IllegalArgumentException) return true;
+	    }
+	    throw e;
+	}
+    }
+
+    public static void main(String argv[]) throws Exception {
+	StaticRandom.setSeed(1234L);
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	// enough bicycles and capacity that no trip fails
+	int n = 100000;
+	Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(n, 3, 5, 7, pickupTime, n, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(n, 3, 5, 7, pickupTime, 0, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+	Hub hub3 = new Hub(sim, "hub3", true);
+	hub3.init(n, 3, 5, 7, pickupTime, 0, 0,
+		  MKS.miles(2.0), 0.0, usrDomain, sysDomain);
+	Hub hub4 = new Hub(sim, "hub4", true);
+	hub4.init(n, 3, 5, 7, pickupTime, n, 0,
+		  MKS.miles(3.0), 0.0, usrDomain, sysDomain);
+
+	Hub[] dests = {hub2, hub3};
+	double[] weights = {1.0, 1.0};
+	double[] overflowProb = {0.0, 0.0};
+	final double hour = MKS.hours(1.0);
+	final double perMinute = 1.0/MKS.minutes(1.0);
+	int nperiods = 10;
+
+	// Piecewise constant: no trips in the first hour, one per
+	// minute to hub3 only in the second hour, and one every two
+	// minutes to either destination in the third hour.
+	final double periodA = 3.0 * hour;
+	TimeVaryingTripGenerator tgenA =
+	    new TimeVaryingTripGenerator(sim, "tgenA", true);
+	tgenA.init(hub1, 1, dests, weights, overflowProb);
+	tgenA.setProfile(periodA, new double[] {0.0, hour, 2.0 * hour},
+			 new double[] {0.0, perMinute, perMinute / 2.0},
+			 false);
+	tgenA.setSlotWeights(1, new double[] {0.0, 1.0});
+
+	final long[] slotCounts = new long[3];
+	final long[][] slotDests = new long[3][2];
+	tgenA.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    slotCounts[(int)((time % periodA) / hour)]++;
+		}
+	    });
+	// record the destinations by the slot in which the trip started
+	final HashMap<Long,Integer> tripSlots = new HashMap<>();
+	tgenA.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    tripSlots.put(tripID, (int)((time % periodA) / hour));
+		}
+		public void tripEnded(long tripID, double time, long ticks,
+				      Hub hub)
+		{
+		    Integer slot = tripSlots.remove(tripID);
+		    if (slot == null) return;
+		    slotDests[slot][hub.getName().equals("hub2")? 0: 1]++;
+		}
+	    });
+
+	// Linear: the rate rises from zero to one per minute over the
+	// first half of the period and falls back to zero over the
+	// second half.  The expected numbers of trips in the first and
+	// second quarters are r H / 8 and 3 r H / 8 per period, where H
+	// is half the period and r is the peak rate.
+	final double halfB = 1.5 * hour;
+	final double periodB = 2.0 * halfB;
+	TimeVaryingTripGenerator tgenB =
+	    new TimeVaryingTripGenerator(sim, "tgenB", true);
+	tgenB.init(hub4, 1, dests, weights, overflowProb);
+	tgenB.setProfile(periodB, new double[] {0.0, halfB},
+			 new double[] {0.0, perMinute}, true);
+	final long[] quarterCounts = new long[4];
+	tgenB.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    quarterCounts[(int)((time % periodB) / (halfB / 2.0))]++;
+		}
+	    });
+
+	sim.run(sim.getTicks(nperiods * periodA));
+
+	Check.check(slotCounts[0] == 0, "trips started in a zero-rate slot: "
+		    + slotCounts[0]);
+	checkCount(slotCounts[1], nperiods * 60.0, "second slot");
+	checkCount(slotCounts[2], nperiods * 30.0, "third slot");
+	Check.check(slotDests[1][0] == 0, "slot weights not used: "
+		    + slotDests[1][0] + " trips to hub2 in the second slot");
+	Check.check(slotDests[2][0] > 0 && slotDests[2][1] > 0,
+		    "default weights not used in the third slot");
+
+	// nperiods * periodA is also a whole number of periods for tgenB
+	int nB = (int)Math.round(nperiods * periodA / periodB);
+	double peak = perMinute * halfB;
+	checkCount(quarterCounts[0], nB * peak / 8.0, "first quarter");
+	checkCount(quarterCounts[1], nB * 3.0 * peak / 8.0, "second quarter");
+	checkCount(quarterCounts[2], nB * 3.0 * peak / 8.0, "third quarter");
+	checkCount(quarterCounts[3], nB * peak / 8.0, "fourth quarter");
+
+	// factory: a slotDest entry must name an existing slot and hub
+	TimeVaryingTripGenFactory factory =
+	    new TimeVaryingTripGenFactory(sim);
+	factory.set("startingHub", hub1);
+	factory.set("dest.prob", hub2, 1.0);
+	factory.set("dest.prob", hub3, 1.0);
+	factory.set("period", periodA);
+	factory.set("slot.time", 0, 0.0);
+	factory.set("slot.rate", 0, perMinute);
+	factory.set("slot.time", 1, hour);
+	factory.set("slot.rate", 1, perMinute);
+	factory.set("slotDest.slot", 0, 0);
+	factory.set("slotDest.dest", 0, hub2);
+	factory.set("slotDest.prob", 0, 0.0);
+	factory.set("slotDest.slot", 1, 0);
+	factory.set("slotDest.dest", 1, hub3);
+	factory.set("slotDest.prob", 1, 1.0);
+
+	factory.set("slotDest.slot", 2, 5);
+	factory.set("slotDest.dest", 2, hub3);
+	factory.set("slotDest.prob", 2, 1.0);
+	Check.check(rejects(factory, "badSlot"), "unknown slot accepted");
+
+	factory.set("slotDest.slot", 2, 1);
+	factory.set("slotDest.dest", 2, hub4);
+	Check.check(rejects(factory, "badDest"),
+		    "unknown destination accepted");
+
+	factory.set("slotDest.dest", 2, hub3);
+	TimeVaryingTripGenerator tgenC = factory.createObject("tgenC");
+	tgenC.stop();
+	// the current simulation time is the start of a period, in slot 0
+	for (TripRate rate: tgenC.getTripRates()) {
+	    double expected = (rate.getDestination() == hub3)? perMinute: 0.0;
+	    Check.check(Math.abs(rate.getRate() - expected)
+			< 1.0e-12 * perMinute,
+			"factory slot weights: rate to "
+			+ rate.getDestination().getName() + " is "
+			+ rate.getRate());
+	}
+
+	// A zero profile schedules no trips, but a non-zero profile set
+	// later must start them.
+	TimeVaryingTripGenerator tgenD =
+	    new TimeVaryingTripGenerator(sim, "tgenD", true);
+	tgenD.init(hub4, 1, dests, weights, overflowProb);
+	tgenD.setProfile(periodA, new double[] {0.0}, new double[] {0.0},
+			 false);
+	final long[] countD = {0};
+	tgenD.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    countD[0]++;
+		}
+	    });
+	sim.run(sim.getTicks(hour));
+	Check.check(countD[0] == 0, "trips started with a zero profile: "
+		    + countD[0]);
+	tgenD.setProfile(periodA, new double[] {0.0},
+			 new double[] {perMinute}, false);
+	sim.run(sim.getTicks(nperiods * hour));
+	checkCount(countD[0], nperiods * 60.0, "after a zero profile");
+
+	final int[] notified = {0};
+	tgenD.addTripRateListener(new TripRateListener() {
+		public void tripRatesChanged(TripGenerator tgen) {
+		    notified[0]++;
+		}
+	    });
+	tgenD.readProfile(new StringReader("# time,rate,hub2,hub3\n"
+					   + "0.0,0.01,1.0,0.0\n"
+					   + "3600.0,0.02,0.0,1.0\n"
+					   + "7200.0,0.0\n"),
+			  periodA, false);
+	Check.check(notified[0] == 1, "reading a profile notified "
+		    + notified[0] + " times, expected once");
+	try {
+	    tgenD.setSlotWeights(0, new double[] {0.0, 0.0});
+	    Check.fail("zero slot weights accepted");
+	} catch (IllegalArgumentException e) {
+	}
+	try {
+	    tgenD.init(hub4, 1, dests, new double[] {0.0, 0.0},
+		       overflowProb);
+	    Check.fail("zero weights accepted");
+	} catch (IllegalArgumentException e) {
+	}
+
+	Check.exit();
+    }
+}
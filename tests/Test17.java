@@ -0,0 +1,163 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+/*
+ * Trip replay: trips are read from a CSV file whose first line is a
+ * header with fewer fields than a trip.  Trips before the start of the
+ * simulation, trips naming an unknown hub, and trips that should have
+ * started while the trip generator was stopped (including the trip
+ * pending when it was stopped) must be skipped, and the replayed and
+ * skipped counts must match.  The simulation is run several times, so
+ * the file is closed and reopened between runs, and the trip generator
+ * must report no trip rates.  A second file, with CRLF line terminators
+ * and no terminator at the end, is read over ten runs and all of its
+ * trips must be replayed.  Lines that are out of order, that have a
+ * count that is not positive, or that have an illegal overflow flag
+ * must cause an error.  The program exits with a non-zero status if
+ * any check fails.
+ */
+
+public class Test17 {
+
+    static DramaSimulation sim;
+    static Hub hub1;
+    static Hub hub2;
+
+    static void setup() {
+	sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	hub1 = new Hub(sim, "hub1", true);
+	hub1.init(100, 3, 5, 7, pickupTime, 50, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	hub2 = new Hub(sim, "hub2", true);
+	hub2.init(100, 3, 5, 7, pickupTime, 50, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+    }
+
+    // Replay the data and return the message of the resulting
+    // IllegalStateException, or null if there was none.
+    static String error(String data) {
+	setup();
+	TripReplayGenerator tgen = new TripReplayGenerator(sim, "tgen", true);
+	tgen.setInput(new StringReader(data));
+	try {
+	    sim.run(sim.getTicks(MKS.hours(1.0)));
+	} catch (RuntimeException e) {
+	    for (Throwable t = e; t != null; t = t.getCause()) {
+		if (t instanceof IllegalStateException) return t.getMessage();
+	    }
+	    throw e;
+	}
+	return null;
+    }
+
+    static void checkError(String data, String expected, String msg) {
+	String message = error(data);
+	Check.check(message != null && message.contains(expected),
+		    msg + ": " + ((message == null)? "no error": message));
+    }
+
+    public static void main(String argv[]) throws Exception {
+	File file = File.createTempFile("Test17", ".csv");
+	file.deleteOnExit();
+	PrintWriter w = new PrintWriter(file, "UTF-8");
+	w.println("time,origin,destination");
+	w.println("# trips");
+	w.println("");
+	w.println("-10.0,hub1,hub2,1,0");	 // before the start: skipped
+	w.println("60.0,hub1,hub2,1,0");
+	w.println("120.0,hub1,nohub,1,false"); // unknown hub: skipped
+	w.println("180.0,hub1,hub2,2,TRUE");
+	w.println("400.0,hub1,hub2,1,0");	 // pending when stopped: skipped
+	w.println("500.0,hub1,hub2,1,1");	 // while stopped: skipped
+	w.println("700.0,hub1,hub2,1,0");
+	w.println("800.0,hub2,hub1,1,False");
+	w.close();
+
+	setup();
+	TripReplayGenerator tgen = new TripReplayGenerator(sim, "tgen", true);
+	tgen.setInput(file.getPath());
+	final int[] started = {0};
+	tgen.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    started[0]++;
+		}
+	    });
+
+	sim.run(sim.getTicks(300.0));
+	Check.check(tgen.getReplayedCount() == 2, "replayed before the stop: "
+		    + tgen.getReplayedCount());
+	Check.check(tgen.getSkippedCount() == 2, "skipped before the stop: "
+		    + tgen.getSkippedCount());
+	tgen.stop();
+	sim.run(sim.getTicks(300.0));
+	tgen.restart();
+	sim.run(sim.getTicks(600.0));
+	Check.check(tgen.getReplayedCount() == 4, "replayed: "
+		    + tgen.getReplayedCount());
+	Check.check(tgen.getSkippedCount() == 4, "skipped: "
+		    + tgen.getSkippedCount());
+	Check.check(started[0] == 4, "trips started: " + started[0]);
+	Check.check(tgen.getTripRates() == null, "replayed trips have rates");
+
+	// A file with CRLF line terminators and no final terminator,
+	// reopened at the right position after each run.
+	File crlf = File.createTempFile("Test17", ".csv");
+	crlf.deleteOnExit();
+	Writer cw = new OutputStreamWriter(new FileOutputStream(crlf), "UTF-8");
+	cw.write("10.0,hub1,hub2,1,0\r\n20.0,hub1,hub2,1,0\r\n"
+		 + "30.0,hub1,hub2,1,0");
+	cw.close();
+	setup();
+	TripReplayGenerator ctgen =
+	    new TripReplayGenerator(sim, "ctgen", true);
+	ctgen.setInput(crlf.getPath());
+	for (int i = 0; i < 10; i++) {
+	    sim.run(sim.getTicks(5.0));
+	}
+	Check.check(ctgen.getReplayedCount() == 3
+		    && ctgen.getSkippedCount() == 0,
+		    "CRLF file: replayed " + ctgen.getReplayedCount()
+		    + ", skipped " + ctgen.getSkippedCount());
+
+	checkError("100.0,hub1,hub2,1,0\n50.0,hub1,hub2,1,0\n",
+		   "line 2 is out of order", "out-of-order line");
+	checkError("100.0,hub1,hub2,0,0\n",
+		   "line 1 is not a legal trip", "zero count");
+	checkError("100.0,hub1,hub2,-1,0\n",
+		   "line 1 is not a legal trip", "negative count");
+	checkError("100.0,hub1,hub2,1,yes\n",
+		   "line 1 is not a legal trip", "illegal overflow flag");
+	checkError("time\n100.0,hub1,hub2\n",
+		   "line 2 is not a legal trip", "too few fields");
+	Check.check(error("time\n100.0,hub1,hub2,1,0\n") == null,
+		    "short header rejected");
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,228 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.StaticRandom;
+import org.bzdev.math.rv.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Trip events with pooled trip states: a round-trip generator, a
+ * fan-out burst, a fan-in burst, and a fan-in burst that is stopped
+ * until after its trips should have started, and a fan-in burst that is
+ * started and then re-initialized with a smaller burst, are run until
+ * every trip
+ * has finished.  The trip events for each trip must follow the
+ * sequence the trip generator defines (started, then pause start,
+ * pause end, and end for a round trip, or started and end for a
+ * one-way trip, with the failure events where a trip cannot
+ * continue), every trip state must be back in its trip generator's
+ * pool, the skipped burst must not report trips as pending, and the
+ * re-initialized burst must generate only the trips of its new
+ * configuration.  The
+ * program exits with a non-zero status if any check fails.
+ */
+
+public class Test18 {
+
+    // The events for each trip, keyed by trip ID, and the pattern
+    // each trip's events must match.
+    static Map<Long,List<String>> events = new HashMap<>();
+    static Map<Long,Pattern> patterns = new HashMap<>();
+
+    static void add(long tripID, String event, Hub hub) {
+	List<String> list = events.get(tripID);
+	if (list == null) {
+	    list = new ArrayList<>();
+	    events.put(tripID, list);
+	}
+	list.add(event + ":" + hub.getName());
+    }
+
+    static void record(TripGenerator tgen, String regex) {
+	final Pattern pattern = Pattern.compile(regex);
+	tgen.addTripDataListener(new TripDataListener() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    patterns.put(tripID, pattern);
+		    add(tripID, "S", hub);
+		}
+		public void tripPauseStart(long tripID, double time,
+					   long ticks, Hub hub)
+		{
+		    add(tripID, "PS", hub);
+		}
+		public void tripPauseEnd(long tripID, double time, long ticks,
+					 Hub hub, HubDomain d)
+		{
+		    add(tripID, "PE", hub);
+		}
+		public void tripEnded(long tripID, double time, long ticks,
+				      Hub hub)
+		{
+		    add(tripID, "E", hub);
+		}
+		public void tripFailedAtStart(long tripID, double time,
+					      long ticks, Hub hub)
+		{
+		    patterns.put(tripID, pattern);
+		    add(tripID, "FS", hub);
+		}
+		public void tripFailedMidstream(long tripID, double time,
+						long ticks, Hub hub)
+		{
+		    add(tripID, "FM", hub);
+		}
+	    });
+    }
+
+    static String state(TripGenerator tgen) {
+	StringWriter sw = new StringWriter();
+	PrintWriter out = new PrintWriter(sw);
+	tgen.printState("", "", false, out);
+	out.flush();
+	return sw.toString();
+    }
+
+    static Pattern poolPattern =
+	Pattern.compile("trip states: (\\d+) created, (\\d+) available");
+
+    static void checkPool(TripGenerator tgen, boolean used) {
+	String state = state(tgen);
+	Matcher m = poolPattern.matcher(state);
+	if (!m.find()) {
+	    Check.check(false, tgen.getName() + ": no trip-state counts");
+	    return;
+	}
+	int created = Integer.parseInt(m.group(1));
+	int available = Integer.parseInt(m.group(2));
+	Check.check(created == available, tgen.getName() + ": " + created
+		    + " trip states created but " + available + " available");
+	Check.check(used == (created > 0), tgen.getName() + ": "
+		    + created + " trip states created");
+    }
+
+    public static void main(String argv[]) throws Exception {
+	StaticRandom.setSeed(4321L);
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	// Small counts so that some trips fail to start or fail midstream.
+	Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(40, 3, 5, 7, pickupTime, 10, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(40, 3, 5, 7, pickupTime, 10, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+	Hub hub3 = new Hub(sim, "hub3", true);
+	hub3.init(40, 3, 5, 7, pickupTime, 10, 0,
+		  MKS.miles(2.0), 0.0, usrDomain, sysDomain);
+
+	double[] weights = {1.0, 1.0};
+	double[] overflowProb = {0.0, 0.0};
+
+	DoubleRandomVariable waitRV = new GaussianRV(MKS.minutes(30.0),
+						     MKS.minutes(10.0));
+	waitRV.setMinimum(MKS.minutes(1.0), true);
+	RoundTripGenerator round = new RoundTripGenerator(sim, "round", true);
+	round.init(hub2, MKS.minutes(3.0), 1, waitRV, 0.0,
+		   new Hub[] {hub1, hub3}, weights, overflowProb);
+	record(round, "FS:hub2|S:hub2 PS:(hub1|hub3) (PE:\\1 E:hub2|FM:\\1)");
+
+	BurstTripGenerator fanOut = new BurstTripGenerator(sim, "fanOut", true);
+	fanOut.init(hub1, MKS.hours(1.0), 15, new Hub[] {hub2, hub3},
+		    weights, overflowProb, false);
+	record(fanOut, "FS:hub1|S:hub1 E:(hub2|hub3)");
+
+	BurstTripGenerator fanIn = new BurstTripGenerator(sim, "fanIn", true);
+	fanIn.init(hub1, MKS.hours(3.0), 10, new Hub[] {hub2, hub3},
+		   weights, overflowProb, true);
+	record(fanIn, "FS:(hub2|hub3)|S:(hub2|hub3) E:hub1");
+
+	BurstTripGenerator skipped =
+	    new BurstTripGenerator(sim, "skipped", true);
+	skipped.init(hub3, MKS.hours(3.0), 5, new Hub[] {hub1, hub2},
+		     weights, overflowProb, true);
+	record(skipped, "FS:(hub1|hub2)|S:(hub1|hub2) E:hub3");
+
+	// re-initialized while its fan-in schedule is pending
+	BurstTripGenerator reinit =
+	    new BurstTripGenerator(sim, "reinit", true);
+	reinit.init(hub2, MKS.hours(3.0), 10, new Hub[] {hub1, hub3},
+		    weights, overflowProb, true);
+	reinit.restart();
+	reinit.init(hub2, MKS.hours(3.0), 4, new Hub[] {hub1, hub3},
+		    weights, overflowProb, true);
+	record(reinit, "FS:(hub1|hub3)|S:(hub1|hub3) E:hub2");
+	final int[] reinitTrips = {0};
+	reinit.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    reinitTrips[0]++;
+		}
+		public void tripFailedAtStart(long tripID, double time,
+					      long ticks, Hub hub)
+		{
+		    reinitTrips[0]++;
+		}
+	    });
+
+	sim.run(sim.getTicks(MKS.minutes(1.0)));
+	skipped.stop();
+	sim.run(sim.getTicks(MKS.hours(4.0)));
+	skipped.restart();
+	round.stop();
+	// long enough for every trip in progress to finish
+	sim.run(sim.getTicks(MKS.hours(4.0)));
+
+	Check.check(events.size() > 0, "no trips");
+	for (Map.Entry<Long,List<String>> entry: events.entrySet()) {
+	    String sequence = String.join(" ", entry.getValue());
+	    Pattern pattern = patterns.get(entry.getKey());
+	    Check.check(pattern != null && pattern.matcher(sequence).matches(),
+			"trip " + entry.getKey() + ": " + sequence);
+	}
+
+	checkPool(round, true);
+	checkPool(fanOut, true);
+	checkPool(fanIn, true);
+	checkPool(skipped, false);
+	checkPool(reinit, true);
+
+	String state = state(skipped);
+	Check.check(state.contains("trips pending: false"),
+		    "skipped burst still has trips pending");
+	Check.check(state.contains("trips skipped: 5"),
+		    "skipped burst did not skip its trips");
+	Check.check(state(fanIn).contains("trips completed: true"),
+		    "fan-in burst did not complete");
+	Check.check(reinitTrips[0] == 4, "re-initialized burst tried "
+		    + reinitTrips[0] + " trips, expected 4");
+	Check.check(state(reinit).contains("trips completed: true"),
+		    "re-initialized burst did not complete");
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,136 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+import org.bzdev.devqsim.TraceSet;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Simulations running in parallel threads: each simulation replays the
+ * same trips with two trip generators, so its trip IDs must be
+ * numbered from 1 in the same order regardless of what the other
+ * simulations are doing.  Half of the simulations set trace levels
+ * for themselves and the others do not, so the trip generators'
+ * trace output must match a simulation run alone with the same
+ * setting: the same lines when traced, and none when not.  The
+ * program exits with a non-zero status if any check fails.
+ */
+
+public class Test19 {
+
+    static String trips(double start) {
+	StringBuilder sb = new StringBuilder();
+	for (int i = 0; i < 100; i++) {
+	    sb.append(start + MKS.minutes(2.0) * i);
+	    sb.append((i % 2 == 0)? ",hub1,hub2,1,0\n": ",hub1,hub2,2,1\n");
+	}
+	return sb.toString();
+    }
+
+    static class Result {
+	List<String> tripIDs = new ArrayList<>();
+	StringBuilder trace = new StringBuilder();
+    }
+
+    static Result run(boolean traced) {
+	final Result result = new Result();
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	if (traced) {
+	    BikeShare.setTraceLevels(sim, 1, 2, 3, 4);
+	}
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(1000, 3, 5, 7, pickupTime, 1000, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(1000, 3, 5, 7, pickupTime, 0, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+
+	TraceSet tset = new TraceSet(sim, "tset", false);
+	tset.setLevel(4);
+	tset.setOutput(result.trace);
+
+	// the trips of the two generators alternate
+	String[] names = {"tgenA", "tgenB"};
+	double[] starts = {MKS.minutes(1.0), MKS.minutes(2.0)};
+	for (int i = 0; i < names.length; i++) {
+	    final String name = names[i];
+	    TripReplayGenerator tgen =
+		new TripReplayGenerator(sim, name, true);
+	    tgen.setInput(new StringReader(trips(starts[i])));
+	    tgen.addTraceSet(tset);
+	    tgen.addTripDataListener(new TripDataAdapter() {
+		    public void tripStarted(long tripID, double time,
+					    long ticks, Hub hub, HubDomain d)
+		    {
+			result.tripIDs.add(name + ":" + tripID);
+		    }
+		});
+	}
+	sim.run(sim.getTicks(MKS.hours(8.0)));
+	return result;
+    }
+
+    public static void main(String argv[]) throws Exception {
+	final Result tracedRef = run(true);
+	final Result untracedRef = run(false);
+
+	Check.check(tracedRef.tripIDs.size() == 200,
+		    "trips started: " + tracedRef.tripIDs.size());
+	for (int i = 0; i < tracedRef.tripIDs.size(); i++) {
+	    String expected = ((i % 2 == 0)? "tgenA:": "tgenB:") + (i + 1);
+	    Check.check(tracedRef.tripIDs.get(i).equals(expected),
+			"trip " + i + " is " + tracedRef.tripIDs.get(i)
+			+ ", expected " + expected);
+	}
+	Check.check(untracedRef.tripIDs.equals(tracedRef.tripIDs),
+		    "trip IDs depend on tracing");
+	Check.check(tracedRef.trace.length() > 0, "no trace output");
+	Check.check(untracedRef.trace.length() == 0,
+		    "trace output with no trace levels set");
+
+	int nthreads = 8;
+	Thread[] threads = new Thread[nthreads];
+	for (int i = 0; i < nthreads; i++) {
+	    final boolean traced = (i % 2 == 0);
+	    final int index = i;
+	    threads[i] = new Thread(new Runnable() {
+		    public void run() {
+			Result result = Test19.run(traced);
+			Result ref = traced? tracedRef: untracedRef;
+			Check.check(result.tripIDs.equals(ref.tripIDs),
+				    "thread " + index + ": trip IDs differ");
+			Check.check(result.trace.toString()
+				    .equals(ref.trace.toString()),
+				    "thread " + index
+				    + ": trace output differs");
+		    }
+		});
+	}
+	for (Thread thread: threads) {
+	    thread.start();
+	}
+	for (Thread thread: threads) {
+	    thread.join();
+	}
+
+	Check.exit();
+    }
+}
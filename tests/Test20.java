@@ -0,0 +1,164 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+
+/*
+ * Hub snapshots: two user hubs and a storage hub with fixed counts are
+ * recorded every minute starting 30 seconds into the simulation, and
+ * the counts are changed between calls to the simulation's run method.
+ * The hubs must be in column order (user hubs by name, then storage
+ * hubs), a buffer that wraps must hold the most recent rows, the
+ * snapshots must stop at the stop time, and a spill file must contain
+ * every snapshot in order, with the rows spilled so far written to the
+ * file when a run ends.  The program exits with a non-zero status
+ * if any check fails.
+ */
+
+public class Test20 {
+
+    static void checkRow(HubSnapshotter snap, int row, double time,
+			 int[] counts, int[] overflows)
+    {
+	Check.check(snap.getTime(row) == time, snap.getName() + " row " + row
+		    + ": time " + snap.getTime(row) + ", expected " + time);
+	for (int j = 0; j < counts.length; j++) {
+	    Check.check(snap.getCount(row, j) == counts[j],
+			snap.getName() + " row " + row + ", column " + j
+			+ ": count " + snap.getCount(row, j)
+			+ ", expected " + counts[j]);
+	    Check.check(snap.getOverflow(row, j) == overflows[j],
+			snap.getName() + " row " + row + ", column " + j
+			+ ": overflow " + snap.getOverflow(row, j)
+			+ ", expected " + overflows[j]);
+	}
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	// created out of order so that the column order is checked
+	Hub hubB = new Hub(sim, "hubB", true);
+	hubB.init(20, 3, 5, 7, pickupTime, 7, 1,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+	Hub hubA = new Hub(sim, "hubA", true);
+	hubA.init(20, 3, 5, 7, pickupTime, 3, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	StorageHub shub = new StorageHub(sim, "shub", true);
+	shub.init(-1, -1, -1, 11, MKS.miles(0.5), 0.0, sysDomain);
+
+	HubSnapshotter snap = new HubSnapshotter(sim, "snap", true);
+	snap.init(sysDomain, 60.0, 4);
+	snap.setStartTime(30.0);
+	snap.setStopTime(400.0);
+
+	File spillFile = File.createTempFile("Test20", ".dat");
+	spillFile.deleteOnExit();
+	HubSnapshotter spilled = new HubSnapshotter(sim, "spilled", true);
+	spilled.init(sysDomain, 60.0, 2);
+	spilled.setStartTime(30.0);
+	spilled.setSpillFile(spillFile.getPath());
+
+	Check.check(snap.getHubs() == null, "hubs available before the start");
+
+	// snapshots at 30 and 90 seconds
+	sim.run(sim.getTicks(100.0));
+	Hub[] hubs = snap.getHubs();
+	Check.check(hubs != null && hubs.length == 3
+		    && hubs[0] == hubA && hubs[1] == hubB && hubs[2] == shub,
+		    "hubs not in column order");
+	int[] counts1 = {3, 7, 11};
+	int[] overflows1 = {0, 1, 0};
+	Check.check(snap.getRowCount() == 2, "row count " + snap.getRowCount()
+		    + " after two snapshots");
+	checkRow(snap, 0, 30.0, counts1, overflows1);
+	checkRow(snap, 1, 90.0, counts1, overflows1);
+
+	hubA.incrBikeCount(2);
+	hubB.incrOverflow(4);
+	int[] counts2 = {5, 7, 11};
+	int[] overflows2 = {0, 5, 0};
+
+	// snapshots at 150, 210, and 270 seconds; the row for 30 seconds
+	// is overwritten
+	sim.run(sim.getTicks(200.0));
+	Check.check(snap.getSnapshotCount() == 5, "snapshot count "
+		    + snap.getSnapshotCount() + ", expected 5");
+	Check.check(snap.getRowCount() == 4, "row count " + snap.getRowCount()
+		    + " after the buffer wrapped");
+	checkRow(snap, 0, 90.0, counts1, overflows1);
+	checkRow(snap, 1, 150.0, counts2, overflows2);
+	checkRow(snap, 3, 270.0, counts2, overflows2);
+	int[] copy = snap.getCounts(3, null);
+	Check.check(copy.length == 3 && copy[0] == 5, "getCounts copy wrong");
+	try {
+	    snap.getTime(4);
+	    Check.check(false, "row 4 of 4 not rejected");
+	} catch (IndexOutOfBoundsException e) {}
+
+	// snapshots at 330 and 390 seconds, then none after 400 seconds
+	sim.run(sim.getTicks(300.0));
+	Check.check(snap.getSnapshotCount() == 7, "snapshot count "
+		    + snap.getSnapshotCount() + " after the stop time");
+	Check.check(snap.getTime(3) == 390.0, "last snapshot at "
+		    + snap.getTime(3) + ", expected 390.0");
+
+	// the spill file is flushed when a run ends: a header (the hub
+	// count and three 4-character names) followed by the eight rows
+	// spilled so far, with the last two rows still in the buffer
+	long expectedLength = 4 + 3 * (2 + 4) + 8 * (8 + 6 * 4);
+	Check.check(spillFile.length() == expectedLength,
+		    "spill file has " + spillFile.length()
+		    + " bytes between runs, expected " + expectedLength);
+
+	// every snapshot in the spill file, in order
+	long nspilled = spilled.getSnapshotCount();
+	spilled.close();
+	DataInputStream in = new DataInputStream
+	    (new BufferedInputStream(new FileInputStream(spillFile)));
+	Check.check(in.readInt() == 3,
+		    "wrong number of hubs in the spill file");
+	Check.check(in.readUTF().equals("hubA") && in.readUTF().equals("hubB")
+		    && in.readUTF().equals("shub"),
+		    "wrong hub names in the spill file");
+	int nrows = 0;
+	try {
+	    for (;;) {
+		double time = in.readDouble();
+		int[] c = new int[3];
+		int[] o = new int[3];
+		for (int j = 0; j < 3; j++) c[j] = in.readInt();
+		for (int j = 0; j < 3; j++) o[j] = in.readInt();
+		Check.check(time == 30.0 + 60.0 * nrows, "spill row " + nrows
+			    + " at time " + time);
+		int[] expected = (time < 100.0)? counts1: counts2;
+		int[] expectedO = (time < 100.0)? overflows1: overflows2;
+		for (int j = 0; j < 3; j++) {
+		    Check.check(c[j] == expected[j] && o[j] == expectedO[j],
+				"spill row " + nrows + ", column " + j
+				+ " wrong");
+		}
+		nrows++;
+	    }
+	} catch (EOFException e) {}
+	in.close();
+	Check.check(nrows == nspilled, "spill file has " + nrows + " rows, "
+		    + nspilled + " snapshots taken");
+	Check.check(nspilled == 10, "spilled snapshot count " + nspilled
+		    + ", expected 10");
+
+	Check.exit();
+    }
+}
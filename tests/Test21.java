@@ -0,0 +1,138 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+
+/*
+ * Hub-series decimation: known series are passed directly to a
+ * decimator's hubChanged method.  A short series must end with the
+ * expected bucket count and width, and a long series must force
+ * repeated merges while keeping the bucket count bounded.  In both
+ * cases the path must keep the series' maximum and minimum at the
+ * times they occurred, its X coordinates must not decrease, and it
+ * must end with the last value at the requested end time.  The
+ * program exits with a non-zero status if any check fails.
+ */
+
+public class Test21 {
+
+    // The vertices of a path as {x, y} pairs.
+    static ArrayList<double[]> vertices(Path2D path) {
+	ArrayList<double[]> list = new ArrayList<>();
+	double[] coords = new double[6];
+	for (PathIterator it = path.getPathIterator(null); !it.isDone();
+	     it.next()) {
+	    int type = it.currentSegment(coords);
+	    if (type == PathIterator.SEG_MOVETO
+		|| type == PathIterator.SEG_LINETO) {
+		list.add(new double[] {coords[0], coords[1]});
+	    }
+	}
+	return list;
+    }
+
+    static void checkPath(String name, Path2D path, double tmax, int max,
+			  double tmin, int min, double tEnd, int last)
+    {
+	ArrayList<double[]> list = vertices(path);
+	boolean hasMax = false;
+	boolean hasMin = false;
+	double ymax = Double.NEGATIVE_INFINITY;
+	double ymin = Double.POSITIVE_INFINITY;
+	double x = Double.NEGATIVE_INFINITY;
+	boolean increasing = true;
+	for (double[] v: list) {
+	    if (v[0] == tmax && v[1] == max) hasMax = true;
+	    if (v[0] == tmin && v[1] == min) hasMin = true;
+	    ymax = Math.max(ymax, v[1]);
+	    ymin = Math.min(ymin, v[1]);
+	    if (v[0] < x) increasing = false;
+	    x = v[0];
+	}
+	Check.check(hasMax, name + ": maximum " + max + " at " + tmax
+		    + " not retained");
+	Check.check(hasMin, name + ": minimum " + min + " at " + tmin
+		    + " not retained");
+	Check.check(ymax == max, name + ": path maximum " + ymax);
+	Check.check(ymin == min, name + ": path minimum " + ymin);
+	Check.check(increasing, name + ": path X coordinates decrease");
+	double[] end = list.get(list.size() - 1);
+	Check.check(end[0] == tEnd && end[1] == last,
+		    name + ": path ends at (" + end[0] + ", " + end[1] + ")");
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	// Adding a hub records its count (5) at time 0.
+	Hub hub = new Hub(sim, "hub", true);
+	hub.init(100, 3, 5, 7, pickupTime, 5, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub other = new Hub(sim, "other", true);
+	other.init(100, 3, 5, 7, pickupTime, 5, 0,
+		   MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+
+	// Short series: samples every 1/8 second for 63 samples, with a
+	// peak of 20 at 2.25 seconds, a dip to 0 at 6.75 seconds, and a
+	// final value of 6.  With 4 buckets of 1 second, the sample at
+	// 4 seconds merges the buckets, so 4 buckets of 2 seconds remain.
+	HubSeriesDecimator short4 = new HubSeriesDecimator(4);
+	short4.add(hub);
+	for (int i = 1; i < 64; i++) {
+	    double t = i * 0.125;
+	    int value = (i == 18)? 20: (i == 54)? 0: (i == 63)? 6: 5;
+	    short4.hubChanged(hub, value, true, 0, false, t,
+			      sim.getTicks(t));
+	}
+	Check.check(short4.getBucketCount(hub) == 4, "short series: "
+		    + short4.getBucketCount(hub) + " buckets, expected 4");
+	Check.check(short4.getBucketWidth(hub) == 2.0, "short series: width "
+		    + short4.getBucketWidth(hub) + ", expected 2.0");
+	checkPath("short series", short4.getPath(hub, 8.0),
+		  2.25, 20, 6.75, 0, 8.0, 6);
+
+	// Long series: samples every second for 1000 seconds with
+	// values cycling through 10, 11, 12, a peak of 50 at 500.5
+	// seconds, and a dip to 1 at 123.5 seconds.  With 8 buckets
+	// of 1 second, the width doubles until 8 buckets cover 999.5
+	// seconds, giving a width of 128 seconds.
+	HubSeriesDecimator long8 = new HubSeriesDecimator(8);
+	long8.add(hub);
+	int last = 0;
+	for (int i = 0; i < 1000; i++) {
+	    double t = i + 0.5;
+	    int value = (i == 123)? 1: (i == 500)? 50: 10 + i % 3;
+	    long8.hubChanged(hub, value, true, 0, false, t,
+			     sim.getTicks(t));
+	    last = value;
+	    Check.check(long8.getBucketCount(hub) <= 8, "long series: "
+			+ long8.getBucketCount(hub) + " buckets at " + t);
+	}
+	Check.check(long8.getBucketCount(hub) == 8, "long series: "
+		    + long8.getBucketCount(hub) + " buckets, expected 8");
+	Check.check(long8.getBucketWidth(hub) == 128.0, "long series: width "
+		    + long8.getBucketWidth(hub) + ", expected 128.0");
+	Path2D path = long8.getPath(hub, 1000.0);
+	checkPath("long series", path, 500.5, 50, 123.5, 1, 1000.0, last);
+	// at most 4 changes per bucket, each with two vertices, plus
+	// the first and last vertices
+	Check.check(vertices(path).size() <= 8 * 8 + 2,
+		    "long series: path has " + vertices(path).size()
+		    + " vertices");
+
+	Check.check(long8.getBucketCount(other) == 0,
+		    "bucket count for a hub that was not added");
+
+	Check.exit();
+    }
+}
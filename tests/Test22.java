@@ -0,0 +1,146 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+/*
+ * Hub sorting: the hub sorter provided by a basic hub balancer sorts
+ * hubs with a counting sort into arrays that are reused.  For random
+ * bicycle and overflow counts, its output must match a stable sort
+ * using the comparators of the original hub sorter (decreasing
+ * imbalance for the hubs over their nominal values, increasing
+ * imbalance for the hubs under their nominal values), for the modes
+ * with and without pickups, and the same arrays must be returned by
+ * every call to sort.  As with the original hub sorter, the initial
+ * count estimate must accumulate over the calls to sort.  The program
+ * exits with a non-zero status if any check fails.
+ */
+
+public class Test22 {
+
+    static int take(Hub hub) {
+	return hub.getUnclaimedBikeCount() - hub.getNominal();
+    }
+
+    // The comparators used by the original hub sorter.
+    static Comparator<Hub> comparator1 = new Comparator<Hub>() {
+	    public int compare(Hub x, Hub y) {
+		return take(y) - take(x);
+	    }
+	};
+
+    static Comparator<Hub> comparator2 = new Comparator<Hub>() {
+	    public int compare(Hub x, Hub y) {
+		return take(x) - take(y);
+	    }
+	};
+
+    static void checkOrder(String name, Hub[] actual, int n,
+			   ArrayList<Hub> expected)
+    {
+	if (n != expected.size()) {
+	    Check.check(false, name + ": " + n + " hubs, expected "
+			+ expected.size());
+	    return;
+	}
+	for (int i = 0; i < n; i++) {
+	    if (actual[i] != expected.get(i)) {
+		Check.check(false, name + ": " + actual[i].getName()
+			    + " at position " + i + ", expected "
+			    + expected.get(i).getName());
+		return;
+	    }
+	}
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	Random random = new Random(12345L);
+	int nhubs = 60;
+	Hub[] hubs = new Hub[nhubs];
+	for (int i = 0; i < nhubs; i++) {
+	    hubs[i] = new Hub(sim, "hub" + i, true);
+	    int nominal = 4 + random.nextInt(8);
+	    hubs[i].init(20, nominal - 2, nominal, nominal + 2, pickupTime,
+			 nominal, 0, 100.0 * i, 0.0, usrDomain, sysDomain);
+	}
+	BasicHubBalancer balancer =
+	    new BasicHubBalancer(sim, "balancer", true);
+	balancer.initDomain(sysDomain);
+
+	HubWorker.Mode[] modes = {
+	    HubWorker.Mode.LOOP, HubWorker.Mode.LOOP_WITH_PICKUP
+	};
+	for (HubWorker.Mode mode: modes) {
+	    boolean pickup = (mode == HubWorker.Mode.LOOP_WITH_PICKUP);
+	    HubWorker.HubSorter sorter =
+		balancer.getHubSorter(mode, null, hubs);
+	    Hub[] harray1 = null;
+	    Hub[] harray2 = null;
+	    int estimate = 0;
+	    for (int trial = 0; trial < 100; trial++) {
+		for (Hub hub: hubs) {
+		    hub.decrBikeCount(hub.getBikeCount());
+		    hub.incrBikeCount(random.nextInt(21));
+		    hub.pickupOverflow(hub.getOverflow());
+		    if (random.nextInt(4) == 0) {
+			hub.incrOverflow(1 + random.nextInt(5));
+		    }
+		}
+		sorter.sort();
+		// Lists built in the hubs' order and sorted with a stable
+		// sort, as the original hub sorter did.
+		ArrayList<Hub> list1 = new ArrayList<>();
+		ArrayList<Hub> list2 = new ArrayList<>();
+		for (Hub hub: hubs) {
+		    int take = take(hub);
+		    int overflow = pickup? hub.getUnclaimedOverflow(): 0;
+		    estimate -= take + overflow;
+		    if (take > 0) {
+			list1.add(hub);
+		    } else if (take < 0) {
+			if (take + overflow > 0) {
+			    list1.add(hub);
+			} else {
+			    list2.add(hub);
+			}
+		    } else if (overflow > 0) {
+			list1.add(hub);
+		    }
+		}
+		list1.sort(comparator1);
+		list2.sort(comparator2);
+		String name = mode + ", trial " + trial;
+		checkOrder(name + ", over nominal", sorter.getOverNominal(),
+			   sorter.getOverNominalCount(), list1);
+		checkOrder(name + ", under nominal", sorter.getUnderNominal(),
+			   sorter.getUnderNominalCount(), list2);
+		Check.check(sorter.getInitialCountEstimate() == estimate,
+			    name + ": initial count estimate "
+			    + sorter.getInitialCountEstimate() + ", expected "
+			    + estimate);
+		if (trial == 0) {
+		    harray1 = sorter.getOverNominal();
+		    harray2 = sorter.getUnderNominal();
+		} else {
+		    Check.check(sorter.getOverNominal() == harray1
+				&& sorter.getUnderNominal() == harray2,
+				name + ": sort allocated new arrays");
+		}
+	    }
+	}
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,132 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.util.Random;
+
+/*
+ * Hub imbalances: a hub balancer's imbalances are tracked from the
+ * first request for them.  As bicycle and overflow counts change
+ * randomly, the hubs returned by getWorstHubs must be in order of
+ * decreasing imbalance, have the imbalances computed from the hubs'
+ * counts, exclude balanced hubs, and include every hub whose
+ * imbalance is larger than that of the last hub returned.
+ * getWorstHub and getImbalancedHubCount must agree with them.  The
+ * program exits with a non-zero status if any check fails.
+ */
+
+public class Test23 {
+
+    // Makes the protected imbalance methods visible to the test.
+    static class Balancer extends BasicHubBalancer {
+	Balancer(DramaSimulation sim, String name, boolean intern) {
+	    super(sim, name, intern);
+	}
+	int imbalance(Hub hub) {return getImbalance(hub);}
+	Hub worstHub() {return getWorstHub();}
+	int worstHubs(Hub[] results) {return getWorstHubs(results);}
+	int imbalancedHubCount() {return getImbalancedHubCount();}
+    }
+
+    static int expected(Hub hub) {
+	return hub.needBikes() + hub.excessBikes() + hub.getOverflow();
+    }
+
+    static void checkHeap(Balancer balancer, Hub[] hubs, int k,
+			  String when)
+    {
+	int nonzero = 0;
+	int max = 0;
+	for (Hub hub: hubs) {
+	    int imbalance = expected(hub);
+	    if (imbalance > 0) nonzero++;
+	    if (imbalance > max) max = imbalance;
+	    Check.check(balancer.imbalance(hub) == imbalance, when + ": "
+			+ hub.getName() + " has imbalance "
+			+ balancer.imbalance(hub) + ", expected " + imbalance);
+	}
+	Check.check(balancer.imbalancedHubCount() == nonzero,
+		    when + ": " + balancer.imbalancedHubCount()
+		    + " imbalanced hubs, expected " + nonzero);
+	Hub worst = balancer.worstHub();
+	Check.check((worst == null)? max == 0: expected(worst) == max,
+		    when + ": getWorstHub did not return a worst hub");
+
+	Hub[] results = new Hub[k];
+	int n = balancer.worstHubs(results);
+	Check.check(n == Math.min(k, nonzero),
+		    when + ": getWorstHubs returned " + n + " hubs for k = "
+		    + k + ", expected " + Math.min(k, nonzero));
+	int last = Integer.MAX_VALUE;
+	for (int i = 0; i < n; i++) {
+	    int imbalance = expected(results[i]);
+	    Check.check(imbalance > 0, when + ": balanced hub returned");
+	    Check.check(imbalance <= last, when + ": imbalance " + imbalance
+			+ " at position " + i + " follows " + last);
+	    for (int j = 0; j < i; j++) {
+		Check.check(results[j] != results[i],
+			    when + ": hub returned twice");
+	    }
+	    last = imbalance;
+	}
+	if (n > 0) {
+	    for (Hub hub: hubs) {
+		if (expected(hub) <= last) continue;
+		boolean found = false;
+		for (int i = 0; i < n; i++) {
+		    if (results[i] == hub) found = true;
+		}
+		Check.check(found, when + ": " + hub.getName()
+			    + " with imbalance " + expected(hub)
+			    + " missing for k = " + k);
+	    }
+	}
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	Random random = new Random(54321L);
+	int nhubs = 40;
+	Hub[] hubs = new Hub[nhubs];
+	for (int i = 0; i < nhubs; i++) {
+	    hubs[i] = new Hub(sim, "hub" + i, true);
+	    hubs[i].init(30, 5, 10, 15, pickupTime, random.nextInt(31), 0,
+			 100.0 * i, 0.0, usrDomain, sysDomain);
+	}
+	Balancer balancer = new Balancer(sim, "balancer", true);
+	balancer.initDomain(sysDomain);
+
+	// the first request starts tracking from the current counts
+	checkHeap(balancer, hubs, 5, "initial");
+
+	int[] ks = {1, 3, 10, nhubs};
+	for (int trial = 0; trial < 200; trial++) {
+	    for (int m = 0; m < 5; m++) {
+		Hub hub = hubs[random.nextInt(nhubs)];
+		switch (random.nextInt(3)) {
+		case 0:
+		    hub.incrBikeCount(1 + random.nextInt(10));
+		    break;
+		case 1:
+		    hub.decrBikeCount(1 + random.nextInt(10));
+		    break;
+		case 2:
+		    hub.incrOverflow(1 + random.nextInt(3));
+		    break;
+		}
+	    }
+	    checkHeap(balancer, hubs, ks[trial % ks.length],
+		      "trial " + trial);
+	}
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,147 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+ * Service lists: a basic hub balancer keeps, for each storage hub,
+ * the hubs in its hub table that need service.  With a threshold of
+ * zero, a worker is started whenever a hub's status changes, and
+ * each list of hubs passed to getHubSorter is compared with a scan of
+ * the storage hub's hub table for the worker's mode: the hubs with
+ * too many bicycles or with bicycles in their overflow areas in hub
+ * table order, followed by the hubs with too few bicycles in hub
+ * table order.  A hub with bicycles in its overflow area and too few
+ * bicycles at its preferred location appears in both parts.  The hub
+ * table is changed part way through so that the lists are rebuilt.
+ * The hubs are far from the storage hub, so the workers that are
+ * started do not reach them.  The program exits with a non-zero
+ * status if any check fails.
+ */
+
+public class Test24 {
+
+    static int nlists = 0;
+    static int nboth = 0;
+
+    static Hub[] expected(StorageHub shub, HubWorker.Mode mode) {
+	ArrayList<Hub> list = new ArrayList<>();
+	for (Hub hub: shub.getHubs(mode)) {
+	    if (hub.excessBikes() > 0 || hub.getOverflow() > 0) {
+		list.add(hub);
+	    }
+	}
+	for (Hub hub: shub.getHubs(mode)) {
+	    if (hub.needBikes() > 0) {
+		list.add(hub);
+		if (hub.getOverflow() > 0) nboth++;
+	    }
+	}
+	return list.toArray(new Hub[list.size()]);
+    }
+
+    static class Balancer extends BasicHubBalancer {
+	Balancer(DramaSimulation sim, String name, boolean intern) {
+	    super(sim, name, intern);
+	}
+
+	@Override
+	public HubWorker.HubSorter getHubSorter(HubWorker.Mode mode,
+						StorageHub shub,
+						Hub[] hubs)
+	{
+	    if (shub != null) {
+		nlists++;
+		Hub[] expected = expected(shub, mode);
+		boolean same = (hubs.length == expected.length);
+		for (int i = 0; same && i < hubs.length; i++) {
+		    if (hubs[i] != expected[i]) same = false;
+		}
+		if (!same) {
+		    StringBuilder sb = new StringBuilder();
+		    for (Hub hub: hubs) sb.append(" " + hub.getName());
+		    sb.append(", expected");
+		    for (Hub hub: expected) sb.append(" " + hub.getName());
+		    Check.check(false, "list " + nlists + " for " + mode + ":"
+				+ sb.toString());
+		}
+	    }
+	    return super.getHubSorter(mode, shub, hubs);
+	}
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	Balancer balancer = new Balancer(sim, "balancer", true);
+	balancer.initDomain(sysDomain);
+	balancer.setThreshold(0.0);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(MKS.mph(25.0),
+							 MKS.mph(3.0));
+	sysSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV, MKS.miles(1.0),
+		      4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	Random random = new Random(24680L);
+	int nhubs = 12;
+	Hub[] hubs = new Hub[nhubs];
+	for (int i = 0; i < nhubs; i++) {
+	    hubs[i] = new Hub(sim, "hub" + i, true);
+	    hubs[i].init(20, 5, 10, 15, pickupTime, 10, 0,
+			 MKS.miles(20.0 + i), 0.0, usrDomain, sysDomain);
+	}
+
+	StorageHub storageHub = new StorageHub(sim, "storageHub", true);
+	storageHub.init(-1, -1, -1, 200, 0.0, 0.0, sysDomain);
+	// Hub-table order differs from the order in which the hubs were
+	// created, and hub11 is not in the table.
+	int[] order = {7, 2, 9, 0, 4, 10, 1, 5, 8, 3, 6};
+	for (int i: order) {
+	    storageHub.addHub(hubs[i]);
+	}
+	for (int i = 0; i < 100; i++) {
+	    HubWorker worker = new HubWorker(sim, "worker" + i, true);
+	    worker.init(10, storageHub, sysDomain, storageHub);
+	}
+
+	// run the initialization callables
+	sim.run(1);
+
+	for (int trial = 0; trial < 40; trial++) {
+	    if (trial == 20) {
+		// change the hub table so that the lists are rebuilt
+		storageHub.removeHub(hubs[9]);
+		storageHub.addHub(hubs[11]);
+		storageHub.removeHub(HubWorker.Mode.VISIT, hubs[4]);
+	    }
+	    for (int m = 0; m < 3; m++) {
+		Hub hub = hubs[random.nextInt(nhubs)];
+		hub.decrBikeCount(hub.getBikeCount());
+		hub.incrBikeCount(random.nextInt(21));
+		hub.pickupOverflow(hub.getOverflow());
+		if (random.nextInt(3) == 0) {
+		    hub.incrOverflow(1 + random.nextInt(3));
+		}
+	    }
+	    // end the quiet period so pending changes start a worker
+	    sim.run(1);
+	}
+
+	Check.check(nlists > 0, "no lists of hubs were checked");
+	Check.check(nboth > 0, "no hub was in both parts of a list");
+
+	Check.exit("all checks passed (" + nlists + " lists)");
+    }
+}
@@ -0,0 +1,160 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Coalesced hub-condition notifications: with coalescing turned on,
+ * several changes made to hubs during one simulation event must not
+ * notify a hub balancer until the flush event runs, and then must
+ * produce a single notification listing each hub once, in the order in
+ * which the hubs first changed, with their final status.  A change made
+ * while that notification is being delivered must produce a second
+ * notification, and the changed-hub state of the condition must be
+ * restored after each notification.  With coalescing turned off, each
+ * change must produce its own notification.  The program exits with a
+ * non-zero status if any check fails.
+ */
+
+public class Test25 {
+
+    static HubCondition condition;
+    static List<String> notifications = new ArrayList<>();
+    static int nstatus = 0;
+    static Runnable duringNotification = null;
+
+    // Each notification is recorded as the changed hubs with their
+    // status (u = under trigger, o = over trigger, f = overflow).
+    static class Balancer extends BasicHubBalancer {
+	Balancer(DramaSimulation sim, String name, boolean intern) {
+	    super(sim, name, intern);
+	}
+
+	Set<Hub> overSet() {return getOverSet();}
+	Set<Hub> overflowSet() {return getOverflowSet();}
+
+	@Override
+	protected void hubStatusChanged(Hub hub) {
+	    super.hubStatusChanged(hub);
+	    nstatus++;
+	}
+
+	@Override
+	protected void startAdditionalWorkers() {
+	    StringBuilder sb = new StringBuilder();
+	    int n = condition.getChangedHubCount();
+	    for (int i = 0; i < n; i++) {
+		Hub hub = condition.getChangedHub(i);
+		if (i > 0) sb.append(" ");
+		sb.append(hub.getName() + ":"
+			  + (condition.isInUnderSet(hub)? "u": "")
+			  + (condition.isInOverSet(hub)? "o": "")
+			  + (condition.isInOverflowSet(hub)? "f": ""));
+	    }
+	    notifications.add(sb.toString());
+	    if (duringNotification != null) {
+		Runnable r = duringNotification;
+		duringNotification = null;
+		r.run();
+	    }
+	}
+    }
+
+    static void checkNotifications(String when, String... expected) {
+	boolean same = (notifications.size() == expected.length);
+	for (int i = 0; same && i < expected.length; i++) {
+	    same = notifications.get(i).equals(expected[i]);
+	}
+	Check.check(same, when + ": notifications " + notifications);
+	Check.check(condition.getChangedHubCount() == 0,
+		    when + ": changed hubs not restored after notification");
+	notifications.clear();
+    }
+
+    static void setCount(Hub hub, int count) {
+	hub.decrBikeCount(hub.getBikeCount());
+	hub.incrBikeCount(count);
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+	condition = sysDomain.getHubCondition();
+
+	Balancer balancer = new Balancer(sim, "balancer", true);
+	balancer.initDomain(sysDomain);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	final Hub hubA = new Hub(sim, "hubA", true);
+	hubA.init(20, 5, 10, 15, pickupTime, 10, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	final Hub hubB = new Hub(sim, "hubB", true);
+	hubB.init(20, 5, 10, 15, pickupTime, 10, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+	final Hub hubC = new Hub(sim, "hubC", true);
+	hubC.init(20, 5, 10, 15, pickupTime, 10, 0,
+		  MKS.miles(2.0), 0.0, usrDomain, sysDomain);
+	final Hub hubD = new Hub(sim, "hubD", true);
+	hubD.init(20, 5, 10, 15, pickupTime, 10, 0,
+		  MKS.miles(3.0), 0.0, usrDomain, sysDomain);
+
+	sim.run(1);
+	notifications.clear();
+	nstatus = 0;
+
+	sysDomain.setCoalescingNotifications(true);
+	Check.check(condition.isCoalescing(), "coalescing not set");
+
+	// Several changes in one event: hubA changes three times, hubC
+	// enters and leaves the overflow set.
+	setCount(hubA, 2);
+	setCount(hubB, 18);
+	setCount(hubA, 10);
+	hubC.incrOverflow(2);
+	setCount(hubA, 3);
+	hubC.pickupOverflow(2);
+	Check.check(notifications.isEmpty(),
+		    "notified before the flush event");
+	Check.check(condition.isInUnderSet(hubA) && condition.isInOverSet(hubB)
+		    && !condition.isInOverflowSet(hubC),
+		    "sets not updated before the flush event");
+	sim.run(1);
+	checkNotifications("one event", "hubA:u hubB:o hubC:");
+	Check.check(nstatus == 3, "hubStatusChanged called " + nstatus
+		    + " times, expected 3");
+	Check.check(balancer.getUnderSet().contains(hubA)
+		    && balancer.overSet().contains(hubB)
+		    && !balancer.overflowSet().contains(hubC),
+		    "balancer sets do not match the final status");
+
+	// A change made while observers are notified goes into a new
+	// notification.
+	duringNotification = new Runnable() {
+		public void run() {
+		    setCount(hubD, 1);
+		}
+	    };
+	setCount(hubB, 10);
+	sim.run(1);
+	checkNotifications("change during notification", "hubB:", "hubD:u");
+
+	// Without coalescing, each change is reported immediately.
+	sysDomain.setCoalescingNotifications(false);
+	setCount(hubA, 10);
+	setCount(hubD, 10);
+	hubC.incrOverflow(1);
+	checkNotifications("not coalesced", "hubA:", "hubD:", "hubC:f");
+	sim.run(1);
+	checkNotifications("not coalesced, after the event");
+
+	Check.exit();
+    }
+}
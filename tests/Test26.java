@@ -0,0 +1,230 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+ * Shared worker pool: storage hubs at distinct distances from each
+ * other share their idle workers.  A random sequence of requests for
+ * workers and of workers being queued again is compared with a search
+ * of all the storage hubs for the one nearest to the requester that
+ * has an idle worker (the requester itself if it has one).  A worker
+ * taken from another storage hub must stay assigned to its own storage
+ * hub, which is the only storage hub that can queue it again.  When
+ * two storage hubs with idle workers are equally far from a requester,
+ * the one created first must provide the worker.  In another
+ * simulation, a worker borrowed by a storage hub with no idle workers
+ * must take bicycles from its own storage hub, service the requester's
+ * hub, and return to its own storage hub.  The program exits with a
+ * non-zero status if any check fails.
+ */
+
+public class Test26 {
+
+    static DoubleRandomVariable sysSpeedRV() {
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(MKS.mph(25.0),
+							 MKS.mph(3.0));
+	sysSpeedRV.setMinimum(MKS.mph(5.0), true);
+	return sysSpeedRV;
+    }
+
+    static void lookups() {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+	sysDomain.setSharedWorkerPool(true);
+	Check.check(sysDomain.getSharedWorkerPool(),
+		    "shared worker pool not set");
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV(), MKS.miles(1.0), 4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	// At 2^i - 1 miles, the distances from each storage hub to the
+	// others are distinct.
+	Random random = new Random(13579L);
+	int nshubs = 8;
+	StorageHub[] shubs = new StorageHub[nshubs];
+	ArrayList<ArrayList<HubWorker>> idle = new ArrayList<>();
+	ArrayList<HubWorker> busy = new ArrayList<>();
+	int nworkers = 0;
+	for (int i = 0; i < nshubs; i++) {
+	    shubs[i] = new StorageHub(sim, "shub" + i, true);
+	    shubs[i].init(-1, -1, -1, 50, MKS.miles((1 << i) - 1), 0.0,
+			  sysDomain);
+	    idle.add(new ArrayList<HubWorker>());
+	    int n = random.nextInt(3);
+	    for (int j = 0; j < n; j++) {
+		HubWorker worker = new HubWorker(sim, "worker" + nworkers++,
+						 true);
+		worker.init(10, shubs[i], sysDomain, shubs[i]);
+		idle.get(i).add(worker);
+	    }
+	}
+
+	for (int op = 0; op < 1000; op++) {
+	    int r = random.nextInt(nshubs);
+	    StorageHub requester = shubs[r];
+	    if (busy.isEmpty() || random.nextInt(5) < 3) {
+		// the storage hub expected to provide a worker
+		int expected = -1;
+		if (!idle.get(r).isEmpty()) {
+		    expected = r;
+		} else {
+		    double best = Double.POSITIVE_INFINITY;
+		    for (int i = 0; i < nshubs; i++) {
+			if (idle.get(i).isEmpty()) continue;
+			double delay =
+			    sysDomain.estimateDelay(shubs[i], requester, 1);
+			if (delay < best) {
+			    best = delay;
+			    expected = i;
+			}
+		    }
+		}
+		HubWorker worker = requester.pollWorkers();
+		if (expected == -1) {
+		    Check.check(worker == null, "operation " + op + ": "
+				+ requester.getName()
+				+ " got a worker when none were idle");
+		    continue;
+		}
+		if (worker == null) {
+		    Check.check(false, "operation " + op + ": "
+				+ requester.getName()
+				+ " got no worker, expected one from "
+				+ shubs[expected].getName());
+		    continue;
+		}
+		Check.check(worker.getStorageHub() == shubs[expected],
+			    "operation " + op + ": " + requester.getName()
+			    + " got a worker from "
+			    + worker.getStorageHub().getName()
+			    + ", expected " + shubs[expected].getName());
+		Check.check(idle.get(expected).remove(worker),
+			    "operation " + op + ": " + worker.getName()
+			    + " was not idle");
+		busy.add(worker);
+	    } else {
+		HubWorker worker = busy.remove(random.nextInt(busy.size()));
+		StorageHub home = worker.getStorageHub();
+		// only the worker's own storage hub accepts it
+		if (requester != home) {
+		    requester.queueWorker(worker);
+		}
+		home.queueWorker(worker);
+		int h = 0;
+		while (shubs[h] != home) h++;
+		idle.get(h).add(worker);
+	    }
+	}
+	Check.check(!busy.isEmpty(), "no workers were taken");
+    }
+
+    static void ties() {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+	sysDomain.setSharedWorkerPool(true);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV(), MKS.miles(1.0), 4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	StorageHub requester = new StorageHub(sim, "requester", true);
+	requester.init(-1, -1, -1, 50, 0.0, 0.0, sysDomain);
+	int n = 16;
+	StorageHub[] shubs = new StorageHub[n];
+	for (int i = 0; i < n; i++) {
+	    shubs[i] = new StorageHub(sim, "shub" + i, true);
+	    double x = ((i % 2 == 0)? 1.0: -1.0) * MKS.miles(1 + i / 2);
+	    shubs[i].init(-1, -1, -1, 50, x, 0.0, sysDomain);
+	    HubWorker worker = new HubWorker(sim, "worker" + i, true);
+	    worker.init(10, shubs[i], sysDomain, shubs[i]);
+	}
+	for (int i = 0; i < n; i++) {
+	    HubWorker worker = requester.pollWorkers();
+	    Check.check(worker != null
+			&& worker.getStorageHub() == shubs[i],
+			"request " + i + ": worker from "
+			+ ((worker == null)? "no storage hub":
+			   worker.getStorageHub().getName())
+			+ ", expected " + shubs[i].getName());
+	}
+    }
+
+    static void borrowing() {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+	sysDomain.setSharedWorkerPool(true);
+
+	// A balancer in a separate domain provides a hub sorter without
+	// starting workers of its own.
+	SysDomain otherDomain = new SysDomain(sim, "otherDomain", true);
+	BasicHubBalancer balancer = new BasicHubBalancer(sim, "balancer", true);
+	balancer.initDomain(otherDomain);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV(), MKS.miles(1.0), 4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	Hub hub = new Hub(sim, "hub", true);
+	hub.init(20, 5, 10, 15, pickupTime, 2, 0,
+		 MKS.miles(0.5), 0.0, usrDomain, sysDomain);
+
+	StorageHub requester = new StorageHub(sim, "requester", true);
+	requester.init(-1, -1, -1, 50, 0.0, 0.0, sysDomain);
+	requester.addHub(hub);
+	StorageHub near = new StorageHub(sim, "near", true);
+	near.init(-1, -1, -1, 50, MKS.miles(1.0), 0.0, sysDomain);
+	StorageHub far = new StorageHub(sim, "far", true);
+	far.init(-1, -1, -1, 50, MKS.miles(5.0), 0.0, sysDomain);
+
+	HubWorker worker = new HubWorker(sim, "worker", true);
+	worker.init(10, near, sysDomain, near);
+	HubWorker other = new HubWorker(sim, "other", true);
+	other.init(10, far, sysDomain, far);
+
+	sim.run(1);
+	HubWorker borrowed = requester.pollWorkers();
+	Check.check(borrowed == worker,
+		    "the worker at the nearest storage hub was not borrowed");
+	if (borrowed == null) return;
+	Check.check(borrowed.getStorageHub() == near,
+		    "borrowed worker reassigned to the requester");
+	Hub[] hubs = {hub};
+	borrowed.start(HubWorker.Mode.VISIT,
+		       balancer.getHubSorter(HubWorker.Mode.VISIT, requester,
+					     hubs),
+		       0.0, 0.0);
+	sim.run(sim.getTicks(MKS.hours(2.0)));
+	Check.check(!borrowed.isRunning(), "borrowed worker still running");
+	Check.check(borrowed.getStorageHub() == near
+		    && borrowed.getCurrentHub() == near,
+		    "borrowed worker did not return to its own storage hub");
+	Check.check(hub.getBikeCount() >= hub.getLowerTrigger(),
+		    "requester's hub not serviced: " + hub.getBikeCount()
+		    + " bicycles");
+	Check.check(requester.getBikeCount() == 50,
+		    "bicycles taken from the requester");
+	Check.check(near.getBikeCount() + hub.getBikeCount() == 52,
+		    "bicycles not taken from the worker's storage hub");
+	// the worker is idle at its own storage hub again
+	Check.check(requester.pollWorkers() == worker,
+		    "returned worker not available");
+    }
+
+    public static void main(String argv[]) throws Exception {
+	lookups();
+	ties();
+	borrowing();
+
+	Check.exit();
+    }
+}
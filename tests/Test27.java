@@ -0,0 +1,188 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.lang.Callable;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+ * Expected arrivals: bicycles are sent at random times from several
+ * hubs to one destination, some of them to its overflow area, and the
+ * destination is queried at random times with random look-ahead
+ * intervals, so the time limits both advance and move back.  Each
+ * trip's expected arrival time is computed from the delay estimate
+ * when it starts, and the expected arrivals and projected counts must
+ * match the trips still traveling.  The travel speed is essentially
+ * fixed and there are no stops, so the bicycles expected to arrive
+ * within an interval must also be the ones that actually arrive
+ * within it.  The program exits with a non-zero status if any check
+ * fails.
+ */
+
+public class Test27 {
+
+    static class Trip {
+	int n;
+	boolean toOverflow;
+	long expectedTicks;
+	long arrivalTicks = -1;
+    }
+
+    static class Query {
+	long ticks;
+	long horizon;
+	int expected;
+	ArrayList<Trip> traveling;
+    }
+
+    static ArrayList<Trip> traveling = new ArrayList<>();
+    static ArrayList<Query> queries = new ArrayList<>();
+    static int ntrips = 0;
+
+    public static void main(String argv[]) throws Exception {
+	final DramaSimulation sim = new DramaSimulation(1000.0);
+	final UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(10.0),
+							 1.0e-6);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 0, 0.0, 0.0);
+	userTable.addToDomain(usrDomain);
+
+	final Hub dest = new Hub(sim, "dest", true);
+	dest.init(40, 5, 10, 15, pickupTime, 5, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	final Hub[] sources = new Hub[6];
+	for (int i = 0; i < sources.length; i++) {
+	    sources[i] = new Hub(sim, "source" + i, true);
+	    sources[i].init(1000, 5, 500, 995, pickupTime, 1000, 0,
+			    MKS.miles(0.2 + 0.5 * i), MKS.miles(0.1 * i),
+			    usrDomain, sysDomain);
+	}
+
+	final Random random = new Random(97531L);
+	long end = sim.getTicks(MKS.hours(2.0));
+
+	for (int i = 0; i < 300; i++) {
+	    sim.scheduleCall(new Callable() {
+		    public void call() {
+			Hub src = sources[random.nextInt(sources.length)];
+			final Trip trip = new Trip();
+			trip.n = 1 + random.nextInt(3);
+			trip.toOverflow = random.nextInt(10) < 3;
+			trip.expectedTicks = sim.currentTicks()
+			    + sim.getTicks(usrDomain.estimateDelay(src, dest,
+								   trip.n));
+			HubDomain d = src.sendUsers(dest, trip.n,
+						    trip.toOverflow,
+						    new Callable() {
+							public void call() {
+							    trip.arrivalTicks =
+								sim.currentTicks();
+							    traveling.remove(trip);
+							}
+						    });
+			Check.check(d == usrDomain, "trip not sent");
+			traveling.add(trip);
+			ntrips++;
+		    }
+		}, (long)(random.nextDouble() * end));
+	}
+
+	for (int i = 0; i < 400; i++) {
+	    sim.scheduleCall(new Callable() {
+		    public void call() {
+			double interval = random.nextDouble() * MKS.minutes(30.0);
+			long horizon = sim.currentTicks()
+			    + sim.getTicks(interval);
+			int preferred = 0;
+			int overflow = 0;
+			int inFlight = 0;
+			int inFlightOverflow = 0;
+			for (Trip trip: traveling) {
+			    if (trip.toOverflow) {
+				inFlightOverflow += trip.n;
+				if (trip.expectedTicks <= horizon) {
+				    overflow += trip.n;
+				}
+			    } else {
+				inFlight += trip.n;
+				if (trip.expectedTicks <= horizon) {
+				    preferred += trip.n;
+				}
+			    }
+			}
+			String when = "at " + sim.currentTime()
+			    + ", interval " + interval;
+			Check.check(dest.getInFlightCount() == inFlight
+				    && dest.getInFlightOverflowCount()
+				    == inFlightOverflow,
+				    when + ": in-flight counts");
+			Check.check(dest.getExpectedArrivals(interval)
+				    == preferred + overflow, when
+				    + ": expected arrivals "
+				    + dest.getExpectedArrivals(interval)
+				    + ", expected " + (preferred + overflow));
+			int n = dest.getBikeCount() + preferred;
+			int capacity = dest.getCapacity();
+			Check.check(dest.getProjectedBikeCount(interval)
+				    == Math.min(n, capacity),
+				    when + ": projected bike count "
+				    + dest.getProjectedBikeCount(interval));
+			int excess = (n > capacity)? n - capacity: 0;
+			Check.check(dest.getProjectedOverflow(interval)
+				    == dest.getOverflow() + overflow + excess,
+				    when + ": projected overflow "
+				    + dest.getProjectedOverflow(interval));
+			Query query = new Query();
+			query.ticks = sim.currentTicks();
+			query.horizon = horizon;
+			query.expected = preferred + overflow;
+			query.traveling = new ArrayList<>(traveling);
+			queries.add(query);
+		    }
+		}, (long)(random.nextDouble() * end));
+	}
+
+	sim.run(end + sim.getTicks(MKS.hours(1.0)));
+
+	Check.check(ntrips == 300, ntrips + " trips started, expected 300");
+	Check.check(traveling.isEmpty(), "trips did not arrive");
+	Check.check(dest.getInFlightCount() == 0
+		    && dest.getInFlightOverflowCount() == 0,
+		    "bicycles still in flight");
+
+	// Compare with the actual arrivals, skipping queries for which
+	// an arrival is too close to the time limit to be sure of the
+	// side on which it falls.
+	int ncompared = 0;
+	for (Query query: queries) {
+	    int actual = 0;
+	    boolean ambiguous = false;
+	    for (Trip trip: query.traveling) {
+		if (Math.abs(trip.arrivalTicks - query.horizon) <= 2) {
+		    ambiguous = true;
+		}
+		if (trip.arrivalTicks <= query.horizon) {
+		    actual += trip.n;
+		}
+	    }
+	    if (ambiguous) continue;
+	    ncompared++;
+	    Check.check(actual == query.expected, "query at " + query.ticks
+			+ " (ticks): " + actual + " bicycles arrived, "
+			+ query.expected + " expected");
+	}
+	Check.check(ncompared > 300,
+		    "only " + ncompared + " queries compared");
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,166 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.StaticRandom;
+import org.bzdev.math.rv.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Two workers fixing overflows at the same hub, run twice from the
+ * same random-number seed, once with threaded workers and once with
+ * event-driven workers.  The hub has 4 bicycles in its preferred area
+ * (capacity 10) and 8 in its overflow area.  A worker that can carry
+ * 2 bicycles starts first, far from the hub, and claims 2 of them; a
+ * worker that can carry 10 bicycles then starts near the hub, claims
+ * 4, and arrives while the first worker's claim is outstanding.  On
+ * arrival, a worker must use the hub's actual counts, so the second
+ * worker moves 6 bicycles and the first then finds nothing to do.
+ * The events of the two runs are compared line by line.  The program
+ * exits with a non-zero status if the runs differ or if the bicycles
+ * moved are not the expected ones.  With the argument "-v", each
+ * run's events are also printed.
+ */
+
+public class Test28 {
+
+    static boolean verbose = false;
+
+    static void log(List<String> events, String format, Object... args) {
+	String line = String.format(format, args);
+	events.add(line);
+	if (verbose) System.out.println(line);
+    }
+
+    static List<String> run(boolean eventDriven, long seed) {
+	final List<String> events = new ArrayList<>();
+	final List<Integer> counts = new ArrayList<>();
+	StaticRandom.setSeed(seed);
+
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	// A balancer in a separate domain provides hub sorters without
+	// starting workers of its own.
+	SysDomain otherDomain = new SysDomain(sim, "otherDomain", true);
+	BasicHubBalancer balancer = new BasicHubBalancer(sim, "balancer", true);
+	balancer.initDomain(otherDomain);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(MKS.mph(25.0),
+							 MKS.mph(3.0));
+	sysSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV, MKS.miles(1.0),
+		      4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+
+	Hub hub = new Hub(sim, "hub", true);
+	hub.init(10, 3, 5, 7, pickupTime, 4, 8,
+		 0.0, 0.0, usrDomain, sysDomain);
+
+	StorageHub far = new StorageHub(sim, "far", true);
+	far.init(-1, -1, -1, 0, MKS.miles(5.0), 0.0, sysDomain);
+	StorageHub near = new StorageHub(sim, "near", true);
+	near.init(-1, -1, -1, 0, MKS.miles(0.1), 0.0, sysDomain);
+
+	HubWorker small = new HubWorker(sim, "small", true);
+	small.init(2, far, sysDomain, far);
+	small.setEventDriven(eventDriven);
+	HubWorker large = new HubWorker(sim, "large", true);
+	large.init(10, near, sysDomain, near);
+	large.setEventDriven(eventDriven);
+
+	HubWorkerListener wl = new HubWorkerAdapter() {
+		public void fixingOverflows(HubWorker w, double time,
+					    long ticks, Hub hub)
+		{
+		    log(events, "at %g (ticks = %d), worker %s: "
+			+ "fixing overflows at hub %s", time, ticks,
+			w.getName(), hub.getName());
+		}
+		public void changedCount(HubWorker w, double time, long ticks,
+					 Hub hub, int oldCount, int newCount)
+		{
+		    log(events, "at %g (ticks = %d), worker %s: "
+			+ "count %d -> %d at hub %s",
+			time, ticks, w.getName(),
+			oldCount, newCount, hub.getName());
+		}
+		public void queued(HubWorker w, double time, long ticks,
+				   Hub hub)
+		{
+		    log(events, "at %g (ticks = %d), worker %s: "
+			+ "queued at hub %s", time, ticks,
+			w.getName(), hub.getName());
+		}
+	    };
+	small.addHubWorkerListener(wl);
+	large.addHubWorkerListener(wl);
+
+	hub.addHubDataListener(new HubDataAdapter() {
+		public void hubChanged(Hub hub, int bc, boolean newbc,
+				       int oc, boolean newoc,
+				       double time, long ticks)
+		{
+		    log(events, "at %g (ticks = %d), "
+			+ "Hub %s: bc = %d (%b), "
+			+ "oc = %d (%b)",
+			time, ticks,
+			hub.getName(), bc, newbc, oc, newoc);
+		    if (newbc) counts.add(bc);
+		}
+	    });
+	// drop the initial notification
+	counts.clear();
+
+	Hub[] hubs = {hub};
+	HubWorker.Mode mode = HubWorker.Mode.VISIT_TO_FIX_OVERFLOWS;
+	small.start(mode, balancer.getHubSorter(mode, far, hubs), 0.0, 0.0);
+	large.start(mode, balancer.getHubSorter(mode, near, hubs), 0.0, 0.0);
+
+	sim.run(sim.getTicks(MKS.hours(2.0)));
+
+	String name = eventDriven? "event-driven": "threaded";
+	Check.check(!small.isRunning() && !large.isRunning(),
+		    name + ": workers still running");
+	Check.check(counts.size() == 1 && counts.get(0) == 10,
+		    name + ": bicycle counts at the hub " + counts
+		    + ", expected [10]");
+	Check.check(hub.getBikeCount() == 10 && hub.getOverflow() == 2,
+		    name + ": hub has " + hub.getBikeCount() + " + "
+		    + hub.getOverflow() + " bicycles, expected 10 + 2");
+	return events;
+    }
+
+    public static void main(String argv[]) throws Exception {
+	for (String arg: argv) {
+	    if (arg.equals("-v")) verbose = true;
+	}
+	long seed = 19283746L;
+	if (verbose) System.out.println("---- threaded ----");
+	List<String> threaded = run(false, seed);
+	if (verbose) System.out.println("---- event driven ----");
+	List<String> eventDriven = run(true, seed);
+
+	int n = Math.min(threaded.size(), eventDriven.size());
+	for (int i = 0; i < n; i++) {
+	    if (!threaded.get(i).equals(eventDriven.get(i))) {
+		Check.check(false, "event " + i + " differs:\n    threaded: "
+			    + threaded.get(i) + "\n    event-driven: "
+			    + eventDriven.get(i));
+		break;
+	    }
+	}
+	Check.check(threaded.size() == eventDriven.size(), "threaded run had "
+		    + threaded.size() + " events, event-driven run had "
+		    + eventDriven.size());
+
+	Check.exit("the threaded and event-driven runs match");
+    }
+}
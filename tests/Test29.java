@@ -0,0 +1,186 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+/*
+ * Recorders: a trip-duration recorder is sent the events for many
+ * overlapping trips, which end or fail in a random order, and its
+ * histograms, failure counts, origins, and output must match the
+ * durations of those trips.  A hub-series recorder samples two hubs
+ * whose counts are changed between calls to the simulation's run
+ * method, and the samples written must be those taken from the start
+ * time until the stop time.  The stop time must not be changeable
+ * once the simulation has started.  The program exits with a non-zero
+ * status if any check fails.
+ */
+
+public class Test29 {
+
+    static final int NBINS = 5;
+
+    static int bin(long tripID) {
+	return Math.min((int)(tripID % 7), NBINS - 1);
+    }
+
+    static boolean failsMidstream(long tripID) {
+	return tripID % 11 == 0;
+    }
+
+    static void durations(DramaSimulation sim, Hub hubA, Hub hubB) {
+	TripDurationRecorder recorder =
+	    new TripDurationRecorder(sim, "durations", true);
+	recorder.init(60.0, NBINS);
+
+	int ntrips = 1000;
+	long[][] expected = new long[2][NBINS+1];
+	long expectedTrips = 0;
+	long[] ids = new long[ntrips];
+	for (int i = 0; i < ntrips; i++) {
+	    long tripID = i + 1;
+	    ids[i] = tripID;
+	    Hub origin = (tripID % 3 == 0)? hubB: hubA;
+	    recorder.tripStarted(tripID, (double) tripID, 0L, origin, null);
+	    int k = (origin == hubA)? 0: 1;
+	    if (failsMidstream(tripID)) {
+		expected[k][NBINS]++;
+	    } else {
+		expected[k][bin(tripID)]++;
+		expectedTrips++;
+	    }
+	}
+	// end the trips in a random order, so that removals move entries
+	// that probed past the removed ones.
+	Random random = new Random(24680L);
+	for (int i = ntrips - 1; i > 0; i--) {
+	    int j = random.nextInt(i + 1);
+	    long tmp = ids[i];
+	    ids[i] = ids[j];
+	    ids[j] = tmp;
+	}
+	for (long tripID: ids) {
+	    Hub origin = (tripID % 3 == 0)? hubB: hubA;
+	    if (failsMidstream(tripID)) {
+		recorder.tripPauseStart(tripID, tripID + 10.0, 0L, hubB);
+		recorder.tripFailedMidstream(tripID, tripID + 20.0, 0L, hubB);
+	    } else {
+		double duration = (tripID % 7) * 60.0 + 30.0;
+		recorder.tripEnded(tripID, tripID + duration, 0L, origin);
+	    }
+	}
+	// unknown trips and trips that already ended are ignored
+	recorder.tripEnded(ntrips + 1, 0.0, 0L, hubA);
+	recorder.tripEnded(1L, 5000.0, 0L, hubA);
+	recorder.tripFailedMidstream(2L, 5000.0, 0L, hubA);
+	// a trip that failed at the start counts as a failure at its origin
+	recorder.tripFailedAtStart(ntrips + 2, 0.0, 0L, hubB);
+	expected[1][NBINS]++;
+
+	Hub[] origins = recorder.getOrigins();
+	Check.check(origins.length == 2 && origins[0] == hubA
+		    && origins[1] == hubB,
+		    "origins not in order of appearance");
+	Check.check(recorder.getTripCount() == expectedTrips,
+		    "trip count " + recorder.getTripCount() + ", expected "
+		    + expectedTrips);
+	Hub[] hubs = {hubA, hubB};
+	for (int k = 0; k < 2; k++) {
+	    long[] histogram = recorder.getHistogram(hubs[k]);
+	    Check.check(histogram != null && histogram.length == NBINS,
+			hubs[k].getName() + ": wrong histogram length");
+	    if (histogram == null) continue;
+	    for (int i = 0; i < NBINS; i++) {
+		Check.check(histogram[i] == expected[k][i],
+			    hubs[k].getName() + ", bin " + i + ": "
+			    + histogram[i] + ", expected " + expected[k][i]);
+	    }
+	    Check.check(recorder.getFailureCount(hubs[k])
+			== expected[k][NBINS],
+			hubs[k].getName() + ": failure count "
+			+ recorder.getFailureCount(hubs[k]) + ", expected "
+			+ expected[k][NBINS]);
+	}
+
+	StringWriter sw = new StringWriter();
+	recorder.write(sw);
+	String[] lines = sw.toString().split("\r?\n");
+	Check.check(lines.length == 3, "histogram output has "
+		    + lines.length + " lines");
+	Check.check(lines[0].equals("origin,0.0,60.0,120.0,180.0,240.0,"
+				    + "failed"),
+		    "histogram header: " + lines[0]);
+	StringBuilder sb = new StringBuilder("hubB");
+	for (long value: expected[1]) {
+	    sb.append(',');
+	    sb.append(value);
+	}
+	Check.check(lines.length == 3 && lines[2].equals(sb.toString()),
+		    "histogram row: " + lines[lines.length-1]
+		    + ", expected " + sb);
+
+	// trips are not recorded once the recorder is closed
+	recorder.close();
+	recorder.tripStarted(ntrips + 3, 0.0, 0L, hubA, null);
+	recorder.tripEnded(ntrips + 3, 30.0, 0L, hubA);
+	Check.check(recorder.getTripCount() == expectedTrips,
+		    "trip recorded after close");
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	Hub hubA = new Hub(sim, "hubA", true);
+	hubA.init(20, 3, 5, 7, pickupTime, 3, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub hubB = new Hub(sim, "hubB", true);
+	hubB.init(20, 3, 5, 7, pickupTime, 7, 1,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+
+	durations(sim, hubA, hubB);
+
+	HubSeriesRecorder series = new HubSeriesRecorder(sim, "series", true);
+	series.init(60.0, true, new Hub[] {hubB, hubA});
+	series.setStartTime(30.0);
+	series.setStopTime(200.0);
+	StringWriter sw = new StringWriter();
+	series.setOutput(sw);
+
+	// samples at 30 and 90 seconds, flushed when run returns
+	sim.run(sim.getTicks(100.0));
+	String[] lines = sw.toString().split("\r?\n");
+	Check.check(lines.length == 3, "series output has " + lines.length
+		    + " lines after the first run, expected 3");
+	Check.check(lines[0].equals("time,hubB,hubB:overflow,hubA,"
+				    + "hubA:overflow"),
+		    "series header: " + lines[0]);
+	Check.check(lines.length > 2 && lines[1].equals("30.0,7,1,3,0")
+		    && lines[2].equals("90.0,7,1,3,0"),
+		    "series samples before the count changed");
+	try {
+	    series.setStopTime(400.0);
+	    Check.fail("stop time changed after the simulation started");
+	} catch (IllegalStateException e) {
+	}
+
+	// a sample at 150 seconds; the output is closed at 210 seconds
+	hubA.incrBikeCount(2);
+	sim.run(sim.getTicks(200.0));
+	lines = sw.toString().split("\r?\n");
+	Check.check(lines.length == 4 && lines[3].equals("150.0,7,1,5,0"),
+		    "series samples after the count changed: "
+		    + lines[lines.length-1]);
+	Check.check(series.getSampleCount() == 3, "series sample count "
+		    + series.getSampleCount() + ", expected 3");
+
+	Check.exit();
+    }
+}
@@ -0,0 +1,137 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.StaticRandom;
+import org.bzdev.math.rv.*;
+
+/*
+ * Destination sampling: a basic trip generator sends trips from one
+ * hub to four destinations with weights 1, 0, 3, and 6.  The number of
+ * trips ending at each destination must be within 4.5 standard
+ * deviations of the number expected from the weights, and none may end
+ * at the destination whose weight is zero.  Trip generators must reject
+ * weights that are empty, all zero, negative, or not a number when
+ * they are initialized.  The program exits with a non-zero status if
+ * any check fails.
+ */
+
+public class Test30 {
+
+    static boolean rejects(BasicTripGenerator tgen, Hub hub, Hub[] dests,
+			   double[] weights)
+    {
+	try {
+	    tgen.init(hub, 60.0, 1, dests, weights, new double[dests.length]);
+	    return false;
+	} catch (IllegalArgumentException e) {
+	    return true;
+	}
+    }
+
+    static boolean rejects(BurstTripGenerator tgen, Hub hub, Hub[] dests,
+			   double[] weights)
+    {
+	try {
+	    tgen.init(hub, 60.0, 1, dests, weights, new double[dests.length],
+		      false);
+	    return false;
+	} catch (IllegalArgumentException e) {
+	    return true;
+	}
+    }
+
+    public static void main(String argv[]) throws Exception {
+	StaticRandom.setSeed(97531L);
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0), 4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	int n = 20000;
+	Hub src = new Hub(sim, "src", true);
+	src.init(n, 3, 5, 7, pickupTime, n, 0,
+		 0.0, 0.0, usrDomain, sysDomain);
+	final Hub[] dests = new Hub[4];
+	for (int i = 0; i < dests.length; i++) {
+	    dests[i] = new Hub(sim, "dest" + i, true);
+	    dests[i].init(n, 3, 5, 7, pickupTime, 0, 0,
+			  MKS.miles(0.25 * (i + 1)), 0.0,
+			  usrDomain, sysDomain);
+	}
+	double[] weights = {1.0, 0.0, 3.0, 6.0};
+
+	BasicTripGenerator tgen = new BasicTripGenerator(sim, "tgen", true);
+	tgen.init(src, 1.0, 1, dests, weights, new double[dests.length]);
+
+	final int[] ended = new int[dests.length];
+	final int[] started = {0};
+	tgen.addTripDataListener(new TripDataAdapter() {
+		public void tripStarted(long tripID, double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    started[0]++;
+		}
+		public void tripEnded(long tripID, double time, long ticks,
+				      Hub hub)
+		{
+		    for (int i = 0; i < dests.length; i++) {
+			if (hub == dests[i]) ended[i]++;
+		    }
+		}
+	    });
+
+	// about 14400 trips, all of which end before the second run ends
+	sim.run(sim.getTicks(MKS.hours(4.0)));
+	tgen.stop();
+	sim.run(sim.getTicks(MKS.hours(1.0)));
+
+	int total = 0;
+	for (int count: ended) total += count;
+	Check.check(total == started[0], total + " of " + started[0]
+		    + " trips ended");
+	Check.check(total > 10000, "too few trips for the test: " + total);
+	double wsum = 0.0;
+	for (double w: weights) wsum += w;
+	for (int i = 0; i < dests.length; i++) {
+	    double p = weights[i] / wsum;
+	    double expected = total * p;
+	    double sigma = Math.sqrt(total * p * (1.0 - p));
+	    Check.check(Math.abs(ended[i] - expected) <= 4.5 * sigma,
+			dests[i].getName() + ": " + ended[i]
+			+ " trips, expected about " + expected);
+	}
+	Check.check(ended[1] == 0, "trips to a destination with weight 0");
+
+	BasicTripGenerator bad = new BasicTripGenerator(sim, "bad", true);
+	Hub[] none = {};
+	Hub[] two = {dests[0], dests[2]};
+	Check.check(rejects(bad, src, none, new double[0]),
+		    "empty weights accepted");
+	Check.check(rejects(bad, src, two, new double[] {0.0, 0.0}),
+		    "zero weights accepted");
+	Check.check(rejects(bad, src, two, new double[] {1.0, -1.0}),
+		    "negative weight accepted");
+	Check.check(rejects(bad, src, two, new double[] {1.0, Double.NaN}),
+		    "NaN weight accepted");
+	Check.check(!rejects(bad, src, two, new double[] {0.0, 2.0}),
+		    "valid weights rejected");
+	BurstTripGenerator burst = new BurstTripGenerator(sim, "burst", true);
+	Check.check(rejects(burst, src, two, new double[] {0.0, 0.0}),
+		    "burst: zero weights accepted");
+	Check.check(rejects(burst, src, none, new double[0]),
+		    "burst: empty weights accepted");
+
+	Check.exit();
+    }
+}
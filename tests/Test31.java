@@ -0,0 +1,145 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+/*
+ * Forecasts: a predictive hub balancer uses the rates of a stopped
+ * basic trip generator sending one bicycle every 5 minutes from hub1
+ * to hub2, so hub counts do not change.  The net rates and expected
+ * counts must follow from the trip generator's rates, must be updated
+ * when the trip generator is reconfigured, and must be removed when
+ * the trip generator is removed.  With a 30-minute horizon, hub1 must
+ * be forecast to need bicycles and hub2 to have too many.  A trip rate
+ * listener must be notified each time the trip generator's rates
+ * change.  The rates of a time-varying trip generator whose rate
+ * changes after an hour must be used for forecasts in each time slot.
+ * The program exits with a non-zero status if any check fails.
+ */
+
+public class Test31 {
+
+    static void checkValue(String name, double value, double expected) {
+	Check.check(Math.abs(value - expected) <= 1.0e-9 * Math.abs(expected),
+		    name + " = " + value + ", expected " + expected);
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(10, 3, 5, 7, pickupTime, 5, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+	Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(10, 3, 5, 7, pickupTime, 5, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+	Hub hub3 = new Hub(sim, "hub3", true);
+	hub3.init(10, 3, 5, 7, pickupTime, 5, 0,
+		  MKS.miles(2.0), 0.0, usrDomain, sysDomain);
+
+	Hub[] dests = {hub2};
+	double[] weights = {1.0};
+	double[] overflowProb = {0.0};
+	BasicTripGenerator tgen = new BasicTripGenerator(sim, "tgen", true);
+	tgen.init(hub1, MKS.minutes(5.0), 1, dests, weights, overflowProb);
+	tgen.stop();
+
+	// two one-hour time slots, with rates of 12 and 6 trips per hour
+	// from hub1 to hub3
+	TimeVaryingTripGenerator tvgen =
+	    new TimeVaryingTripGenerator(sim, "tvgen", true);
+	tvgen.init(hub1, 1, new Hub[] {hub3}, weights, overflowProb);
+	tvgen.setProfile(MKS.hours(2.0), new double[] {0.0, MKS.hours(1.0)},
+			 new double[] {12.0 / 3600.0, 6.0 / 3600.0}, false);
+	tvgen.stop();
+
+	final int[] notified = {0};
+	TripRateListener listener = new TripRateListener() {
+		public void tripRatesChanged(TripGenerator tg) {
+		    notified[0]++;
+		}
+	    };
+	tgen.addTripRateListener(listener);
+
+	PredictiveHubBalancer balancer =
+	    new PredictiveHubBalancer(sim, "balancer", true);
+	balancer.initDomain(sysDomain);
+	balancer.setThreshold(0.5);
+	balancer.setHorizon(0.0);
+	balancer.setSafetyFactor(0.0);
+	balancer.addTripGenerator(tgen);
+
+	double rate = 1.0 / MKS.minutes(5.0);
+	checkValue("hub1 net rate", balancer.getNetRate(hub1), -rate);
+	checkValue("hub2 net rate", balancer.getNetRate(hub2), rate);
+	Check.check(balancer.getNetRate(hub3) == 0.0, "hub3 has a net rate");
+
+	sim.run(sim.getTicks(MKS.minutes(10.0)));
+	Check.check(!balancer.isForecastUnder(hub1)
+		    && !balancer.isForecastOver(hub2),
+		    "forecast crossed a trigger with a zero horizon");
+	Check.check(hub1.getBikeCount() == 5 && hub2.getBikeCount() == 5,
+		    "the stopped trip generator changed the hub counts");
+
+	// after 30 minutes, 6 bicycles are expected to leave hub1 for hub2
+	balancer.setHorizon(MKS.minutes(30.0));
+	checkValue("hub1 expected count", balancer.getExpectedCount(hub1),
+		   -1.0);
+	checkValue("hub2 expected count", balancer.getExpectedCount(hub2),
+		   11.0);
+	Check.check(balancer.isForecastUnder(hub1),
+		    "hub1 not forecast to need bicycles");
+	Check.check(balancer.isForecastOver(hub2),
+		    "hub2 not forecast to have too many bicycles");
+
+	// reconfiguring the trip generator changes its rates
+	int before = notified[0];
+	tgen.init(hub1, MKS.minutes(10.0), 1, dests, weights, overflowProb);
+	tgen.stop();
+	Check.check(notified[0] == before + 1, "listener notified "
+		    + (notified[0] - before) + " times, expected once");
+	checkValue("hub1 net rate after init", balancer.getNetRate(hub1),
+		   -rate / 2.0);
+	checkValue("hub2 net rate after init", balancer.getNetRate(hub2),
+		   rate / 2.0);
+
+	balancer.removeTripGenerator(tgen);
+	Check.check(balancer.getNetRate(hub1) == 0.0
+		    && balancer.getNetRate(hub2) == 0.0,
+		    "net rates remain after the trip generator was removed");
+	tgen.init(hub1, MKS.minutes(5.0), 1, dests, weights, overflowProb);
+	tgen.stop();
+	Check.check(balancer.getNetRate(hub1) == 0.0,
+		    "removed trip generator changed a forecast");
+	tgen.removeTripRateListener(listener);
+	before = notified[0];
+	tgen.init(hub1, MKS.minutes(5.0), 1, dests, weights, overflowProb);
+	tgen.stop();
+	Check.check(notified[0] == before, "removed listener notified");
+
+	// the time slots start at the current simulation time
+	tvgen.setTimeOffset(-sim.currentTime());
+	balancer.addTripGenerator(tvgen);
+	checkValue("hub3 net rate in the first slot",
+		   balancer.getNetRate(hub3), 12.0 / 3600.0);
+	sim.run(sim.getTicks(MKS.minutes(30.0)));
+	checkValue("hub3 net rate within the first slot",
+		   balancer.getNetRate(hub3), 12.0 / 3600.0);
+	sim.run(sim.getTicks(MKS.minutes(45.0)));
+	checkValue("hub3 net rate in the second slot",
+		   balancer.getNetRate(hub3), 6.0 / 3600.0);
+	checkValue("hub1 net rate in the second slot",
+		   balancer.getNetRate(hub1), -6.0 / 3600.0);
+	sim.run(sim.getTicks(MKS.hours(1.0)));
+	checkValue("hub3 net rate in the next period",
+		   balancer.getNetRate(hub3), 12.0 / 3600.0);
+
+	Check.exit();
+    }
+}
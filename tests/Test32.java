@@ -0,0 +1,147 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.rv.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Hub tables: a random sequence of additions and removals of hubs for
+ * a worker mode of a storage hub is compared with a list of the hubs
+ * in the order in which they were added.  Each addition appends a
+ * hub, so the empty slots left by removals accumulate and the table
+ * is compacted repeatedly.  After each operation, the hubs returned
+ * as a snapshot, as an array, and by a list view must match the list,
+ * the snapshot must be shared until the table changes, and the version
+ * number must change exactly when a hub was added or removed.  Adding
+ * or removing a hub for all modes must change the table for each mode,
+ * and storage hubs must not be added.  The program exits with a
+ * non-zero status if any check fails.
+ */
+
+public class Test32 {
+
+    static void checkTable(String msg, StorageHub shub, HubWorker.Mode mode,
+			   List<Hub> expected)
+    {
+	Hub[] snapshot = shub.getHubSnapshot(mode);
+	Hub[] array = shub.getHubsAsArray(mode);
+	List<Hub> view = shub.getHubs(mode);
+	Hub[] hubs = expected.toArray(new Hub[expected.size()]);
+	Check.check(Arrays.equals(snapshot, hubs),
+		    msg + ": snapshot " + Arrays.toString(snapshot)
+		    + ", expected " + Arrays.toString(hubs));
+	Check.check(Arrays.equals(array, hubs), msg + ": array differs");
+	Check.check(array != snapshot || array.length == 0,
+		    msg + ": array is the snapshot");
+	Check.check(view.size() == hubs.length, msg + ": view size "
+		    + view.size() + ", expected " + hubs.length);
+	for (int i = 0; i < view.size() && i < hubs.length; i++) {
+	    Check.check(view.get(i) == hubs[i], msg + ": view entry " + i
+			+ " differs");
+	}
+	Check.check(shub.getHubSnapshot(mode) == snapshot,
+		    msg + ": snapshot not shared");
+    }
+
+    public static void main(String argv[]) throws Exception {
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+
+	StorageHub shub = new StorageHub(sim, "shub", true);
+	shub.init(-1, -1, -1, 50, 0.0, 0.0, sysDomain);
+	StorageHub other = new StorageHub(sim, "other", true);
+	other.init(-1, -1, -1, 50, MKS.miles(1.0), 0.0, sysDomain);
+
+	int nhubs = 40;
+	Hub[] hubs = new Hub[nhubs];
+	for (int i = 0; i < nhubs; i++) {
+	    hubs[i] = new Hub(sim, "hub" + i, true);
+	    hubs[i].init(10, 3, 5, 7, pickupTime, 5, 0,
+			 MKS.miles(0.1 * i), 0.0, usrDomain, sysDomain);
+	}
+
+	HubWorker.Mode mode = HubWorker.Mode.VISIT;
+	ArrayList<Hub> expected = new ArrayList<>();
+	checkTable("empty table", shub, mode, expected);
+	Check.check(!shub.removeHub(mode, hubs[0]),
+		    "hub removed from an empty table");
+	Check.check(!shub.addHub(mode, other), "storage hub added");
+
+	Random random = new Random(86420L);
+	for (int op = 0; op < 2000; op++) {
+	    Hub hub = hubs[random.nextInt(nhubs)];
+	    boolean add = random.nextBoolean();
+	    int version = shub.getHubTableVersion();
+	    Hub[] snapshot = shub.getHubSnapshot(mode);
+	    boolean changed;
+	    String msg;
+	    if (add) {
+		msg = "operation " + op + ", adding " + hub.getName();
+		changed = shub.addHub(mode, hub);
+		Check.check(changed == !expected.contains(hub),
+			    msg + ": addHub returned " + changed);
+		if (changed) expected.add(hub);
+	    } else {
+		msg = "operation " + op + ", removing " + hub.getName();
+		changed = shub.removeHub(mode, hub);
+		Check.check(changed == expected.contains(hub),
+			    msg + ": removeHub returned " + changed);
+		if (changed) expected.remove(hub);
+	    }
+	    Check.check(shub.getHubTableVersion()
+			== (changed? version + 1: version),
+			msg + ": version " + shub.getHubTableVersion()
+			+ ", previously " + version);
+	    if (!changed) {
+		Check.check(shub.getHubSnapshot(mode) == snapshot,
+			    msg + ": snapshot replaced without a change");
+	    }
+	    checkTable(msg, shub, mode, expected);
+	}
+
+	// other modes are not affected by the changes to one mode
+	for (HubWorker.Mode m: HubWorker.Mode.values()) {
+	    if (m == mode) continue;
+	    Check.check(shub.getHubSnapshot(m).length == 0,
+			m + ": hubs added for another mode");
+	}
+
+	// remove the remaining hubs, then add and remove hubs for all modes
+	for (Hub hub: expected.toArray(new Hub[expected.size()])) {
+	    shub.removeHub(mode, hub);
+	    expected.remove(hub);
+	}
+	checkTable("all hubs removed", shub, mode, expected);
+	int version = shub.getHubTableVersion();
+	shub.addHub(hubs[3]);
+	shub.addHub(hubs[1]);
+	Check.check(!shub.addHub(null, hubs[3]),
+		    "hub added twice for all modes");
+	int nmodes = HubWorker.Mode.values().length;
+	int expectedVersion = version + 2 * nmodes;
+	Check.check(shub.getHubTableVersion() == expectedVersion,
+		    "version " + shub.getHubTableVersion() + " after adding "
+		    + "hubs for all modes, expected " + expectedVersion);
+	expected.add(hubs[3]);
+	expected.add(hubs[1]);
+	for (HubWorker.Mode m: HubWorker.Mode.values()) {
+	    checkTable(m + ", hubs added for all modes", shub, m, expected);
+	}
+	shub.removeHub(hubs[3]);
+	expected.remove(hubs[3]);
+	for (HubWorker.Mode m: HubWorker.Mode.values()) {
+	    checkTable(m + ", hub removed for all modes", shub, m, expected);
+	}
+
+	Check.exit();
+    }
+}
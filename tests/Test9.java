@@ -0,0 +1,318 @@
+import org.bzdev.bikeshare.*;
+import org.bzdev.drama.*;
+import org.bzdev.util.units.MKS;
+import org.bzdev.math.StaticRandom;
+import org.bzdev.math.rv.*;
+import org.bzdev.devqsim.TraceSet;
+import org.bzdev.lang.Callable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A scenario based on Test3 run twice from the same random-number
+ * seed, once with a threaded worker and once with an event-driven
+ * worker, for each worker mode, both with trips that never use the
+ * overflow areas and with trips that use them half the time (so that
+ * the modes that pick up bicycles or fix overflows have work to do).
+ * A worker in a loop mode is started once; a worker in a visit mode
+ * is started every 30 minutes when it is idle.  The hub-worker
+ * events, hub changes, and trip events of the two runs are recorded
+ * and compared line by line.  The program exits with a non-zero status
+ * if the two runs differ or if the worker never visits a hub (except
+ * when fixing overflows without trips to the overflow areas).  With
+ * the argument "-v", each run's events and traces are also printed.
+ */
+
+public class Test9 {
+
+    static boolean verbose = false;
+
+    static void log(List<String> events, String format, Object... args) {
+	String line = String.format(format, args);
+	events.add(line);
+	if (verbose) System.out.println(line);
+    }
+
+    static boolean isLoop(HubWorker.Mode mode) {
+	return mode == HubWorker.Mode.LOOP
+	    || mode == HubWorker.Mode.LOOP_WITH_PICKUP
+	    || mode == HubWorker.Mode.LOOP_TO_FIX_OVERFLOWS;
+    }
+
+    static List<String> run(final HubWorker.Mode mode, double oprob,
+			    boolean eventDriven, long seed)
+    {
+	final List<String> events = new ArrayList<>();
+	StaticRandom.setSeed(seed);
+
+	DramaSimulation sim = new DramaSimulation(1000.0);
+	if (verbose) {
+	    BikeShare.setTraceLevels(sim, 1, 2, 3, 4);
+	}
+
+	UsrDomain usrDomain = new UsrDomain(sim, "usrDomain", true);
+	SysDomain sysDomain = new SysDomain(sim, "sysDomain", true);
+
+	// A balancer in a separate domain provides a hub sorter without
+	// starting workers of its own.
+	SysDomain otherDomain = new SysDomain(sim, "otherDomain", true);
+	BasicHubBalancer balancer = new BasicHubBalancer(sim, "balancer", true);
+	balancer.initDomain(otherDomain);
+
+	DoubleRandomVariable pickupTime = new GaussianRV(MKS.minutes(4.0),
+							 30.0);
+	pickupTime.setMinimum(10.0, true);
+	DoubleRandomVariable usrSpeedRV = new GaussianRV(MKS.mph(12.0),
+							 MKS.mph(3.0));
+	usrSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	DoubleRandomVariable sysSpeedRV = new GaussianRV(MKS.mph(25.0),
+							 MKS.mph(3.0));
+	sysSpeedRV.setMinimum(MKS.mph(5.0), true);
+
+	Hub hub1 = new Hub(sim, "hub1", true);
+	hub1.init(10, 3, 5, 7, pickupTime,
+		  5, 0,
+		  0.0, 0.0, usrDomain, sysDomain);
+
+	Hub hub2 = new Hub(sim, "hub2", true);
+	hub2.init(10, 3, 5, 7, pickupTime,
+		  5, 0,
+		  MKS.miles(1.0), 0.0, usrDomain, sysDomain);
+
+	StdDelayTable userTable = new StdDelayTable(sim, "userTable", true);
+	userTable.init(usrSpeedRV, MKS.miles(1.0),
+		       4, 0.4, 30.0);
+	userTable.setDistFraction(1.0);
+	userTable.addToDomain(usrDomain);
+
+	StdDelayTable sysTable = new StdDelayTable(sim, "sysTable", true);
+	sysTable.init(sysSpeedRV, MKS.miles(1.0),
+		      4, 0.4, 30.0);
+	sysTable.addToDomain(sysDomain);
+	sysTable.addEntry(hub1, hub2, MKS.miles(1.0),
+			  5, 0.4, 30.0);
+
+	final StorageHub storageHub =
+	    new StorageHub(sim, "storageHub", true);
+	storageHub.init(-1, -1, -1, -1, MKS.miles(0.25), 0.0, sysDomain);
+	storageHub.addHub(mode, hub1);
+	storageHub.addHub(mode, hub2);
+
+	final HubWorker worker1 = new HubWorker(sim, "worker1", true);
+	worker1.init(5, storageHub, sysDomain, storageHub);
+	worker1.setEventDriven(eventDriven);
+	if (verbose) {
+	    TraceSet tset = new TraceSet(sim, "tset", false);
+	    tset.setLevel(4);
+	    tset.setOutput(System.out);
+	    worker1.addTraceSet(tset);
+	}
+
+	worker1.addHubWorkerListener(new HubWorkerListener() {
+		private void print(String event, HubWorker w, double time,
+				   long ticks, Hub hub)
+		{
+		    log(events, "at %g (ticks = %d), worker %s: "
+			+ "%s hub %s", time, ticks,
+			w.getName(), event,
+			((hub == null)? "null": hub.getName()));
+		}
+		public void dequeued(HubWorker w, double time, long ticks,
+				     Hub hub)
+		{
+		    print("dequeued at", w, time, ticks, hub);
+		}
+		public void enteredHub(HubWorker w, double time, long ticks,
+				       Hub hub)
+		{
+		    print("entered", w, time, ticks, hub);
+		}
+		public void fixingOverflows(HubWorker w, double time,
+					    long ticks, Hub hub)
+		{
+		    print("fixing overflows at", w, time, ticks, hub);
+		}
+		public void fixingPreferred(HubWorker w, double time,
+					    long ticks, Hub hub)
+		{
+		    print("fixing preferred area at", w, time, ticks, hub);
+		}
+		public void leftHub(HubWorker w, double time, long ticks,
+				    Hub hub)
+		{
+		    print("left", w, time, ticks, hub);
+		}
+		public void queued(HubWorker w, double time, long ticks,
+				   Hub hub)
+		{
+		    print("queued at", w, time, ticks, hub);
+		}
+		public void changedCount(HubWorker w, double time, long ticks,
+					 Hub hub, int oldCount, int newCount)
+		{
+		    log(events, "at %g (ticks = %d), worker %s: "
+			+ "count %d -> %d at hub %s",
+			time, ticks, w.getName(),
+			oldCount, newCount, hub.getName());
+		}
+	    });
+
+	Hub[] hubs = {hub1, hub2};
+	final HubWorker.HubSorter sorter =
+	    balancer.getHubSorter(mode, storageHub, hubs);
+	if (isLoop(mode)) {
+	    storageHub.pollWorkers();
+	    worker1.start(mode, sorter, MKS.minutes(30.0), 0.0);
+	} else {
+	    final long interval = sim.getTicks(MKS.minutes(30.0));
+	    final DramaSimulation xsim = sim;
+	    sim.scheduleCall(new Callable() {
+		    public void call() {
+			if (!worker1.isRunning()) {
+			    HubWorker w = storageHub.pollWorkers();
+			    if (w != null) w.start(mode, sorter, 0.0, 0.0);
+			}
+			xsim.scheduleCall(this, interval);
+		    }
+		}, interval);
+	}
+
+	Hub[] hubs1 = {hub2};
+	Hub[] hubs2 = {hub1};
+	double weights[] = {1.0};
+	double overflowProb[] = {oprob};
+	BasicTripGenerator tgen1 = new BasicTripGenerator(sim, "tgen1", true);
+	tgen1.init(hub1, MKS.minutes(11.0), 1, hubs1, weights, overflowProb);
+
+	BasicTripGenerator tgen2 = new BasicTripGenerator(sim, "tgen2", true);
+	tgen2.init(hub2, MKS.minutes(10.0), 1, hubs2, weights, overflowProb);
+
+	HubDataListener dl = new HubDataAdapter() {
+		public void hubChanged(Hub hub, int bc, boolean newbc,
+				       int oc, boolean newoc,
+				       double time, long ticks)
+		{
+		    log(events, "at %g (ticks = %d), "
+			+ "Hub %s: bc = %d (%b), "
+			+ "oc = %d (%b)",
+			time, ticks,
+			hub.getName(), bc, newbc, oc, newoc);
+		}
+	    };
+
+	hub1.addHubDataListener(dl);
+	hub2.addHubDataListener(dl);
+
+	TripDataListener tl = new TripDataAdapter() {
+		public void tripStarted(long tripID,
+					double time, long ticks,
+					Hub hub, HubDomain d)
+		{
+		    log(events, "trip %d at t=%g (ticks=%d), hub %s: "
+			+"trip started (domain = %s)",
+			tripID, time, ticks, hub.getName(),
+			d.getName());
+		}
+		public void tripEnded(long tripID, double time, long ticks,
+						Hub hub)
+		{
+		    log(events, "trip %d at %g (ticks=%d), hub %s: "
+			+"trip ended",
+			tripID, time, ticks, hub.getName());
+		}
+		public void tripFailedAtStart(long tripID,
+					      double time,
+					      long ticks,
+						Hub hub)
+		{
+		    log(events, "trip %d at %g (ticks=%d), hub %s: "
+			+"trip could not start",
+			tripID, time, ticks, hub.getName());
+		}
+	    };
+
+	tgen1.addTripDataListener(tl);
+	tgen2.addTripDataListener(tl);
+
+	sim.run(sim.getTicks(MKS.minutes(10*120.0)));
+	return events;
+    }
+
+    // Returns false if the runs differ.
+    static boolean compare(String name, List<String> threaded,
+			   List<String> eventDriven, boolean mustVisit)
+    {
+	int n = Math.min(threaded.size(), eventDriven.size());
+	for (int i = 0; i < n; i++) {
+	    if (!threaded.get(i).equals(eventDriven.get(i))) {
+		System.out.println(name + ": runs differ at event " + i + ":");
+		System.out.println("    threaded:     " + threaded.get(i));
+		System.out.println("    event driven: " + eventDriven.get(i));
+		return false;
+	    }
+	}
+	if (threaded.size() != eventDriven.size()) {
+	    System.out.println(name + ": runs differ: " + threaded.size()
+			       + " events when threaded, "
+			       + eventDriven.size() + " when event driven");
+	    return false;
+	}
+	boolean visited = false;
+	for (String event: threaded) {
+	    if (event.contains("worker worker1: entered")) {
+		visited = true;
+		break;
+	    }
+	}
+	if (mustVisit && !visited) {
+	    System.out.println(name + ": the worker never visited a hub");
+	    return false;
+	}
+	if (verbose) {
+	    System.out.println(name + ": " + threaded.size()
+			       + " events, identical in both runs");
+	}
+	return true;
+    }
+
+    public static void main(String argv[]) throws Exception {
+
+	verbose = argv.length > 0 && argv[0].equals("-v");
+	long seed = 1234567L;
+
+	int failures = 0;
+	int nruns = 0;
+	for (HubWorker.Mode mode: HubWorker.Mode.values()) {
+	    for (double oprob: new double[] {0.0, 0.5}) {
+		String name = mode + ", overflow probability " + oprob;
+		if (verbose) {
+		    System.out.println("---- " + name + ", threaded worker ----");
+		}
+		List<String> threaded = run(mode, oprob, false, seed);
+		if (verbose) {
+		    System.out.println("---- " + name
+				       + ", event-driven worker ----");
+		}
+		List<String> eventDriven = run(mode, oprob, true, seed);
+		// Without trips to the overflow areas, a worker fixing
+		// overflows may have nothing to do.
+		boolean mustVisit = oprob > 0.0
+		    || (mode != HubWorker.Mode.LOOP_TO_FIX_OVERFLOWS
+			&& mode != HubWorker.Mode.VISIT_TO_FIX_OVERFLOWS);
+		if (!compare(name, threaded, eventDriven, mustVisit)) {
+		    failures++;
+		}
+		nruns++;
+	    }
+	}
+	if (failures > 0) {
+	    System.out.println(failures + " of " + nruns
+			       + " comparisons failed");
+	    System.exit(1);
+	}
+	System.out.println(nruns + " comparisons, identical in both runs");
+	System.exit(0);
+    }
+}